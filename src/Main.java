@@ -10,6 +10,7 @@ import java.util.Scanner;
 public class Main {
     public static void main(String[] args) {
         Scanner scanner = new Scanner(System.in);
+        QueryProcessor.recover();
         Authentication auth = new Authentication();
         AdminQuery adminQuery = new AdminQuery();
 
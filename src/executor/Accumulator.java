@@ -0,0 +1,223 @@
+package executor;
+
+/**
+ * Running state of one aggregate. Values can be added a batch at a time, with tight loops
+ * over primitive longs for numeric vectors, or one at a time. Nulls are ignored, except by
+ * COUNT(*), which counts rows.
+ */
+public class Accumulator {
+    /**
+     * Number of fields {@link #saveState(String[], int)} writes.
+     */
+    static final int STATE_SIZE = 5;
+
+    private final AggregateFunction function;
+    private final String column;
+    private long count;
+    private long longSum;
+    private double doubleSum;
+    private boolean fractional;
+    private String best;
+
+    /**
+     * The column is null for COUNT(*).
+     */
+    public Accumulator(AggregateFunction function, String column) {
+        this.function = function;
+        this.column = column;
+    }
+
+    /**
+     * Adds the selected rows of a batch; the vector is null for COUNT(*).
+     */
+    public void add(ColumnVector vector, int[] selection, int n) {
+        if (vector == null) {
+            count += n;
+            return;
+        }
+        if (4 * n < vector.size() || !vector.isNumeric()) {
+            // With few rows selected, parsing them alone beats converting the whole vector.
+            for (int j = 0; j < n; j++) {
+                add(vector.get(selection == null ? j : selection[j]));
+            }
+            return;
+        }
+        long[] longs = vector.longs();
+        boolean[] nulls = vector.nulls();
+        int values = n;
+        if (vector.getNullCount() > 0) {
+            for (int j = 0; j < n; j++) {
+                values -= nulls[selection == null ? j : selection[j]] ? 1 : 0;
+            }
+        }
+        if (values == 0) {
+            return;
+        }
+        count += values;
+        switch (function) {
+            case SUM:
+            case AVG:
+                longSum += sum(longs, selection, n);
+                break;
+            case MIN:
+            case MAX:
+                long extreme = extreme(longs, nulls, vector.getNullCount() > 0, selection, n, function == AggregateFunction.MIN);
+                offer(Long.toString(extreme));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Adds one value.
+     */
+    public void add(String value) {
+        if (value == null) {
+            if (column == null) {
+                count++;
+            }
+            return;
+        }
+        count++;
+        switch (function) {
+            case SUM:
+            case AVG:
+                long[] parsed = new long[1];
+                if (ColumnVector.parseLong(value, parsed, 0)) {
+                    longSum += parsed[0];
+                } else {
+                    try {
+                        doubleSum += Double.parseDouble(value);
+                        fractional = true;
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException(function + " needs numbers, but column '" + column
+                                + "' holds '" + value + "'.");
+                    }
+                }
+                break;
+            case MIN:
+            case MAX:
+                offer(value);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Adds the values another accumulator of the same aggregate has seen, so that partial
+     * results computed apart can be combined.
+     */
+    public void merge(Accumulator other) {
+        count += other.count;
+        longSum += other.longSum;
+        doubleSum += other.doubleSum;
+        fractional |= other.fractional;
+        if (other.best != null) {
+            offer(other.best);
+        }
+    }
+
+    /**
+     * Writes the running state as text into {@link #STATE_SIZE} fields of a row, for spilling.
+     */
+    void saveState(String[] row, int offset) {
+        row[offset] = Long.toString(count);
+        row[offset + 1] = Long.toString(longSum);
+        row[offset + 2] = Long.toHexString(Double.doubleToRawLongBits(doubleSum));
+        row[offset + 3] = fractional ? "1" : "0";
+        row[offset + 4] = best;
+    }
+
+    /**
+     * Merges a state written by {@link #saveState(String[], int)}.
+     */
+    void mergeState(String[] row, int offset) {
+        count += Long.parseLong(row[offset]);
+        longSum += Long.parseLong(row[offset + 1]);
+        doubleSum += Double.longBitsToDouble(Long.parseUnsignedLong(row[offset + 2], 16));
+        fractional |= row[offset + 3].equals("1");
+        if (row[offset + 4] != null) {
+            offer(row[offset + 4]);
+        }
+    }
+
+    /**
+     * Returns the aggregate as text, or null for SUM, MIN, MAX and AVG over no values.
+     */
+    public String result() {
+        switch (function) {
+            case COUNT:
+                return Long.toString(count);
+            case SUM:
+                if (count == 0) {
+                    return null;
+                }
+                return fractional ? Double.toString(longSum + doubleSum) : Long.toString(longSum);
+            case AVG:
+                return count == 0 ? null : Double.toString((longSum + doubleSum) / count);
+            default:
+                return best;
+        }
+    }
+
+    private static long sum(long[] longs, int[] selection, int n) {
+        long sum = 0;
+        if (selection == null) {
+            for (int i = 0; i < n; i++) {
+                sum += longs[i];
+            }
+        } else {
+            for (int j = 0; j < n; j++) {
+                sum += longs[selection[j]];
+            }
+        }
+        return sum;
+    }
+
+    private static long extreme(long[] longs, boolean[] nulls, boolean hasNulls, int[] selection, int n, boolean min) {
+        long result = min ? Long.MAX_VALUE : Long.MIN_VALUE;
+        if (selection == null && !hasNulls) {
+            if (min) {
+                for (int i = 0; i < n; i++) {
+                    result = Math.min(result, longs[i]);
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    result = Math.max(result, longs[i]);
+                }
+            }
+            return result;
+        }
+        for (int j = 0; j < n; j++) {
+            int i = selection == null ? j : selection[j];
+            if (!nulls[i]) {
+                result = min ? Math.min(result, longs[i]) : Math.max(result, longs[i]);
+            }
+        }
+        return result;
+    }
+
+    private void offer(String value) {
+        if (best == null) {
+            best = value;
+            return;
+        }
+        int order = compare(value, best);
+        if (function == AggregateFunction.MIN ? order < 0 : order > 0) {
+            best = value;
+        }
+    }
+
+    /**
+     * Orders two values as numbers if both are numbers, otherwise as text ignoring case.
+     */
+    static int compare(String a, String b) {
+        try {
+            return Double.compare(Double.parseDouble(a), Double.parseDouble(b));
+        } catch (NumberFormatException e) {
+            return String.CASE_INSENSITIVE_ORDER.compare(a, b);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package executor;
+
+public enum AggregateFunction {
+    COUNT,
+    SUM,
+    MIN,
+    MAX,
+    AVG;
+
+    /**
+     * Returns the function with the given name, ignoring case, or null if there is none.
+     */
+    public static AggregateFunction forName(String name) {
+        for (AggregateFunction function : values()) {
+            if (function.name().equalsIgnoreCase(name)) {
+                return function;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,69 @@
+package executor;
+
+import interfaces.IBatchOperator;
+import interfaces.IOperator;
+
+import java.io.IOException;
+
+/**
+ * Computes aggregates over all the batches of its input and returns them as a single row.
+ */
+public class AggregateOperator implements IOperator {
+    private final IBatchOperator input;
+    private final AggregateFunction[] functions;
+    private final int[] columns;
+    private final String[] names;
+    private boolean done;
+
+    /**
+     * Each aggregate reads the input column at the same position in columns, or -1 for COUNT(*),
+     * and is returned under the name at that position in names.
+     */
+    public AggregateOperator(IBatchOperator input, AggregateFunction[] functions, int[] columns, String[] names) {
+        this.input = input;
+        this.functions = functions;
+        this.columns = columns;
+        this.names = names;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return names;
+    }
+
+    @Override
+    public void open() throws IOException {
+        done = false;
+        input.open();
+    }
+
+    @Override
+    public String[] next() throws IOException {
+        if (done) {
+            return null;
+        }
+        done = true;
+        String[] inputColumns = input.getColumns();
+        Accumulator[] accumulators = new Accumulator[functions.length];
+        for (int i = 0; i < functions.length; i++) {
+            accumulators[i] = new Accumulator(functions[i], columns[i] < 0 ? null : inputColumns[columns[i]]);
+        }
+        Batch batch;
+        while ((batch = input.nextBatch()) != null) {
+            for (int i = 0; i < accumulators.length; i++) {
+                accumulators[i].add(columns[i] < 0 ? null : batch.column(columns[i]),
+                        batch.getSelection(), batch.getSelectedCount());
+            }
+        }
+        String[] row = new String[accumulators.length];
+        for (int i = 0; i < accumulators.length; i++) {
+            row[i] = accumulators[i].result();
+        }
+        return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
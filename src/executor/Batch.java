@@ -0,0 +1,76 @@
+package executor;
+
+/**
+ * Up to {@link #SIZE} rows passed between batch operators column by column. The selection
+ * vector lists the positions of the rows still in play, so filters never move values.
+ */
+public class Batch {
+    public static final int SIZE = 1024;
+
+    private final ColumnVector[] columns;
+    private int size;
+    private int[] selection;
+    private int selectedCount;
+
+    /**
+     * Only the given columns get a vector; the others are null.
+     */
+    Batch(boolean[] columns) {
+        this.columns = new ColumnVector[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i]) {
+                this.columns[i] = new ColumnVector(SIZE);
+            }
+        }
+    }
+
+    void reset() {
+        for (ColumnVector column : columns) {
+            if (column != null) {
+                column.reset();
+            }
+        }
+        size = 0;
+        selection = null;
+    }
+
+    /**
+     * Appends a row, taking only the columns that have a vector.
+     */
+    void add(String[] row) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] != null) {
+                columns[i].add(row[i]);
+            }
+        }
+        size++;
+    }
+
+    public boolean isFull() {
+        return size == SIZE;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public ColumnVector column(int index) {
+        return columns[index];
+    }
+
+    /**
+     * Returns the positions of the selected rows, or null if every row is selected.
+     */
+    public int[] getSelection() {
+        return selection;
+    }
+
+    public int getSelectedCount() {
+        return selection == null ? size : selectedCount;
+    }
+
+    void select(int[] selection, int count) {
+        this.selection = selection;
+        this.selectedCount = count;
+    }
+}
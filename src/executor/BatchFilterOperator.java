@@ -0,0 +1,139 @@
+package executor;
+
+import interfaces.IBatchOperator;
+
+import java.io.IOException;
+import java.util.function.Predicate;
+
+/**
+ * Narrows the selection of each batch to the rows whose column value passes a predicate.
+ * The predicate is tested once per distinct value of the batch, through its dictionary,
+ * and an equality with an integer on a numeric column compares primitive longs instead.
+ * A predicate over several columns is tested row by row on the row rebuilt from the vectors.
+ * Batches with no selected rows are skipped.
+ */
+public class BatchFilterOperator implements IBatchOperator {
+    private final IBatchOperator input;
+    private final int column;
+    private final Predicate<String> predicate;
+    private final Predicate<String[]> rowPredicate;
+    private final String[] row;
+    private final boolean integerEquality;
+    private final long equalTo;
+    private final int[] selection = new int[Batch.SIZE];
+
+    /**
+     * If the predicate is an equality, equalTo is the value it compares with, otherwise null.
+     */
+    public BatchFilterOperator(IBatchOperator input, int column, Predicate<String> predicate, String equalTo) {
+        this.input = input;
+        this.column = column;
+        this.predicate = predicate;
+        this.rowPredicate = null;
+        this.row = null;
+        long[] parsed = new long[1];
+        this.integerEquality = equalTo != null && ColumnVector.parseLong(equalTo, parsed, 0);
+        this.equalTo = parsed[0];
+    }
+
+    /**
+     * Tests each selected row; columns the input batches do not hold are null in the row.
+     */
+    public BatchFilterOperator(IBatchOperator input, Predicate<String[]> predicate, int columnCount) {
+        this.input = input;
+        this.column = -1;
+        this.predicate = null;
+        this.rowPredicate = predicate;
+        this.row = new String[columnCount];
+        this.integerEquality = false;
+        this.equalTo = 0;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return input.getColumns();
+    }
+
+    @Override
+    public void open() throws IOException {
+        input.open();
+    }
+
+    @Override
+    public Batch nextBatch() throws IOException {
+        Batch batch;
+        while ((batch = input.nextBatch()) != null) {
+            int count = rowPredicate != null ? filterRows(batch) : filter(batch);
+            batch.select(selection, count);
+            if (count > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private int filter(Batch batch) {
+        ColumnVector vector = batch.column(column);
+        int[] selected = batch.getSelection();
+        int n = batch.getSelectedCount();
+        int count = 0;
+        if (integerEquality && vector.isNumeric()) {
+            long[] longs = vector.longs();
+            boolean[] nulls = vector.nulls();
+            long value = equalTo;
+            if (selected == null) {
+                for (int i = 0; i < n; i++) {
+                    selection[count] = i;
+                    count += longs[i] == value & !nulls[i] ? 1 : 0;
+                }
+            } else {
+                for (int j = 0; j < n; j++) {
+                    int i = selected[j];
+                    selection[count] = i;
+                    count += longs[i] == value & !nulls[i] ? 1 : 0;
+                }
+            }
+            return count;
+        }
+        int[] ids = vector.ids();
+        String[] dictionary = vector.dictionary();
+        boolean[] passes = new boolean[dictionary.length + 1];
+        for (int k = 0; k < dictionary.length; k++) {
+            passes[k + 1] = predicate.test(dictionary[k]);
+        }
+        if (selected == null) {
+            for (int i = 0; i < n; i++) {
+                selection[count] = i;
+                count += passes[ids[i] + 1] ? 1 : 0;
+            }
+        } else {
+            for (int j = 0; j < n; j++) {
+                int i = selected[j];
+                selection[count] = i;
+                count += passes[ids[i] + 1] ? 1 : 0;
+            }
+        }
+        return count;
+    }
+
+    private int filterRows(Batch batch) {
+        int[] selected = batch.getSelection();
+        int n = batch.getSelectedCount();
+        int count = 0;
+        for (int j = 0; j < n; j++) {
+            int i = selected == null ? j : selected[j];
+            for (int c = 0; c < row.length; c++) {
+                ColumnVector vector = batch.column(c);
+                row[c] = vector == null ? null : vector.get(i);
+            }
+            selection[count] = i;
+            count += rowPredicate.test(row) ? 1 : 0;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
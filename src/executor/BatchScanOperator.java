@@ -0,0 +1,47 @@
+package executor;
+
+import interfaces.IBatchOperator;
+import interfaces.ITableStore;
+
+import java.io.IOException;
+
+/**
+ * Reads a table into batches holding only the given columns.
+ */
+public class BatchScanOperator implements IBatchOperator {
+    private final ITableStore table;
+    private final boolean[] columns;
+    private ITableStore.Cursor cursor;
+    private Batch batch;
+
+    public BatchScanOperator(ITableStore table, boolean[] columns) {
+        this.table = table;
+        this.columns = columns;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return table.getSchema().getColumns().toArray(new String[0]);
+    }
+
+    @Override
+    public void open() throws IOException {
+        cursor = table.scan(columns, null, null);
+        batch = new Batch(columns);
+    }
+
+    @Override
+    public Batch nextBatch() throws IOException {
+        batch.reset();
+        while (!batch.isFull() && cursor.next()) {
+            batch.add(cursor.row());
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    @Override
+    public void close() {
+        cursor = null;
+        batch = null;
+    }
+}
@@ -0,0 +1,165 @@
+package executor;
+
+import java.util.Arrays;
+
+/**
+ * The values of one column for the rows of a {@link Batch}. Besides the values themselves, a
+ * vector can present them as primitive longs, when every value is an integer, or as ids into
+ * a dictionary of its distinct values. Both forms are built on first use, into arrays that
+ * are reused from batch to batch.
+ */
+public class ColumnVector {
+    private final String[] values;
+    private int size;
+    private boolean numericChecked;
+    private boolean numeric;
+    private long[] longs;
+    private boolean[] nulls;
+    private int nullCount;
+    private int[] ids;
+    private String[] dictionary;
+    private int[] slots;
+    private String[] distinct;
+
+    ColumnVector(int capacity) {
+        this.values = new String[capacity];
+    }
+
+    void reset() {
+        size = 0;
+        numericChecked = false;
+        dictionary = null;
+    }
+
+    void add(String value) {
+        values[size++] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String get(int index) {
+        return values[index];
+    }
+
+    /**
+     * Returns true if every non-null value is an integer written the way Long.toString would
+     * write it, so that comparing the longs gives the same equality as comparing the text.
+     */
+    public boolean isNumeric() {
+        if (!numericChecked) {
+            numericChecked = true;
+            if (longs == null) {
+                longs = new long[values.length];
+                nulls = new boolean[values.length];
+            }
+            numeric = true;
+            nullCount = 0;
+            for (int i = 0; i < size && numeric; i++) {
+                String value = values[i];
+                nulls[i] = value == null;
+                if (value == null) {
+                    longs[i] = 0;
+                    nullCount++;
+                } else {
+                    numeric = parseLong(value, longs, i);
+                }
+            }
+        }
+        return numeric;
+    }
+
+    /**
+     * Returns the values as longs, with 0 in place of nulls. Only valid if {@link #isNumeric()}.
+     */
+    public long[] longs() {
+        return longs;
+    }
+
+    /**
+     * Marks the null values. Only valid if {@link #isNumeric()}.
+     */
+    public boolean[] nulls() {
+        return nulls;
+    }
+
+    public int getNullCount() {
+        return nullCount;
+    }
+
+    /**
+     * Returns for each value its index in {@link #dictionary()}, or -1 for null.
+     */
+    public int[] ids() {
+        buildDictionary();
+        return ids;
+    }
+
+    public String[] dictionary() {
+        buildDictionary();
+        return dictionary;
+    }
+
+    private void buildDictionary() {
+        if (dictionary != null) {
+            return;
+        }
+        if (ids == null) {
+            ids = new int[values.length];
+            slots = new int[Integer.highestOneBit(values.length) * 4];
+            distinct = new String[values.length];
+        }
+        Arrays.fill(slots, -1);
+        int mask = slots.length - 1;
+        int count = 0;
+        String previous = null;
+        int previousId = -1;
+        for (int i = 0; i < size; i++) {
+            String value = values[i];
+            if (value == null) {
+                ids[i] = -1;
+                continue;
+            }
+            if (value == previous) {
+                ids[i] = previousId;
+                continue;
+            }
+            int slot = value.hashCode() & mask;
+            while (slots[slot] >= 0 && !distinct[slots[slot]].equals(value)) {
+                slot = (slot + 1) & mask;
+            }
+            if (slots[slot] < 0) {
+                slots[slot] = count;
+                distinct[count++] = value;
+            }
+            ids[i] = slots[slot];
+            previous = value;
+            previousId = ids[i];
+        }
+        dictionary = Arrays.copyOf(distinct, count);
+    }
+
+    /**
+     * Parses a canonical integer of up to 18 digits into target[index]; returns false for
+     * anything else, including leading zeros and a plus sign.
+     */
+    static boolean parseLong(String text, long[] target, int index) {
+        int length = text.length();
+        int start = length > 0 && text.charAt(0) == '-' ? 1 : 0;
+        int digits = length - start;
+        if (digits == 0 || digits > 18 || (text.charAt(start) == '0' && (digits > 1 || start == 1))) {
+            return false;
+        }
+        long value = 0;
+        for (int i = start; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            value = value * 10 + (c - '0');
+        }
+        target[index] = start == 1 ? -value : value;
+        return true;
+    }
+}
@@ -0,0 +1,45 @@
+package executor;
+
+import interfaces.IOperator;
+
+import java.io.IOException;
+import java.util.function.Predicate;
+
+/**
+ * Passes on the rows of its input that match a predicate.
+ */
+public class FilterOperator implements IOperator {
+    private final IOperator input;
+    private final Predicate<String[]> predicate;
+
+    public FilterOperator(IOperator input, Predicate<String[]> predicate) {
+        this.input = input;
+        this.predicate = predicate;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return input.getColumns();
+    }
+
+    @Override
+    public void open() throws IOException {
+        input.open();
+    }
+
+    @Override
+    public String[] next() throws IOException {
+        String[] row;
+        while ((row = input.next()) != null) {
+            if (predicate.test(row)) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,447 @@
+package executor;
+
+import interfaces.IOperator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Groups the rows of its input on some of their columns and computes aggregates per group.
+ * Output rows hold the group values followed by the aggregates, in no particular order.
+ * Group values compare ignoring case, like WHERE equality, and a group is shown under the
+ * smallest of the spellings it was seen with. Without group columns there is exactly one
+ * group, even over no rows.
+ *
+ * The input is read on the calling thread and handed out in chunks to worker threads, each
+ * aggregating the groups it sees into its own hash table; the partial results are merged at
+ * the end. A worker whose groups outgrow its share of the memory budget writes their partial
+ * state to hash partition files under the spill directory and starts again with an empty
+ * table. The partitions are then merged one at a time, each split again if still too large.
+ */
+public class HashAggregateOperator implements IOperator {
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final int PARTITIONS = 16;
+    private static final int MAX_LEVEL = 3;
+    private static final List<String[]> END = new ArrayList<>();
+
+    private final IOperator input;
+    private final int[] groupColumns;
+    private final AggregateFunction[] functions;
+    private final int[] columns;
+    private final String[] names;
+    private final int parallelism;
+    private final long memoryBudget;
+    private final File spillDirectory;
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final List<SpillFile> spillFiles = new ArrayList<>();
+    private SpillFile[] partitions;
+    private Deque<Partition> pending;
+    private Iterator<Group> results;
+    private String[] inputColumns;
+    private int spilledPartitions;
+
+    /**
+     * Each aggregate reads the input column at the same position in columns, or -1 for
+     * COUNT(*). Names holds the output column names: the group columns, then the aggregates.
+     */
+    public HashAggregateOperator(IOperator input, int[] groupColumns, AggregateFunction[] functions, int[] columns,
+                                 String[] names, int parallelism, long memoryBudget, File spillDirectory) {
+        this.input = input;
+        this.groupColumns = groupColumns;
+        this.functions = functions;
+        this.columns = columns;
+        this.names = names;
+        this.parallelism = Math.max(1, parallelism);
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return names;
+    }
+
+    /**
+     * Returns the number of partition files written, or 0 if the groups fit in memory.
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    @Override
+    public void open() throws IOException {
+        input.open();
+        inputColumns = input.getColumns();
+        List<String[]> chunk = readChunk();
+        List<Worker> workers = new ArrayList<>();
+        if (parallelism == 1 || chunk.size() < CHUNK_SIZE) {
+            Worker worker = new Worker(memoryBudget, null);
+            workers.add(worker);
+            while (!chunk.isEmpty()) {
+                worker.add(chunk);
+                chunk = readChunk();
+            }
+        } else {
+            runParallel(chunk, workers);
+        }
+
+        if (partitions == null) {
+            Map<GroupKey, Group> groups = workers.get(0).groups;
+            for (int i = 1; i < workers.size(); i++) {
+                merge(groups, workers.get(i).groups);
+            }
+            if (groups.isEmpty() && groupColumns.length == 0) {
+                Group group = new Group(new String[0]);
+                groups.put(new GroupKey(new String[0]), group);
+            }
+            results = groups.values().iterator();
+            return;
+        }
+        for (Worker worker : workers) {
+            spill(worker.groups, partitions, 0);
+            worker.groups.clear();
+        }
+        pending = new ArrayDeque<>();
+        for (SpillFile partition : partitions) {
+            pending.add(new Partition(partition, 0));
+        }
+        results = null;
+    }
+
+    /**
+     * Hands chunks of the input to worker threads until it ends or a worker fails.
+     */
+    private void runParallel(List<String[]> chunk, List<Worker> workers) throws IOException {
+        BlockingQueue<List<String[]>> queue = new ArrayBlockingQueue<>(2 * parallelism);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < parallelism; i++) {
+            Worker worker = new Worker(memoryBudget / parallelism, queue);
+            workers.add(worker);
+            Thread thread = new Thread(worker, "aggregate-worker-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        try {
+            try {
+                while (!chunk.isEmpty() && failure.get() == null) {
+                    while (!queue.offer(chunk, 10, TimeUnit.MILLISECONDS) && failure.get() == null) {
+                        // Wait for a worker to take a chunk.
+                    }
+                    chunk = readChunk();
+                }
+            } finally {
+                for (int i = 0; i < parallelism; i++) {
+                    queue.put(END);
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while aggregating.", e);
+        }
+        Throwable error = failure.get();
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw (Error) error;
+        }
+    }
+
+    private List<String[]> readChunk() throws IOException {
+        List<String[]> chunk = new ArrayList<>(CHUNK_SIZE);
+        String[] row;
+        while (chunk.size() < CHUNK_SIZE && (row = input.next()) != null) {
+            chunk.add(row);
+        }
+        return chunk;
+    }
+
+    @Override
+    public String[] next() throws IOException {
+        while (results == null || !results.hasNext()) {
+            if (pending == null || pending.isEmpty()) {
+                return null;
+            }
+            results = mergePartition(pending.poll()).values().iterator();
+        }
+        Group group = results.next();
+        String[] row = new String[groupColumns.length + functions.length];
+        System.arraycopy(group.values, 0, row, 0, groupColumns.length);
+        for (int i = 0; i < functions.length; i++) {
+            row[groupColumns.length + i] = group.accumulators[i].result();
+        }
+        return row;
+    }
+
+    /**
+     * Merges the partial states in a partition file. If its groups do not fit in memory, they
+     * are split into partitions of the next level, which are queued, and nothing is returned.
+     */
+    private Map<GroupKey, Group> mergePartition(Partition partition) throws IOException {
+        Map<GroupKey, Group> groups = new HashMap<>();
+        long memory = 0;
+        SpillFile[] split = null;
+        int level = partition.level + 1;
+        String[] state;
+        while ((state = partition.file.read()) != null) {
+            String[] values = Arrays.copyOf(state, groupColumns.length);
+            GroupKey key = new GroupKey(values);
+            if (split != null) {
+                split[Keys.partition(key.hashCode(), level, PARTITIONS)].write(state);
+                continue;
+            }
+            Group group = groups.get(key);
+            if (group == null) {
+                group = new Group(values);
+                groups.put(key, group);
+                memory += group.estimateSize();
+            } else {
+                group.offer(values);
+            }
+            for (int i = 0; i < functions.length; i++) {
+                group.accumulators[i].mergeState(state, groupColumns.length + i * Accumulator.STATE_SIZE);
+            }
+            if (memory > memoryBudget && level <= MAX_LEVEL) {
+                split = createPartitions();
+                spill(groups, split, level);
+                groups.clear();
+            }
+        }
+        partition.file.close();
+        if (split != null) {
+            for (SpillFile file : split) {
+                pending.addFirst(new Partition(file, level));
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Adds the groups of a worker's table into another table.
+     */
+    private void merge(Map<GroupKey, Group> into, Map<GroupKey, Group> from) {
+        for (Map.Entry<GroupKey, Group> entry : from.entrySet()) {
+            Group group = into.get(entry.getKey());
+            if (group == null) {
+                into.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            Group other = entry.getValue();
+            group.offer(other.values);
+            for (int i = 0; i < functions.length; i++) {
+                group.accumulators[i].merge(other.accumulators[i]);
+            }
+        }
+    }
+
+    /**
+     * Writes the partial state of each group to the partition its key hashes to.
+     */
+    private void spill(Map<GroupKey, Group> groups, SpillFile[] files, int level) throws IOException {
+        String[] state = new String[groupColumns.length + functions.length * Accumulator.STATE_SIZE];
+        for (Map.Entry<GroupKey, Group> entry : groups.entrySet()) {
+            Group group = entry.getValue();
+            System.arraycopy(group.values, 0, state, 0, groupColumns.length);
+            for (int i = 0; i < functions.length; i++) {
+                group.accumulators[i].saveState(state, groupColumns.length + i * Accumulator.STATE_SIZE);
+            }
+            SpillFile file = files[Keys.partition(entry.getKey().hashCode(), level, PARTITIONS)];
+            synchronized (file) {
+                file.write(state);
+            }
+        }
+    }
+
+    private SpillFile[] createPartitions() throws IOException {
+        SpillFile[] files = new SpillFile[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++) {
+            files[i] = new SpillFile(spillDirectory);
+            spillFiles.add(files[i]);
+        }
+        spilledPartitions += PARTITIONS;
+        return files;
+    }
+
+    private synchronized SpillFile[] partitions() throws IOException {
+        if (partitions == null) {
+            partitions = createPartitions();
+        }
+        return partitions;
+    }
+
+    @Override
+    public void close() throws IOException {
+        results = null;
+        pending = null;
+        partitions = null;
+        for (SpillFile file : spillFiles) {
+            file.close();
+        }
+        spillFiles.clear();
+        input.close();
+    }
+
+    /**
+     * Aggregates chunks of rows into its own table, taking them from a queue when it runs on
+     * a thread of its own.
+     */
+    private class Worker implements Runnable {
+        private final long budget;
+        private final BlockingQueue<List<String[]>> queue;
+        private final Map<GroupKey, Group> groups = new HashMap<>();
+        private final String[] values = new String[groupColumns.length];
+        private final GroupKey probe = new GroupKey(values);
+        private long memory;
+
+        Worker(long budget, BlockingQueue<List<String[]>> queue) {
+            this.budget = budget;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<String[]> chunk;
+                while ((chunk = queue.take()) != END) {
+                    if (failure.get() == null) {
+                        try {
+                            add(chunk);
+                        } catch (IOException e) {
+                            failure.compareAndSet(null, e);
+                        } catch (RuntimeException | Error e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure.compareAndSet(null, new IOException("Interrupted while aggregating.", e));
+            }
+        }
+
+        void add(List<String[]> chunk) throws IOException {
+            for (String[] row : chunk) {
+                for (int i = 0; i < groupColumns.length; i++) {
+                    values[i] = row[groupColumns[i]];
+                }
+                Group group = groups.get(probe.set(values));
+                if (group == null) {
+                    group = new Group(values.clone());
+                    groups.put(probe.copy(), group);
+                    memory += group.estimateSize();
+                } else {
+                    group.offer(values);
+                }
+                for (int i = 0; i < functions.length; i++) {
+                    group.accumulators[i].add(columns[i] < 0 ? null : row[columns[i]]);
+                }
+                if (memory > budget && groupColumns.length > 0) {
+                    spill(groups, partitions(), 0);
+                    groups.clear();
+                    memory = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * The values of a row's group columns, folded so that values equal ignoring case are equal.
+     * A worker looks groups up with one key that it sets to each row's values in turn, and
+     * copies it only to add a group.
+     */
+    private static final class GroupKey {
+        private final String[] folded;
+        private int hash;
+
+        GroupKey(String[] values) {
+            folded = new String[values.length];
+            set(values);
+        }
+
+        private GroupKey(String[] folded, int hash) {
+            this.folded = folded;
+            this.hash = hash;
+        }
+
+        GroupKey set(String[] values) {
+            for (int i = 0; i < values.length; i++) {
+                folded[i] = Keys.fold(values[i]);
+            }
+            hash = Arrays.hashCode(folded);
+            return this;
+        }
+
+        GroupKey copy() {
+            return new GroupKey(folded.clone(), hash);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof GroupKey && hash == ((GroupKey) other).hash
+                    && Arrays.equals(folded, ((GroupKey) other).folded);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final class Group {
+        private final String[] values;
+        private final Accumulator[] accumulators;
+
+        Group(String[] values) {
+            this.values = values;
+            this.accumulators = new Accumulator[functions.length];
+            for (int i = 0; i < functions.length; i++) {
+                accumulators[i] = new Accumulator(functions[i], columns[i] < 0 ? null : inputColumns[columns[i]]);
+            }
+        }
+
+        /**
+         * Keeps the smallest spelling of each group value, so the result does not depend on
+         * which spelling was seen first.
+         */
+        void offer(String[] spelling) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null && spelling[i] != null && spelling[i].compareTo(values[i]) < 0) {
+                    values[i] = spelling[i];
+                }
+            }
+        }
+
+        long estimateSize() {
+            return 2 * Keys.estimateSize(values) + 64L * (accumulators.length + 1);
+        }
+    }
+
+    private static final class Partition {
+        private final SpillFile file;
+        private final int level;
+
+        Partition(SpillFile file, int level) {
+            this.file = file;
+            this.level = level;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package executor;
+
+import interfaces.IOperator;
+import storage.ColumnType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Equi-join that loads the build input into a hash table on the join key and streams the
+ * probe input past it. Keys match case-insensitively, like equality in WHERE clauses, and
+ * rows with a null key never match. When the two key columns differ in type, both keys are
+ * normalized to the type they are compared as, and values not of that type never match.
+ *
+ * If the build rows outgrow the memory budget, both inputs are split by a hash of the key
+ * into partition files under the spill directory and each pair of partitions is joined on
+ * its own, splitting it again with another hash if it is still too large. After a few levels
+ * a partition is joined in memory whatever its size, since its rows then mostly share a key.
+ */
+public class HashJoinOperator implements IOperator {
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private static final int PARTITIONS = 16;
+    private static final int MAX_LEVEL = 3;
+
+    private final IOperator build;
+    private final int buildKey;
+    private final IOperator probe;
+    private final int probeKey;
+    private final ColumnType keyType;
+    private final boolean buildOnLeft;
+    private final String[] columns;
+    private final long memoryBudget;
+    private final File spillDirectory;
+    private final int level;
+
+    private HashMap<String, List<String[]>> table;
+    private List<String[]> matches;
+    private int matchIndex;
+    private String[] probeRow;
+
+    private SpillFile[] buildPartitions;
+    private SpillFile[] probePartitions;
+    private int partition;
+    private HashJoinOperator partitionJoin;
+    private int spilledPartitions;
+
+    /**
+     * Output rows are the left input's row followed by the right input's, under the given
+     * column names; buildOnLeft says whether the build input is the left one. The key type is
+     * the type keys are normalized to, or null when both key columns have the same type and
+     * their stored values are already comparable as text.
+     */
+    public HashJoinOperator(IOperator build, int buildKey, IOperator probe, int probeKey, ColumnType keyType,
+                            boolean buildOnLeft, String[] columns, long memoryBudget, File spillDirectory) {
+        this(build, buildKey, probe, probeKey, keyType, buildOnLeft, columns, memoryBudget, spillDirectory, 0);
+    }
+
+    private HashJoinOperator(IOperator build, int buildKey, IOperator probe, int probeKey, ColumnType keyType,
+                             boolean buildOnLeft, String[] columns, long memoryBudget, File spillDirectory, int level) {
+        this.build = build;
+        this.buildKey = buildKey;
+        this.probe = probe;
+        this.probeKey = probeKey;
+        this.keyType = keyType;
+        this.buildOnLeft = buildOnLeft;
+        this.columns = columns;
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+        this.level = level;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the number of partitions written to disk, including those of nested splits,
+     * or 0 if the join ran in memory.
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    @Override
+    public void open() throws IOException {
+        table = new HashMap<>();
+        long memory = 0;
+        build.open();
+        try {
+            String[] row;
+            while ((row = build.next()) != null) {
+                String key = key(row[buildKey]);
+                if (key == null) {
+                    continue;
+                }
+                if (buildPartitions != null) {
+                    buildPartitions[partitionOf(key)].write(row);
+                    continue;
+                }
+                table.computeIfAbsent(key, k -> new ArrayList<>(1)).add(row);
+                memory += Keys.estimateSize(row);
+                if (memory > memoryBudget && level < MAX_LEVEL) {
+                    spillTable();
+                }
+            }
+        } finally {
+            build.close();
+        }
+        probe.open();
+        if (buildPartitions != null) {
+            try {
+                String[] row;
+                while ((row = probe.next()) != null) {
+                    String key = key(row[probeKey]);
+                    if (key != null) {
+                        probePartitions[partitionOf(key)].write(row);
+                    }
+                }
+            } finally {
+                probe.close();
+            }
+            partition = -1;
+        }
+    }
+
+    @Override
+    public String[] next() throws IOException {
+        if (buildPartitions != null) {
+            return nextPartitioned();
+        }
+        while (true) {
+            if (matches != null && matchIndex < matches.size()) {
+                return combine(matches.get(matchIndex++), probeRow);
+            }
+            probeRow = probe.next();
+            if (probeRow == null) {
+                return null;
+            }
+            String key = key(probeRow[probeKey]);
+            matches = key == null ? null : table.get(key);
+            matchIndex = 0;
+        }
+    }
+
+    /**
+     * Joins the partition pairs one after another, skipping pairs with an empty side.
+     */
+    private String[] nextPartitioned() throws IOException {
+        while (true) {
+            if (partitionJoin != null) {
+                String[] row = partitionJoin.next();
+                if (row != null) {
+                    return row;
+                }
+                spilledPartitions += partitionJoin.getSpilledPartitions();
+                partitionJoin.close();
+                partitionJoin = null;
+                buildPartitions[partition].close();
+                probePartitions[partition].close();
+            }
+            if (++partition >= PARTITIONS) {
+                return null;
+            }
+            SpillFile buildPartition = buildPartitions[partition];
+            SpillFile probePartition = probePartitions[partition];
+            if (buildPartition.getRowCount() == 0 || probePartition.getRowCount() == 0) {
+                continue;
+            }
+            partitionJoin = new HashJoinOperator(new SpillScan(buildPartition, build.getColumns()), buildKey,
+                    new SpillScan(probePartition, probe.getColumns()), probeKey, keyType, buildOnLeft, columns,
+                    memoryBudget, spillDirectory, level + 1);
+            partitionJoin.open();
+        }
+    }
+
+    /**
+     * Moves the rows of the hash table to partition files; later build rows go straight there.
+     */
+    private void spillTable() throws IOException {
+        buildPartitions = new SpillFile[PARTITIONS];
+        probePartitions = new SpillFile[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++) {
+            buildPartitions[i] = new SpillFile(spillDirectory);
+            probePartitions[i] = new SpillFile(spillDirectory);
+        }
+        spilledPartitions += PARTITIONS;
+        for (List<String[]> rows : table.values()) {
+            for (String[] row : rows) {
+                buildPartitions[partitionOf(key(row[buildKey]))].write(row);
+            }
+        }
+        table = null;
+    }
+
+    /**
+     * Returns the form of a key value that is hashed and matched, or null if it matches nothing.
+     */
+    private String key(String value) {
+        if (keyType == null || value == null) {
+            return Keys.fold(value);
+        }
+        try {
+            return Keys.fold(keyType.normalize(value));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private int partitionOf(String key) {
+        return Keys.partition(key.hashCode(), level, PARTITIONS);
+    }
+
+    private String[] combine(String[] buildRow, String[] probeRow) {
+        String[] left = buildOnLeft ? buildRow : probeRow;
+        String[] right = buildOnLeft ? probeRow : buildRow;
+        String[] row = new String[left.length + right.length];
+        System.arraycopy(left, 0, row, 0, left.length);
+        System.arraycopy(right, 0, row, left.length, right.length);
+        return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+        table = null;
+        matches = null;
+        if (partitionJoin != null) {
+            partitionJoin.close();
+            partitionJoin = null;
+        }
+        if (buildPartitions != null) {
+            for (int i = 0; i < PARTITIONS; i++) {
+                buildPartitions[i].close();
+                probePartitions[i].close();
+            }
+            buildPartitions = null;
+            probePartitions = null;
+        } else {
+            probe.close();
+        }
+    }
+
+    /**
+     * Reads back the rows of a partition file.
+     */
+    private static class SpillScan implements IOperator {
+        private final SpillFile file;
+        private final String[] columns;
+
+        SpillScan(SpillFile file, String[] columns) {
+            this.file = file;
+            this.columns = columns;
+        }
+
+        @Override
+        public String[] getColumns() {
+            return columns;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public String[] next() throws IOException {
+            return file.read();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
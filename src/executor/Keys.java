@@ -0,0 +1,57 @@
+package executor;
+
+/**
+ * Helpers for operators that hash rows on column values.
+ */
+final class Keys {
+    private Keys() {
+    }
+
+    /**
+     * Returns the form of a value under which values that are equal ignoring case, as WHERE
+     * equality compares them, hash alike: each character folded the way
+     * {@link String#CASE_INSENSITIVE_ORDER} compares it. Null stays null.
+     */
+    static String fold(String value) {
+        if (value == null) {
+            return null;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.toLowerCase(Character.toUpperCase(c)) != c) {
+                char[] folded = value.toCharArray();
+                for (int j = i; j < folded.length; j++) {
+                    folded[j] = Character.toLowerCase(Character.toUpperCase(folded[j]));
+                }
+                return new String(folded);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Rough heap size of a row: the array, plus each string with its character array.
+     */
+    static long estimateSize(String[] row) {
+        long size = 16 + 8L * row.length;
+        for (String value : row) {
+            if (value != null) {
+                size += 56 + 2L * value.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Spreads a hash code so that the partition chosen at each level of a recursive split is
+     * independent of the levels before.
+     */
+    static int partition(int hashCode, int level, int partitions) {
+        int hash = hashCode ^ (level * 0x9E3779B9);
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, partitions);
+    }
+}
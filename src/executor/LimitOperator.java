@@ -0,0 +1,48 @@
+package executor;
+
+import interfaces.IOperator;
+
+import java.io.IOException;
+
+/**
+ * Passes on at most a given number of rows. Once the limit is reached the input is not
+ * read any further, so the scan below stops early.
+ */
+public class LimitOperator implements IOperator {
+    private final IOperator input;
+    private final long limit;
+    private long returned;
+
+    public LimitOperator(IOperator input, long limit) {
+        this.input = input;
+        this.limit = limit;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return input.getColumns();
+    }
+
+    @Override
+    public void open() throws IOException {
+        returned = 0;
+        input.open();
+    }
+
+    @Override
+    public String[] next() throws IOException {
+        if (returned >= limit) {
+            return null;
+        }
+        String[] row = input.next();
+        if (row != null) {
+            returned++;
+        }
+        return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
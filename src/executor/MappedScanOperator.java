@@ -0,0 +1,46 @@
+package executor;
+
+import interfaces.IOperator;
+import storage.TableFile;
+
+import java.io.IOException;
+
+/**
+ * Reads the rows of a heap table through its memory mapping, testing the filter on the
+ * encoded rows so that only matching rows are decoded, and only in the given columns.
+ */
+public class MappedScanOperator implements IOperator {
+    private final TableFile table;
+    private final boolean[] columns;
+    private final TableFile.RowFilter filter;
+    private TableFile.MappedCursor cursor;
+
+    /**
+     * A null column set decodes every column and a null filter reads every row.
+     */
+    public MappedScanOperator(TableFile table, boolean[] columns, TableFile.RowFilter filter) {
+        this.table = table;
+        this.columns = columns;
+        this.filter = filter;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return table.getSchema().getColumns().toArray(new String[0]);
+    }
+
+    @Override
+    public void open() throws IOException {
+        cursor = table.mappedScan(columns, filter);
+    }
+
+    @Override
+    public String[] next() throws IOException {
+        return cursor.next() ? cursor.row() : null;
+    }
+
+    @Override
+    public void close() {
+        cursor = null;
+    }
+}
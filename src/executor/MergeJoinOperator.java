@@ -0,0 +1,123 @@
+package executor;
+
+import interfaces.IOperator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Equi-join of two inputs that both arrive sorted on their join key, such as rows read in
+ * the order of an index. The inputs are merged in one pass; only the right rows sharing the
+ * current key are held in memory. Keys match case-insensitively and null keys never match.
+ *
+ * The order the inputs are sorted in is given separately from equality, so that inputs ordered
+ * by a prefix of the key, as long keys are in an index, are merged on that prefix and the
+ * full keys compared pair by pair.
+ */
+public class MergeJoinOperator implements IOperator {
+    private final IOperator left;
+    private final int leftKey;
+    private final IOperator right;
+    private final int rightKey;
+    private final Comparator<String> order;
+    private final String[] columns;
+
+    private String[] leftRow;
+    private String[] rightRow;
+    private List<String[]> group;
+    private int groupIndex;
+
+    /**
+     * Output rows are the left row followed by the right row, under the given column names.
+     */
+    public MergeJoinOperator(IOperator left, int leftKey, IOperator right, int rightKey,
+                             Comparator<String> order, String[] columns) {
+        this.left = left;
+        this.leftKey = leftKey;
+        this.right = right;
+        this.rightKey = rightKey;
+        this.order = order;
+        this.columns = columns;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return columns;
+    }
+
+    @Override
+    public void open() throws IOException {
+        left.open();
+        right.open();
+        leftRow = nextRow(left, leftKey);
+        rightRow = nextRow(right, rightKey);
+        group = null;
+    }
+
+    @Override
+    public String[] next() throws IOException {
+        while (true) {
+            if (group != null) {
+                while (groupIndex < group.size()) {
+                    String[] match = group.get(groupIndex++);
+                    if (String.CASE_INSENSITIVE_ORDER.compare(leftRow[leftKey], match[rightKey]) == 0) {
+                        return combine(leftRow, match);
+                    }
+                }
+                String groupKey = group.get(0)[rightKey];
+                leftRow = nextRow(left, leftKey);
+                if (leftRow != null && order.compare(leftRow[leftKey], groupKey) == 0) {
+                    groupIndex = 0;
+                    continue;
+                }
+                group = null;
+            }
+            if (leftRow == null || rightRow == null) {
+                return null;
+            }
+            int cmp = order.compare(leftRow[leftKey], rightRow[rightKey]);
+            if (cmp < 0) {
+                leftRow = nextRow(left, leftKey);
+            } else if (cmp > 0) {
+                rightRow = nextRow(right, rightKey);
+            } else {
+                group = new ArrayList<>();
+                String groupKey = rightRow[rightKey];
+                while (rightRow != null && order.compare(rightRow[rightKey], groupKey) == 0) {
+                    group.add(rightRow);
+                    rightRow = nextRow(right, rightKey);
+                }
+                groupIndex = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the next row whose key is not null, or null at the end of the input.
+     */
+    private static String[] nextRow(IOperator input, int key) throws IOException {
+        String[] row;
+        while ((row = input.next()) != null) {
+            if (row[key] != null) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    private static String[] combine(String[] leftRow, String[] rightRow) {
+        String[] row = new String[leftRow.length + rightRow.length];
+        System.arraycopy(leftRow, 0, row, 0, leftRow.length);
+        System.arraycopy(rightRow, 0, row, leftRow.length, rightRow.length);
+        return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+        group = null;
+        left.close();
+        right.close();
+    }
+}
@@ -0,0 +1,151 @@
+package executor;
+
+import interfaces.IOperator;
+import storage.TableFile;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the rows of a heap table like {@link MappedScanOperator}, but splits its pages into
+ * ranges that are scanned as tasks on a fork-join pool. Rows still come out in table order:
+ * a few ranges ahead of the one being returned are scanned at a time, and each range's rows
+ * are handed out once it and the ranges before it are done. The scan starts with one range
+ * and doubles the ranges in flight each time one is consumed, up to two per thread, so a
+ * consumer that stops early has not paid for the whole table. Closing stops the ranges still
+ * being scanned.
+ */
+public class ParallelScanOperator implements IOperator {
+    public static final int PAGES_PER_TASK = 256;
+
+    private final TableFile table;
+    private final boolean[] columns;
+    private final TableFile.RowFilter filter;
+    private final ForkJoinPool pool;
+
+    private final Deque<Future<List<String[]>>> pending = new ArrayDeque<>();
+    private volatile boolean closed;
+    private int window;
+    private Iterator<TableFile.MappedCursor> scans;
+    private List<String[]> rows;
+    private int rowIndex;
+
+    /**
+     * A null column set decodes every column and a null filter reads every row.
+     */
+    public ParallelScanOperator(TableFile table, boolean[] columns, TableFile.RowFilter filter, ForkJoinPool pool) {
+        this.table = table;
+        this.columns = columns;
+        this.filter = filter;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the ids of the rows that pass the filter, in table order, scanning the ranges of
+     * pages in parallel.
+     */
+    public static List<Long> rowIds(TableFile table, TableFile.RowFilter filter, ForkJoinPool pool) throws IOException {
+        List<Future<List<Long>>> tasks = new ArrayList<>();
+        try {
+            for (TableFile.MappedCursor scan : table.mappedScans(null, filter, PAGES_PER_TASK)) {
+                tasks.add(pool.submit(() -> {
+                    List<Long> rowIds = new ArrayList<>();
+                    while (scan.next()) {
+                        rowIds.add(scan.rowId());
+                    }
+                    return rowIds;
+                }));
+            }
+            List<Long> rowIds = new ArrayList<>();
+            for (Future<List<Long>> task : tasks) {
+                rowIds.addAll(await(task));
+            }
+            return rowIds;
+        } finally {
+            for (Future<List<Long>> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    @Override
+    public String[] getColumns() {
+        return table.getSchema().getColumns().toArray(new String[0]);
+    }
+
+    @Override
+    public void open() throws IOException {
+        scans = table.mappedScans(columns, filter, PAGES_PER_TASK).iterator();
+        rows = null;
+        closed = false;
+        window = 1;
+        submit();
+    }
+
+    @Override
+    public String[] next() throws IOException {
+        while (rows == null || rowIndex >= rows.size()) {
+            if (pending.isEmpty()) {
+                return null;
+            }
+            rows = await(pending.poll());
+            rowIndex = 0;
+            window = Math.min(window * 2, 2 * pool.getParallelism());
+            submit();
+        }
+        return rows.get(rowIndex++);
+    }
+
+    /**
+     * Keeps as many ranges as the window allows queued or running.
+     */
+    private void submit() {
+        while (pending.size() < window && scans.hasNext()) {
+            TableFile.MappedCursor scan = scans.next();
+            pending.add(pool.submit(() -> {
+                List<String[]> found = new ArrayList<>();
+                while (!closed && scan.next()) {
+                    found.add(scan.row());
+                }
+                return found;
+            }));
+        }
+    }
+
+    private static <T> T await(Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Future<List<String[]>> task : pending) {
+            task.cancel(false);
+        }
+        pending.clear();
+        scans = null;
+        rows = null;
+    }
+}
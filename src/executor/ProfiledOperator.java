@@ -0,0 +1,145 @@
+package executor;
+
+import interfaces.IOperator;
+import storage.BufferPool;
+import storage.IoStats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One step of a plan being explained. It passes on the rows of the operator it wraps and
+ * counts them, and adds up the wall time, bytes read and buffer pool hits and misses while
+ * the operator works, including the work of its inputs. The reads are process-wide counters,
+ * so reads by other sessions at the same time are counted too.
+ */
+public class ProfiledOperator implements IOperator {
+    private final IOperator operator;
+    private final String description;
+    private final List<ProfiledOperator> inputs = new ArrayList<>();
+    private long rows;
+    private long nanos;
+    private long bytesRead;
+    private long hits;
+    private long misses;
+
+    private long startNanos;
+    private long startBytes;
+    private long startHits;
+    private long startMisses;
+
+    /**
+     * Wraps an operator with the description shown in the plan. The inputs are the steps the
+     * operator reads from; inputs that are not plan steps are left out of the tree.
+     */
+    public ProfiledOperator(IOperator operator, String description, IOperator... inputs) {
+        this.operator = operator;
+        this.description = description;
+        for (IOperator input : inputs) {
+            if (input instanceof ProfiledOperator) {
+                this.inputs.add((ProfiledOperator) input);
+            }
+        }
+    }
+
+    @Override
+    public String[] getColumns() {
+        return operator.getColumns();
+    }
+
+    @Override
+    public void open() throws IOException {
+        start();
+        try {
+            operator.open();
+        } finally {
+            stop();
+        }
+    }
+
+    @Override
+    public String[] next() throws IOException {
+        start();
+        try {
+            String[] row = operator.next();
+            if (row != null) {
+                rows++;
+            }
+            return row;
+        } finally {
+            stop();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        start();
+        try {
+            operator.close();
+        } finally {
+            stop();
+        }
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public List<ProfiledOperator> getInputs() {
+        return inputs;
+    }
+
+    /**
+     * Returns the rows the step returned.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the rows the step's inputs returned to it, or -1 if it reads a table itself.
+     */
+    public long getRowsIn() {
+        if (inputs.isEmpty()) {
+            return -1;
+        }
+        long rowsIn = 0;
+        for (ProfiledOperator input : inputs) {
+            rowsIn += input.rows;
+        }
+        return rowsIn;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    private void start() {
+        BufferPool pool = BufferPool.getInstance();
+        startBytes = IoStats.getInstance().getBytesRead();
+        startHits = pool.getHits();
+        startMisses = pool.getMisses();
+        startNanos = System.nanoTime();
+    }
+
+    private void stop() {
+        nanos += System.nanoTime() - startNanos;
+        BufferPool pool = BufferPool.getInstance();
+        bytesRead += IoStats.getInstance().getBytesRead() - startBytes;
+        hits += pool.getHits() - startHits;
+        misses += pool.getMisses() - startMisses;
+    }
+}
@@ -0,0 +1,51 @@
+package executor;
+
+import interfaces.IOperator;
+
+import java.io.IOException;
+
+/**
+ * Keeps the given columns of each input row, in the given order.
+ */
+public class ProjectOperator implements IOperator {
+    private final IOperator input;
+    private final int[] columns;
+
+    public ProjectOperator(IOperator input, int[] columns) {
+        this.input = input;
+        this.columns = columns;
+    }
+
+    @Override
+    public String[] getColumns() {
+        String[] inputColumns = input.getColumns();
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            names[i] = inputColumns[columns[i]];
+        }
+        return names;
+    }
+
+    @Override
+    public void open() throws IOException {
+        input.open();
+    }
+
+    @Override
+    public String[] next() throws IOException {
+        String[] row = input.next();
+        if (row == null) {
+            return null;
+        }
+        String[] projected = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            projected[i] = row[columns[i]];
+        }
+        return projected;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,49 @@
+package executor;
+
+import interfaces.IOperator;
+import interfaces.ITableStore;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reads the rows with the given row ids, such as the ids found by an index lookup.
+ * Rows deleted since the ids were collected are skipped.
+ */
+public class RowIdScanOperator implements IOperator {
+    private final ITableStore table;
+    private final List<Long> rowIds;
+    private Iterator<Long> iterator;
+
+    public RowIdScanOperator(ITableStore table, List<Long> rowIds) {
+        this.table = table;
+        this.rowIds = rowIds;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return table.getSchema().getColumns().toArray(new String[0]);
+    }
+
+    @Override
+    public void open() {
+        iterator = rowIds.iterator();
+    }
+
+    @Override
+    public String[] next() throws IOException {
+        while (iterator.hasNext()) {
+            String[] row = table.read(iterator.next());
+            if (row != null) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        iterator = null;
+    }
+}
@@ -0,0 +1,49 @@
+package executor;
+
+import interfaces.IOperator;
+import interfaces.ITableStore;
+
+import java.io.IOException;
+import java.util.function.Predicate;
+
+/**
+ * Reads the rows of a table that pass a filter, which the table may evaluate while it reads.
+ * Only the given columns are read; the values of the others are null.
+ */
+public class ScanOperator implements IOperator {
+    private final ITableStore table;
+    private final boolean[] columns;
+    private final boolean[] filterColumns;
+    private final Predicate<String[]> filter;
+    private ITableStore.Cursor cursor;
+
+    /**
+     * A null column set reads every column and a null filter reads every row.
+     */
+    public ScanOperator(ITableStore table, boolean[] columns, boolean[] filterColumns, Predicate<String[]> filter) {
+        this.table = table;
+        this.columns = columns;
+        this.filterColumns = filterColumns;
+        this.filter = filter;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return table.getSchema().getColumns().toArray(new String[0]);
+    }
+
+    @Override
+    public void open() throws IOException {
+        cursor = table.scan(columns, filterColumns, filter);
+    }
+
+    @Override
+    public String[] next() throws IOException {
+        return cursor.next() ? cursor.row() : null;
+    }
+
+    @Override
+    public void close() {
+        cursor = null;
+    }
+}
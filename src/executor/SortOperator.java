@@ -0,0 +1,224 @@
+package executor;
+
+import interfaces.IOperator;
+import storage.ColumnType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Returns the rows of its input sorted, keeping rows that compare equal in input order.
+ *
+ * Rows are collected and sorted in memory. If they outgrow the memory budget, each full load
+ * is sorted and written as a run to a file under the spill directory, and the runs are merged
+ * as the rows are read; runs beyond the merge fan-in are first merged into longer runs.
+ */
+public class SortOperator implements IOperator {
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private static final int MERGE_FAN_IN = 64;
+
+    private final IOperator input;
+    private final Comparator<String[]> order;
+    private final long memoryBudget;
+    private final File spillDirectory;
+
+    private final List<SpillFile> spillFiles = new ArrayList<>();
+    private List<String[]> rows;
+    private int rowIndex;
+    private Merge merge;
+    private int spilledRuns;
+
+    public SortOperator(IOperator input, Comparator<String[]> order, long memoryBudget, File spillDirectory) {
+        this.input = input;
+        this.order = order;
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Returns the order of rows by the given columns, each ascending or descending and of the
+     * given type. Values compare as their type, as in WHERE comparisons, so VARCHAR values
+     * compare ignoring case, and values equal ignoring case by their exact spelling. Nulls
+     * come before every value.
+     */
+    public static Comparator<String[]> order(int[] columns, boolean[] descending, ColumnType[] types) {
+        return (a, b) -> {
+            for (int i = 0; i < columns.length; i++) {
+                int cmp = compareValues(a[columns[i]], b[columns[i]], types[i]);
+                if (cmp != 0) {
+                    return descending[i] ? -cmp : cmp;
+                }
+            }
+            return 0;
+        };
+    }
+
+    private static int compareValues(String a, String b, ColumnType type) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        int cmp = type.compare(a, b);
+        return cmp != 0 || type != ColumnType.VARCHAR ? cmp : a.compareTo(b);
+    }
+
+    @Override
+    public String[] getColumns() {
+        return input.getColumns();
+    }
+
+    /**
+     * Returns the number of sorted runs written to disk, including merged ones, or 0 if the
+     * rows were sorted in memory.
+     */
+    public int getSpilledRuns() {
+        return spilledRuns;
+    }
+
+    @Override
+    public void open() throws IOException {
+        input.open();
+        rows = new ArrayList<>();
+        List<SpillFile> runs = new ArrayList<>();
+        long memory = 0;
+        String[] row;
+        while ((row = input.next()) != null) {
+            rows.add(row);
+            memory += Keys.estimateSize(row) + 8;
+            if (memory > memoryBudget) {
+                runs.add(writeRun(rows));
+                rows.clear();
+                memory = 0;
+            }
+        }
+        rows.sort(order);
+        rowIndex = 0;
+        if (runs.isEmpty()) {
+            return;
+        }
+        if (!rows.isEmpty()) {
+            runs.add(writeRun(rows));
+        }
+        rows = null;
+        while (runs.size() > MERGE_FAN_IN) {
+            List<SpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+                List<SpillFile> group = new ArrayList<>(runs.subList(i, Math.min(i + MERGE_FAN_IN, runs.size())));
+                merged.add(group.size() == 1 ? group.get(0) : mergeRuns(group));
+            }
+            runs = merged;
+        }
+        merge = new Merge(runs);
+    }
+
+    @Override
+    public String[] next() throws IOException {
+        if (merge != null) {
+            return merge.next();
+        }
+        if (rows == null || rowIndex >= rows.size()) {
+            return null;
+        }
+        return rows.get(rowIndex++);
+    }
+
+    private SpillFile writeRun(List<String[]> rows) throws IOException {
+        rows.sort(order);
+        SpillFile run = createRun();
+        for (String[] row : rows) {
+            run.write(row);
+        }
+        return run;
+    }
+
+    /**
+     * Merges consecutive runs into one, deleting them as they are used up.
+     */
+    private SpillFile mergeRuns(List<SpillFile> group) throws IOException {
+        SpillFile run = createRun();
+        Merge groupMerge = new Merge(group);
+        String[] row;
+        while ((row = groupMerge.next()) != null) {
+            run.write(row);
+        }
+        return run;
+    }
+
+    private SpillFile createRun() throws IOException {
+        SpillFile run = new SpillFile(spillDirectory);
+        spillFiles.add(run);
+        spilledRuns++;
+        return run;
+    }
+
+    @Override
+    public void close() throws IOException {
+        rows = null;
+        merge = null;
+        for (SpillFile run : spillFiles) {
+            run.close();
+        }
+        spillFiles.clear();
+        input.close();
+    }
+
+    /**
+     * Merges sorted runs by repeatedly taking the smallest of their first rows. Rows that
+     * compare equal are taken from the earlier run first, so the merge is stable.
+     */
+    private class Merge {
+        private final PriorityQueue<Head> heads = new PriorityQueue<>(
+                (a, b) -> {
+                    int cmp = order.compare(a.row, b.row);
+                    return cmp != 0 ? cmp : Integer.compare(a.position, b.position);
+                });
+
+        Merge(List<SpillFile> runs) throws IOException {
+            for (int i = 0; i < runs.size(); i++) {
+                Head head = new Head(runs.get(i), i);
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+        }
+
+        String[] next() throws IOException {
+            Head head = heads.poll();
+            if (head == null) {
+                return null;
+            }
+            String[] row = head.row;
+            if (head.advance()) {
+                heads.add(head);
+            }
+            return row;
+        }
+    }
+
+    private static final class Head {
+        private final SpillFile run;
+        private final int position;
+        private String[] row;
+
+        Head(SpillFile run, int position) {
+            this.run = run;
+            this.position = position;
+        }
+
+        /**
+         * Reads the next row of the run, deleting the run after its last row.
+         */
+        boolean advance() throws IOException {
+            row = run.read();
+            if (row == null) {
+                run.close();
+                return false;
+            }
+            return true;
+        }
+    }
+}
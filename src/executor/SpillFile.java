@@ -0,0 +1,85 @@
+package executor;
+
+import storage.RowCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Temporary file of rows for operators whose input does not fit in memory. Rows are appended,
+ * then read back once in the order they were written. Each row is stored as a 4-byte length
+ * followed by its {@link RowCodec} encoding. The file is deleted when closed.
+ */
+public class SpillFile implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private DataOutputStream output;
+    private DataInputStream input;
+    private long rowCount;
+    private long remaining;
+
+    public SpillFile(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create spill directory " + directory.getPath());
+        }
+        this.file = File.createTempFile("spill", ".tmp", directory);
+        this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    }
+
+    public void write(String[] row) throws IOException {
+        byte[] record = RowCodec.encode(row);
+        output.writeInt(record.length);
+        output.write(record);
+        rowCount++;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the next row, or null after the last one. The first call ends writing.
+     */
+    public String[] read() throws IOException {
+        if (input == null) {
+            output.close();
+            output = null;
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            remaining = rowCount;
+        }
+        if (remaining == 0) {
+            return null;
+        }
+        remaining--;
+        byte[] record = new byte[input.readInt()];
+        input.readFully(record);
+        return RowCodec.decode(ByteBuffer.wrap(record), 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (output != null) {
+                output.close();
+            }
+            if (input != null) {
+                input.close();
+            }
+        } finally {
+            output = null;
+            input = null;
+            if (!file.delete() && file.exists()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package executor;
+
+import interfaces.IOperator;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Returns the first rows of its input in sorted order, up to a limit, as a sort followed by a
+ * limit would. Only the best rows seen so far are kept, in a heap whose top is the worst of
+ * them, so memory grows with the limit rather than with the input.
+ */
+public class TopNOperator implements IOperator {
+    /**
+     * Largest limit worth keeping in a heap; larger ones are better served by a full sort.
+     */
+    public static final long MAX_LIMIT = 100_000;
+
+    private final IOperator input;
+    private final Comparator<String[]> order;
+    private final int limit;
+
+    private String[][] rows;
+    private int rowIndex;
+
+    public TopNOperator(IOperator input, Comparator<String[]> order, int limit) {
+        this.input = input;
+        this.order = order;
+        this.limit = limit;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return input.getColumns();
+    }
+
+    @Override
+    public void open() throws IOException {
+        input.open();
+        // Worst first; of equal rows the later one is worse, so earlier rows win ties.
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Math.max(1, Math.min(limit, 1024)), (a, b) -> {
+            int cmp = order.compare(b.row, a.row);
+            return cmp != 0 ? cmp : Long.compare(b.sequence, a.sequence);
+        });
+        long sequence = 0;
+        String[] row;
+        while (limit > 0 && (row = input.next()) != null) {
+            if (heap.size() < limit) {
+                heap.add(new Entry(row, sequence++));
+            } else if (order.compare(row, heap.peek().row) < 0) {
+                heap.poll();
+                heap.add(new Entry(row, sequence++));
+            }
+        }
+        rows = new String[heap.size()][];
+        for (int i = rows.length - 1; i >= 0; i--) {
+            rows[i] = heap.poll().row;
+        }
+        rowIndex = 0;
+    }
+
+    @Override
+    public String[] next() {
+        if (rows == null || rowIndex >= rows.length) {
+            return null;
+        }
+        return rows[rowIndex++];
+    }
+
+    @Override
+    public void close() throws IOException {
+        rows = null;
+        input.close();
+    }
+
+    private static final class Entry {
+        private final String[] row;
+        private final long sequence;
+
+        Entry(String[] row, long sequence) {
+            this.row = row;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package index;
+
+import storage.ColumnType;
+import storage.PageCompression;
+import storage.PageFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Persistent B+tree mapping column values to row ids.
+ * Entries are ordered by (key, row id) so duplicate keys are allowed and every entry is unique.
+ * Keys compare as the type of the indexed column, which the meta page records; VARCHAR keys
+ * compare case-insensitively, matching the equality semantics of WHERE clauses.
+ * Keys longer than MAX_KEY_LENGTH are indexed by their prefix, so callers re-check the row.
+ */
+public class BPlusTree {
+    public static final String EXTENSION = ".idx";
+    public static final int MAX_KEY_LENGTH = 128;
+
+    private static final int MAGIC = 0x53444249;
+    private static final short VERSION = 1;
+
+    private static final int META_ROOT = 6;
+    private static final int META_ENTRY_COUNT = 10;
+    // Trees written before keys were typed have 0 here, the code of VARCHAR.
+    private static final int META_KEY_TYPE = 18;
+
+    private static final byte NODE_LEAF = 1;
+    private static final byte NODE_INTERNAL = 2;
+    private static final int NODE_COUNT = 1;
+    private static final int NODE_NEXT = 3;
+    private static final int NODE_HEADER_SIZE = 8;
+
+    private final PageFile pageFile;
+    private final ColumnType keyType;
+    private int rootPage;
+    private long entryCount;
+
+    private BPlusTree(PageFile pageFile, ColumnType keyType) {
+        this.pageFile = pageFile;
+        this.keyType = keyType;
+    }
+
+    public static File fileFor(File databaseDir, String tableName, String indexName) {
+        return new File(databaseDir, tableName + "." + indexName + EXTENSION);
+    }
+
+    /**
+     * Creates an empty tree of keys of the column's type whose pages are compressed with the
+     * table's codec.
+     */
+    public static BPlusTree create(File file, PageCompression compression, ColumnType keyType) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot replace existing file " + file.getName());
+        }
+        BPlusTree tree = new BPlusTree(new PageFile(file, compression), keyType);
+        tree.pageFile.allocatePage();
+        Node root = new Node(true);
+        root.pageNo = tree.pageFile.allocatePage();
+        tree.writeNode(root);
+        tree.rootPage = root.pageNo;
+        tree.writeMeta();
+        return tree;
+    }
+
+    public static BPlusTree open(File file) throws IOException {
+        PageFile pageFile = new PageFile(file);
+        try {
+            ByteBuffer meta = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+            pageFile.readPage(0, meta);
+            if (meta.getInt(0) != MAGIC || meta.getShort(4) != VERSION) {
+                throw new IOException(file.getName() + " is not a B+tree index file.");
+            }
+            BPlusTree tree = new BPlusTree(pageFile, ColumnType.forCode(meta.get(META_KEY_TYPE)));
+            tree.rootPage = meta.getInt(META_ROOT);
+            tree.entryCount = meta.getLong(META_ENTRY_COUNT);
+            return tree;
+        } catch (IOException | RuntimeException e) {
+            pageFile.close();
+            throw e;
+        }
+    }
+
+    public synchronized long getEntryCount() {
+        return entryCount;
+    }
+
+    public ColumnType getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * Returns the order of keys in the tree: as the key type, on the indexed prefix.
+     */
+    public Comparator<String> getKeyOrder() {
+        return (a, b) -> keyType.compare(truncate(a), truncate(b));
+    }
+
+    public synchronized void insert(String key, long rowId) throws IOException {
+        if (key == null) {
+            return;
+        }
+        key = truncate(key);
+        Split split = insert(rootPage, key, rowId);
+        if (split != null) {
+            Node root = new Node(false);
+            root.pageNo = pageFile.allocatePage();
+            root.children.add(rootPage);
+            root.keys.add(split.key);
+            root.rowIds.add(split.rowId);
+            root.children.add(split.rightPage);
+            writeNode(root);
+            rootPage = root.pageNo;
+        }
+        entryCount++;
+        writeMeta();
+    }
+
+    public synchronized boolean delete(String key, long rowId) throws IOException {
+        if (key == null) {
+            return false;
+        }
+        key = truncate(key);
+        Node node = readNode(rootPage);
+        while (!node.leaf) {
+            node = readNode(node.children.get(childIndex(node, key, rowId)));
+        }
+        int position = search(node, key, rowId);
+        if (position < 0) {
+            return false;
+        }
+        node.keys.remove(position);
+        node.rowIds.remove(position);
+        writeNode(node);
+        entryCount--;
+        writeMeta();
+        return true;
+    }
+
+    /**
+     * Returns the row ids of all entries equal to the key.
+     */
+    public List<Long> lookup(String key) throws IOException {
+        return range(key, true, key, true);
+    }
+
+    /**
+     * Returns the row ids of entries between the bounds, in key order.
+     * A null bound leaves that side of the range open.
+     */
+    public synchronized List<Long> range(String low, boolean lowInclusive, String high, boolean highInclusive) throws IOException {
+        if (low != null && low.length() > MAX_KEY_LENGTH) {
+            low = truncate(low);
+            lowInclusive = true;
+        }
+        if (high != null && high.length() > MAX_KEY_LENGTH) {
+            high = truncate(high);
+            highInclusive = true;
+        }
+
+        Node node = readNode(rootPage);
+        while (!node.leaf) {
+            int child = low == null ? 0 : childIndex(node, low, Long.MIN_VALUE);
+            node = readNode(node.children.get(child));
+        }
+
+        List<Long> result = new ArrayList<>();
+        while (true) {
+            for (int i = 0; i < node.keys.size(); i++) {
+                String key = node.keys.get(i);
+                if (low != null) {
+                    int cmp = keyType.compare(key, low);
+                    if (cmp < 0 || (cmp == 0 && !lowInclusive)) {
+                        continue;
+                    }
+                }
+                if (high != null) {
+                    int cmp = keyType.compare(key, high);
+                    if (cmp > 0 || (cmp == 0 && !highInclusive)) {
+                        return result;
+                    }
+                }
+                result.add(node.rowIds.get(i));
+            }
+            if (node.next < 0) {
+                return result;
+            }
+            node = readNode(node.next);
+        }
+    }
+
+    public synchronized void force() throws IOException {
+        pageFile.force();
+    }
+
+    public synchronized void close() throws IOException {
+        pageFile.close();
+    }
+
+    private Split insert(int pageNo, String key, long rowId) throws IOException {
+        Node node = readNode(pageNo);
+        if (node.leaf) {
+            int position = search(node, key, rowId);
+            if (position >= 0) {
+                return null;
+            }
+            position = -position - 1;
+            node.keys.add(position, key);
+            node.rowIds.add(position, rowId);
+        } else {
+            int child = childIndex(node, key, rowId);
+            Split split = insert(node.children.get(child), key, rowId);
+            if (split == null) {
+                return null;
+            }
+            node.keys.add(child, split.key);
+            node.rowIds.add(child, split.rowId);
+            node.children.add(child + 1, split.rightPage);
+        }
+
+        if (node.size() <= PageFile.PAGE_SIZE) {
+            writeNode(node);
+            return null;
+        }
+        return split(node);
+    }
+
+    /**
+     * Splits an overflowing node roughly in half by size. Leaves copy the first right key up,
+     * internal nodes move the middle key up.
+     */
+    private Split split(Node node) throws IOException {
+        int half = node.size() / 2;
+        int used = NODE_HEADER_SIZE;
+        int middle = 0;
+        int lastMiddle = node.keys.size() - (node.leaf ? 1 : 2);
+        while (middle < lastMiddle && used < half) {
+            used += node.entrySize(middle);
+            middle++;
+        }
+        middle = Math.max(1, middle);
+
+        Node right = new Node(node.leaf);
+        right.pageNo = pageFile.allocatePage();
+        Split split = new Split();
+        split.rightPage = right.pageNo;
+        split.key = node.keys.get(middle);
+        split.rowId = node.rowIds.get(middle);
+
+        if (node.leaf) {
+            right.keys.addAll(node.keys.subList(middle, node.keys.size()));
+            right.rowIds.addAll(node.rowIds.subList(middle, node.rowIds.size()));
+            right.next = node.next;
+            node.next = right.pageNo;
+        } else {
+            right.keys.addAll(node.keys.subList(middle + 1, node.keys.size()));
+            right.rowIds.addAll(node.rowIds.subList(middle + 1, node.rowIds.size()));
+            right.children.addAll(node.children.subList(middle + 1, node.children.size()));
+            node.children.subList(middle + 1, node.children.size()).clear();
+        }
+        node.keys.subList(middle, node.keys.size()).clear();
+        node.rowIds.subList(middle, node.rowIds.size()).clear();
+
+        writeNode(right);
+        writeNode(node);
+        return split;
+    }
+
+    private int compare(String key1, long rowId1, String key2, long rowId2) {
+        int cmp = keyType.compare(key1, key2);
+        return cmp != 0 ? cmp : Long.compare(rowId1, rowId2);
+    }
+
+    /**
+     * Binary search within a node; returns the position or (-(insertion point) - 1).
+     */
+    private int search(Node node, String key, long rowId) {
+        int low = 0;
+        int high = node.keys.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(node.keys.get(mid), node.rowIds.get(mid), key, rowId);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int childIndex(Node node, String key, long rowId) {
+        int position = search(node, key, rowId);
+        return position >= 0 ? position + 1 : -position - 1;
+    }
+
+    private static String truncate(String key) {
+        return key.length() > MAX_KEY_LENGTH ? key.substring(0, MAX_KEY_LENGTH) : key;
+    }
+
+    private Node readNode(int pageNo) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        pageFile.readPage(pageNo, page);
+        Node node = new Node(page.get(0) == NODE_LEAF);
+        node.pageNo = pageNo;
+        node.next = page.getInt(NODE_NEXT);
+        int count = Short.toUnsignedInt(page.getShort(NODE_COUNT));
+        page.position(NODE_HEADER_SIZE);
+        if (!node.leaf) {
+            node.children.add(page.getInt());
+        }
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[Short.toUnsignedInt(page.getShort())];
+            page.get(bytes);
+            node.keys.add(new String(bytes, StandardCharsets.UTF_8));
+            node.rowIds.add(page.getLong());
+            if (!node.leaf) {
+                node.children.add(page.getInt());
+            }
+        }
+        return node;
+    }
+
+    private void writeNode(Node node) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        page.put(0, node.leaf ? NODE_LEAF : NODE_INTERNAL);
+        page.putShort(NODE_COUNT, (short) node.keys.size());
+        page.putInt(NODE_NEXT, node.next);
+        page.position(NODE_HEADER_SIZE);
+        if (!node.leaf) {
+            page.putInt(node.children.get(0));
+        }
+        for (int i = 0; i < node.keys.size(); i++) {
+            byte[] bytes = node.keys.get(i).getBytes(StandardCharsets.UTF_8);
+            page.putShort((short) bytes.length);
+            page.put(bytes);
+            page.putLong(node.rowIds.get(i));
+            if (!node.leaf) {
+                page.putInt(node.children.get(i + 1));
+            }
+        }
+        pageFile.writePage(node.pageNo, page);
+    }
+
+    private void writeMeta() throws IOException {
+        ByteBuffer meta = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        meta.putInt(0, MAGIC);
+        meta.putShort(4, VERSION);
+        meta.putInt(META_ROOT, rootPage);
+        meta.putLong(META_ENTRY_COUNT, entryCount);
+        meta.put(META_KEY_TYPE, (byte) keyType.getCode());
+        pageFile.writePage(0, meta);
+    }
+
+    private static class Node {
+        final boolean leaf;
+        final List<String> keys = new ArrayList<>();
+        final List<Long> rowIds = new ArrayList<>();
+        final List<Integer> children = new ArrayList<>();
+        int pageNo;
+        int next = -1;
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        int entrySize(int i) {
+            return 2 + keys.get(i).getBytes(StandardCharsets.UTF_8).length + 8 + (leaf ? 0 : 4);
+        }
+
+        int size() {
+            int size = NODE_HEADER_SIZE + (leaf ? 0 : 4);
+            for (int i = 0; i < keys.size(); i++) {
+                size += entrySize(i);
+            }
+            return size;
+        }
+    }
+
+    private static class Split {
+        String key;
+        long rowId;
+        int rightPage;
+    }
+}
@@ -0,0 +1,414 @@
+package index;
+
+import storage.PageCompression;
+import storage.PageFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Persistent extendible hash index mapping unique keys to row ids.
+ * A directory of 2^globalDepth entries points at bucket pages; a full bucket is split on the
+ * next hash bit, doubling the directory only when the bucket's local depth reaches the global depth.
+ * A lookup reads exactly one bucket page. Keys compare case-insensitively.
+ */
+public class HashIndex {
+    public static final String EXTENSION = ".hidx";
+    public static final int MAX_KEY_BYTES = 256;
+
+    private static final int MAGIC = 0x53444248;
+    private static final short VERSION = 1;
+    private static final int MAX_GLOBAL_DEPTH = 20;
+
+    private static final int META_GLOBAL_DEPTH = 6;
+    private static final int META_ENTRY_COUNT = 10;
+    private static final int META_DIR_PAGE_COUNT = 18;
+    private static final int META_DIR_PAGES = 22;
+    private static final int MAX_DIR_PAGES = (PageFile.PAGE_SIZE - META_DIR_PAGES) / 4;
+    private static final int DIR_ENTRIES_PER_PAGE = PageFile.PAGE_SIZE / 4;
+
+    private static final int BUCKET_DEPTH = 0;
+    private static final int BUCKET_COUNT = 1;
+    private static final int BUCKET_HEADER_SIZE = 4;
+
+    private final PageFile pageFile;
+    private int globalDepth;
+    private int[] directory;
+    private final List<Integer> directoryPages = new ArrayList<>();
+    private long entryCount;
+
+    private HashIndex(PageFile pageFile) {
+        this.pageFile = pageFile;
+    }
+
+    public static File fileFor(File databaseDir, String tableName) {
+        return new File(databaseDir, tableName + ".primary" + EXTENSION);
+    }
+
+    /**
+     * Creates an empty index whose pages are compressed with the table's codec.
+     */
+    public static HashIndex create(File file, PageCompression compression) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot replace existing file " + file.getName());
+        }
+        HashIndex index = new HashIndex(new PageFile(file, compression));
+        index.pageFile.allocatePage();
+        Bucket bucket = new Bucket(0);
+        bucket.pageNo = index.pageFile.allocatePage();
+        index.writeBucket(bucket);
+        index.directory = new int[]{bucket.pageNo};
+        index.writeDirectory();
+        return index;
+    }
+
+    public static HashIndex open(File file) throws IOException {
+        PageFile pageFile = new PageFile(file);
+        try {
+            ByteBuffer meta = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+            pageFile.readPage(0, meta);
+            if (meta.getInt(0) != MAGIC || meta.getShort(4) != VERSION) {
+                throw new IOException(file.getName() + " is not a hash index file.");
+            }
+            HashIndex index = new HashIndex(pageFile);
+            index.globalDepth = meta.getInt(META_GLOBAL_DEPTH);
+            index.entryCount = meta.getLong(META_ENTRY_COUNT);
+            int pageCount = meta.getInt(META_DIR_PAGE_COUNT);
+            index.directory = new int[1 << index.globalDepth];
+            ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+            for (int i = 0; i < pageCount; i++) {
+                int pageNo = meta.getInt(META_DIR_PAGES + i * 4);
+                index.directoryPages.add(pageNo);
+                pageFile.readPage(pageNo, page);
+                int first = i * DIR_ENTRIES_PER_PAGE;
+                for (int j = 0; j < DIR_ENTRIES_PER_PAGE && first + j < index.directory.length; j++) {
+                    index.directory[first + j] = page.getInt(j * 4);
+                }
+            }
+            return index;
+        } catch (IOException | RuntimeException e) {
+            pageFile.close();
+            throw e;
+        }
+    }
+
+    public synchronized long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Returns the row id stored for the key, or -1 if the key is absent.
+     */
+    public synchronized long get(String key) throws IOException {
+        if (key == null) {
+            return -1;
+        }
+        String normalized = normalize(key);
+        Bucket bucket = readBucket(directory[slotFor(hash(normalized))]);
+        int position = bucket.keys.indexOf(normalized);
+        return position < 0 ? -1 : bucket.rowIds.get(position);
+    }
+
+    public boolean contains(String key) throws IOException {
+        return get(key) >= 0;
+    }
+
+    /**
+     * Adds a key; returns false without changing anything if the key is already present.
+     */
+    public synchronized boolean insert(String key, long rowId) throws IOException {
+        String normalized = normalize(key);
+        if (normalized.getBytes(StandardCharsets.UTF_8).length > MAX_KEY_BYTES) {
+            throw new IOException("Primary key value exceeds " + MAX_KEY_BYTES + " bytes.");
+        }
+        long hash = hash(normalized);
+        Bucket bucket = readBucket(directory[slotFor(hash)]);
+        if (bucket.keys.contains(normalized)) {
+            return false;
+        }
+        bucket.add(normalized, rowId);
+
+        while (bucket.size() > PageFile.PAGE_SIZE) {
+            bucket = split(bucket, hash);
+        }
+        writeBucket(bucket);
+        entryCount++;
+        writeMeta();
+        return true;
+    }
+
+    /**
+     * Returns the first of the keys, in the order the index visits them, that is present, or
+     * null if none is. Each bucket page is read once however many of the keys fall in it.
+     */
+    public synchronized String findAny(List<String> keys) throws IOException {
+        Bucket bucket = null;
+        for (Entry entry : entries(keys)) {
+            int pageNo = directory[slotFor(entry.hash)];
+            if (bucket == null || bucket.pageNo != pageNo) {
+                bucket = readBucket(pageNo);
+            }
+            if (bucket.keys.contains(entry.key)) {
+                return keys.get(entry.index);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a batch of keys, reading and writing each bucket page they fall in once rather than
+     * once per key. Fails on a key that is already present, as a batch is expected to have
+     * been checked with {@link #findAny} beforehand.
+     */
+    public synchronized void insertAll(List<String> keys, List<Long> rowIds) throws IOException {
+        Bucket bucket = null;
+        for (Entry entry : entries(keys)) {
+            if (entry.key.getBytes(StandardCharsets.UTF_8).length > MAX_KEY_BYTES) {
+                throw new IOException("Primary key value exceeds " + MAX_KEY_BYTES + " bytes.");
+            }
+            int pageNo = directory[slotFor(entry.hash)];
+            if (bucket == null || bucket.pageNo != pageNo) {
+                if (bucket != null) {
+                    writeBucket(bucket);
+                }
+                bucket = readBucket(pageNo);
+            }
+            if (bucket.keys.contains(entry.key)) {
+                throw new IOException("Duplicate primary key value '" + keys.get(entry.index) + "'.");
+            }
+            bucket.add(entry.key, rowIds.get(entry.index));
+            while (bucket.size() > PageFile.PAGE_SIZE) {
+                bucket = split(bucket, entry.hash);
+            }
+            entryCount++;
+        }
+        if (bucket != null) {
+            writeBucket(bucket);
+            writeMeta();
+        }
+    }
+
+    /**
+     * Returns the normalized keys ordered by their hash bits from the lowest up, so that the
+     * keys of each bucket, which share their low bits, come together.
+     */
+    private static Entry[] entries(List<String> keys) {
+        Entry[] entries = new Entry[keys.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new Entry(normalize(keys.get(i)), i);
+        }
+        Arrays.sort(entries, (a, b) -> Long.compareUnsigned(Long.reverse(a.hash), Long.reverse(b.hash)));
+        return entries;
+    }
+
+    public synchronized boolean delete(String key) throws IOException {
+        if (key == null) {
+            return false;
+        }
+        String normalized = normalize(key);
+        Bucket bucket = readBucket(directory[slotFor(hash(normalized))]);
+        int position = bucket.keys.indexOf(normalized);
+        if (position < 0) {
+            return false;
+        }
+        bucket.remove(position);
+        writeBucket(bucket);
+        entryCount--;
+        writeMeta();
+        return true;
+    }
+
+    /**
+     * Points an existing key at a new row id.
+     */
+    public synchronized void update(String key, long rowId) throws IOException {
+        String normalized = normalize(key);
+        Bucket bucket = readBucket(directory[slotFor(hash(normalized))]);
+        int position = bucket.keys.indexOf(normalized);
+        if (position < 0) {
+            throw new IOException("Primary key '" + key + "' is not indexed.");
+        }
+        bucket.rowIds.set(position, rowId);
+        writeBucket(bucket);
+    }
+
+    public synchronized void force() throws IOException {
+        pageFile.force();
+    }
+
+    public synchronized void close() throws IOException {
+        pageFile.close();
+    }
+
+    /**
+     * Splits a full bucket on its next hash bit and returns the half that the given hash maps to.
+     */
+    private Bucket split(Bucket bucket, long hash) throws IOException {
+        if (bucket.localDepth == globalDepth) {
+            if (globalDepth == MAX_GLOBAL_DEPTH) {
+                throw new IOException("Hash index directory is full.");
+            }
+            int[] doubled = Arrays.copyOf(directory, directory.length * 2);
+            System.arraycopy(directory, 0, doubled, directory.length, directory.length);
+            directory = doubled;
+            globalDepth++;
+        }
+
+        Bucket low = new Bucket(bucket.localDepth + 1);
+        Bucket high = new Bucket(bucket.localDepth + 1);
+        low.pageNo = bucket.pageNo;
+        high.pageNo = pageFile.allocatePage();
+        long bit = 1L << bucket.localDepth;
+        for (int i = 0; i < bucket.keys.size(); i++) {
+            Bucket target = (hash(bucket.keys.get(i)) & bit) == 0 ? low : high;
+            target.add(bucket.keys.get(i), bucket.rowIds.get(i));
+        }
+        for (int i = 0; i < directory.length; i++) {
+            if (directory[i] == bucket.pageNo && (i & bit) != 0) {
+                directory[i] = high.pageNo;
+            }
+        }
+
+        writeDirectory();
+        Bucket current = (hash & bit) == 0 ? low : high;
+        writeBucket(current == low ? high : low);
+        return current;
+    }
+
+    private int slotFor(long hash) {
+        return (int) (hash & ((1L << globalDepth) - 1));
+    }
+
+    private static String normalize(String key) {
+        return key.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes of the key.
+     */
+    private static long hash(String normalized) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : normalized.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private Bucket readBucket(int pageNo) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        pageFile.readPage(pageNo, page);
+        Bucket bucket = new Bucket(page.get(BUCKET_DEPTH));
+        bucket.pageNo = pageNo;
+        int count = Short.toUnsignedInt(page.getShort(BUCKET_COUNT));
+        page.position(BUCKET_HEADER_SIZE);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[Short.toUnsignedInt(page.getShort())];
+            page.get(bytes);
+            bucket.add(new String(bytes, StandardCharsets.UTF_8), bytes.length, page.getLong());
+        }
+        return bucket;
+    }
+
+    private void writeBucket(Bucket bucket) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        page.put(BUCKET_DEPTH, (byte) bucket.localDepth);
+        page.putShort(BUCKET_COUNT, (short) bucket.keys.size());
+        page.position(BUCKET_HEADER_SIZE);
+        for (int i = 0; i < bucket.keys.size(); i++) {
+            byte[] bytes = bucket.keys.get(i).getBytes(StandardCharsets.UTF_8);
+            page.putShort((short) bytes.length);
+            page.put(bytes);
+            page.putLong(bucket.rowIds.get(i));
+        }
+        pageFile.writePage(bucket.pageNo, page);
+    }
+
+    private void writeDirectory() throws IOException {
+        int pagesNeeded = (directory.length + DIR_ENTRIES_PER_PAGE - 1) / DIR_ENTRIES_PER_PAGE;
+        if (pagesNeeded > MAX_DIR_PAGES) {
+            throw new IOException("Hash index directory is full.");
+        }
+        while (directoryPages.size() < pagesNeeded) {
+            directoryPages.add(pageFile.allocatePage());
+        }
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        for (int i = 0; i < pagesNeeded; i++) {
+            Arrays.fill(page.array(), (byte) 0);
+            int first = i * DIR_ENTRIES_PER_PAGE;
+            for (int j = 0; j < DIR_ENTRIES_PER_PAGE && first + j < directory.length; j++) {
+                page.putInt(j * 4, directory[first + j]);
+            }
+            pageFile.writePage(directoryPages.get(i), page);
+        }
+        writeMeta();
+    }
+
+    private void writeMeta() throws IOException {
+        ByteBuffer meta = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        meta.putInt(0, MAGIC);
+        meta.putShort(4, VERSION);
+        meta.putInt(META_GLOBAL_DEPTH, globalDepth);
+        meta.putLong(META_ENTRY_COUNT, entryCount);
+        meta.putInt(META_DIR_PAGE_COUNT, directoryPages.size());
+        for (int i = 0; i < directoryPages.size(); i++) {
+            meta.putInt(META_DIR_PAGES + i * 4, directoryPages.get(i));
+        }
+        pageFile.writePage(0, meta);
+    }
+
+    private static class Bucket {
+        final int localDepth;
+        final List<String> keys = new ArrayList<>();
+        final List<Long> rowIds = new ArrayList<>();
+        int pageNo;
+        private int size = BUCKET_HEADER_SIZE;
+
+        Bucket(int localDepth) {
+            this.localDepth = localDepth;
+        }
+
+        void add(String key, long rowId) {
+            add(key, key.getBytes(StandardCharsets.UTF_8).length, rowId);
+        }
+
+        void add(String key, int keyBytes, long rowId) {
+            keys.add(key);
+            rowIds.add(rowId);
+            size += 2 + keyBytes + 8;
+        }
+
+        void remove(int position) {
+            size -= 2 + keys.remove(position).getBytes(StandardCharsets.UTF_8).length + 8;
+            rowIds.remove(position);
+        }
+
+        /**
+         * Returns the number of bytes the bucket takes on its page.
+         */
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * A key of a batch with its hash and position in the batch.
+     */
+    private static final class Entry {
+        final String key;
+        final long hash;
+        final int index;
+
+        Entry(String key, int index) {
+            this.key = key;
+            this.hash = hash(key);
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package index;
+
+import interfaces.IKeyedTableStore;
+import interfaces.ITableStore;
+import storage.TableSchema;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The open primary key and secondary indexes of one table, kept in step with its rows.
+ * When the table's engine maintains the primary key itself, lookups are delegated to it.
+ */
+public class TableIndexes {
+    private ITableStore table;
+    private HashIndex primaryKey;
+    private int primaryKeyColumn = -1;
+    private final List<String> names = new ArrayList<>();
+    private final List<Integer> columns = new ArrayList<>();
+    private final List<BPlusTree> trees = new ArrayList<>();
+
+    public static TableIndexes open(File databaseDir, String tableName, ITableStore table) throws IOException {
+        TableIndexes indexes = new TableIndexes();
+        indexes.table = table;
+        TableSchema schema = table.getSchema();
+        try {
+            if (schema.getPrimaryKeyIndex() >= 0) {
+                if (!(table instanceof IKeyedTableStore)) {
+                    indexes.primaryKey = HashIndex.open(HashIndex.fileFor(databaseDir, tableName));
+                }
+                indexes.primaryKeyColumn = schema.getPrimaryKeyIndex();
+            }
+            for (Map.Entry<String, String> index : schema.getIndexes().entrySet()) {
+                int column = schema.indexOf(index.getValue());
+                if (column < 0) {
+                    continue;
+                }
+                indexes.trees.add(BPlusTree.open(BPlusTree.fileFor(databaseDir, tableName, index.getKey())));
+                indexes.names.add(index.getKey());
+                indexes.columns.add(column);
+            }
+        } catch (IOException e) {
+            indexes.close();
+            throw e;
+        }
+        return indexes;
+    }
+
+    public boolean isEmpty() {
+        return primaryKeyColumn < 0 && trees.isEmpty();
+    }
+
+    public int getPrimaryKeyColumn() {
+        return primaryKeyColumn;
+    }
+
+    /**
+     * Returns the row id of the row with the primary key value, or -1.
+     */
+    public long findPrimaryKey(String key) throws IOException {
+        return primaryKey != null ? primaryKey.get(key) : ((IKeyedTableStore) table).findByPrimaryKey(key);
+    }
+
+    /**
+     * Returns an error message if the row would violate the primary key, or null if it is acceptable.
+     */
+    public String checkPrimaryKey(String[] row) throws IOException {
+        if (primaryKeyColumn < 0) {
+            return null;
+        }
+        String key = row[primaryKeyColumn];
+        if (key == null || key.isEmpty()) {
+            return "Primary key column cannot be empty.";
+        }
+        if (findPrimaryKey(key) >= 0) {
+            return "Duplicate primary key value '" + key + "'.";
+        }
+        return null;
+    }
+
+    /**
+     * Returns an error message if the rows would violate the primary key, among themselves
+     * or with the rows already stored, or null if they are acceptable.
+     */
+    public String checkPrimaryKeys(List<String[]> rows) throws IOException {
+        if (primaryKeyColumn < 0) {
+            return null;
+        }
+        List<String> keys = new ArrayList<>(rows.size());
+        Set<String> seen = new HashSet<>();
+        for (String[] row : rows) {
+            String key = row[primaryKeyColumn];
+            if (key == null || key.isEmpty()) {
+                return "Primary key column cannot be empty.";
+            }
+            if (!seen.add(key.toLowerCase(Locale.ROOT))) {
+                return "Duplicate primary key value '" + key + "'.";
+            }
+            keys.add(key);
+        }
+        String existing = null;
+        if (primaryKey != null) {
+            existing = primaryKey.findAny(keys);
+        } else {
+            for (int i = 0; i < keys.size() && existing == null; i++) {
+                existing = findPrimaryKey(keys.get(i)) >= 0 ? keys.get(i) : null;
+            }
+        }
+        return existing == null ? null : "Duplicate primary key value '" + existing + "'.";
+    }
+
+    /**
+     * Returns the index covering the column, or null if there is none.
+     */
+    public BPlusTree forColumn(int column) {
+        int position = columns.indexOf(column);
+        return position < 0 ? null : trees.get(position);
+    }
+
+    public String nameForColumn(int column) {
+        int position = columns.indexOf(column);
+        return position < 0 ? null : names.get(position);
+    }
+
+    public void insert(long rowId, String[] row) throws IOException {
+        if (primaryKey != null && !primaryKey.insert(row[primaryKeyColumn], rowId)) {
+            throw new IOException("Duplicate primary key value '" + row[primaryKeyColumn] + "'.");
+        }
+        for (int i = 0; i < trees.size(); i++) {
+            trees.get(i).insert(row[columns.get(i)], rowId);
+        }
+    }
+
+    /**
+     * Adds a batch of rows stored under the given row ids. The primary key index writes each
+     * page the batch touches once.
+     */
+    public void insertAll(List<Long> rowIds, List<String[]> rows) throws IOException {
+        if (primaryKey != null) {
+            List<String> keys = new ArrayList<>(rows.size());
+            for (String[] row : rows) {
+                keys.add(row[primaryKeyColumn]);
+            }
+            primaryKey.insertAll(keys, rowIds);
+        }
+        for (int i = 0; i < trees.size(); i++) {
+            BPlusTree tree = trees.get(i);
+            int column = columns.get(i);
+            for (int j = 0; j < rows.size(); j++) {
+                tree.insert(rows.get(j)[column], rowIds.get(j));
+            }
+        }
+    }
+
+    public void delete(long rowId, String[] row) throws IOException {
+        if (primaryKey != null) {
+            primaryKey.delete(row[primaryKeyColumn]);
+        }
+        for (int i = 0; i < trees.size(); i++) {
+            trees.get(i).delete(row[columns.get(i)], rowId);
+        }
+    }
+
+    public void update(long oldRowId, String[] oldRow, long newRowId, String[] newRow) throws IOException {
+        if (primaryKey != null) {
+            String oldKey = oldRow[primaryKeyColumn];
+            String newKey = newRow[primaryKeyColumn];
+            if (oldKey.equalsIgnoreCase(newKey)) {
+                if (oldRowId != newRowId) {
+                    primaryKey.update(newKey, newRowId);
+                }
+            } else {
+                primaryKey.delete(oldKey);
+                if (!primaryKey.insert(newKey, newRowId)) {
+                    throw new IOException("Duplicate primary key value '" + newKey + "'.");
+                }
+            }
+        }
+        for (int i = 0; i < trees.size(); i++) {
+            int column = columns.get(i);
+            if (oldRowId != newRowId || !Objects.equals(oldRow[column], newRow[column])) {
+                trees.get(i).delete(oldRow[column], oldRowId);
+                trees.get(i).insert(newRow[column], newRowId);
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        IOException failure = null;
+        if (primaryKey != null) {
+            try {
+                primaryKey.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        for (BPlusTree tree : trees) {
+            try {
+                tree.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package interfaces;
+
+import executor.Batch;
+
+import java.io.IOException;
+
+/**
+ * A plan step that passes rows on a {@link Batch} at a time instead of one by one.
+ */
+public interface IBatchOperator {
+    String[] getColumns();
+
+    void open() throws IOException;
+
+    /**
+     * Returns the next batch, or null when there are no more. A batch is only valid until
+     * the next call, since operators reuse it.
+     */
+    Batch nextBatch() throws IOException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,14 @@
+package interfaces;
+
+import java.io.IOException;
+
+/**
+ * Row storage whose engine enforces and looks up the primary key itself, so the table needs
+ * no separate primary key index file.
+ */
+public interface IKeyedTableStore extends ITableStore {
+    /**
+     * Returns the row id of the row with the primary key value, or -1.
+     */
+    long findByPrimaryKey(String key) throws IOException;
+}
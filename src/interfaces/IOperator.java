@@ -0,0 +1,26 @@
+package interfaces;
+
+import java.io.IOException;
+
+/**
+ * One step of a query plan. Operators pull rows from their input one at a time, so a query
+ * only holds the rows that are passing through it.
+ */
+public interface IOperator {
+    /**
+     * Returns the names of the columns of the rows this operator produces.
+     */
+    String[] getColumns();
+
+    void open() throws IOException;
+
+    /**
+     * Returns the next row, or null when there are no more.
+     */
+    String[] next() throws IOException;
+
+    /**
+     * Releases the operator and its inputs. The tables they read are closed by the caller.
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,85 @@
+package interfaces;
+
+import storage.TableSchema;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Row storage of one table, whatever engine keeps it on disk.
+ * Rows are addressed by row ids that stay valid until the row is deleted. Engines that keep
+ * the primary key themselves implement {@link IKeyedTableStore}.
+ */
+public interface ITableStore {
+    TableSchema getSchema();
+
+    long getRowCount();
+
+    /**
+     * Returns the log sequence number of the last logged statement applied to this table.
+     */
+    long getAppliedLsn();
+
+    /**
+     * Records that the logged statement with this LSN has been applied in full. Engines that
+     * keep changes in memory may write them out here, but never in the middle of a statement;
+     * see {@link storage.WriteAheadLog} for the rule recovery relies on.
+     */
+    void setAppliedLsn(long lsn) throws IOException;
+
+    /**
+     * Persists changes made to the schema options.
+     */
+    void saveSchema() throws IOException;
+
+    long insert(String[] values) throws IOException;
+
+    /**
+     * Stores a batch of rows and returns their row ids in order. Nothing is stored if a row
+     * is rejected, such as for its size.
+     */
+    List<Long> insertAll(List<String[]> rows) throws IOException;
+
+    /**
+     * Returns the row, or null if it does not exist.
+     */
+    String[] read(long rowId) throws IOException;
+
+    /**
+     * Replaces a row and returns the row id it is now stored under.
+     */
+    long update(long rowId, String[] values) throws IOException;
+
+    boolean delete(long rowId) throws IOException;
+
+    Cursor scan() throws IOException;
+
+    /**
+     * Returns a cursor over the rows that pass the filter. Only the given columns need to be
+     * read, so values of other columns may be null; the filter is tested on a row in which at
+     * least the filter columns are present. Null column sets stand for every column and a
+     * null filter passes every row.
+     */
+    Cursor scan(boolean[] columns, boolean[] filterColumns, Predicate<String[]> filter) throws IOException;
+
+    boolean supportsSecondaryIndexes();
+
+    /**
+     * Reclaims the space of deleted and superseded rows and returns the number of bytes freed.
+     */
+    long compact() throws IOException;
+
+    void close() throws IOException;
+
+    /**
+     * Forward-only iterator over the live rows of a table.
+     */
+    interface Cursor {
+        boolean next() throws IOException;
+
+        long rowId();
+
+        String[] row();
+    }
+}
@@ -0,0 +1,396 @@
+package query;
+
+import storage.ColumnType;
+import storage.RowCodec;
+import storage.TableSchema;
+import storage.TableStatistics;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A WHERE clause as a tree of conditions. The parser builds it with column names; before
+ * a query runs it is compiled against the table's schema into a tree with column positions,
+ * which is then evaluated on each row. AND and OR stop at the first condition that decides
+ * the result.
+ */
+public abstract class Condition {
+    /**
+     * Returns a copy that refers to columns by position in the schema.
+     * Throws IllegalArgumentException for a column the table does not have.
+     */
+    abstract Condition compile(TableSchema schema);
+
+    /**
+     * Returns this condition with its ? parameters replaced, in order, by the arguments.
+     */
+    abstract Condition bind(Iterator<String> arguments);
+
+    /**
+     * Evaluates a compiled condition on a row; only the columns it refers to need be present.
+     */
+    public abstract boolean matches(String[] row);
+
+    /**
+     * Evaluates a compiled condition on a row encoded by {@link RowCodec}, in place.
+     */
+    public abstract boolean matches(ByteBuffer row, int rowOffset);
+
+    /**
+     * Marks the columns a compiled condition refers to.
+     */
+    public abstract void addColumns(boolean[] columns);
+
+    /**
+     * Returns the estimated fraction of the table's rows a compiled condition matches,
+     * from statistics gathered for the table's columns. Conditions are taken to be
+     * independent of each other.
+     */
+    abstract double selectivity(TableStatistics statistics);
+
+    /**
+     * Returns a comparison that every matching row satisfies and that an index can look up,
+     * or null if there is none.
+     */
+    public WhereCondition getIndexable() {
+        return null;
+    }
+
+    /**
+     * Returns the conditions that must all hold: the children of an AND, or this condition.
+     */
+    public List<Condition> getConjuncts() {
+        List<Condition> conjuncts = new ArrayList<>();
+        conjuncts.add(this);
+        return conjuncts;
+    }
+
+    static int resolve(TableSchema schema, String column) {
+        int index = indexOf(schema, column);
+        if (index == -1) {
+            throw new IllegalArgumentException("Invalid column in WHERE clause: " + column);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the position of a column, or -1 if there is none. The columns of a joined row
+     * are named table.column, and there a column may be named without its table as long as
+     * only one table has it; otherwise IllegalArgumentException is thrown.
+     */
+    static int indexOf(TableSchema schema, String column) {
+        int index = schema.indexOf(column);
+        if (index >= 0 || column.indexOf('.') >= 0) {
+            return index;
+        }
+        for (int i = 0; i < schema.getColumnCount(); i++) {
+            String name = schema.getColumn(i);
+            int dot = name.indexOf('.');
+            if (dot >= 0 && name.length() - dot - 1 == column.length()
+                    && name.regionMatches(true, dot + 1, column, 0, column.length())) {
+                if (index >= 0) {
+                    throw new IllegalArgumentException("Ambiguous column '" + column + "'. Qualify it as table.column.");
+                }
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    public static class And extends Condition {
+        private final Condition[] children;
+
+        And(Condition... children) {
+            this.children = children;
+        }
+
+        @Override
+        Condition compile(TableSchema schema) {
+            Condition[] compiled = new Condition[children.length];
+            for (int i = 0; i < children.length; i++) {
+                compiled[i] = children[i].compile(schema);
+            }
+            return new And(compiled);
+        }
+
+        @Override
+        Condition bind(Iterator<String> arguments) {
+            Condition[] bound = new Condition[children.length];
+            for (int i = 0; i < children.length; i++) {
+                bound[i] = children[i].bind(arguments);
+            }
+            return new And(bound);
+        }
+
+        @Override
+        public boolean matches(String[] row) {
+            for (Condition child : children) {
+                if (!child.matches(row)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer row, int rowOffset) {
+            for (Condition child : children) {
+                if (!child.matches(row, rowOffset)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void addColumns(boolean[] columns) {
+            for (Condition child : children) {
+                child.addColumns(columns);
+            }
+        }
+
+        @Override
+        double selectivity(TableStatistics statistics) {
+            double selectivity = 1;
+            for (Condition child : children) {
+                selectivity *= child.selectivity(statistics);
+            }
+            return selectivity;
+        }
+
+        /**
+         * Prefers an equality over a range.
+         */
+        @Override
+        public WhereCondition getIndexable() {
+            WhereCondition found = null;
+            for (Condition child : children) {
+                WhereCondition candidate = child.getIndexable();
+                if (candidate != null && (found == null || (candidate.isEquality() && !found.isEquality()))) {
+                    found = candidate;
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public List<Condition> getConjuncts() {
+            List<Condition> conjuncts = new ArrayList<>();
+            for (Condition child : children) {
+                conjuncts.addAll(child.getConjuncts());
+            }
+            return conjuncts;
+        }
+
+        @Override
+        public String toString() {
+            return join(children, " AND ");
+        }
+    }
+
+    public static class Or extends Condition {
+        private final Condition[] children;
+
+        Or(Condition... children) {
+            this.children = children;
+        }
+
+        @Override
+        Condition compile(TableSchema schema) {
+            Condition[] compiled = new Condition[children.length];
+            for (int i = 0; i < children.length; i++) {
+                compiled[i] = children[i].compile(schema);
+            }
+            return new Or(compiled);
+        }
+
+        @Override
+        Condition bind(Iterator<String> arguments) {
+            Condition[] bound = new Condition[children.length];
+            for (int i = 0; i < children.length; i++) {
+                bound[i] = children[i].bind(arguments);
+            }
+            return new Or(bound);
+        }
+
+        @Override
+        public boolean matches(String[] row) {
+            for (Condition child : children) {
+                if (child.matches(row)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer row, int rowOffset) {
+            for (Condition child : children) {
+                if (child.matches(row, rowOffset)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void addColumns(boolean[] columns) {
+            for (Condition child : children) {
+                child.addColumns(columns);
+            }
+        }
+
+        @Override
+        double selectivity(TableStatistics statistics) {
+            double unmatched = 1;
+            for (Condition child : children) {
+                unmatched *= 1 - child.selectivity(statistics);
+            }
+            return 1 - unmatched;
+        }
+
+        @Override
+        public String toString() {
+            return join(children, " OR ");
+        }
+    }
+
+    public static class Not extends Condition {
+        private final Condition child;
+
+        Not(Condition child) {
+            this.child = child;
+        }
+
+        @Override
+        Condition compile(TableSchema schema) {
+            return new Not(child.compile(schema));
+        }
+
+        @Override
+        Condition bind(Iterator<String> arguments) {
+            return new Not(child.bind(arguments));
+        }
+
+        @Override
+        public boolean matches(String[] row) {
+            return !child.matches(row);
+        }
+
+        @Override
+        public boolean matches(ByteBuffer row, int rowOffset) {
+            return !child.matches(row, rowOffset);
+        }
+
+        @Override
+        public void addColumns(boolean[] columns) {
+            child.addColumns(columns);
+        }
+
+        @Override
+        double selectivity(TableStatistics statistics) {
+            return 1 - child.selectivity(statistics);
+        }
+
+        @Override
+        public String toString() {
+            return "NOT " + child;
+        }
+    }
+
+    /**
+     * column IN (value, ...), comparing like equality: case-insensitively for VARCHAR, and
+     * for other types by canonical form, in which equal values are written alike.
+     */
+    public static class In extends Condition {
+        private final String column;
+        private final List<String> values;
+        private final int columnIndex;
+        private final TreeSet<String> set;
+
+        In(String column, List<String> values) {
+            this(column, values, -1, true);
+        }
+
+        private In(String column, List<String> values, int columnIndex, boolean ignoreCase) {
+            this.column = column;
+            this.values = values;
+            this.columnIndex = columnIndex;
+            this.set = ignoreCase ? new TreeSet<>(String.CASE_INSENSITIVE_ORDER) : new TreeSet<>();
+            if (columnIndex >= 0) {
+                set.addAll(values);
+            }
+        }
+
+        /**
+         * Throws IllegalArgumentException if a value is not of the column's type.
+         */
+        @Override
+        Condition compile(TableSchema schema) {
+            int index = resolve(schema, column);
+            List<String> normalized = new ArrayList<>(values.size());
+            for (String value : values) {
+                normalized.add(schema.normalize(index, value));
+            }
+            return new In(column, normalized, index, schema.getType(index) == ColumnType.VARCHAR);
+        }
+
+        @Override
+        Condition bind(Iterator<String> arguments) {
+            List<String> bound = new ArrayList<>(values.size());
+            for (String value : values) {
+                bound.add(value != null ? value : arguments.next());
+            }
+            return new In(column, bound);
+        }
+
+        @Override
+        public boolean matches(String[] row) {
+            return matches(row[columnIndex]);
+        }
+
+        @Override
+        public boolean matches(ByteBuffer row, int rowOffset) {
+            int field = RowCodec.fieldPosition(row, rowOffset, columnIndex);
+            return field >= 0 && matches(RowCodec.decodeField(row, field));
+        }
+
+        private boolean matches(String value) {
+            return value != null && set.contains(value);
+        }
+
+        @Override
+        public void addColumns(boolean[] columns) {
+            columns[columnIndex] = true;
+        }
+
+        @Override
+        double selectivity(TableStatistics statistics) {
+            TableStatistics.Column stats = statistics.getColumn(columnIndex);
+            double matched = 0;
+            for (String value : set) {
+                matched += stats.equalFraction(value);
+            }
+            return Math.min(1, matched) * (1 - statistics.getNullFraction(columnIndex));
+        }
+
+        @Override
+        public String toString() {
+            return column + " IN (" + String.join(", ", values) + ")";
+        }
+    }
+
+    private static String join(Condition[] children, String separator) {
+        StringBuilder builder = new StringBuilder("(");
+        for (int i = 0; i < children.length; i++) {
+            if (i > 0) {
+                builder.append(separator);
+            }
+            builder.append(children[i]);
+        }
+        return builder.append(')').toString();
+    }
+}
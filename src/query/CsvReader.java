@@ -0,0 +1,126 @@
+package query;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads comma-separated records from a stream, one at a time. Fields may be enclosed in
+ * double quotes, in which case they can hold commas, line breaks and doubled quotes standing
+ * for one quote. An empty field is read as null, a quoted empty field as an empty string.
+ * Empty lines are skipped.
+ */
+class CsvReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder field = new StringBuilder();
+    private final List<String> fields = new ArrayList<>();
+    private int position;
+    private int limit;
+    private long line = 1;
+    private long recordLine;
+
+    CsvReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Returns the fields of the next record, or null at the end of the input.
+     */
+    String[] next() throws IOException {
+        int c = read();
+        while (c == '\n' || c == '\r') {
+            skipLineBreak(c);
+            c = read();
+        }
+        if (c < 0) {
+            return null;
+        }
+        recordLine = line;
+        fields.clear();
+        while (true) {
+            field.setLength(0);
+            boolean quoted = c == '"';
+            if (quoted) {
+                c = quoted();
+            } else {
+                while (c >= 0 && c != ',' && c != '\n' && c != '\r') {
+                    field.append((char) c);
+                    c = read();
+                }
+            }
+            fields.add(quoted || field.length() > 0 ? field.toString() : null);
+            if (c != ',') {
+                if (c == '\r' || c == '\n') {
+                    skipLineBreak(c);
+                }
+                return fields.toArray(new String[0]);
+            }
+            c = read();
+        }
+    }
+
+    /**
+     * Returns the line the last record returned started on, counting from 1.
+     */
+    long getLine() {
+        return recordLine;
+    }
+
+    /**
+     * Reads a quoted field after its opening quote and returns the character following it.
+     */
+    private int quoted() throws IOException {
+        while (true) {
+            int c = read();
+            if (c < 0) {
+                throw new IOException("Unterminated quoted field starting on line " + recordLine);
+            }
+            if (c == '"') {
+                c = read();
+                if (c != '"') {
+                    while (c >= 0 && c != ',' && c != '\n' && c != '\r') {
+                        field.append((char) c);
+                        c = read();
+                    }
+                    return c;
+                }
+            } else if (c == '\n') {
+                line++;
+            }
+            field.append((char) c);
+        }
+    }
+
+    /**
+     * Consumes the rest of a line break that started with the given character, treating
+     * CR LF as one.
+     */
+    private void skipLineBreak(int c) throws IOException {
+        line++;
+        if (c == '\r' && read() != '\n' && limit > 0) {
+            position--;
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,130 @@
+package query;
+
+import java.text.ParseException;
+
+/**
+ * Single-pass tokenizer for the SQL dialect. Tokens are produced on demand, one at a time,
+ * so a statement is scanned exactly once and no token list is built.
+ */
+public class Lexer {
+    public enum TokenType {
+        IDENTIFIER,
+        STRING,
+        NUMBER,
+        SYMBOL,
+        END
+    }
+
+    private final String text;
+    private int position;
+
+    private TokenType type;
+    private String value;
+    private int start;
+
+    public Lexer(String text) {
+        this.text = text;
+    }
+
+    public TokenType getType() {
+        return type;
+    }
+
+    /**
+     * Returns the token's text: an identifier or number as written, a string without its
+     * quotes, or the symbol itself.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the offset of the token in the statement.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Advances to the next token.
+     */
+    public void next() throws ParseException {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+        start = position;
+        if (position >= text.length()) {
+            type = TokenType.END;
+            value = "";
+            return;
+        }
+        char c = text.charAt(position);
+        if (c == '\'' || c == '"') {
+            readString(c);
+        } else if (isWordChar(c)) {
+            boolean digits = true;
+            while (position < text.length() && isWordChar(text.charAt(position))) {
+                digits &= Character.isDigit(text.charAt(position));
+                position++;
+            }
+            if (digits && position + 1 < text.length() && text.charAt(position) == '.'
+                    && Character.isDigit(text.charAt(position + 1))) {
+                position++;
+                while (position < text.length() && Character.isDigit(text.charAt(position))) {
+                    position++;
+                }
+            }
+            type = digits ? TokenType.NUMBER : TokenType.IDENTIFIER;
+            value = text.substring(start, position);
+        } else {
+            type = TokenType.SYMBOL;
+            position++;
+            if (position < text.length()) {
+                char second = text.charAt(position);
+                if ((c == '<' && (second == '=' || second == '>')) || ((c == '>' || c == '!') && second == '=')) {
+                    position++;
+                }
+            }
+            value = text.substring(start, position);
+        }
+    }
+
+    /**
+     * Reads a quoted string; a doubled quote inside it stands for one quote character.
+     */
+    private void readString(char quote) throws ParseException {
+        StringBuilder builder = null;
+        int from = ++position;
+        while (true) {
+            int end = text.indexOf(quote, position);
+            if (end < 0) {
+                throw new ParseException("Unterminated string starting at position " + start, start);
+            }
+            if (end + 1 < text.length() && text.charAt(end + 1) == quote) {
+                if (builder == null) {
+                    builder = new StringBuilder();
+                }
+                builder.append(text, from, end + 1);
+                position = end + 2;
+                from = position;
+                continue;
+            }
+            position = end + 1;
+            if (builder == null) {
+                value = text.substring(from, end);
+            } else {
+                value = builder.append(text, from, end).toString();
+            }
+            type = TokenType.STRING;
+            return;
+        }
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
@@ -0,0 +1,659 @@
+package query;
+
+import executor.AggregateFunction;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recursive-descent parser turning SQL text into a {@link Statement}. It reads tokens from a
+ * {@link Lexer} with one token of lookahead and never backtracks, so parsing is linear in the
+ * length of the statement. Keywords are matched case-insensitively.
+ * Errors are reported as a ParseException whose message ends with the usage of the statement.
+ */
+public class Parser {
+    private final Lexer lexer;
+    private String usage = "Supported commands: SHOW, USE, CREATE, DROP INDEX, DESCRIBE, VACUUM, ANALYZE, EXPLAIN, SELECT, INSERT, LOAD, UPDATE, DELETE, BEGIN, COMMIT, ROLLBACK, PREPARE, EXECUTE, DEALLOCATE.";
+    private boolean allowParameters;
+    private List<Integer> parameters = new ArrayList<>();
+
+    private Parser(String text) {
+        this.lexer = new Lexer(text);
+    }
+
+    /**
+     * Parses one statement. A trailing semicolon is allowed but not required.
+     * ? parameters are only allowed in the body of a PREPARE.
+     */
+    public static Statement parse(String text) throws ParseException {
+        return parse(text, false).getStatement();
+    }
+
+    /**
+     * Parses one statement that may contain ? parameters.
+     */
+    public static PreparedStatement prepare(String text) throws ParseException {
+        return parse(text, true);
+    }
+
+    private static PreparedStatement parse(String text, boolean allowParameters) throws ParseException {
+        Parser parser = new Parser(text);
+        parser.allowParameters = allowParameters;
+        try {
+            parser.lexer.next();
+            Statement statement = parser.statement();
+            int end = parser.lexer.getStart();
+            parser.accept(";");
+            if (parser.lexer.getType() != Lexer.TokenType.END) {
+                throw parser.error("Unexpected '" + parser.lexer.getValue() + "'");
+            }
+            return new PreparedStatement(text.substring(0, end).trim(), statement, parser.parameterOffsets(0));
+        } catch (ParseException e) {
+            throw new ParseException(e.getMessage() + ". " + parser.usage, e.getErrorOffset());
+        }
+    }
+
+    private int[] parameterOffsets(int base) {
+        int[] offsets = new int[parameters.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = parameters.get(i) - base;
+        }
+        return offsets;
+    }
+
+    private Statement statement() throws ParseException {
+        String command = lexer.getType() == Lexer.TokenType.IDENTIFIER ? lexer.getValue().toUpperCase() : "";
+        switch (command) {
+            case "SHOW":
+                return show();
+            case "USE":
+                usage = "Use: USE database_name;";
+                lexer.next();
+                return new Statement.Named(Statement.Kind.USE, identifier("database name"));
+            case "CREATE":
+                return create();
+            case "DROP":
+                return dropIndex();
+            case "DESCRIBE":
+                usage = "Use: DESCRIBE table_name;";
+                lexer.next();
+                return new Statement.Named(Statement.Kind.DESCRIBE, identifier("table name"));
+            case "VACUUM":
+                usage = "Use: VACUUM table_name;";
+                lexer.next();
+                return new Statement.Named(Statement.Kind.VACUUM, identifier("table name"));
+            case "ANALYZE":
+                usage = "Use: ANALYZE table_name;";
+                lexer.next();
+                return new Statement.Named(Statement.Kind.ANALYZE, identifier("table name"));
+            case "EXPLAIN":
+                return explain();
+            case "SELECT":
+                return select();
+            case "INSERT":
+                return insert();
+            case "LOAD":
+                return load();
+            case "UPDATE":
+                return update();
+            case "DELETE":
+                return delete();
+            case "BEGIN":
+            case "COMMIT":
+            case "ROLLBACK":
+                return transaction(command);
+            case "PREPARE":
+                return prepare();
+            case "EXECUTE":
+                return execute();
+            case "DEALLOCATE":
+                usage = "Use: DEALLOCATE [PREPARE] name;";
+                lexer.next();
+                acceptKeyword("PREPARE");
+                return new Statement.Named(Statement.Kind.DEALLOCATE, identifier("statement name"));
+            case "SET":
+                usage = "Use: SET PARALLELISM = n; or SET RESULT_CACHE = megabytes;";
+                lexer.next();
+                String name = identifier("setting name");
+                expect("=");
+                return new Statement.Set(name, word("setting value"));
+            default:
+                throw error("Unknown SQL command");
+        }
+    }
+
+    private Statement show() throws ParseException {
+        usage = "Use 'SHOW DATABASES', 'SHOW TABLES' or 'SHOW STATUS'.";
+        lexer.next();
+        String target = identifier("DATABASES, TABLES or STATUS").toUpperCase();
+        switch (target) {
+            case "DATABASES":
+                return new Statement.Show(Statement.Show.Target.DATABASES);
+            case "TABLES":
+                return new Statement.Show(Statement.Show.Target.TABLES);
+            case "STATUS":
+                return new Statement.Show(Statement.Show.Target.STATUS);
+            default:
+                throw new ParseException("Invalid SHOW command", lexer.getStart());
+        }
+    }
+
+    private Statement create() throws ParseException {
+        usage = "Use: CREATE DATABASE db_name; CREATE TABLE table_name (columns); or CREATE INDEX index_name ON table_name(column);";
+        lexer.next();
+        if (acceptKeyword("DATABASE")) {
+            usage = "Use: CREATE DATABASE db_name;";
+            return new Statement.Named(Statement.Kind.CREATE_DATABASE, identifier("database name"));
+        }
+        if (acceptKeyword("INDEX")) {
+            usage = "Use: CREATE INDEX index_name ON table_name(column);";
+            String index = identifier("index name");
+            expectKeyword("ON");
+            String table = identifier("table name");
+            expect("(");
+            String column = identifier("column name");
+            expect(")");
+            return new Statement.CreateIndex(index, table, column);
+        }
+        expectKeyword("TABLE");
+        usage = "Use: CREATE TABLE table_name (column type [PRIMARY KEY], ...) [ENGINE=HEAP|LSM|COLUMNAR] [COMPRESSION=NONE|DEFLATE|LZ4];";
+        String table = identifier("table name");
+        expect("(");
+        List<Statement.ColumnDefinition> columns = new ArrayList<>();
+        String primaryKey = null;
+        do {
+            if (acceptKeyword("PRIMARY")) {
+                expectKeyword("KEY");
+                expect("(");
+                String column = identifier("primary key column");
+                if (accept(",")) {
+                    throw error("Only single-column primary keys are supported");
+                }
+                expect(")");
+                if (primaryKey != null) {
+                    throw error("A table can only have one primary key");
+                }
+                primaryKey = column;
+            } else {
+                columns.add(columnDefinition());
+            }
+        } while (accept(","));
+        expect(")");
+        List<String[]> options = new ArrayList<>();
+        while (lexer.getType() == Lexer.TokenType.IDENTIFIER) {
+            String option = identifier("table option");
+            expect("=");
+            options.add(new String[]{option, word("option value")});
+        }
+        return new Statement.CreateTable(table, columns, primaryKey, options);
+    }
+
+    /**
+     * Reads a column name and its type, which may have arguments, such as VARCHAR(255),
+     * and may be followed by PRIMARY KEY.
+     */
+    private Statement.ColumnDefinition columnDefinition() throws ParseException {
+        String name = identifier("column name");
+        StringBuilder type = new StringBuilder();
+        boolean primaryKey = false;
+        int depth = 0;
+        while (lexer.getType() != Lexer.TokenType.END
+                && !(depth == 0 && (isSymbol(",") || isSymbol(")")))) {
+            if (depth == 0 && acceptKeyword("PRIMARY")) {
+                expectKeyword("KEY");
+                primaryKey = true;
+                continue;
+            }
+            if (isSymbol("(")) {
+                depth++;
+            } else if (isSymbol(")")) {
+                depth--;
+            }
+            if (type.length() > 0 && lexer.getType() != Lexer.TokenType.SYMBOL
+                    && Character.isLetterOrDigit(type.charAt(type.length() - 1))) {
+                type.append(' ');
+            }
+            type.append(lexer.getValue());
+            lexer.next();
+        }
+        return new Statement.ColumnDefinition(name, type.toString(), primaryKey);
+    }
+
+    private Statement dropIndex() throws ParseException {
+        usage = "Use: DROP INDEX index_name [ON table_name];";
+        lexer.next();
+        expectKeyword("INDEX");
+        String index = identifier("index name");
+        String table = acceptKeyword("ON") ? identifier("table name") : null;
+        return new Statement.DropIndex(index, table);
+    }
+
+    private Statement select() throws ParseException {
+        usage = "Correct format: SELECT *|column, ...|COUNT(*)|COUNT|SUM|MIN|MAX|AVG(column), ... FROM table_name [JOIN table_name ON column = column] [WHERE condition] [GROUP BY column, ...] [ORDER BY column [ASC|DESC], ...] [LIMIT n];";
+        lexer.next();
+        List<String> columns = null;
+        List<Statement.Aggregate> items = null;
+        boolean hasAggregates = false;
+        if (!accept("*")) {
+            columns = new ArrayList<>();
+            items = new ArrayList<>();
+            do {
+                String name = identifier("column name, aggregate or *");
+                if (accept("(")) {
+                    items.add(aggregate(name));
+                    hasAggregates = true;
+                } else {
+                    String column = qualified(name);
+                    columns.add(column);
+                    items.add(new Statement.Aggregate(null, column));
+                }
+            } while (accept(","));
+        }
+        expectKeyword("FROM");
+        String table = identifier("table name");
+        Statement.Join join = null;
+        if (acceptKeyword("INNER")) {
+            expectKeyword("JOIN");
+            join = join();
+        } else if (acceptKeyword("JOIN")) {
+            join = join();
+        }
+        Condition where = acceptKeyword("WHERE") ? condition() : null;
+        List<String> groupBy = null;
+        if (acceptKeyword("GROUP")) {
+            expectKeyword("BY");
+            if (items == null) {
+                throw error("SELECT * cannot be used with GROUP BY");
+            }
+            groupBy = new ArrayList<>();
+            do {
+                groupBy.add(column());
+            } while (accept(","));
+        }
+        if (groupBy == null && hasAggregates && !columns.isEmpty()) {
+            throw error("Columns cannot be selected together with aggregates without GROUP BY");
+        }
+        List<Statement.Aggregate> aggregates = null;
+        if (groupBy != null || hasAggregates) {
+            aggregates = items;
+            columns = null;
+        }
+        List<Statement.OrderKey> orderBy = null;
+        if (acceptKeyword("ORDER")) {
+            expectKeyword("BY");
+            orderBy = new ArrayList<>();
+            do {
+                String name = identifier("column name or aggregate");
+                String column = accept("(") ? aggregate(name).toString() : qualified(name);
+                boolean descending = acceptKeyword("DESC");
+                if (!descending) {
+                    acceptKeyword("ASC");
+                }
+                orderBy.add(new Statement.OrderKey(column, descending));
+            } while (accept(","));
+        }
+        long limit = acceptKeyword("LIMIT") ? count() : -1;
+        return new Statement.Select(table, join, columns, aggregates, where, groupBy, orderBy, limit);
+    }
+
+    /**
+     * Reads the rest of [INNER] JOIN table ON column = column, after JOIN.
+     */
+    private Statement.Join join() throws ParseException {
+        String table = identifier("table name");
+        expectKeyword("ON");
+        String leftColumn = column();
+        expect("=");
+        return new Statement.Join(table, leftColumn, column());
+    }
+
+    /**
+     * Reads the rest of FUNCTION(column) or COUNT(*), after the opening parenthesis.
+     */
+    private Statement.Aggregate aggregate(String name) throws ParseException {
+        AggregateFunction function = AggregateFunction.forName(name);
+        if (function == null) {
+            throw error("Unknown aggregate function '" + name + "'");
+        }
+        String column = null;
+        if (!accept("*")) {
+            column = column();
+        } else if (function != AggregateFunction.COUNT) {
+            throw error("Only COUNT accepts *");
+        }
+        expect(")");
+        return new Statement.Aggregate(function, column);
+    }
+
+    private Statement insert() throws ParseException {
+        usage = "Use: INSERT INTO table_name VALUES (...)[, (...), ...];";
+        lexer.next();
+        expectKeyword("INTO");
+        String table = identifier("table name");
+        expectKeyword("VALUES");
+        List<String[]> rows = new ArrayList<>();
+        do {
+            expect("(");
+            List<String> values = new ArrayList<>();
+            do {
+                values.add(literal());
+            } while (accept(","));
+            expect(")");
+            rows.add(values.toArray(new String[0]));
+        } while (accept(","));
+        return new Statement.Insert(table, rows);
+    }
+
+    private Statement load() throws ParseException {
+        usage = "Use: LOAD DATA 'file.csv' INTO [TABLE] table_name [IGNORE n LINES];";
+        lexer.next();
+        expectKeyword("DATA");
+        if (lexer.getType() != Lexer.TokenType.STRING) {
+            throw error("Expected a quoted file name");
+        }
+        String file = lexer.getValue();
+        lexer.next();
+        expectKeyword("INTO");
+        acceptKeyword("TABLE");
+        String table = identifier("table name");
+        long ignoredLines = 0;
+        if (acceptKeyword("IGNORE")) {
+            ignoredLines = count();
+            expectKeyword("LINES");
+        }
+        return new Statement.Load(file, table, ignoredLines);
+    }
+
+    private Statement update() throws ParseException {
+        usage = "Use: UPDATE table_name SET column='value', ... WHERE condition;";
+        lexer.next();
+        String table = identifier("table name");
+        expectKeyword("SET");
+        List<String> columns = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        do {
+            columns.add(identifier("column name"));
+            expect("=");
+            values.add(literal());
+        } while (accept(","));
+        expectKeyword("WHERE");
+        return new Statement.Update(table, columns, values, condition());
+    }
+
+    private Statement delete() throws ParseException {
+        usage = "Use: DELETE FROM table_name WHERE condition;";
+        lexer.next();
+        expectKeyword("FROM");
+        String table = identifier("table name");
+        expectKeyword("WHERE");
+        return new Statement.Delete(table, condition());
+    }
+
+    private Statement transaction(String command) throws ParseException {
+        usage = "Use: " + command + (command.equals("BEGIN") ? " [TRANSACTION]" : "") + " [AS user];";
+        lexer.next();
+        if (command.equals("BEGIN")) {
+            acceptKeyword("TRANSACTION");
+        }
+        String user = null;
+        if (acceptKeyword("AS") || acceptKeyword("LIKE") || acceptKeyword("SET")) {
+            user = identifier("user name");
+        }
+        Statement.Kind kind = command.equals("BEGIN") ? Statement.Kind.BEGIN
+                : command.equals("COMMIT") ? Statement.Kind.COMMIT : Statement.Kind.ROLLBACK;
+        return new Statement.Transaction(kind, user);
+    }
+
+    /**
+     * Reads PREPARE name AS statement. The statement is kept as its own text, with parameter
+     * offsets relative to it.
+     */
+    private Statement prepare() throws ParseException {
+        usage = "Use: PREPARE name AS SELECT|INSERT|UPDATE|DELETE ...;";
+        lexer.next();
+        String name = identifier("statement name");
+        expectKeyword("AS");
+        int start = lexer.getStart();
+        String command = lexer.getValue().toUpperCase();
+        if (!command.equals("SELECT") && !command.equals("INSERT") && !command.equals("UPDATE") && !command.equals("DELETE")) {
+            throw error("Only SELECT, INSERT, UPDATE and DELETE can be prepared");
+        }
+        boolean outer = allowParameters;
+        allowParameters = true;
+        Statement statement = statement();
+        allowParameters = outer;
+        int[] offsets = parameterOffsets(start);
+        parameters = new ArrayList<>();
+        String text = lexer.getText().substring(start, lexer.getStart()).trim();
+        return new Statement.Prepare(name, new PreparedStatement(text, statement, offsets));
+    }
+
+    private Statement explain() throws ParseException {
+        usage = "Use: EXPLAIN [ANALYZE] SELECT|UPDATE|DELETE ...;";
+        lexer.next();
+        boolean analyze = acceptKeyword("ANALYZE");
+        String command = lexer.getType() == Lexer.TokenType.IDENTIFIER ? lexer.getValue().toUpperCase() : "";
+        if (analyze && !command.equals("SELECT")) {
+            throw error("EXPLAIN ANALYZE only runs SELECT statements");
+        }
+        if (!command.equals("SELECT") && !command.equals("UPDATE") && !command.equals("DELETE")) {
+            throw error("Only SELECT, UPDATE and DELETE can be explained");
+        }
+        return new Statement.Explain(statement(), analyze);
+    }
+
+    private Statement execute() throws ParseException {
+        usage = "Use: EXECUTE name[(value, ...)];";
+        lexer.next();
+        String name = identifier("statement name");
+        List<String> arguments = new ArrayList<>();
+        if (accept("(") && !accept(")")) {
+            do {
+                arguments.add(literal());
+            } while (accept(","));
+            expect(")");
+        }
+        return new Statement.Execute(name, arguments.toArray(new String[0]));
+    }
+
+    /**
+     * Reads a boolean expression of comparisons joined by AND, OR and NOT, where AND binds
+     * tighter than OR and parentheses group.
+     */
+    private Condition condition() throws ParseException {
+        Condition first = conjunction();
+        if (!isKeyword("OR")) {
+            return first;
+        }
+        List<Condition> children = new ArrayList<>();
+        children.add(first);
+        while (acceptKeyword("OR")) {
+            children.add(conjunction());
+        }
+        return new Condition.Or(children.toArray(new Condition[0]));
+    }
+
+    private Condition conjunction() throws ParseException {
+        Condition first = negation();
+        if (!isKeyword("AND")) {
+            return first;
+        }
+        List<Condition> children = new ArrayList<>();
+        children.add(first);
+        while (acceptKeyword("AND")) {
+            children.add(negation());
+        }
+        return new Condition.And(children.toArray(new Condition[0]));
+    }
+
+    private Condition negation() throws ParseException {
+        if (acceptKeyword("NOT")) {
+            return new Condition.Not(negation());
+        }
+        if (accept("(")) {
+            Condition condition = condition();
+            expect(")");
+            return condition;
+        }
+        return predicate();
+    }
+
+    /**
+     * Reads "column op value", where op is =, <>, !=, <, <=, >, >= or LIKE, or
+     * "column [NOT] BETWEEN low AND high", "column [NOT] IN (value, ...)" or "column NOT LIKE value".
+     */
+    private Condition predicate() throws ParseException {
+        String column = column();
+        boolean negated = acceptKeyword("NOT");
+        Condition condition;
+        if (acceptKeyword("BETWEEN")) {
+            String low = literal();
+            expectKeyword("AND");
+            condition = new Condition.And(new WhereCondition(column, ">=", low), new WhereCondition(column, "<=", literal()));
+        } else if (acceptKeyword("IN")) {
+            expect("(");
+            List<String> values = new ArrayList<>();
+            do {
+                values.add(literal());
+            } while (accept(","));
+            expect(")");
+            condition = new Condition.In(column, values);
+        } else if (acceptKeyword("LIKE")) {
+            condition = new WhereCondition(column, "LIKE", literal());
+        } else if (negated) {
+            throw error("Expected BETWEEN, IN or LIKE after NOT");
+        } else if (isSymbol("=") || isSymbol("<>") || isSymbol("!=") || isSymbol("<") || isSymbol("<=")
+                || isSymbol(">") || isSymbol(">=")) {
+            String operator = isSymbol("!=") ? "<>" : lexer.getValue();
+            lexer.next();
+            condition = new WhereCondition(column, operator, literal());
+        } else {
+            throw error("Expected a comparison operator");
+        }
+        return negated ? new Condition.Not(condition) : condition;
+    }
+
+    /**
+     * Reads a value: a quoted string, a number, or a bare word taken as written.
+     * A ? parameter is returned as null and its offset recorded.
+     */
+    private String literal() throws ParseException {
+        if (isSymbol("?")) {
+            if (!allowParameters) {
+                throw error("Parameters are only allowed in prepared statements");
+            }
+            parameters.add(lexer.getStart());
+            lexer.next();
+            return null;
+        }
+        if (isSymbol("-")) {
+            lexer.next();
+            if (lexer.getType() != Lexer.TokenType.NUMBER) {
+                throw error("Expected a number after '-'");
+            }
+            String value = "-" + lexer.getValue();
+            lexer.next();
+            return value;
+        }
+        if (lexer.getType() == Lexer.TokenType.SYMBOL || lexer.getType() == Lexer.TokenType.END) {
+            throw error("Expected a value");
+        }
+        String value = lexer.getValue();
+        lexer.next();
+        return value;
+    }
+
+    /**
+     * Reads a row count, a whole number without a sign.
+     */
+    private long count() throws ParseException {
+        if (lexer.getType() != Lexer.TokenType.NUMBER || lexer.getValue().contains(".")) {
+            throw error("Expected a row count");
+        }
+        long count;
+        try {
+            count = Long.parseLong(lexer.getValue());
+        } catch (NumberFormatException e) {
+            throw error("Row count out of range");
+        }
+        lexer.next();
+        return count;
+    }
+
+    /**
+     * Reads a column name, which may be qualified with its table as table.column.
+     */
+    private String column() throws ParseException {
+        return qualified(identifier("column name"));
+    }
+
+    /**
+     * Reads the rest of table.column after the table name, if there is any.
+     */
+    private String qualified(String name) throws ParseException {
+        return accept(".") ? name + "." + identifier("column name") : name;
+    }
+
+    private String identifier(String what) throws ParseException {
+        if (lexer.getType() != Lexer.TokenType.IDENTIFIER) {
+            throw error("Expected " + what);
+        }
+        String value = lexer.getValue();
+        lexer.next();
+        return value;
+    }
+
+    /**
+     * Reads an identifier or number, for option values such as ENGINE=LSM.
+     */
+    private String word(String what) throws ParseException {
+        if (lexer.getType() != Lexer.TokenType.IDENTIFIER && lexer.getType() != Lexer.TokenType.NUMBER) {
+            throw error("Expected " + what);
+        }
+        String value = lexer.getValue();
+        lexer.next();
+        return value;
+    }
+
+    private boolean isSymbol(String symbol) {
+        return lexer.getType() == Lexer.TokenType.SYMBOL && lexer.getValue().equals(symbol);
+    }
+
+    private boolean accept(String symbol) throws ParseException {
+        if (isSymbol(symbol)) {
+            lexer.next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String symbol) throws ParseException {
+        if (!accept(symbol)) {
+            throw error("Expected '" + symbol + "'");
+        }
+    }
+
+    private boolean isKeyword(String keyword) {
+        return lexer.getType() == Lexer.TokenType.IDENTIFIER && lexer.getValue().equalsIgnoreCase(keyword);
+    }
+
+    private boolean acceptKeyword(String keyword) throws ParseException {
+        if (isKeyword(keyword)) {
+            lexer.next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expectKeyword(String keyword) throws ParseException {
+        if (!acceptKeyword(keyword)) {
+            throw error("Expected " + keyword);
+        }
+    }
+
+    private ParseException error(String message) {
+        String found = lexer.getType() == Lexer.TokenType.END ? "end of statement" : "'" + lexer.getValue() + "'";
+        return new ParseException(message + " at position " + lexer.getStart() + " but found " + found, lexer.getStart());
+    }
+}
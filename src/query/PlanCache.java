@@ -0,0 +1,137 @@
+package query;
+
+import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide LRU cache of parsed statements keyed by their normalized text, so a statement
+ * sent again is not parsed again. Parsed statements are never modified, so sessions share them.
+ */
+public class PlanCache {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final PlanCache INSTANCE = new PlanCache(DEFAULT_CAPACITY);
+
+    private final int capacity;
+    private final LinkedHashMap<String, PreparedStatement> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private PlanCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > PlanCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static PlanCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the parsed form of a statement, parsing it only if it is not cached.
+     * EXECUTE statements are parsed every time: their text changes with the arguments.
+     */
+    public PreparedStatement get(String text) throws ParseException {
+        String key = normalize(text);
+        synchronized (this) {
+            PreparedStatement cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        PreparedStatement prepared = Parser.prepare(text);
+        if (prepared.getStatement().getKind() != Statement.Kind.EXECUTE) {
+            synchronized (this) {
+                entries.put(key, prepared);
+            }
+        }
+        return prepared;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Collapses runs of whitespace outside quotes to one space and drops a trailing semicolon,
+     * so statements that differ only in layout share an entry.
+     */
+    static String normalize(String text) {
+        if (isNormal(text)) {
+            return text;
+        }
+        StringBuilder builder = new StringBuilder(text.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                space = builder.length() > 0;
+                continue;
+            }
+            if (space) {
+                builder.append(' ');
+                space = false;
+            }
+            if (quote == 0 && (c == '\'' || c == '"')) {
+                quote = c;
+            } else if (c == quote) {
+                quote = 0;
+            }
+            builder.append(c);
+        }
+        int end = builder.length();
+        if (end > 0 && builder.charAt(end - 1) == ';' && quote == 0) {
+            builder.setLength(end - 1);
+        }
+        return builder.toString().trim();
+    }
+
+    /**
+     * Returns true if the text has no leading, trailing or repeated whitespace, no whitespace
+     * other than spaces, and no trailing semicolon, which is the usual case.
+     */
+    private static boolean isNormal(String text) {
+        int length = text.length();
+        if (length == 0 || text.charAt(0) == ' ' || text.charAt(length - 1) == ' ' || text.charAt(length - 1) == ';') {
+            return false;
+        }
+        char previous = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == ' ' ? previous == ' ' : c <= ' ' && Character.isWhitespace(c)) {
+                return false;
+            }
+            previous = c;
+        }
+        return true;
+    }
+}
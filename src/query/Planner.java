@@ -0,0 +1,188 @@
+package query;
+
+import executor.HashJoinOperator;
+import index.TableIndexes;
+import interfaces.ITableStore;
+import storage.PageFile;
+import storage.TableFile;
+import storage.TableStatistics;
+
+/**
+ * Chooses how a query reads a table, and how two tables are joined, by comparing the
+ * estimated cost of each way in units of one sequential page read. Row estimates come from
+ * the statistics ANALYZE stored for the table, scaled to its current row count. A table
+ * that has not been analyzed keeps the rule-based choices: any usable index, an equality
+ * before a range, a merge join when both join columns are indexed, and otherwise a hash
+ * join built on the table with fewer rows.
+ */
+class Planner {
+    private static final double RANDOM_PAGE_COST = 4;
+    private static final double ROW_COST = 0.01;
+    // Reaching the first entry of an index: a few levels of random page reads.
+    private static final double INDEX_DESCENT_COST = 3 * RANDOM_PAGE_COST;
+
+    /**
+     * The ways to join two tables.
+     */
+    enum JoinMethod {
+        MERGE,
+        HASH_BUILD_LEFT,
+        HASH_BUILD_RIGHT
+    }
+
+    private final ITableStore table;
+    private final TableIndexes indexes;
+    private final TableStatistics statistics;
+
+    /**
+     * Plans access to a table through its open indexes, which may be null if none are open,
+     * with the statistics stored for it, or null if it has none.
+     */
+    Planner(ITableStore table, TableIndexes indexes, TableStatistics statistics) {
+        this.table = table;
+        this.indexes = indexes;
+        this.statistics = statistics != null && statistics.matches(table.getSchema()) ? statistics : null;
+    }
+
+    boolean hasStatistics() {
+        return statistics != null;
+    }
+
+    long getRowCount() {
+        return table.getRowCount();
+    }
+
+    /**
+     * Returns the comparison whose index lookup reads the rows matching the condition most
+     * cheaply, or null if scanning the table is cheaper or no index applies.
+     */
+    WhereCondition chooseLookup(Condition condition) {
+        if (condition == null || indexes == null) {
+            return null;
+        }
+        WhereCondition chosen = null;
+        double chosenCost = statistics != null ? scanCost() : Double.MAX_VALUE;
+        for (Condition conjunct : condition.getConjuncts()) {
+            WhereCondition candidate = conjunct.getIndexable();
+            if (candidate == null || !hasIndex(candidate)) {
+                continue;
+            }
+            if (statistics == null) {
+                if (chosen == null || (candidate.isEquality() && !chosen.isEquality())) {
+                    chosen = candidate;
+                }
+                continue;
+            }
+            double cost = lookupCost(candidate);
+            if (cost < chosenCost) {
+                chosen = candidate;
+                chosenCost = cost;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Returns the estimated number of rows matching the condition, or all rows if it is null.
+     */
+    double estimateRows(Condition condition) {
+        if (condition == null || statistics == null) {
+            return table.getRowCount();
+        }
+        return table.getRowCount() * Math.max(0, Math.min(1, condition.selectivity(statistics)));
+    }
+
+    /**
+     * Returns the estimated cost of reading the rows matching the condition the chosen way.
+     */
+    double readCost(Condition condition) {
+        WhereCondition lookup = chooseLookup(condition);
+        return lookup != null ? lookupCost(lookup) : scanCost();
+    }
+
+    /**
+     * Chooses how to join the rows of two tables passing their filters. A merge join reads
+     * both tables in index order, fetching each row on its own, so it only wins on small
+     * tables; a hash join pays for writing and rereading both inputs when the build side
+     * does not fit in the memory budget, so the side estimated to be smaller is built.
+     */
+    static JoinMethod chooseJoin(Planner left, Condition leftFilter, Planner right, Condition rightFilter,
+                                 boolean mergePossible) {
+        if (left.statistics == null || right.statistics == null) {
+            if (mergePossible) {
+                return JoinMethod.MERGE;
+            }
+            return left.getRowCount() < right.getRowCount() ? JoinMethod.HASH_BUILD_LEFT : JoinMethod.HASH_BUILD_RIGHT;
+        }
+        double leftRows = left.estimateRows(leftFilter);
+        double rightRows = right.estimateRows(rightFilter);
+        double readCost = left.readCost(leftFilter) + right.readCost(rightFilter);
+        boolean buildOnLeft = leftRows < rightRows;
+        double buildRows = buildOnLeft ? leftRows : rightRows;
+        double probeRows = buildOnLeft ? rightRows : leftRows;
+        double hashCost = readCost + (2 * buildRows + probeRows) * ROW_COST;
+        double buildBytes = buildRows * (buildOnLeft ? left : right).rowBytes();
+        if (buildBytes > HashJoinOperator.DEFAULT_MEMORY_BUDGET) {
+            double spilledBytes = buildBytes + probeRows * (buildOnLeft ? right : left).rowBytes();
+            hashCost += 2 * spilledBytes / PageFile.PAGE_SIZE;
+        }
+        JoinMethod hash = buildOnLeft ? JoinMethod.HASH_BUILD_LEFT : JoinMethod.HASH_BUILD_RIGHT;
+        if (!mergePossible) {
+            return hash;
+        }
+        double mergeCost = left.orderedReadCost() + right.orderedReadCost() + (leftRows + rightRows) * ROW_COST;
+        return mergeCost < hashCost ? JoinMethod.MERGE : hash;
+    }
+
+    private boolean hasIndex(WhereCondition lookup) {
+        int column = lookup.getColumnIndex();
+        return (lookup.isEquality() && column == indexes.getPrimaryKeyColumn()) || indexes.forColumn(column) != null;
+    }
+
+    /**
+     * Returns the cost of a full scan: every page read in order and every row tested.
+     */
+    private double scanCost() {
+        return pageCount() + table.getRowCount() * ROW_COST;
+    }
+
+    /**
+     * Returns the cost of looking rows up through an index: a descent, then a random page
+     * read per matching row. A primary key lookup finds at most one row.
+     */
+    private double lookupCost(WhereCondition lookup) {
+        double rows = estimateRows(lookup);
+        if (lookup.isEquality() && lookup.getColumnIndex() == indexes.getPrimaryKeyColumn()) {
+            rows = Math.min(rows, 1);
+        }
+        return INDEX_DESCENT_COST + rows * (RANDOM_PAGE_COST + ROW_COST);
+    }
+
+    /**
+     * Returns the cost of reading every row in the order of an index.
+     */
+    private double orderedReadCost() {
+        return INDEX_DESCENT_COST + table.getRowCount() * (RANDOM_PAGE_COST + ROW_COST);
+    }
+
+    /**
+     * Returns the pages a scan reads: those of a heap table, or the size of the rows when
+     * the table was analyzed, scaled to its current row count.
+     */
+    private double pageCount() {
+        if (table instanceof TableFile) {
+            return ((TableFile) table).getDataPageCount();
+        }
+        return table.getRowCount() * rowBytes() / PageFile.PAGE_SIZE;
+    }
+
+    /**
+     * Returns the average size of a row when the table was analyzed.
+     */
+    private double rowBytes() {
+        if (statistics == null || statistics.getRowCount() == 0) {
+            return 0;
+        }
+        return (double) statistics.getPageCount() * PageFile.PAGE_SIZE / statistics.getRowCount();
+    }
+}
@@ -0,0 +1,55 @@
+package query;
+
+import java.util.Arrays;
+
+/**
+ * A parsed statement whose values may be ? parameters. Binding arguments fills them in
+ * without parsing the text again.
+ */
+public class PreparedStatement {
+    private final String text;
+    private final Statement statement;
+    private final int[] parameterOffsets;
+
+    PreparedStatement(String text, Statement statement, int[] parameterOffsets) {
+        this.text = text;
+        this.statement = statement;
+        this.parameterOffsets = parameterOffsets;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Statement getStatement() {
+        return statement;
+    }
+
+    public int getParameterCount() {
+        return parameterOffsets.length;
+    }
+
+    /**
+     * Returns the statement with the arguments in place of its parameters.
+     * The caller checks that there is one argument per parameter.
+     */
+    public Statement bind(String... arguments) {
+        return parameterOffsets.length == 0 ? statement : statement.bind(Arrays.asList(arguments).iterator());
+    }
+
+    /**
+     * Returns the statement text with each parameter replaced by its argument as a quoted
+     * string, which parses to the same statement as {@link #bind(String...)} returns.
+     * This is what gets logged, so that replay does not depend on the prepared statement.
+     */
+    public String bindText(String... arguments) {
+        StringBuilder builder = new StringBuilder(text.length() + 16 * arguments.length);
+        int from = 0;
+        for (int i = 0; i < parameterOffsets.length; i++) {
+            builder.append(text, from, parameterOffsets[i]);
+            builder.append('\'').append(arguments[i].replace("'", "''")).append('\'');
+            from = parameterOffsets[i] + 1;
+        }
+        return builder.append(text, from, text.length()).toString();
+    }
+}
@@ -1,28 +1,95 @@
 package query;
 
+import executor.AggregateFunction;
+import executor.AggregateOperator;
+import executor.BatchFilterOperator;
+import executor.BatchScanOperator;
+import executor.FilterOperator;
+import executor.HashAggregateOperator;
+import executor.HashJoinOperator;
+import executor.LimitOperator;
+import executor.MappedScanOperator;
+import executor.MergeJoinOperator;
+import executor.ParallelScanOperator;
+import executor.ProfiledOperator;
+import executor.ProjectOperator;
+import executor.RowIdScanOperator;
+import executor.ScanOperator;
+import executor.SortOperator;
+import executor.TopNOperator;
+import index.BPlusTree;
+import index.HashIndex;
+import index.TableIndexes;
+import interfaces.IBatchOperator;
+import interfaces.IKeyedTableStore;
+import interfaces.IOperator;
 import interfaces.IQueryProcessor;
+import interfaces.ITableStore;
+import storage.BufferPool;
+import storage.ColumnType;
+import storage.ColumnarTable;
+import storage.CompressionStats;
+import storage.PageCompression;
+import storage.PageFile;
+import storage.PageJournal;
 import storage.PersistentStorage;
+import storage.TableCompactor;
+import storage.TableConverter;
+import storage.TableFile;
+import storage.TableLocks;
+import storage.StorageEngine;
+import storage.TableSchema;
+import storage.TableStatistics;
+import storage.WriteAheadLog;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.text.ParseException;
 
 
 public class QueryProcessor implements IQueryProcessor {
     private static final String STORAGE_ROOT = "storage/";
+    private static final int LOAD_BATCH_SIZE = 10000;
     private final String loggedInUser;
     private String currentDatabase = null;
     private final Scanner scanner = new Scanner(System.in);
     private final PersistentStorage storage;
 
     private boolean transactionActive = false;
+    private String transactionUser;
     private final List<String> transactionLog = new ArrayList<>();
+    // LSN of the logged statement being applied, or 0.
+    private long applyingLsn = 0;
+    // True for the sessions that replay the log at startup.
+    private boolean recovering;
+    private final Map<String, PreparedStatement> preparedStatements = new HashMap<>();
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private ForkJoinPool scanPool;
+    // Rows added by the last INSERT, so that LOAD DATA can tell whether a batch went in.
+    private int insertedRows;
+    // The EXPLAIN whose statement is being planned, or null when statements run as usual.
+    private Statement.Explain explaining;
+    // Where the SELECT being run stores its result, or null when it is not cached.
+    private CachedSelect caching;
+
+    private static boolean recovered = false;
 
     public QueryProcessor(String username) {
         this.loggedInUser = username;
         this.storage = new PersistentStorage();
+        recover();
     }
 
 
@@ -43,75 +110,361 @@ public class QueryProcessor implements IQueryProcessor {
 
         query = query.substring(0, query.length() - 1).trim();
 
-        String upperQuery = query.toUpperCase();
+        PreparedStatement prepared;
+        try {
+            prepared = PlanCache.getInstance().get(query);
+        } catch (ParseException e) {
+            System.out.println("Syntax error: " + e.getMessage());
+            return;
+        }
+        if (prepared.getParameterCount() > 0) {
+            System.out.println("Error: Parameters are only allowed in prepared statements. Use: PREPARE name AS ...; then EXECUTE name(...);");
+            return;
+        }
+
+        run(query, prepared.getStatement());
+    }
+
+    /**
+     * Parses a statement that may contain ? parameters, for running it later with
+     * {@link #execute(PreparedStatement, String...)}. Returns null if it does not parse.
+     */
+    public PreparedStatement prepare(String query) {
+        try {
+            return PlanCache.getInstance().get(query.trim());
+        } catch (ParseException e) {
+            System.out.println("Syntax error: " + e.getMessage());
+            return null;
+        }
+    }
 
-        if (handleTransactionCommand(query, upperQuery)) {
+    /**
+     * Runs a prepared statement with one argument per parameter.
+     */
+    public void execute(PreparedStatement prepared, String... arguments) {
+        if (arguments.length != prepared.getParameterCount()) {
+            System.out.println("Error: Statement expects " + prepared.getParameterCount()
+                    + " parameter(s) but got " + arguments.length + ".");
             return;
         }
+        Statement statement = prepared.bind(arguments);
+        boolean needsText = statement.isDataModification() || ResultCache.getInstance().isEnabled();
+        run(needsText ? prepared.bindText(arguments) : prepared.getText(), statement);
+    }
 
-        if (upperQuery.equals("BEGIN TRANSACTION")) {
-            beginTransaction();
+    private void run(String query, Statement statement) {
+        if (statement.isDataModification() && currentDatabase != null) {
+            if (transactionActive) {
+                stageQuery(query, statement);
+            } else {
+                executeLogged(query, statement);
+            }
             return;
-        } else if (upperQuery.equals("BEGIN")) {
-            beginTransaction();
+        }
+        if (statement.getKind() == Statement.Kind.SELECT && currentDatabase != null
+                && ResultCache.getInstance().isEnabled()) {
+            runCached(query, (Statement.Select) statement);
             return;
         }
 
+        dispatch(statement);
+    }
 
-        String[] queryParts = upperQuery.split(" ", 2);
-        String command = queryParts[0];
+    /**
+     * Prints the cached result of a SELECT if the tables it reads have not changed since,
+     * and otherwise runs it and caches its result as it is printed.
+     */
+    private void runCached(String query, Statement.Select select) {
+        ResultCache cache = ResultCache.getInstance();
+        String key = loggedInUser + "/" + currentDatabase + "/" + PlanCache.normalize(query);
+        ResultCache.Result cached = cache.get(key);
+        if (cached != null) {
+            System.out.println("Result cache hit.");
+            System.out.println(cached.getTitle());
+            printResult(cached.getColumns(), cached.getRows());
+            return;
+        }
 
-        switch (command) {
-            case "SHOW":
-                if (upperQuery.equals("SHOW DATABASES")) {
-                    showDatabases();
-                } else if (upperQuery.equals("SHOW TABLES")) {
-                    showTables();
-                } else {
-                    System.out.println("Error: Invalid SHOW command. Use 'SHOW DATABASES' or 'SHOW TABLES'.");
+        List<String> tables = new ArrayList<>();
+        tables.add(ResultCache.tableKey(loggedInUser, currentDatabase, select.getTable()));
+        if (select.getJoin() != null) {
+            tables.add(ResultCache.tableKey(loggedInUser, currentDatabase, select.getJoin().getTable()));
+        }
+        caching = new CachedSelect(key, tables, cache.getVersions(tables));
+        try {
+            dispatch(select);
+        } finally {
+            caching = null;
+        }
+    }
+
+    /**
+     * Replays the committed statements found in the write-ahead log, then checkpoints it.
+     * Statements a crash interrupted on heap tables are first rolled back with their journals,
+     * so that every table holds each statement either whole or not at all, as
+     * {@link WriteAheadLog} describes. Statements already applied to a
+     * table are then skipped using the table's applied LSN, which only works because live
+     * sessions apply each table's statements in log order.
+     * Runs once per process, before the first query.
+     */
+    public static synchronized void recover() {
+        if (recovered) {
+            return;
+        }
+        recovered = true;
+        try {
+            int rolledBack = PageJournal.rollBackAll(new File(STORAGE_ROOT));
+            if (rolledBack > 0) {
+                System.out.println("Rolled back " + rolledBack + " statement(s) interrupted by a crash.");
+            }
+            WriteAheadLog wal = WriteAheadLog.getInstance();
+            List<WriteAheadLog.Record> records = wal.recover();
+            if (!records.isEmpty()) {
+                System.out.println("Recovering " + records.size() + " logged statement(s) from the write-ahead log.");
+                Map<String, QueryProcessor> processors = new HashMap<>();
+                for (WriteAheadLog.Record record : records) {
+                    QueryProcessor processor = processors.computeIfAbsent(record.getUser() + "/" + record.getDatabase(), key -> {
+                        QueryProcessor recovering = new QueryProcessor(record.getUser());
+                        recovering.currentDatabase = record.getDatabase();
+                        recovering.recovering = true;
+                        return recovering;
+                    });
+                    if (record.getStatement() == null) {
+                        processor.applyLogged(new Statement.Insert(record.getTable(), record.getRows()), record.getLsn());
+                    } else {
+                        processor.applyLogged(record.getStatement(), record.getLsn());
+                    }
+                }
+            }
+            wal.checkpoint();
+        } catch (IOException e) {
+            System.out.println("Error recovering from the write-ahead log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs a data modification as its own transaction: the statement is logged and the commit
+     * made durable before the tables are touched. The table stays locked from logging to
+     * applying, so statements reach it in log order. An INSERT without text, such as a batch
+     * of LOAD DATA, is logged as its rows.
+     */
+    private void executeLogged(String query, Statement statement) {
+        WriteAheadLog wal;
+        try {
+            wal = WriteAheadLog.getInstance();
+        } catch (IOException e) {
+            System.out.println("Error opening the write-ahead log: " + e.getMessage());
+            return;
+        }
+
+        wal.beginApply();
+        List<ReentrantLock> locks = TableLocks.lockAll(databaseDir(), Collections.singletonList(modifiedTable(statement)));
+        try {
+            long transactionId = wal.beginTransaction();
+            long lsn;
+            if (query == null) {
+                Statement.Insert insert = (Statement.Insert) statement;
+                lsn = wal.logRows(transactionId, loggedInUser, currentDatabase, insert.getTable(), insert.getRows());
+            } else {
+                lsn = wal.logStatement(transactionId, loggedInUser, currentDatabase, query);
+            }
+            wal.commit(transactionId);
+            applyLogged(statement, lsn);
+            wal.end(transactionId);
+        } catch (IOException e) {
+            System.out.println("Error writing to the write-ahead log: " + e.getMessage());
+            return;
+        } finally {
+            TableLocks.unlockAll(locks);
+            wal.endApply();
+        }
+        checkpointIfNeeded(wal);
+    }
+
+    /**
+     * Applies a logged statement. On a heap table, whose pages are changed in place, the pages
+     * the statement changes are saved to a journal before they are first written and are all
+     * written back at the end, so that after a crash recovery can roll the table back to before
+     * the statement and redo it. The other engines write their changes out only between
+     * statements, through manifests they replace atomically.
+     */
+    private void applyLogged(String query, long lsn) {
+        try {
+            applyLogged(Parser.parse(query), lsn);
+        } catch (ParseException e) {
+            System.out.println("Error: Cannot parse logged statement: " + e.getMessage());
+        }
+    }
+
+    private void applyLogged(Statement statement, long lsn) {
+        BufferPool pool = BufferPool.getInstance();
+        String tableName = modifiedTable(statement);
+        PageJournal journal = null;
+        if (StorageEngine.of(databaseDir(), tableName) == StorageEngine.HEAP) {
+            journal = new PageJournal(PageJournal.fileFor(databaseDir(), tableName));
+            pool.beginStatement(journal);
+        }
+        applyingLsn = lsn;
+        try {
+            dispatch(statement);
+        } finally {
+            applyingLsn = 0;
+            if (journal != null) {
+                try {
+                    pool.endStatement(journal);
+                } catch (IOException e) {
+                    System.out.println("Error writing back buffered pages: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void checkpointIfNeeded(WriteAheadLog wal) {
+        try {
+            wal.checkpointIfNeeded();
+        } catch (IOException e) {
+            System.out.println("Error checkpointing the write-ahead log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns true if the logged statement being replayed already reached the table before a
+     * crash. Live sessions never skip: they hold the table's lock, so nothing later in the log
+     * can have been applied ahead of them.
+     */
+    private boolean isAlreadyApplied(ITableStore table, String tableName) {
+        if (recovering && applyingLsn > 0 && table.getAppliedLsn() >= applyingLsn) {
+            System.out.println("Skipping statement already applied to table '" + tableName + "'.");
+            return true;
+        }
+        return false;
+    }
+
+    private void markApplied(ITableStore table) throws IOException {
+        if (applyingLsn > 0) {
+            table.setAppliedLsn(applyingLsn);
+        }
+    }
+
+    /**
+     * Returns the table a data modification changes.
+     */
+    private static String modifiedTable(Statement statement) {
+        switch (statement.getKind()) {
+            case INSERT:
+                return ((Statement.Insert) statement).getTable();
+            case UPDATE:
+                return ((Statement.Update) statement).getTable();
+            default:
+                return ((Statement.Delete) statement).getTable();
+        }
+    }
+
+    private void dispatch(Statement statement) {
+        switch (statement.getKind()) {
+            case SHOW:
+                switch (((Statement.Show) statement).getTarget()) {
+                    case DATABASES:
+                        showDatabases();
+                        break;
+                    case TABLES:
+                        showTables();
+                        break;
+                    default:
+                        showStatus();
+                        break;
                 }
                 break;
-            case "USE":
-                useDatabase(query);
+            case USE:
+                useDatabase(((Statement.Named) statement).getName());
                 break;
-            case "CREATE":
-                if (upperQuery.startsWith("CREATE DATABASE")) {
-                    createDatabase(query);
-                } else if (upperQuery.startsWith("CREATE TABLE")) {
-                    createTable(query);
-                } else {
-                    System.out.println("Error: Invalid CREATE syntax.");
+            case CREATE_DATABASE:
+                createDatabase(((Statement.Named) statement).getName());
+                break;
+            case CREATE_TABLE:
+                createTable((Statement.CreateTable) statement);
+                break;
+            case CREATE_INDEX:
+                createIndex((Statement.CreateIndex) statement);
+                break;
+            case DROP_INDEX:
+                dropIndex((Statement.DropIndex) statement);
+                break;
+            case UPDATE:
+                try {
+                    updateData((Statement.Update) statement);
+                } finally {
+                    tableChanged(((Statement.Update) statement).getTable());
                 }
                 break;
-            case "UPDATE":
-                updateData(query);
+            case DELETE:
+                try {
+                    deleteData((Statement.Delete) statement);
+                } finally {
+                    tableChanged(((Statement.Delete) statement).getTable());
+                }
                 break;
-            case "DELETE":
-                deleteData(query);
+            case DESCRIBE:
+                describeTable(((Statement.Named) statement).getName());
                 break;
-            case "DESCRIBE":
-                describeTable(query);
+            case VACUUM:
+                vacuumTable(((Statement.Named) statement).getName());
                 break;
-            case "SELECT":
-                selectData(query);
+            case ANALYZE:
+                analyzeTable(((Statement.Named) statement).getName());
                 break;
-            case "INSERT":
-                insertData(query);
+            case EXPLAIN:
+                explain((Statement.Explain) statement);
                 break;
-            case "COMMIT":
-                if (!isTransactionActive()) {
-                    System.out.println("Error: No active transaction to commit.");
+            case SELECT:
+                selectData((Statement.Select) statement);
+                break;
+            case INSERT:
+                try {
+                    insertData((Statement.Insert) statement);
+                } finally {
+                    tableChanged(((Statement.Insert) statement).getTable());
+                }
+                break;
+            case BEGIN:
+                String beginUser = ((Statement.Transaction) statement).getUser();
+                if (beginUser != null) {
+                    beginTransactionAs(beginUser);
+                } else {
+                    beginTransaction();
+                }
+                break;
+            case COMMIT:
+                String commitUser = ((Statement.Transaction) statement).getUser();
+                if (commitUser != null) {
+                    commitTransactionAs(commitUser);
                 } else {
                     commitTransaction();
                 }
                 break;
-            case "ROLLBACK":
-                if (!isTransactionActive()) {
-                    System.out.println("Error: No active transaction to rollback.");
+            case ROLLBACK:
+                String rollbackUser = ((Statement.Transaction) statement).getUser();
+                if (rollbackUser != null) {
+                    rollbackTransactionAs(rollbackUser);
                 } else {
                     rollbackTransaction();
                 }
                 break;
+            case PREPARE:
+                prepareStatement((Statement.Prepare) statement);
+                break;
+            case EXECUTE:
+                executePrepared((Statement.Execute) statement);
+                break;
+            case DEALLOCATE:
+                deallocateStatement(((Statement.Named) statement).getName());
+                break;
+            case SET:
+                setOption((Statement.Set) statement);
+                break;
+            case LOAD:
+                loadData((Statement.Load) statement);
+                break;
             default:
                 System.out.println("Error: Unknown SQL command.");
                 break;
@@ -119,6 +472,86 @@ public class QueryProcessor implements IQueryProcessor {
     }
 
 
+    /**
+     * Makes cached results read from the table stale. Called after every statement that may
+     * have changed its rows, even one that failed partway.
+     */
+    private void tableChanged(String tableName) {
+        if (currentDatabase != null) {
+            ResultCache.getInstance().tableChanged(ResultCache.tableKey(loggedInUser, currentDatabase, tableName));
+        }
+    }
+
+    private void prepareStatement(Statement.Prepare prepare) {
+        if (preparedStatements.containsKey(prepare.getName())) {
+            System.out.println("Error: Prepared statement '" + prepare.getName() + "' already exists.");
+            return;
+        }
+        preparedStatements.put(prepare.getName(), prepare.getPrepared());
+        System.out.println("Statement '" + prepare.getName() + "' prepared with "
+                + prepare.getPrepared().getParameterCount() + " parameter(s).");
+    }
+
+    private void executePrepared(Statement.Execute execute) {
+        PreparedStatement prepared = preparedStatements.get(execute.getName());
+        if (prepared == null) {
+            System.out.println("Error: Prepared statement '" + execute.getName() + "' not found.");
+            return;
+        }
+        execute(prepared, execute.getArguments());
+    }
+
+    private void deallocateStatement(String name) {
+        if (preparedStatements.remove(name) == null) {
+            System.out.println("Error: Prepared statement '" + name + "' not found.");
+            return;
+        }
+        System.out.println("Statement '" + name + "' deallocated.");
+    }
+
+    /**
+     * Changes a setting. PARALLELISM is the number of threads a query of this session may
+     * scan and aggregate with. RESULT_CACHE is the megabytes of memory SELECT results may be
+     * cached in, shared by all sessions; 0 turns the cache off.
+     */
+    private void setOption(Statement.Set set) {
+        if (set.getName().equalsIgnoreCase("RESULT_CACHE")) {
+            setResultCache(set.getValue());
+            return;
+        }
+        if (!set.getName().equalsIgnoreCase("PARALLELISM")) {
+            System.out.println("Error: Unknown setting '" + set.getName() + "'.");
+            return;
+        }
+        int value;
+        try {
+            value = Integer.parseInt(set.getValue());
+        } catch (NumberFormatException e) {
+            value = 0;
+        }
+        if (value < 1) {
+            System.out.println("Error: PARALLELISM must be a positive whole number.");
+            return;
+        }
+        parallelism = value;
+        System.out.println("Parallelism set to " + value + ".");
+    }
+
+    private void setResultCache(String megabytes) {
+        int value;
+        try {
+            value = Integer.parseInt(megabytes);
+        } catch (NumberFormatException e) {
+            value = -1;
+        }
+        if (value < 0) {
+            System.out.println("Error: RESULT_CACHE must be a whole number of megabytes, or 0 to turn it off.");
+            return;
+        }
+        ResultCache.getInstance().setBudget(value * 1024L * 1024L);
+        System.out.println(value == 0 ? "Result cache turned off." : "Result cache set to " + value + " MB.");
+    }
+
     private void showDatabases() {
         File userStorageDir = new File(STORAGE_ROOT + loggedInUser);
         String[] databases = userStorageDir.list((dir, name) -> new File(dir, name).isDirectory());
@@ -132,17 +565,7 @@ public class QueryProcessor implements IQueryProcessor {
             }
         }
     }
-    private void createDatabase(String query) {
-        String pattern = "(?i)CREATE\\s+DATABASE\\s+([a-zA-Z0-9_]+)";
-        Pattern r = Pattern.compile(pattern);
-        Matcher m = r.matcher(query);
-
-        if (!m.find()) {
-            System.out.println("Invalid CREATE DATABASE syntax. Use: CREATE DATABASE db_name;");
-            return;
-        }
-
-        String dbName = m.group(1);
+    private void createDatabase(String dbName) {
         if (!dbName.matches("^[a-zA-Z0-9_]+$")) {
             System.out.println("Error: Invalid database name. Use only letters, numbers, or underscores.");
             return;
@@ -169,14 +592,7 @@ public class QueryProcessor implements IQueryProcessor {
         }
     }
 
-    private void useDatabase(String query) {
-        String[] parts = query.split(" ");
-        if (parts.length != 2) {
-            System.out.println("Invalid USE syntax. Use: USE database_name;");
-            return;
-        }
-
-        String dbName = parts[1];
+    private void useDatabase(String dbName) {
         File dbDir = new File(STORAGE_ROOT + loggedInUser + "/" + dbName);
 
 
@@ -192,87 +608,128 @@ public class QueryProcessor implements IQueryProcessor {
 
         currentDatabase = dbName;
         System.out.println("Database set to: " + dbName);
+
+        int converted = TableConverter.convertAll(dbDir);
+        if (converted > 0) {
+            System.out.println("Converted " + converted + " legacy table(s) to the paged format.");
+        }
     }
-    private void describeTable(String query) {
+    private void describeTable(String tableName) {
         if (currentDatabase == null) {
             System.out.println("No database selected. Use 'USE database_name' first.");
             return;
         }
 
-        String[] parts = query.split("\\s+");
-        if (parts.length != 2) {
-            System.out.println("Invalid DESCRIBE syntax. Use: DESCRIBE table_name;");
-            return;
-        }
-
-        String tableName = parts[1].replace(";", "").trim();
-
-        File tableFile = new File(STORAGE_ROOT + loggedInUser + "/" + currentDatabase + "/" + tableName + ".txt");
+        File tableFile = tableFile(tableName);
 
         if (!tableFile.exists()) {
             System.out.println("Error: Table '" + tableName + "' not found.");
             return;
         }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(tableFile))) {
-            String header = br.readLine();
-            if (header != null) {
+        try {
+            ITableStore table = openTable(tableName);
+            try {
                 System.out.println("Table Structure for '" + tableName + "':");
-                for (String column : header.split("\\|\\|\\|")) {
-                    System.out.println("- " + column);
+                String primaryKey = table.getSchema().getPrimaryKey();
+                List<String> columns = table.getSchema().getColumns();
+                for (int i = 0; i < columns.size(); i++) {
+                    String column = columns.get(i);
+                    System.out.println("- " + column + " " + table.getSchema().getType(i)
+                            + (column.equals(primaryKey) ? " (PRIMARY KEY)" : ""));
                 }
-            } else {
-                System.out.println("Table '" + tableName + "' is empty.");
+                for (Map.Entry<String, String> index : table.getSchema().getIndexes().entrySet()) {
+                    System.out.println("Index: " + index.getKey() + " (" + index.getValue() + ")");
+                }
+                if (table.getSchema().getEngine() != null) {
+                    System.out.println("Engine: " + table.getSchema().getEngine());
+                }
+                if (table.getSchema().getCompression() != PageCompression.NONE) {
+                    System.out.println("Compression: " + table.getSchema().getCompression());
+                }
+                if (table instanceof ColumnarTable) {
+                    ColumnarTable columnar = (ColumnarTable) table;
+                    System.out.println("Row groups: " + columnar.getRowGroupCount() + ", pending rows: " + columnar.getPendingRowCount());
+                    for (int i = 0; i < columns.size(); i++) {
+                        System.out.println("Column " + columns.get(i) + ": " + columnar.describeColumn(i));
+                    }
+                }
+            } finally {
+                table.close();
             }
         } catch (IOException e) {
             System.out.println("Error reading table '" + tableName + "': " + e.getMessage());
         }
     }
 
+    private void showStatus() {
+        BufferPool pool = BufferPool.getInstance();
+        long hits = pool.getHits();
+        long misses = pool.getMisses();
+        long lookups = hits + misses;
+        System.out.println("Buffer pool: " + pool.getCachedPageCount() + " of " + pool.getCapacity()
+                + " pages cached, " + pool.getDirtyPageCount() + " dirty");
+        System.out.println("Buffer pool hits: " + hits + ", misses: " + misses + ", hit ratio: "
+                + (lookups == 0 ? "n/a" : String.format("%.1f%%", 100.0 * hits / lookups)));
+        System.out.println("Buffer pool evictions: " + pool.getEvictions() + ", write-backs: " + pool.getWriteBacks());
+        CompressionStats compression = CompressionStats.getInstance();
+        if (compression.getPagesWritten() > 0 || compression.getPagesDecoded() > 0) {
+            System.out.println("Page compression: " + compression.getPagesWritten() + " pages written ("
+                    + compression.getPagesStoredRaw() + " stored raw), ratio "
+                    + String.format("%.2fx", (double) compression.getBytesWritten() / Math.max(1, compression.getBytesStored()))
+                    + ", encode " + String.format("%.1f", compression.getEncodeNanos() / 1000.0 / Math.max(1, compression.getPagesWritten()))
+                    + " us/page");
+            System.out.println("Page decompression: " + compression.getPagesDecoded() + " pages, decode "
+                    + String.format("%.1f", compression.getDecodeNanos() / 1000.0 / Math.max(1, compression.getPagesDecoded()))
+                    + " us/page");
+        }
+        System.out.println("Parallelism: " + parallelism);
+        PlanCache plans = PlanCache.getInstance();
+        System.out.println("Plan cache: " + plans.getSize() + " of " + plans.getCapacity() + " statements cached, hits: "
+                + plans.getHits() + ", misses: " + plans.getMisses() + ", evictions: " + plans.getEvictions());
+        ResultCache results = ResultCache.getInstance();
+        if (results.isEnabled()) {
+            System.out.println("Result cache: " + results.getSize() + " results cached in " + results.getUsed() + " of "
+                    + results.getBudget() + " bytes, hits: " + results.getHits() + ", misses: " + results.getMisses()
+                    + ", evictions: " + results.getEvictions() + ", invalidations: " + results.getInvalidations());
+        } else {
+            System.out.println("Result cache: off");
+        }
+    }
+
     private void showTables() {
         if (currentDatabase == null || currentDatabase.isEmpty()) {
             System.out.println("No database selected. Use 'USE database_name' first.");
             return;
         }
 
-        File dbDir = new File(STORAGE_ROOT + loggedInUser + "/" + currentDatabase);
-        String[] tables = dbDir.list((dir, name) -> name.endsWith(".txt"));
+        File dbDir = databaseDir();
+        List<String> tables = StorageEngine.listTables(dbDir);
 
-        if (tables == null || tables.length == 0) {
+        if (tables.isEmpty()) {
             System.out.println("No tables found in database: " + currentDatabase);
         } else {
             System.out.println("Tables in database '" + currentDatabase + "':");
             for (String table : tables) {
-                System.out.println("- " + table.replace(".txt", ""));
+                System.out.println("- " + table);
             }
         }
     }
 
-    private void selectData(String query) {
+    private void selectData(Statement.Select select) {
         if (currentDatabase == null || currentDatabase.isEmpty()) {
             System.out.println("No database selected. Use 'USE database_name' first.");
             return;
         }
-
-
-        query = query.replaceAll("\\s+", " ").trim();
-        System.out.println("Received SELECT Query: " + query);
-
-        if (!query.toUpperCase().startsWith("SELECT * FROM ")) {
-            System.out.println("Syntax error in SELECT statement. Correct format: SELECT * FROM table_name [WHERE column = value];");
+        if (select.getJoin() != null) {
+            selectJoin(select);
             return;
         }
 
-        String[] queryParts = query.split("\\s+");
-        if (queryParts.length < 4 || !"FROM".equalsIgnoreCase(queryParts[2])) {
-            System.out.println("Syntax error in SELECT statement. Correct format: SELECT * FROM table_name [WHERE column = value];");
-            return;
-        }
-
-        String tableName = queryParts[3].replace(";", "").trim();
+        String tableName = select.getTable();
         System.out.println("Extracted Table Name: " + tableName);
 
-        File tableFile = new File(STORAGE_ROOT + loggedInUser + "/" + currentDatabase + "/" + tableName + ".txt");
+        File tableFile = tableFile(tableName);
         System.out.println("Looking for file: " + tableFile.getAbsolutePath());
 
         if (!tableFile.exists()) {
@@ -280,220 +737,1092 @@ public class QueryProcessor implements IQueryProcessor {
             return;
         }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(tableFile))) {
-            String header = br.readLine();
-            if (header == null) {
-                System.out.println("Table is empty.");
+        try {
+            ITableStore table = openTable(tableName);
+            TableIndexes indexes = null;
+            try {
+                String[] columnNames = table.getSchema().getColumns().toArray(new String[0]);
+                System.out.println("Columns Found: " + String.join(", ", columnNames));
+                Condition condition = null;
+                Planner planner = null;
+                if (select.getWhere() != null) {
+                    condition = compileWhere(select.getWhere(), table.getSchema());
+                    if (condition == null) {
+                        return;
+                    }
+                    indexes = TableIndexes.open(databaseDir(), tableName, table);
+                    planner = planner(tableName, table, indexes);
+                }
+
+                int[] projection = null;
+                boolean[] projected = null;
+                if (select.getColumns() != null) {
+                    projection = new int[select.getColumns().size()];
+                    projected = new boolean[columnNames.length];
+                    for (int i = 0; i < projection.length; i++) {
+                        projection[i] = table.getSchema().indexOf(select.getColumns().get(i));
+                        if (projection[i] == -1) {
+                            System.out.println("Error: Invalid column in SELECT list: " + select.getColumns().get(i));
+                            return;
+                        }
+                        projected[projection[i]] = true;
+                    }
+                }
+                Comparator<String[]> order = null;
+                if (select.getOrderBy() != null && select.getAggregates() == null) {
+                    order = sortOrder(table.getSchema(), select.getOrderBy(), projected);
+                    if (order == null) {
+                        return;
+                    }
+                }
+
+                IOperator plan;
+                if (select.getGroupBy() != null) {
+                    plan = groupOperator(scanOperator(tableName, table, indexes, planner, condition,
+                            groupedColumns(table.getSchema(), select), -1), table.getSchema(), select);
+                    if (plan == null) {
+                        return;
+                    }
+                } else if (select.getAggregates() != null) {
+                    plan = aggregateOperator(table, select.getAggregates(), condition);
+                    if (plan == null) {
+                        return;
+                    }
+                    plan = step(plan, "Batch aggregate " + describe(select.getAggregates()) + " on " + tableName
+                            + describeFilter(planner, condition));
+                } else {
+                    plan = scanOperator(tableName, table, indexes, planner, condition, projected,
+                            order == null ? select.getLimit() : -1);
+                }
+                if (select.getOrderBy() != null && select.getAggregates() != null) {
+                    order = sortOrder(resultSchema(table.getSchema(), plan.getColumns()), select.getOrderBy(), null);
+                    if (order == null) {
+                        return;
+                    }
+                }
+                if (order != null) {
+                    plan = sortOperator(plan, order, select.getOrderBy(), select.getLimit());
+                }
+                if (projection != null) {
+                    plan = step(new ProjectOperator(plan, projection), "Project " + describe(select.getColumns()), plan);
+                }
+                if (order == null && select.getLimit() >= 0) {
+                    plan = step(new LimitOperator(plan, select.getLimit()), "Limit " + select.getLimit(), plan);
+                }
+
+                output("\nData from table '" + tableName + "':", plan);
+            } finally {
+                if (indexes != null) {
+                    indexes.close();
+                }
+                table.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading table: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs a SELECT over two joined tables. WHERE conditions on the columns of one table are
+     * applied while that table is read and the others on the joined rows. If both join columns
+     * have a B+tree index the tables may be read in index order and merged; otherwise the
+     * smaller table is loaded into a hash table, which spills to disk beyond the join memory
+     * budget. The planner picks the method and build side from the tables' statistics.
+     */
+    private void selectJoin(Statement.Select select) {
+        Statement.Join join = select.getJoin();
+        String leftName = select.getTable();
+        String rightName = join.getTable();
+        System.out.println("Extracted Table Names: " + leftName + ", " + rightName);
+
+        if (leftName.equalsIgnoreCase(rightName)) {
+            System.out.println("Error: A table cannot be joined with itself.");
+            return;
+        }
+        for (String tableName : new String[]{leftName, rightName}) {
+            File tableFile = tableFile(tableName);
+            System.out.println("Looking for file: " + tableFile.getAbsolutePath());
+            if (!tableFile.exists()) {
+                System.out.println("Error: Table '" + tableName + "' not found.");
                 return;
             }
+        }
 
-            String[] columnNames = header.split("\\|\\|\\|");
-            System.out.println("Columns Found: " + String.join(", ", columnNames));
-            List<String[]> records = new ArrayList<>();
-            boolean hasCondition = query.toUpperCase().contains(" WHERE ");
-            int conditionColumnIndex = -1;
-            String conditionValue = "";
+        try {
+            ITableStore left = openTable(leftName);
+            ITableStore right = null;
+            TableIndexes leftIndexes = null;
+            TableIndexes rightIndexes = null;
+            try {
+                right = openTable(rightName);
+                TableSchema leftSchema = qualifiedSchema(leftName, left);
+                TableSchema rightSchema = qualifiedSchema(rightName, right);
+                List<String> names = new ArrayList<>(leftSchema.getColumns());
+                names.addAll(rightSchema.getColumns());
+                TableSchema joined = new TableSchema(names);
+                for (TableSchema side : Arrays.asList(leftSchema, rightSchema)) {
+                    for (int i = 0; i < side.getColumnCount(); i++) {
+                        joined.setType(side.getColumn(i), side.getType(i));
+                    }
+                }
+                int leftCount = leftSchema.getColumnCount();
+                System.out.println("Columns Found: " + String.join(", ", names));
+
+                int leftKey;
+                int rightKey;
+                ColumnType keyType;
+                List<Condition> leftFilters = new ArrayList<>();
+                List<Condition> rightFilters = new ArrayList<>();
+                List<Condition> joinFilters = new ArrayList<>();
+                boolean[] needed = null;
+                int[] projection = null;
+                Comparator<String[]> order = null;
+                try {
+                    int first = Condition.indexOf(joined, join.getLeftColumn());
+                    int second = Condition.indexOf(joined, join.getRightColumn());
+                    if (first == -1 || second == -1) {
+                        System.out.println("Error: Invalid column in JOIN condition: "
+                                + (first == -1 ? join.getLeftColumn() : join.getRightColumn()));
+                        return;
+                    }
+                    if ((first < leftCount) == (second < leftCount)) {
+                        System.out.println("Error: The JOIN condition must compare a column of each table.");
+                        return;
+                    }
+                    leftKey = Math.min(first, second);
+                    rightKey = Math.max(first, second) - leftCount;
+                    ColumnType leftType = leftSchema.getType(leftKey);
+                    ColumnType rightType = rightSchema.getType(rightKey);
+                    keyType = ColumnType.common(leftType, rightType);
+                    if (keyType == null) {
+                        System.out.println("Error: Cannot join " + leftType + " column " + names.get(leftKey)
+                                + " with " + rightType + " column " + names.get(leftCount + rightKey) + ".");
+                        return;
+                    }
+                    if (leftType == rightType) {
+                        keyType = null;
+                    }
 
-            if (hasCondition) {
-                String conditionPart = query.split("(?i)WHERE")[1].trim();
-                String[] conditionParts = conditionPart.split("=");
+                    if (select.getColumns() != null) {
+                        projection = new int[select.getColumns().size()];
+                        needed = new boolean[names.size()];
+                        for (int i = 0; i < projection.length; i++) {
+                            projection[i] = Condition.indexOf(joined, select.getColumns().get(i));
+                            if (projection[i] == -1) {
+                                System.out.println("Error: Invalid column in SELECT list: " + select.getColumns().get(i));
+                                return;
+                            }
+                            needed[projection[i]] = true;
+                        }
+                        needed[leftKey] = true;
+                        needed[leftCount + rightKey] = true;
+                    }
+                    if (select.getOrderBy() != null && select.getAggregates() == null) {
+                        order = sortOrder(joined, select.getOrderBy(), needed);
+                        if (order == null) {
+                            return;
+                        }
+                    }
 
-                if (conditionParts.length != 2) {
-                    System.out.println("Syntax error in SELECT statement. Invalid WHERE clause.");
+                    if (select.getWhere() != null) {
+                        for (Condition conjunct : select.getWhere().getConjuncts()) {
+                            Condition compiled = conjunct.compile(joined);
+                            boolean[] columns = new boolean[names.size()];
+                            compiled.addColumns(columns);
+                            boolean usesLeft = false;
+                            boolean usesRight = false;
+                            for (int i = 0; i < columns.length; i++) {
+                                usesLeft |= columns[i] && i < leftCount;
+                                usesRight |= columns[i] && i >= leftCount;
+                            }
+                            if (usesLeft && !usesRight) {
+                                leftFilters.add(conjunct.compile(leftSchema));
+                            } else if (usesRight && !usesLeft) {
+                                rightFilters.add(conjunct.compile(rightSchema));
+                            } else {
+                                joinFilters.add(compiled);
+                                if (needed != null) {
+                                    compiled.addColumns(needed);
+                                }
+                            }
+                        }
+                    }
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Error: " + e.getMessage());
                     return;
                 }
 
-                String conditionColumn = conditionParts[0].trim();
-                conditionValue = conditionParts[1].trim().replace("'", "").replace("\"", "");
-
-                for (int i = 0; i < columnNames.length; i++) {
-                    String pureColumnName = columnNames[i].split(" ")[0].trim();
-                    if (pureColumnName.equalsIgnoreCase(conditionColumn)) {
-                        conditionColumnIndex = i;
-                        break;
+                leftIndexes = TableIndexes.open(databaseDir(), leftName, left);
+                rightIndexes = TableIndexes.open(databaseDir(), rightName, right);
+                Condition leftFilter = conjunction(leftFilters);
+                Condition rightFilter = conjunction(rightFilters);
+                boolean[] leftColumns = needed == null ? null : Arrays.copyOfRange(needed, 0, leftCount);
+                boolean[] rightColumns = needed == null ? null : Arrays.copyOfRange(needed, leftCount, needed.length);
+                String[] columns = names.toArray(new String[0]);
+
+                IOperator plan;
+                Planner leftPlanner = planner(leftName, left, leftIndexes);
+                Planner rightPlanner = planner(rightName, right, rightIndexes);
+                BPlusTree leftTree = leftIndexes.forColumn(leftKey);
+                BPlusTree rightTree = rightIndexes.forColumn(rightKey);
+                boolean mergePossible = leftTree != null && rightTree != null && leftTree.getKeyType() == rightTree.getKeyType()
+                        && leftPlanner.chooseLookup(leftFilter) == null && rightPlanner.chooseLookup(rightFilter) == null;
+                Planner.JoinMethod method = Planner.chooseJoin(leftPlanner, leftFilter, rightPlanner, rightFilter, mergePossible);
+                String joinCondition = columns[leftKey] + " = " + columns[leftCount + rightKey];
+                if (method == Planner.JoinMethod.MERGE) {
+                    System.out.println("Using merge join on indexes: " + leftIndexes.nameForColumn(leftKey)
+                            + ", " + rightIndexes.nameForColumn(rightKey));
+                    IOperator leftInput = orderedScan(leftName, left, leftIndexes, leftKey, leftFilter);
+                    IOperator rightInput = orderedScan(rightName, right, rightIndexes, rightKey, rightFilter);
+                    plan = step(new MergeJoinOperator(leftInput, leftKey, rightInput, rightKey, leftTree.getKeyOrder(), columns),
+                            "Merge join on " + joinCondition, leftInput, rightInput);
+                } else {
+                    IOperator leftInput = scanOperator(leftName, left, leftIndexes, leftPlanner, leftFilter, leftColumns, -1);
+                    IOperator rightInput = scanOperator(rightName, right, rightIndexes, rightPlanner, rightFilter, rightColumns, -1);
+                    boolean buildOnLeft = method == Planner.JoinMethod.HASH_BUILD_LEFT;
+                    System.out.println("Using hash join, building on: " + (buildOnLeft ? leftName : rightName));
+                    plan = buildOnLeft
+                            ? new HashJoinOperator(leftInput, leftKey, rightInput, rightKey, keyType, true, columns,
+                                    HashJoinOperator.DEFAULT_MEMORY_BUDGET, spillDirectory())
+                            : new HashJoinOperator(rightInput, rightKey, leftInput, leftKey, keyType, false, columns,
+                                    HashJoinOperator.DEFAULT_MEMORY_BUDGET, spillDirectory());
+                    plan = step(plan, "Hash join on " + joinCondition + ", building on " + (buildOnLeft ? leftName : rightName),
+                            leftInput, rightInput);
+                }
+                Condition joinFilter = conjunction(joinFilters);
+                if (joinFilter != null) {
+                    plan = step(new FilterOperator(plan, joinFilter::matches), "Filter: " + joinFilter, plan);
+                }
+                if (select.getAggregates() != null) {
+                    plan = groupOperator(plan, joined, select);
+                    if (plan == null) {
+                        return;
                     }
+                    if (select.getOrderBy() != null) {
+                        order = sortOrder(resultSchema(joined, plan.getColumns()), select.getOrderBy(), null);
+                        if (order == null) {
+                            return;
+                        }
+                    }
+                }
+                if (order != null) {
+                    plan = sortOperator(plan, order, select.getOrderBy(), select.getLimit());
+                }
+                if (projection != null) {
+                    plan = step(new ProjectOperator(plan, projection), "Project " + describe(select.getColumns()), plan);
+                }
+                if (order == null && select.getLimit() >= 0) {
+                    plan = step(new LimitOperator(plan, select.getLimit()), "Limit " + select.getLimit(), plan);
                 }
 
-                if (conditionColumnIndex == -1) {
-                    System.out.println("Error: Invalid column in WHERE clause: " + conditionColumn);
-                    return;
+                output("\nData from tables '" + leftName + "' and '" + rightName + "':", plan);
+            } finally {
+                if (leftIndexes != null) {
+                    leftIndexes.close();
                 }
+                if (rightIndexes != null) {
+                    rightIndexes.close();
+                }
+                if (right != null) {
+                    right.close();
+                }
+                left.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading table: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a schema naming each column of the table as table.column, for joined rows.
+     */
+    private static TableSchema qualifiedSchema(String tableName, ITableStore table) {
+        List<String> names = new ArrayList<>();
+        for (String column : table.getSchema().getColumns()) {
+            names.add(tableName + "." + column);
+        }
+        TableSchema schema = new TableSchema(names);
+        for (int i = 0; i < names.size(); i++) {
+            schema.setType(names.get(i), table.getSchema().getType(i));
+        }
+        return schema;
+    }
+
+    /**
+     * Returns a schema for result columns, such as the group columns and aggregates of a
+     * grouped select, giving each column of the source schema its type there.
+     */
+    private static TableSchema resultSchema(TableSchema source, String[] columns) {
+        TableSchema schema = new TableSchema(Arrays.asList(columns));
+        for (String column : columns) {
+            int index = source.indexOf(column);
+            if (index >= 0) {
+                schema.setType(column, source.getType(index));
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Returns the conditions joined by AND, the only condition, or null if there are none.
+     */
+    private static Condition conjunction(List<Condition> conditions) {
+        if (conditions.isEmpty()) {
+            return null;
+        }
+        return conditions.size() == 1 ? conditions.get(0) : new Condition.And(conditions.toArray(new Condition[0]));
+    }
+
+    /**
+     * Returns the operator that reads a table in the order of the index on a column, filtered
+     * by the condition.
+     */
+    private IOperator orderedScan(String tableName, ITableStore table, TableIndexes indexes, int column,
+                                  Condition condition) throws IOException {
+        List<Long> rowIds = isPlanOnly() ? new ArrayList<>() : indexes.forColumn(column).range(null, false, null, false);
+        IOperator scan = step(new RowIdScanOperator(table, rowIds),
+                "Index order scan on " + tableName + " using " + indexes.nameForColumn(column));
+        return condition == null ? scan : step(new FilterOperator(scan, condition::matches), "Filter: " + condition, scan);
+    }
+
+    /**
+     * Prints the header and rows of a query result between rules, passing each row to the
+     * sink if one is given. Returns false if the query failed partway.
+     */
+    private static boolean printResult(IOperator plan, Consumer<String[]> sink) throws IOException {
+        System.out.println("-".repeat(50));
+        System.out.println(String.join(" | ", plan.getColumns()));
+        System.out.println("-".repeat(50));
+
+        boolean complete = true;
+        try {
+            if (printRows(plan, sink) == 0) {
+                System.out.println("No matching records found.");
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            complete = false;
+        }
+        System.out.println("-".repeat(50));
+        return complete;
+    }
+
+    /**
+     * Prints a result served from the result cache the way {@link #printResult} printed it.
+     */
+    private static void printResult(String[] columns, List<String[]> rows) {
+        System.out.println("-".repeat(50));
+        System.out.println(String.join(" | ", columns));
+        System.out.println("-".repeat(50));
+        for (String[] row : rows) {
+            System.out.println(formatRow(row));
+        }
+        if (rows.isEmpty()) {
+            System.out.println("No matching records found.");
+        }
+        System.out.println("-".repeat(50));
+    }
+
+    /**
+     * Prints the result of a plan under a title, or its plan when the statement is explained.
+     * The result of a SELECT run through the result cache is stored in it as well.
+     */
+    private void output(String title, IOperator plan) throws IOException {
+        if (explaining != null) {
+            explainPlan(plan);
+            return;
+        }
+        System.out.println(title);
+        if (caching == null) {
+            printResult(plan, null);
+            return;
+        }
+        ResultCache cache = ResultCache.getInstance();
+        ResultCache.Collector collector = new ResultCache.Collector(cache.getBudget());
+        if (printResult(plan, collector)) {
+            ResultCache.Result result = collector.toResult(title, plan.getColumns());
+            if (result != null) {
+                cache.put(caching.key, caching.tables, caching.versions, result);
             }
+        }
+    }
+
+    /**
+     * Shows the plan of a SELECT, UPDATE or DELETE as a tree of steps, each reading from the
+     * steps indented below it, without changing any data. EXPLAIN ANALYZE runs the SELECT,
+     * discarding its rows, and shows for each step the rows in and out, the wall time spent
+     * in it and its inputs, the bytes read from disk and the buffer pool hits and misses.
+     */
+    private void explain(Statement.Explain explain) {
+        explaining = explain;
+        try {
+            dispatch(explain.getStatement());
+        } finally {
+            explaining = null;
+        }
+    }
 
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] values = line.split("\\|\\|\\|");
+    private void explainPlan(IOperator plan) throws IOException {
+        long rows = 0;
+        long start = System.nanoTime();
+        if (explaining.isAnalyze()) {
+            plan.open();
+            try {
+                while (plan.next() != null) {
+                    rows++;
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println("Error: " + e.getMessage());
+                return;
+            } finally {
+                plan.close();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println("\nQuery plan:");
+        printStep((ProfiledOperator) plan, 0);
+        if (explaining.isAnalyze()) {
+            System.out.println(String.format("Execution time: %.3f ms, %d rows.", nanos / 1e6, rows));
+        }
+    }
 
-                if (hasCondition && (conditionColumnIndex == -1 || !values[conditionColumnIndex].equalsIgnoreCase(conditionValue))) {
+    private void printStep(ProfiledOperator step, int depth) {
+        StringBuilder line = new StringBuilder();
+        if (depth > 0) {
+            line.append("  ".repeat(depth)).append("-> ");
+        }
+        line.append(step.getDescription());
+        if (explaining.isAnalyze()) {
+            line.append("  (");
+            if (step.getRowsIn() >= 0) {
+                line.append("rows in: ").append(step.getRowsIn()).append(", ");
+            }
+            line.append("rows out: ").append(step.getRows())
+                    .append(String.format(", time: %.3f ms", step.getNanos() / 1e6))
+                    .append(", read: ").append(step.getBytesRead()).append(" bytes")
+                    .append(", buffer hits: ").append(step.getHits())
+                    .append(", misses: ").append(step.getMisses()).append(')');
+        }
+        System.out.println(line);
+        for (ProfiledOperator input : step.getInputs()) {
+            printStep(input, depth + 1);
+        }
+    }
+
+    /**
+     * Shows how an UPDATE or DELETE finds the rows it changes.
+     */
+    private void explainModification(String operation, String tableName, ITableStore table, TableIndexes indexes,
+                                     Condition condition) throws IOException {
+        Planner planner = planner(tableName, table, indexes);
+        WhereCondition lookup = planner.chooseLookup(condition);
+        String access;
+        if (lookup != null) {
+            access = "Index lookup on " + tableName + " using " + indexName(indexes, lookup) + " (" + lookup + ")";
+        } else if (isParallelScan(table, -1)) {
+            access = "Parallel scan on " + tableName + " (" + parallelism + " threads)";
+        } else {
+            access = "Scan on " + tableName;
+        }
+        System.out.println("\nQuery plan:");
+        System.out.println(operation + " on " + tableName);
+        System.out.println("  -> " + access + describeFilter(planner, condition));
+    }
+
+    /**
+     * Returns the directory operators spill to when their input does not fit in memory.
+     */
+    private File spillDirectory() {
+        return new File(databaseDir(), "tmp");
+    }
+
+    /**
+     * Returns the operator that reads the rows of a table matching the condition: the rows
+     * found by the index lookup the planner chooses if there is one, otherwise a scan that
+     * applies the condition as it reads. A scan decodes only the given columns, or every
+     * column if they are null, and decodes the columns outside the condition only for rows
+     * that match. Large heap tables are scanned in parallel when the session allows it,
+     * still in table order, unless the plan reads no more than the row limit from the scan
+     * and the first pages are likely to hold that many. The planner may be null when there is
+     * no condition, and the row limit is -1 when the plan reads every row.
+     */
+    private IOperator scanOperator(String tableName, ITableStore table, TableIndexes indexes, Planner planner,
+                                   Condition condition, boolean[] columns, long rowLimit) throws IOException {
+        String filter = describeFilter(planner, condition);
+        WhereCondition lookup = condition != null ? planner.chooseLookup(condition) : null;
+        if (lookup != null) {
+            List<Long> rowIds = isPlanOnly() ? new ArrayList<>() : indexLookup(indexes, lookup);
+            IOperator rows = step(new RowIdScanOperator(table, rowIds),
+                    "Index lookup on " + tableName + " using " + indexName(indexes, lookup) + " (" + lookup + ")");
+            return step(new FilterOperator(rows, condition::matches),
+                    "Filter: " + condition + describeEstimate(planner, condition), rows);
+        }
+        if (isParallelScan(table, rowLimit)) {
+            return step(new ParallelScanOperator((TableFile) table, columns, condition != null ? condition::matches : null,
+                    scanPool()), "Parallel scan on " + tableName + " (" + parallelism + " threads)" + filter);
+        }
+        if (table instanceof TableFile && !((TableFile) table).isCompressed()) {
+            return step(new MappedScanOperator((TableFile) table, columns, condition != null ? condition::matches : null),
+                    "Mapped scan on " + tableName + filter);
+        }
+        if (condition == null) {
+            return step(new ScanOperator(table, columns, null, null), "Scan on " + tableName);
+        }
+        boolean[] filterColumns = columnsOf(table, condition);
+        if (columns != null) {
+            columns = columns.clone();
+            condition.addColumns(columns);
+        }
+        return step(new ScanOperator(table, columns, filterColumns, condition::matches), "Scan on " + tableName + filter);
+    }
+
+    /**
+     * Returns the operator as a step of the plan tree, wrapped to record what it does while
+     * a plan is being explained. The inputs are the steps it reads from.
+     */
+    private IOperator step(IOperator operator, String description, IOperator... inputs) {
+        return explaining == null ? operator : new ProfiledOperator(operator, description, inputs);
+    }
+
+    /**
+     * Returns true while an EXPLAIN without ANALYZE builds a plan that will not run, so
+     * index lookups can be left out.
+     */
+    private boolean isPlanOnly() {
+        return explaining != null && !explaining.isAnalyze();
+    }
+
+    /**
+     * Returns the text shown for a condition in a plan, with the planner's row estimate if
+     * the table has statistics, or an empty string if there is no condition.
+     */
+    private static String describeFilter(Planner planner, Condition condition) {
+        return condition == null ? "" : ", filter: " + condition + describeEstimate(planner, condition);
+    }
+
+    private static String describeEstimate(Planner planner, Condition condition) {
+        if (planner == null || !planner.hasStatistics()) {
+            return "";
+        }
+        return ", estimated " + Math.round(planner.estimateRows(condition)) + " of " + planner.getRowCount() + " rows";
+    }
+
+    private static String describe(List<?> items) {
+        List<String> names = new ArrayList<>();
+        for (Object item : items) {
+            names.add(String.valueOf(item));
+        }
+        return String.join(", ", names);
+    }
+
+    /**
+     * Returns the name of the index {@link #indexLookup} uses for a comparison.
+     */
+    private static String indexName(TableIndexes indexes, WhereCondition lookup) {
+        if (lookup.isEquality() && lookup.getColumnIndex() == indexes.getPrimaryKeyColumn()) {
+            return "primary key index";
+        }
+        return indexes.nameForColumn(lookup.getColumnIndex());
+    }
+
+    /**
+     * Returns true if a scan of the table is worth splitting across threads: the session
+     * allows more than one, the table is a heap file of more than one scan task's pages, and
+     * the scan is not cut short by a row limit that the first task's pages hold on average.
+     */
+    private boolean isParallelScan(ITableStore table, long rowLimit) {
+        if (parallelism <= 1 || !(table instanceof TableFile) || ((TableFile) table).isCompressed()) {
+            return false;
+        }
+        long pages = ((TableFile) table).getDataPageCount();
+        if (pages <= ParallelScanOperator.PAGES_PER_TASK) {
+            return false;
+        }
+        return rowLimit < 0 || rowLimit * pages >= table.getRowCount() * ParallelScanOperator.PAGES_PER_TASK;
+    }
+
+    /**
+     * Returns the pool parallel scans run on, sized to the session's parallelism.
+     */
+    private ForkJoinPool scanPool() {
+        if (scanPool == null || scanPool.getParallelism() != parallelism) {
+            if (scanPool != null) {
+                scanPool.shutdown();
+            }
+            scanPool = new ForkJoinPool(parallelism);
+        }
+        return scanPool;
+    }
+
+    /**
+     * Returns the operator computing aggregates over the rows matching the condition. The rows
+     * are read and filtered in batches, reading only the columns the query needs.
+     * Returns null after reporting an unknown column.
+     */
+    private static IOperator aggregateOperator(ITableStore table, List<Statement.Aggregate> aggregates,
+                                               Condition condition) {
+        TableSchema schema = table.getSchema();
+        boolean[] needed = new boolean[schema.getColumnCount()];
+        AggregateFunction[] functions = new AggregateFunction[aggregates.size()];
+        int[] columns = new int[aggregates.size()];
+        String[] names = new String[aggregates.size()];
+        for (int i = 0; i < functions.length; i++) {
+            Statement.Aggregate aggregate = aggregates.get(i);
+            functions[i] = aggregate.getFunction();
+            names[i] = aggregate.toString();
+            columns[i] = aggregate.getColumn() == null ? -1 : schema.indexOf(aggregate.getColumn());
+            if (aggregate.getColumn() != null && columns[i] == -1) {
+                System.out.println("Error: Invalid column in SELECT list: " + aggregate.getColumn());
+                return null;
+            }
+            if (columns[i] >= 0) {
+                needed[columns[i]] = true;
+            }
+        }
+        if (condition != null) {
+            condition.addColumns(needed);
+        }
+        IBatchOperator batches = new BatchScanOperator(table, needed);
+        if (condition != null) {
+            for (Condition conjunct : condition.getConjuncts()) {
+                batches = batchFilter(batches, conjunct, needed.length);
+            }
+        }
+        return new AggregateOperator(batches, functions, columns, names);
+    }
+
+    /**
+     * Returns the operator that groups its input on the GROUP BY columns, if there are any,
+     * and computes the aggregates of the select list, returning the columns in select-list
+     * order. Groups are aggregated in parallel and spill to disk beyond the memory budget.
+     * Returns null after reporting an unknown column or a selected column that is not grouped.
+     */
+    private IOperator groupOperator(IOperator input, TableSchema schema, Statement.Select select) {
+        List<String> groupBy = select.getGroupBy() != null ? select.getGroupBy() : new ArrayList<>();
+        List<Statement.Aggregate> items = select.getAggregates();
+        int[] groupColumns = new int[groupBy.size()];
+        int aggregateCount = 0;
+        for (Statement.Aggregate item : items) {
+            aggregateCount += item.getFunction() != null ? 1 : 0;
+        }
+        AggregateFunction[] functions = new AggregateFunction[aggregateCount];
+        int[] columns = new int[aggregateCount];
+        String[] names = new String[groupColumns.length + aggregateCount];
+        int[] order = new int[items.size()];
+        try {
+            for (int i = 0; i < groupColumns.length; i++) {
+                groupColumns[i] = Condition.indexOf(schema, groupBy.get(i));
+                if (groupColumns[i] == -1) {
+                    System.out.println("Error: Invalid column in GROUP BY: " + groupBy.get(i));
+                    return null;
+                }
+                names[i] = schema.getColumn(groupColumns[i]);
+            }
+            int aggregate = 0;
+            for (int i = 0; i < items.size(); i++) {
+                Statement.Aggregate item = items.get(i);
+                int column = item.getColumn() == null ? -1 : Condition.indexOf(schema, item.getColumn());
+                if (item.getColumn() != null && column == -1) {
+                    System.out.println("Error: Invalid column in SELECT list: " + item.getColumn());
+                    return null;
+                }
+                if (item.getFunction() == null) {
+                    order[i] = -1;
+                    for (int j = 0; j < groupColumns.length && order[i] == -1; j++) {
+                        order[i] = groupColumns[j] == column ? j : -1;
+                    }
+                    if (order[i] == -1) {
+                        System.out.println("Error: Column '" + item.getColumn() + "' must be in GROUP BY or inside an aggregate.");
+                        return null;
+                    }
                     continue;
                 }
-                records.add(values);
+                functions[aggregate] = item.getFunction();
+                columns[aggregate] = column;
+                names[groupColumns.length + aggregate] = item.toString();
+                order[i] = groupColumns.length + aggregate++;
             }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            return null;
+        }
+        IOperator grouped = new HashAggregateOperator(input, groupColumns, functions, columns, names, parallelism,
+                HashAggregateOperator.DEFAULT_MEMORY_BUDGET, spillDirectory());
+        return step(new ProjectOperator(grouped, order), "Hash aggregate " + describe(items)
+                + (groupBy.isEmpty() ? "" : " by " + describe(groupBy)), input);
+    }
 
-            System.out.println("\nData from table '" + tableName + "':");
-            System.out.println("-".repeat(50));
-            System.out.println(String.join(" | ", columnNames));
-            System.out.println("-".repeat(50));
+    /**
+     * Returns the columns a grouped select reads: its group columns and aggregated columns,
+     * and the WHERE columns, which the scan adds itself.
+     */
+    private static boolean[] groupedColumns(TableSchema schema, Statement.Select select) {
+        boolean[] columns = new boolean[schema.getColumnCount()];
+        List<String> names = new ArrayList<>(select.getGroupBy());
+        for (Statement.Aggregate item : select.getAggregates()) {
+            if (item.getColumn() != null) {
+                names.add(item.getColumn());
+            }
+        }
+        for (String name : names) {
+            int column = schema.indexOf(name);
+            if (column >= 0) {
+                columns[column] = true;
+            }
+        }
+        return columns;
+    }
 
-            if (records.isEmpty()) {
-                System.out.println("No matching records found.");
-            } else {
-                for (String[] record : records) {
-                    System.out.println(String.join(" | ", record));
+    /**
+     * Returns the order of rows with the given columns by the ORDER BY keys, and marks the
+     * columns it reads in needed unless that is null. Returns null after reporting an unknown
+     * or ambiguous column.
+     */
+    private static Comparator<String[]> sortOrder(TableSchema schema, List<Statement.OrderKey> keys, boolean[] needed) {
+        int[] columns = new int[keys.size()];
+        boolean[] descending = new boolean[keys.size()];
+        ColumnType[] types = new ColumnType[keys.size()];
+        try {
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = Condition.indexOf(schema, keys.get(i).getColumn());
+                if (columns[i] == -1) {
+                    System.out.println("Error: Invalid column in ORDER BY: " + keys.get(i).getColumn());
+                    return null;
+                }
+                descending[i] = keys.get(i).isDescending();
+                types[i] = schema.getType(columns[i]);
+                if (needed != null) {
+                    needed[columns[i]] = true;
                 }
             }
-            System.out.println("-".repeat(50));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            return null;
+        }
+        return SortOperator.order(columns, descending, types);
+    }
 
-        } catch (IOException e) {
-            System.out.println("Error reading table: " + e.getMessage());
+    /**
+     * Returns the operator that sorts its input by the ORDER BY keys and, unless limit is -1,
+     * keeps the first limit rows. A small limit keeps only the best rows seen in a heap;
+     * otherwise the whole input is sorted, spilling sorted runs to disk beyond the sort
+     * memory budget.
+     */
+    private IOperator sortOperator(IOperator input, Comparator<String[]> order, List<Statement.OrderKey> keys, long limit) {
+        if (limit >= 0 && limit <= TopNOperator.MAX_LIMIT) {
+            return step(new TopNOperator(input, order, (int) limit), "Top-" + limit + " sort by " + describe(keys), input);
         }
+        IOperator sorted = step(new SortOperator(input, order, SortOperator.DEFAULT_MEMORY_BUDGET, spillDirectory()),
+                "Sort by " + describe(keys), input);
+        return limit >= 0 ? step(new LimitOperator(sorted, limit), "Limit " + limit, sorted) : sorted;
     }
 
-    private void createTable(String query) {
+    /**
+     * Returns a batch filter for one conjunct of a WHERE clause. A conjunct on a single column
+     * is tested once per distinct value of each batch; others are tested row by row.
+     */
+    private static IBatchOperator batchFilter(IBatchOperator input, Condition conjunct, int columnCount) {
+        boolean[] columns = new boolean[columnCount];
+        conjunct.addColumns(columns);
+        int column = -1;
+        for (int i = 0; i < columnCount; i++) {
+            if (columns[i]) {
+                if (column >= 0) {
+                    return new BatchFilterOperator(input, conjunct::matches, columnCount);
+                }
+                column = i;
+            }
+        }
+        String[] row = new String[columnCount];
+        int only = column;
+        String equalTo = conjunct instanceof WhereCondition && ((WhereCondition) conjunct).isEquality()
+                ? ((WhereCondition) conjunct).getValue() : null;
+        return new BatchFilterOperator(input, only, value -> {
+            row[only] = value;
+            return conjunct.matches(row);
+        }, equalTo);
+    }
+
+    /**
+     * Runs a plan to completion, printing each row as it arrives and passing it to the sink,
+     * if any, and returns the row count.
+     */
+    private static long printRows(IOperator plan, Consumer<String[]> sink) throws IOException {
+        long count = 0;
+        plan.open();
+        try {
+            String[] row;
+            while ((row = plan.next()) != null) {
+                System.out.println(formatRow(row));
+                if (sink != null) {
+                    sink.accept(row);
+                }
+                count++;
+            }
+        } finally {
+            plan.close();
+        }
+        return count;
+    }
+
+    private void createTable(Statement.CreateTable create) {
         if (currentDatabase == null) {
             System.out.println("No database selected. Use 'USE database_name' first.");
             return;
         }
 
-        String[] parts = query.replaceAll("\\s+", " ").trim().split("\\s+", 3);
-
-        if (parts.length < 3 || !"TABLE".equalsIgnoreCase(parts[1])) {
-            System.out.println("Invalid CREATE TABLE syntax. Use: CREATE TABLE table_name (columns);");
-            return;
+        String tableName = create.getTable();
+
+        StorageEngine engine = StorageEngine.HEAP;
+        PageCompression compression = PageCompression.NONE;
+        for (String[] tableOption : create.getOptions()) {
+            String option = tableOption[0].toUpperCase();
+            String value = tableOption[1];
+            if (option.equals("ENGINE")) {
+                engine = StorageEngine.forName(value);
+                if (engine == null) {
+                    System.out.println("Error: Unknown storage engine '" + value + "'.");
+                    return;
+                }
+            } else if (option.equals("COMPRESSION")) {
+                compression = PageCompression.forName(value);
+                if (compression == null) {
+                    System.out.println("Error: Unknown page compression '" + value + "'.");
+                    return;
+                }
+            } else {
+                System.out.println("Error: Unsupported table option '" + tableOption[0] + "'.");
+                return;
+            }
         }
 
-        String tableName = parts[2].split("\\(")[0].trim();
+        List<String> columnNames = new ArrayList<>();
+        List<ColumnType> columnTypes = new ArrayList<>();
+        String primaryKey = create.getPrimaryKey();
 
-        if (tableName.isEmpty()) {
-            System.out.println("Error: Table name missing.");
-            return;
+        for (Statement.ColumnDefinition column : create.getColumns()) {
+            if (column.isPrimaryKey()) {
+                if (primaryKey != null) {
+                    System.out.println("Error: A table can only have one primary key.");
+                    return;
+                }
+                primaryKey = column.getName();
+            }
+            ColumnType type = ColumnType.forDeclaration(column.getType());
+            if (type == null) {
+                System.out.println("Error: Unsupported type '" + column.getType() + "' for column '" + column.getName()
+                        + "'. Use INT, BIGINT, DOUBLE, VARCHAR, DATE or BOOLEAN.");
+                return;
+            }
+            columnNames.add(column.getName());
+            columnTypes.add(type);
         }
 
-        if (!query.contains("(") || !query.contains(")")) {
-            System.out.println("Error: Invalid column format in CREATE TABLE.");
-            return;
+        TableSchema schema = new TableSchema(columnNames);
+        for (int i = 0; i < columnNames.size(); i++) {
+            schema.setType(columnNames.get(i), columnTypes.get(i));
         }
-
-        String columnDefinitions = query.substring(query.indexOf("(") + 1, query.lastIndexOf(")")).trim();
-        String[] columnsWithTypes = columnDefinitions.split(",");
-        List<String> columnNames = new ArrayList<>();
-
-        for (String colDef : columnsWithTypes) {
-            String[] colParts = colDef.trim().split("\\s+");
-            if (colParts.length == 0) {
-                System.out.println("Error: Invalid column format.");
+        schema.setCompression(compression);
+        if (primaryKey != null) {
+            if (schema.indexOf(primaryKey) == -1) {
+                System.out.println("Error: Primary key column '" + primaryKey + "' is not defined.");
                 return;
             }
-            columnNames.add(colParts[0]); // Only keep the column name (remove INT, STRING, etc.)
+            schema.setPrimaryKey(schema.getColumn(schema.indexOf(primaryKey)));
         }
 
-        File userDbDir = new File(STORAGE_ROOT + loggedInUser + "/" + currentDatabase);
+        File userDbDir = databaseDir();
         if (!userDbDir.exists()) {
             userDbDir.mkdirs();
         }
 
-        File tableFile = new File(userDbDir, tableName + ".txt");
-        if (tableFile.exists()) {
+        if (StorageEngine.of(userDbDir, tableName) != null) {
             System.out.println("Error: Table '" + tableName + "' already exists.");
             return;
         }
 
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(tableFile))) {
-            bw.write(String.join("|||", columnNames)); // Write only column names
-            bw.newLine();
+        try {
+            ITableStore table = engine.create(userDbDir, tableName, schema);
+            table.close();
+            if (primaryKey != null && !(table instanceof IKeyedTableStore)) {
+                HashIndex.create(HashIndex.fileFor(userDbDir, tableName), compression).close();
+            }
             System.out.println("Table '" + tableName + "' created successfully.");
         } catch (IOException e) {
             System.out.println("Error creating table: " + e.getMessage());
         }
     }
     
-    private void insertData(String query) {
+    private void insertData(Statement.Insert insert) {
         if (currentDatabase == null) {
             System.out.println("No database selected.");
             return;
         }
 
-        String[] parts = query.replaceAll("\\s+", " ").trim().split(" ", 4);
-        if (parts.length < 4 || !"INTO".equalsIgnoreCase(parts[1])) {
-            System.out.println("Invalid INSERT syntax. Use: INSERT INTO table_name VALUES (...);");
-            return;
-        }
+        String tableName = insert.getTable();
+        List<String[]> rows = insert.getRows();
+        insertedRows = 0;
 
-        String tableName = parts[2].trim();
+        File tableFile = tableFile(tableName);
 
-        if (!query.contains("(") || !query.contains(")")) {
-            System.out.println("Error: Invalid VALUES format in INSERT.");
+        if (!tableFile.exists()) {
+            System.out.println("Error: Table '" + tableName + "' not found.");
             return;
         }
 
+        try {
+            ITableStore table = openTable(tableName);
+            try {
+                if (isAlreadyApplied(table, tableName)) {
+                    return;
+                }
+                int columnCount = table.getSchema().getColumnCount();
+                List<String[]> normalized = new ArrayList<>(rows.size());
+                for (String[] valueList : rows) {
+                    if (valueList.length != columnCount) {
+                        System.out.println("Column mismatch: expected " + columnCount + " values but got " + valueList.length + ".");
+                        return;
+                    }
+                    try {
+                        normalized.add(table.getSchema().normalize(valueList));
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("Error: " + e.getMessage());
+                        return;
+                    }
+                }
+                rows = normalized;
+                TableIndexes indexes = TableIndexes.open(databaseDir(), tableName, table);
+                try {
+                    String keyError = indexes.checkPrimaryKeys(rows);
+                    if (keyError != null) {
+                        System.out.println("Error: " + keyError);
+                        return;
+                    }
+                    indexes.insertAll(table.insertAll(rows), rows);
+                    markApplied(table);
+                    insertedRows = rows.size();
+                } finally {
+                    indexes.close();
+                }
+            } finally {
+                table.close();
+            }
+            if (rows.size() == 1) {
+                System.out.println("Data inserted into table '" + tableName + "'.");
+            } else {
+                System.out.println(rows.size() + " rows inserted into table '" + tableName + "'.");
+            }
+        } catch (IOException e) {
+            System.out.println("Error inserting data: " + e.getMessage());
+        }
+    }
 
-        String values = query.substring(query.indexOf("(") + 1, query.lastIndexOf(")")).trim();
-        String[] valueList = values.split(",\\s*");
-
-        File tableFile = new File(STORAGE_ROOT + loggedInUser + "/" + currentDatabase + "/" + tableName + ".txt");
-
-        if (!tableFile.exists()) {
+    /**
+     * Streams the records of a CSV file into a table in batches of rows, each inserted and
+     * logged as one statement, so every batch is made durable once. An empty field loads as
+     * NULL, while a quoted empty field is an empty string. Records are checked against the
+     * table's columns and types as they are read; the load stops at the first bad record or
+     * failed batch, keeping the rows before it.
+     */
+    private void loadData(Statement.Load load) {
+        if (currentDatabase == null) {
+            System.out.println("No database selected.");
+            return;
+        }
+        if (isTransactionActive()) {
+            System.out.println("Error: LOAD DATA cannot be used inside a transaction.");
+            return;
+        }
+        String tableName = load.getTable();
+        if (!tableFile(tableName).exists()) {
             System.out.println("Error: Table '" + tableName + "' not found.");
             return;
         }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(tableFile))) {
-            String header = br.readLine();
-            if (header == null) {
-                System.out.println("Error: Table '" + tableName + "' is empty.");
-                return;
+        long loaded = 0;
+        try {
+            TableSchema schema;
+            ITableStore table = openTable(tableName);
+            try {
+                schema = table.getSchema();
+            } finally {
+                table.close();
             }
-            String[] columns = header.split("\\|\\|\\|");
-
-            if (valueList.length != columns.length) {
-                System.out.println("Column mismatch: expected " + columns.length + " values but got " + valueList.length + ".");
-                return;
+            int columnCount = schema.getColumnCount();
+            File file = new File(load.getFile());
+            try (CsvReader reader = new CsvReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                List<String[]> batch = new ArrayList<>();
+                long batchLine = 0;
+                String[] record;
+                for (long skipped = 0; skipped < load.getIgnoredLines() && reader.next() != null; skipped++) {
+                    // Skip header lines.
+                }
+                while ((record = reader.next()) != null) {
+                    String error = null;
+                    if (record.length != columnCount) {
+                        error = " has " + record.length + " values but table '" + tableName + "' has " + columnCount + " columns.";
+                    } else {
+                        try {
+                            record = schema.normalize(record);
+                        } catch (IllegalArgumentException e) {
+                            error = ": " + e.getMessage();
+                        }
+                    }
+                    if (error != null) {
+                        System.out.println("Error: Line " + reader.getLine() + " of '" + load.getFile() + "'" + error);
+                        break;
+                    }
+                    if (batch.isEmpty()) {
+                        batchLine = reader.getLine();
+                    }
+                    batch.add(record);
+                    if (batch.size() == LOAD_BATCH_SIZE) {
+                        if (!insertBatch(tableName, batch, batchLine, load.getFile())) {
+                            batch.clear();
+                            break;
+                        }
+                        loaded += batch.size();
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty() && insertBatch(tableName, batch, batchLine, load.getFile())) {
+                    loaded += batch.size();
+                }
             }
         } catch (IOException e) {
-            System.out.println("Error reading table '" + tableName + "': " + e.getMessage());
-            return;
+            System.out.println("Error loading data: " + e.getMessage());
         }
+        System.out.println("Loaded " + loaded + " rows from '" + load.getFile() + "' into table '" + tableName + "'.");
+    }
 
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(tableFile, true))) {
-            bw.newLine();
-            bw.write(values.replace(", ", "|||"));
-            System.out.println("Data inserted into table '" + tableName + "'.");
-        } catch (IOException e) {
-            System.out.println("Error inserting data: " + e.getMessage());
+    /**
+     * Inserts a batch of loaded rows as one logged statement and returns true if it went in.
+     * The rows are logged as they are, without being turned back into statement text.
+     */
+    private boolean insertBatch(String tableName, List<String[]> rows, long firstLine, String file) {
+        insertedRows = 0;
+        executeLogged(null, new Statement.Insert(tableName, new ArrayList<>(rows)));
+        if (insertedRows != rows.size()) {
+            System.out.println("Error: The batch starting on line " + firstLine + " of '" + file + "' was not loaded.");
+            return false;
         }
+        return true;
     }
-    private void updateData(String query) {
+
+    private void updateData(Statement.Update update) {
         if (currentDatabase == null || currentDatabase.isEmpty()) {
             System.out.println("No database selected. Use 'USE database_name' first.");
             return;
         }
 
-        query = query.replaceAll("\\s+", " ").trim();
-        System.out.println("Received UPDATE Query: " + query);
-
-        if (!Pattern.matches("UPDATE\\s+\\w+\\s+SET\\s+\\w+\\s*=\\s*('.*?'|\\d+)\\s+WHERE\\s+\\w+\\s*=\\s*('.*?'|\\d+)", query)) {
-            System.out.println("Syntax error in UPDATE statement. Use: UPDATE table_name SET column='value' WHERE column=value;");
-            return;
-        }
-
-        String tablePart = query.split("(?i)UPDATE\\s+")[1].split("(?i)\\s+SET\\s+")[0].trim();
-        String setPart = query.split("(?i)\\s+SET\\s+")[1].split("(?i)\\s+WHERE\\s+")[0].trim();
-        String wherePart = query.split("(?i)\\s+WHERE\\s+")[1].trim().replace(";", "");
-
-        System.out.println("Table: " + tablePart);
-        System.out.println("Set: " + setPart);
-        System.out.println("Where: " + wherePart);
+        String tableName = update.getTable();
+        Condition condition = update.getWhere();
 
-        String tableName = tablePart;
+        System.out.println("Table: " + tableName);
+        System.out.println("Set: " + String.join(", ", update.getColumns()));
+        System.out.println("Where: " + condition);
 
-        String[] setParts = setPart.split("\\s*=\\s*");
-        String updateColumn = setParts[0].trim();
-        String updateValue = setParts[1].trim().replace("'", "");
-        String[] whereParts = wherePart.split("\\s*=\\s*");
-        String whereColumn = whereParts[0].trim();
-        String whereValue = whereParts[1].trim().replace("'", "");
-
-        File tableFile = new File(STORAGE_ROOT + loggedInUser + "/" + currentDatabase + "/" + tableName + ".txt");
+        File tableFile = tableFile(tableName);
         System.out.println("Looking for file: " + tableFile.getAbsolutePath());
 
         if (!tableFile.exists()) {
@@ -501,51 +1830,89 @@ public class QueryProcessor implements IQueryProcessor {
             return;
         }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(tableFile))) {
-            List<String> lines = new ArrayList<>();
-            String header = br.readLine();
-            lines.add(header);
-            String[] columns = header.split("\\|\\|\\|");
-
-            int updateColumnIndex = -1, whereColumnIndex = -1;
-            for (int i = 0; i < columns.length; i++) {
-                if (columns[i].equalsIgnoreCase(updateColumn)) {
-                    updateColumnIndex = i;
+        try {
+            ITableStore table = openTable(tableName);
+            try {
+                if (isAlreadyApplied(table, tableName)) {
+                    return;
                 }
-                if (columns[i].equalsIgnoreCase(whereColumn)) {
-                    whereColumnIndex = i;
+                TableSchema schema = table.getSchema();
+                int[] updateColumns = new int[update.getColumns().size()];
+                String[] updateValues = update.getValues().toArray(new String[0]);
+                for (int i = 0; i < updateColumns.length; i++) {
+                    updateColumns[i] = schema.indexOf(update.getColumns().get(i));
+                    if (updateColumns[i] == -1) {
+                        System.out.println("Error: Invalid column in UPDATE query.");
+                        return;
+                    }
+                    try {
+                        updateValues[i] = schema.normalize(updateColumns[i], updateValues[i]);
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("Error: " + e.getMessage());
+                        return;
+                    }
                 }
-            }
-
-            if (updateColumnIndex == -1 || whereColumnIndex == -1) {
-                System.out.println("Error: Invalid column in UPDATE query.");
-                return;
-            }
-
-            boolean updated = false;
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] values = line.split("\\|\\|\\|");
-
-                if (values.length > whereColumnIndex && values[whereColumnIndex].equalsIgnoreCase(whereValue)) {
-                    values[updateColumnIndex] = updateValue;
-                    updated = true;
-                    lines.add(String.join("|||", values));
-                } else {
-                    lines.add(line);
+                Condition filter = compileWhere(condition, schema);
+                if (filter == null) {
+                    return;
                 }
-            }
 
-            if (!updated) {
-                System.out.println("No matching record found for update.");
-                return;
-            }
+                TableIndexes indexes = TableIndexes.open(databaseDir(), tableName, table);
+                try {
+                    if (explaining != null) {
+                        explainModification("Update", tableName, table, indexes, filter);
+                        return;
+                    }
+                    // Candidates from an index still have to pass the whole condition, and only the
+                    // rows that do are checked against the primary key.
+                    List<Long> rowIds = new ArrayList<>();
+                    List<String[]> matched = new ArrayList<>();
+                    for (long rowId : findMatchingRows(tableName, table, indexes, filter)) {
+                        String[] values = table.read(rowId);
+                        if (values != null && filter.matches(values)) {
+                            rowIds.add(rowId);
+                            matched.add(values);
+                        }
+                    }
+                    for (int i = 0; i < updateColumns.length; i++) {
+                        if (updateColumns[i] != indexes.getPrimaryKeyColumn()) {
+                            continue;
+                        }
+                        String updateValue = updateValues[i];
+                        if (updateValue == null || updateValue.isEmpty()) {
+                            System.out.println("Error: Primary key column cannot be empty.");
+                            return;
+                        }
+                        long existing = indexes.findPrimaryKey(updateValue);
+                        if (rowIds.size() > 1 || (existing >= 0 && !rowIds.contains(existing))) {
+                            System.out.println("Error: Duplicate primary key value '" + updateValue + "'.");
+                            return;
+                        }
+                    }
+
+                    for (int row = 0; row < rowIds.size(); row++) {
+                        String[] values = matched.get(row);
+                        String[] newValues = values.clone();
+                        for (int i = 0; i < updateColumns.length; i++) {
+                            newValues[updateColumns[i]] = updateValues[i];
+                        }
+                        long newRowId = table.update(rowIds.get(row), newValues);
+                        indexes.update(rowIds.get(row), values, newRowId, newValues);
+                    }
 
-            try (BufferedWriter bw = new BufferedWriter(new FileWriter(tableFile))) {
-                for (String l : lines) {
-                    bw.write(l);
-                    bw.newLine();
+                    if (rowIds.isEmpty()) {
+                        System.out.println("No matching record found for update.");
+                        return;
+                    }
+                    markApplied(table);
+                    if (table instanceof TableFile) {
+                        TableCompactor.getInstance().register(tableFile);
+                    }
+                } finally {
+                    indexes.close();
                 }
+            } finally {
+                table.close();
             }
 
             System.out.println("Record updated successfully in table '" + tableName + "'.");
@@ -555,117 +1922,337 @@ public class QueryProcessor implements IQueryProcessor {
         }
     }
 
-    private void deleteData(String query) {
+    private void deleteData(Statement.Delete delete) {
         if (currentDatabase == null || currentDatabase.isEmpty()) {
             System.out.println("No database selected. Use 'USE database_name' first.");
             return;
         }
 
-        query = query.replaceAll("\\s+", " ").trim();
-        System.out.println("Received DELETE Query: " + query);
+        String tableName = delete.getTable();
+        Condition condition = delete.getWhere();
+
+        System.out.println("Table: " + tableName);
+        System.out.println("Where: " + condition);
+
+        File tableFile = tableFile(tableName);
+        System.out.println("Looking for file: " + tableFile.getAbsolutePath());
 
-        if (!Pattern.matches("DELETE\\s+FROM\\s+\\w+\\s+WHERE\\s+\\w+\\s+(?:=|LIKE)\\s+(?:'.*?'|\\d+)", query)) {
-            System.out.println("Syntax error in DELETE statement. Use: DELETE FROM table_name WHERE column=value; or DELETE FROM table_name WHERE column LIKE 'pattern%';");
+        if (!tableFile.exists()) {
+            System.out.println("Error: Table '" + tableName + "' not found.");
             return;
         }
 
-        String tablePart = query.split("(?i)DELETE\\s+FROM\\s+")[1].split("(?i)\\s+WHERE\\s+")[0].trim();
-        String wherePart = query.split("(?i)\\s+WHERE\\s+")[1].trim().replace(";", "");
-
-        System.out.println("Table: " + tablePart);
-        System.out.println("Where: " + wherePart);
+        try {
+            ITableStore table = openTable(tableName);
+            try {
+                if (isAlreadyApplied(table, tableName)) {
+                    return;
+                }
+                Condition filter = compileWhere(condition, table.getSchema());
+                if (filter == null) {
+                    return;
+                }
 
-        String tableName = tablePart;
+                TableIndexes indexes = TableIndexes.open(databaseDir(), tableName, table);
+                try {
+                    if (explaining != null) {
+                        explainModification("Delete", tableName, table, indexes, filter);
+                        return;
+                    }
+                    int deleted = 0;
+                    for (long rowId : findMatchingRows(tableName, table, indexes, filter)) {
+                        String[] values = table.read(rowId);
+                        if (values == null || !filter.matches(values)) {
+                            continue;
+                        }
+                        table.delete(rowId);
+                        indexes.delete(rowId, values);
+                        deleted++;
+                    }
 
-        boolean isLikeQuery = wherePart.toUpperCase().contains("LIKE");
+                    if (deleted == 0) {
+                        System.out.println("No matching record found for deletion.");
+                        return;
+                    }
+                    markApplied(table);
+                    if (table instanceof TableFile) {
+                        TableCompactor.getInstance().register(tableFile);
+                    }
+                } finally {
+                    indexes.close();
+                }
+            } finally {
+                table.close();
+            }
 
-        String whereColumn, whereValue;
+            System.out.println("Record deleted successfully from table '" + tableName + "'.");
 
-        if (isLikeQuery) {
-            whereColumn = wherePart.split("(?i)\\s+LIKE\\s+")[0].trim();
-            whereValue = wherePart.split("(?i)\\s+LIKE\\s+")[1].trim();
-        } else {
-            String[] whereParts = wherePart.split("\\s*=\\s*");
-            whereColumn = whereParts[0].trim();
-            whereValue = whereParts[1].trim();
+        } catch (IOException e) {
+            System.out.println("Error deleting from table: " + e.getMessage());
         }
+    }
 
-        whereValue = whereValue.replaceAll("^'|'$", "");
-
-        System.out.println("Where Column: " + whereColumn);
-        System.out.println("Where Value: " + whereValue);
-        System.out.println("Is LIKE query: " + isLikeQuery);
+    private void createIndex(Statement.CreateIndex create) {
+        if (currentDatabase == null) {
+            System.out.println("No database selected. Use 'USE database_name' first.");
+            return;
+        }
 
-        File tableFile = new File(STORAGE_ROOT + loggedInUser + "/" + currentDatabase + "/" + tableName + ".txt");
-        System.out.println("Looking for file: " + tableFile.getAbsolutePath());
+        String indexName = create.getIndex();
+        String tableName = create.getTable();
+        String column = create.getColumn();
 
+        File tableFile = tableFile(tableName);
         if (!tableFile.exists()) {
             System.out.println("Error: Table '" + tableName + "' not found.");
             return;
         }
-        try (BufferedReader br = new BufferedReader(new FileReader(tableFile))) {
-            List<String> lines = new ArrayList<>();
-            String header = br.readLine();
-            lines.add(header);
-            String[] columns = header.split("\\|\\|\\|");
+        if (findIndexTable(indexName) != null) {
+            System.out.println("Error: Index '" + indexName + "' already exists.");
+            return;
+        }
 
-            int whereColumnIndex = -1;
-            for (int i = 0; i < columns.length; i++) {
-                if (columns[i].equalsIgnoreCase(whereColumn)) {
-                    whereColumnIndex = i;
-                    break;
+        File indexFile = BPlusTree.fileFor(databaseDir(), tableName, indexName);
+        try {
+            ITableStore table = openTable(tableName);
+            try {
+                if (!table.supportsSecondaryIndexes()) {
+                    System.out.println("Error: Table '" + tableName + "' uses the " + table.getSchema().getEngine()
+                            + " engine, which does not support secondary indexes.");
+                    return;
+                }
+                int columnIndex = table.getSchema().indexOf(column);
+                if (columnIndex == -1) {
+                    System.out.println("Error: Column '" + column + "' not found in table '" + tableName + "'.");
+                    return;
                 }
-            }
 
-            if (whereColumnIndex == -1) {
-                System.out.println("Error: Invalid column in DELETE query.");
-                return;
+                BPlusTree tree = BPlusTree.create(indexFile, table.getSchema().getCompression(),
+                        table.getSchema().getType(columnIndex));
+                try {
+                    ITableStore.Cursor cursor = table.scan();
+                    while (cursor.next()) {
+                        tree.insert(cursor.row()[columnIndex], cursor.rowId());
+                    }
+                    tree.force();
+                } finally {
+                    tree.close();
+                }
+
+                table.getSchema().addIndex(indexName, table.getSchema().getColumn(columnIndex));
+                table.saveSchema();
+            } finally {
+                table.close();
             }
+            System.out.println("Index '" + indexName + "' created on " + tableName + "(" + column + ").");
+        } catch (IOException e) {
+            indexFile.delete();
+            PageFile.mapFileFor(indexFile).delete();
+            System.out.println("Error creating index: " + e.getMessage());
+        }
+    }
 
-            boolean deleted = false;
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] values = line.split("\\|\\|\\|");
+    private void dropIndex(Statement.DropIndex drop) {
+        if (currentDatabase == null) {
+            System.out.println("No database selected. Use 'USE database_name' first.");
+            return;
+        }
 
-                if (whereColumnIndex >= values.length) {
-                    lines.add(line);
-                    continue;
+        String indexName = drop.getIndex();
+        String tableName = drop.getTable() != null ? drop.getTable() : findIndexTable(indexName);
+        if (tableName == null) {
+            System.out.println("Error: Index '" + indexName + "' not found.");
+            return;
+        }
+
+        try {
+            ITableStore table = openTable(tableName);
+            try {
+                if (!table.getSchema().getIndexes().containsKey(indexName)) {
+                    System.out.println("Error: Index '" + indexName + "' not found on table '" + tableName + "'.");
+                    return;
                 }
+                table.getSchema().removeIndex(indexName);
+                table.saveSchema();
+            } finally {
+                table.close();
+            }
+            File indexFile = BPlusTree.fileFor(databaseDir(), tableName, indexName);
+            indexFile.delete();
+            PageFile.mapFileFor(indexFile).delete();
+            System.out.println("Index '" + indexName + "' dropped.");
+        } catch (IOException e) {
+            System.out.println("Error dropping index: " + e.getMessage());
+        }
+    }
 
-                boolean shouldDelete = false;
+    /**
+     * Reclaims the space held by deleted or superseded rows of a table.
+     */
+    private void vacuumTable(String tableName) {
+        if (currentDatabase == null) {
+            System.out.println("No database selected. Use 'USE database_name' first.");
+            return;
+        }
 
-                if (isLikeQuery) {
-                    String pattern = whereValue.replace("%", ".*");
-                    shouldDelete = values[whereColumnIndex].matches(pattern);
-                } else {
-                    shouldDelete = values[whereColumnIndex].equalsIgnoreCase(whereValue);
-                }
+        File tableFile = tableFile(tableName);
+        if (!tableFile.exists()) {
+            System.out.println("Error: Table '" + tableName + "' not found.");
+            return;
+        }
 
-                if (shouldDelete) {
-                    deleted = true;
-                } else {
-                    lines.add(line);
-                }
+        ReentrantLock lock = TableLocks.forTable(databaseDir(), tableName);
+        lock.lock();
+        try {
+            ITableStore table = openTable(tableName);
+            try {
+                long reclaimed = table.compact();
+                System.out.println("Table '" + tableName + "' vacuumed: " + reclaimed + " bytes reclaimed, "
+                        + table.getRowCount() + " rows.");
+            } finally {
+                table.close();
             }
+        } catch (IOException e) {
+            System.out.println("Error vacuuming table: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            if (!deleted) {
-                System.out.println("No matching record found for deletion.");
-                return;
-            }
+    /**
+     * Gathers the statistics the planner uses for a table and stores them beside it.
+     */
+    private void analyzeTable(String tableName) {
+        if (currentDatabase == null) {
+            System.out.println("No database selected. Use 'USE database_name' first.");
+            return;
+        }
+
+        File tableFile = tableFile(tableName);
+        if (!tableFile.exists()) {
+            System.out.println("Error: Table '" + tableName + "' not found.");
+            return;
+        }
 
-            try (BufferedWriter bw = new BufferedWriter(new FileWriter(tableFile))) {
-                for (String l : lines) {
-                    bw.write(l);
-                    bw.newLine();
+        try {
+            ITableStore table = openTable(tableName);
+            try {
+                TableStatistics statistics = TableStatistics.collect(table);
+                statistics.save(TableStatistics.fileFor(databaseDir(), tableName));
+                System.out.println("Table '" + tableName + "' analyzed: " + statistics.getRowCount() + " rows.");
+                for (int i = 0; i < table.getSchema().getColumnCount(); i++) {
+                    TableStatistics.Column column = statistics.getColumn(i);
+                    System.out.println("  " + column.getName() + ": ~" + column.getDistinct() + " distinct, "
+                            + column.getNullCount() + " null.");
                 }
+            } finally {
+                table.close();
             }
+        } catch (IOException e) {
+            System.out.println("Error analyzing table: " + e.getMessage());
+        }
+    }
 
-            System.out.println("Record deleted successfully from table '" + tableName + "'.");
+    /**
+     * Returns the table that owns the named index in the current database, or null.
+     */
+    private String findIndexTable(String indexName) {
+        String suffix = "." + indexName + BPlusTree.EXTENSION;
+        String[] indexFiles = databaseDir().list((dir, name) -> name.endsWith(suffix));
+        if (indexFiles == null || indexFiles.length == 0) {
+            return null;
+        }
+        return indexFiles[0].substring(0, indexFiles[0].length() - suffix.length());
+    }
 
-        } catch (IOException e) {
-            System.out.println("Error deleting from table: " + e.getMessage());
+    /**
+     * Returns the planner for a table, with the statistics ANALYZE stored for it if any.
+     */
+    private Planner planner(String tableName, ITableStore table, TableIndexes indexes) throws IOException {
+        return new Planner(table, indexes, TableStatistics.load(TableStatistics.fileFor(databaseDir(), tableName)));
+    }
+
+    /**
+     * Uses an index on the condition column when one exists; returns null when the table must be scanned.
+     */
+    private static List<Long> indexLookup(TableIndexes indexes, WhereCondition condition) throws IOException {
+        if (condition == null) {
+            return null;
+        }
+        int column = condition.getColumnIndex();
+        if (indexes != null && condition.isEquality() && column == indexes.getPrimaryKeyColumn()) {
+            System.out.println("Using primary key index.");
+            long rowId = indexes.findPrimaryKey(condition.getValue());
+            List<Long> rowIds = new ArrayList<>();
+            if (rowId >= 0) {
+                rowIds.add(rowId);
+            }
+            return rowIds;
+        }
+        BPlusTree tree = indexes == null ? null : indexes.forColumn(column);
+        if (tree == null) {
+            return null;
+        }
+        System.out.println("Using index: " + indexes.nameForColumn(column));
+        String value = condition.getValue();
+        switch (condition.getOperator()) {
+            case "=":
+                return tree.lookup(value);
+            case "<":
+                return tree.range(null, false, value, false);
+            case "<=":
+                return tree.range(null, false, value, true);
+            case ">":
+                return tree.range(value, false, null, false);
+            default:
+                return tree.range(value, true, null, false);
+        }
+    }
+
+    /**
+     * Collects the row ids that may match, so rows can be changed without disturbing the scan.
+     */
+    private List<Long> findMatchingRows(String tableName, ITableStore table, TableIndexes indexes, Condition condition)
+            throws IOException {
+        List<Long> rowIds = indexLookup(indexes, planner(tableName, table, indexes).chooseLookup(condition));
+        if (rowIds != null) {
+            return rowIds;
+        }
+        if (isParallelScan(table, -1)) {
+            return ParallelScanOperator.rowIds((TableFile) table, condition::matches, scanPool());
+        }
+        rowIds = new ArrayList<>();
+        boolean[] columns = columnsOf(table, condition);
+        ITableStore.Cursor cursor = table.scan(columns, columns, condition::matches);
+        while (cursor.next()) {
+            rowIds.add(cursor.rowId());
+        }
+        return rowIds;
+    }
+
+    /**
+     * Returns a column set for {@link ITableStore#scan(boolean[], boolean[], java.util.function.Predicate)}
+     * holding the columns a condition refers to.
+     */
+    private static boolean[] columnsOf(ITableStore table, Condition condition) {
+        boolean[] columns = new boolean[table.getSchema().getColumns().size()];
+        condition.addColumns(columns);
+        return columns;
+    }
+
+    /**
+     * Compiles a WHERE clause against a table's columns; returns null after reporting an
+     * unknown column.
+     */
+    private static Condition compileWhere(Condition where, TableSchema schema) {
+        try {
+            return where.compile(schema);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            return null;
         }
     }
+
     private void beginTransaction() {
         if (transactionActive) {
             System.out.println("Error: A transaction is already active.");
@@ -674,6 +2261,7 @@ public class QueryProcessor implements IQueryProcessor {
         storage.beginTransaction(loggedInUser);
 
         transactionActive = true;
+        transactionUser = loggedInUser;
         transactionLog.clear();
         System.out.println("BEGIN;");
         System.out.println("Transaction mode is activated.");
@@ -684,20 +2272,9 @@ public class QueryProcessor implements IQueryProcessor {
             return;
         }
 
-        try {
-            for (String query : transactionLog) {
-                System.out.println("Applying query: " + query);
-
-            }
-            storage.commitTransaction(loggedInUser);
-
-            transactionLog.clear();
+        if (applyCommit()) {
             System.out.println("COMMIT;");
             System.out.println("Transaction committed successfully.");
-        } catch (Exception e) {
-            System.out.println("Error committing transaction: " + e.getMessage());
-        } finally {
-            transactionActive = false;
         }
     }
     private void rollbackTransaction() {
@@ -706,7 +2283,7 @@ public class QueryProcessor implements IQueryProcessor {
             return;
         }
 
-        storage.rollbackTransaction(loggedInUser);
+        storage.rollbackTransaction(transactionUser);
 
         transactionLog.clear();
         System.out.println("ROLLBACK;");
@@ -717,54 +2294,62 @@ public class QueryProcessor implements IQueryProcessor {
         return transactionActive;
     }
 
-    private void stageQuery(String query) {
+    private void stageQuery(String query, Statement statement) {
         if (transactionActive) {
             transactionLog.add(query);
+            storage.stageQuery(transactionUser, query);
             System.out.println("Query staged for transaction: " + query);
         } else {
-            executeQuery(query);
+            executeLogged(query, statement);
         }
     }
 
-    private boolean handleTransactionCommand(String query, String upperQuery) {
-        Pattern beginPattern = Pattern.compile("BEGIN(\\s+TRANSACTION)?(\\s+(AS|LIKE|SET)\\s+(\\w+))?", Pattern.CASE_INSENSITIVE);
-        Pattern commitPattern = Pattern.compile("COMMIT(\\s+(AS|LIKE|SET)\\s+(\\w+))?", Pattern.CASE_INSENSITIVE);
-        Pattern rollbackPattern = Pattern.compile("ROLLBACK(\\s+(AS|LIKE|SET)\\s+(\\w+))?", Pattern.CASE_INSENSITIVE);
-
-        Matcher beginMatcher = beginPattern.matcher(query);
-        if (beginMatcher.matches()) {
-            String user = beginMatcher.group(4);
-            if (user != null) {
-                beginTransactionAs(user);
-            } else {
-                beginTransaction();
-            }
-            return true;
+    /**
+     * Makes the staged queries durable through the write-ahead log, then applies them in order.
+     * Every table the transaction changes is locked before it is logged, as in {@link #executeLogged}.
+     */
+    private boolean applyCommit() {
+        WriteAheadLog wal;
+        try {
+            wal = WriteAheadLog.getInstance();
+        } catch (IOException e) {
+            System.out.println("Error opening the write-ahead log: " + e.getMessage());
+            return false;
         }
 
-        Matcher commitMatcher = commitPattern.matcher(query);
-        if (commitMatcher.matches()) {
-            String user = commitMatcher.group(3);
-            if (user != null) {
-                commitTransactionAs(user);
-            } else {
-                commitTransaction();
+        Set<String> tables = new HashSet<>();
+        for (String query : transactionLog) {
+            try {
+                Statement staged = Parser.parse(query);
+                if (staged.isDataModification()) {
+                    tables.add(modifiedTable(staged));
+                }
+            } catch (ParseException e) {
+                // Reported when the statement is applied.
             }
-            return true;
         }
-
-        Matcher rollbackMatcher = rollbackPattern.matcher(query);
-        if (rollbackMatcher.matches()) {
-            String user = rollbackMatcher.group(3);
-            if (user != null) {
-                rollbackTransactionAs(user);
-            } else {
-                rollbackTransaction();
+        wal.beginApply();
+        List<ReentrantLock> locks = TableLocks.lockAll(databaseDir(), tables);
+        try {
+            List<WriteAheadLog.Record> records = storage.commitTransaction(transactionUser, loggedInUser, currentDatabase);
+            for (WriteAheadLog.Record record : records) {
+                System.out.println("Applying query: " + record.getStatement());
+                applyLogged(record.getStatement(), record.getLsn());
             }
-            return true;
+            if (!records.isEmpty()) {
+                wal.end(records.get(0).getTransactionId());
+            }
+            transactionLog.clear();
+        } catch (IOException e) {
+            System.out.println("Error committing transaction: " + e.getMessage());
+            return false;
+        } finally {
+            TableLocks.unlockAll(locks);
+            wal.endApply();
+            transactionActive = false;
         }
-
-        return false;
+        checkpointIfNeeded(wal);
+        return true;
     }
 
     private void beginTransactionAs(String user) {
@@ -774,6 +2359,7 @@ public class QueryProcessor implements IQueryProcessor {
         }
         storage.beginTransaction(user);
         transactionActive = true;
+        transactionUser = user;
         transactionLog.clear();
         System.out.println("BEGIN TRANSACTION AS " + user + ";");
         System.out.println("Transaction mode is activated for user: " + user);
@@ -785,20 +2371,9 @@ public class QueryProcessor implements IQueryProcessor {
             return;
         }
 
-        try {
-            for (String query : transactionLog) {
-                System.out.println("Applying query: " + query);
-            }
-
-            storage.commitTransaction(user);
-
-            transactionLog.clear();
+        if (applyCommit()) {
             System.out.println("COMMIT AS " + user + ";");
             System.out.println("Transaction committed successfully for user: " + user);
-        } catch (Exception e) {
-            System.out.println("Error committing transaction: " + e.getMessage());
-        } finally {
-            transactionActive = false;
         }
     }
 
@@ -807,10 +2382,53 @@ public class QueryProcessor implements IQueryProcessor {
             System.out.println("Error: No active transaction to rollback.");
             return;
         }
-        storage.rollbackTransaction(user);
+        storage.rollbackTransaction(transactionUser);
         transactionLog.clear();
         System.out.println("ROLLBACK AS " + user + ";");
         System.out.println("Transaction rolled back for user: " + user + ". All staged changes discarded.");
         transactionActive = false;
     }
+
+    private File databaseDir() {
+        return new File(STORAGE_ROOT + loggedInUser + "/" + currentDatabase);
+    }
+
+    /**
+     * Returns the main file of a table, whichever engine it uses.
+     */
+    private File tableFile(String tableName) {
+        StorageEngine engine = StorageEngine.of(databaseDir(), tableName);
+        return (engine == null ? StorageEngine.HEAP : engine).fileFor(databaseDir(), tableName);
+    }
+
+    private ITableStore openTable(String tableName) throws IOException {
+        return StorageEngine.open(databaseDir(), tableName);
+    }
+
+    private static String formatRow(String[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(" | ");
+            }
+            sb.append(values[i] == null ? "NULL" : values[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A SELECT whose result is being cached: its key, and the tables it reads with their
+     * versions before it started.
+     */
+    private static class CachedSelect {
+        final String key;
+        final List<String> tables;
+        final long[] versions;
+
+        CachedSelect(String key, List<String> tables, long[] versions) {
+            this.key = key;
+            this.tables = tables;
+            this.versions = versions;
+        }
+    }
 }
@@ -0,0 +1,254 @@
+package query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Process-wide LRU cache of SELECT results, off until given a memory budget. A result is
+ * keyed by the user, database and normalized text of its query and remembers the version of
+ * each table it read. Every INSERT, UPDATE and DELETE bumps the version of its table, so a
+ * result whose tables have changed since is never served and is dropped when next looked up.
+ * Versions live only in memory, which is enough since cached results do too.
+ */
+public class ResultCache {
+    private static final ResultCache INSTANCE = new ResultCache();
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> versions = new HashMap<>();
+    private long budget;
+    private long used;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    private ResultCache() {
+    }
+
+    public static ResultCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the memory the cached results may take, evicting the least recently used until
+     * they fit. A budget of 0 turns the cache off and empties it.
+     */
+    public synchronized void setBudget(long bytes) {
+        budget = bytes;
+        evictToFit(0);
+    }
+
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    public synchronized boolean isEnabled() {
+        return budget > 0;
+    }
+
+    /**
+     * Returns the current versions of the tables, for a result about to be computed from them.
+     * Tables are named by {@link #tableKey}.
+     */
+    public synchronized long[] getVersions(List<String> tables) {
+        long[] current = new long[tables.size()];
+        for (int i = 0; i < current.length; i++) {
+            current[i] = versions.getOrDefault(tables.get(i), 0L);
+        }
+        return current;
+    }
+
+    /**
+     * Records that a table's rows changed, so results read from it before are stale.
+     */
+    public synchronized void tableChanged(String table) {
+        versions.merge(table, 1L, Long::sum);
+    }
+
+    /**
+     * Returns the cached result of a query, or null if there is none or its tables changed.
+     */
+    public synchronized Result get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && !isCurrent(entry)) {
+            remove(key);
+            invalidations++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.result;
+    }
+
+    /**
+     * Caches a result computed from the tables at the given versions. It is not cached if a
+     * table changed while it was computed, or if it would take more than the whole budget.
+     */
+    public synchronized void put(String key, List<String> tables, long[] tableVersions, Result result) {
+        Entry entry = new Entry(tables, tableVersions, result);
+        if (result.size > budget || !isCurrent(entry)) {
+            return;
+        }
+        remove(key);
+        evictToFit(result.size);
+        entries.put(key, entry);
+        used += result.size;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the estimated memory the cached results take.
+     */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns how many results were dropped because a table they read changed.
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Returns the name a table's version is kept under: tables are only unique within a
+     * user's database, and names compare case-insensitively.
+     */
+    public static String tableKey(String user, String database, String table) {
+        return (user + "/" + database + "/" + table).toLowerCase(Locale.ROOT);
+    }
+
+    private boolean isCurrent(Entry entry) {
+        return Arrays.equals(entry.versions, getVersions(entry.tables));
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            used -= removed.result.size;
+        }
+    }
+
+    private void evictToFit(long size) {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (used + size > budget && eldest.hasNext()) {
+            used -= eldest.next().result.size;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * The rows of a query result with the title and columns they were printed under.
+     */
+    public static class Result {
+        private final String title;
+        private final String[] columns;
+        private final List<String[]> rows;
+        private final long size;
+
+        private Result(String title, String[] columns, List<String[]> rows, long size) {
+            this.title = title;
+            this.columns = columns;
+            this.rows = Collections.unmodifiableList(rows);
+            this.size = size;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String[] getColumns() {
+            return columns;
+        }
+
+        public List<String[]> getRows() {
+            return rows;
+        }
+    }
+
+    /**
+     * Copies the rows of a result as they are printed. Rows beyond the budget are not kept,
+     * since the result could not be cached anyway.
+     */
+    public static class Collector implements Consumer<String[]> {
+        private final long limit;
+        private List<String[]> rows = new ArrayList<>();
+        private long size = 64;
+
+        public Collector(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void accept(String[] row) {
+            if (rows == null) {
+                return;
+            }
+            size += estimateSize(row);
+            if (size > limit) {
+                rows = null;
+                return;
+            }
+            rows.add(row.clone());
+        }
+
+        /**
+         * Returns the collected result, or null if it outgrew the budget.
+         */
+        public Result toResult(String title, String[] columns) {
+            return rows == null ? null : new Result(title, columns, rows, size + estimateSize(columns));
+        }
+
+        /**
+         * Rough heap size of a row: the array, plus each string with its character array.
+         */
+        private static long estimateSize(String[] row) {
+            long size = 16 + 8L * row.length;
+            for (String value : row) {
+                if (value != null) {
+                    size += 56 + 2L * value.length();
+                }
+            }
+            return size;
+        }
+    }
+
+    private static class Entry {
+        final List<String> tables;
+        final long[] versions;
+        final Result result;
+
+        Entry(List<String> tables, long[] versions, Result result) {
+            this.tables = tables;
+            this.versions = versions;
+            this.result = result;
+        }
+    }
+}
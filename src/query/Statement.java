@@ -0,0 +1,646 @@
+package query;
+
+import executor.AggregateFunction;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Parsed form of one SQL statement. Each kind of statement is a nested class holding the
+ * names and values the statement refers to, so handlers never look at the text again.
+ */
+public abstract class Statement {
+    public enum Kind {
+        SHOW,
+        USE,
+        CREATE_DATABASE,
+        CREATE_TABLE,
+        CREATE_INDEX,
+        DROP_INDEX,
+        DESCRIBE,
+        VACUUM,
+        SELECT,
+        INSERT,
+        UPDATE,
+        DELETE,
+        BEGIN,
+        COMMIT,
+        ROLLBACK,
+        PREPARE,
+        EXECUTE,
+        DEALLOCATE,
+        SET,
+        LOAD,
+        ANALYZE,
+        EXPLAIN
+    }
+
+    private final Kind kind;
+
+    Statement(Kind kind) {
+        this.kind = kind;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns true for the statements that change table data and so go through the write-ahead log.
+     */
+    public boolean isDataModification() {
+        return kind == Kind.INSERT || kind == Kind.UPDATE || kind == Kind.DELETE;
+    }
+
+    /**
+     * Returns this statement with its ? parameters replaced, in the order they appear, by the
+     * given arguments. Parameters are held as null values until they are bound.
+     */
+    Statement bind(Iterator<String> arguments) {
+        return this;
+    }
+
+    private static String bindValue(String value, Iterator<String> arguments) {
+        return value != null ? value : arguments.next();
+    }
+
+    private static Condition bindWhere(Condition where, Iterator<String> arguments) {
+        return where == null ? null : where.bind(arguments);
+    }
+
+    public static class Show extends Statement {
+        public enum Target { DATABASES, TABLES, STATUS }
+
+        private final Target target;
+
+        Show(Target target) {
+            super(Kind.SHOW);
+            this.target = target;
+        }
+
+        public Target getTarget() {
+            return target;
+        }
+    }
+
+    /**
+     * A statement naming a single database, table or index.
+     */
+    public static class Named extends Statement {
+        private final String name;
+
+        Named(Kind kind, String name) {
+            super(kind);
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public static class ColumnDefinition {
+        private final String name;
+        private final String type;
+        private final boolean primaryKey;
+
+        ColumnDefinition(String name, String type, boolean primaryKey) {
+            this.name = name;
+            this.type = type;
+            this.primaryKey = primaryKey;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the declared type as written, or an empty string if none was given.
+         */
+        public String getType() {
+            return type;
+        }
+
+        public boolean isPrimaryKey() {
+            return primaryKey;
+        }
+    }
+
+    public static class CreateTable extends Statement {
+        private final String table;
+        private final List<ColumnDefinition> columns;
+        private final String primaryKey;
+        private final List<String[]> options;
+
+        CreateTable(String table, List<ColumnDefinition> columns, String primaryKey, List<String[]> options) {
+            super(Kind.CREATE_TABLE);
+            this.table = table;
+            this.columns = columns;
+            this.primaryKey = primaryKey;
+            this.options = options;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public List<ColumnDefinition> getColumns() {
+            return columns;
+        }
+
+        /**
+         * Returns the column named by a table-level PRIMARY KEY (column) constraint, or null.
+         */
+        public String getPrimaryKey() {
+            return primaryKey;
+        }
+
+        /**
+         * Returns the NAME=value table options in the order given.
+         */
+        public List<String[]> getOptions() {
+            return options;
+        }
+    }
+
+    public static class CreateIndex extends Statement {
+        private final String index;
+        private final String table;
+        private final String column;
+
+        CreateIndex(String index, String table, String column) {
+            super(Kind.CREATE_INDEX);
+            this.index = index;
+            this.table = table;
+            this.column = column;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+    }
+
+    public static class DropIndex extends Statement {
+        private final String index;
+        private final String table;
+
+        DropIndex(String index, String table) {
+            super(Kind.DROP_INDEX);
+            this.index = index;
+            this.table = table;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the table named with ON, or null if the index is to be looked up.
+         */
+        public String getTable() {
+            return table;
+        }
+    }
+
+    public static class Select extends Statement {
+        private final String table;
+        private final Join join;
+        private final List<String> columns;
+        private final List<Aggregate> aggregates;
+        private final Condition where;
+        private final List<String> groupBy;
+        private final List<OrderKey> orderBy;
+        private final long limit;
+
+        Select(String table, Join join, List<String> columns, List<Aggregate> aggregates, Condition where,
+               List<String> groupBy, List<OrderKey> orderBy, long limit) {
+            super(Kind.SELECT);
+            this.table = table;
+            this.join = join;
+            this.columns = columns;
+            this.aggregates = aggregates;
+            this.where = where;
+            this.groupBy = groupBy;
+            this.orderBy = orderBy;
+            this.limit = limit;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        /**
+         * Returns the table joined to the FROM table, or null if there is none.
+         */
+        public Join getJoin() {
+            return join;
+        }
+
+        /**
+         * Returns the selected columns in order, or null for SELECT * or a list of aggregates.
+         * In a join they may be qualified as table.column.
+         */
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        /**
+         * Returns the select list in order if it holds aggregates or the statement has GROUP BY,
+         * otherwise null. With GROUP BY, entries without a function are group columns.
+         */
+        public List<Aggregate> getAggregates() {
+            return aggregates;
+        }
+
+        /**
+         * Returns the WHERE condition, or null if every row is selected.
+         */
+        public Condition getWhere() {
+            return where;
+        }
+
+        /**
+         * Returns the GROUP BY columns, or null if there is no GROUP BY.
+         */
+        public List<String> getGroupBy() {
+            return groupBy;
+        }
+
+        /**
+         * Returns the ORDER BY keys, most significant first, or null if there is no ORDER BY.
+         */
+        public List<OrderKey> getOrderBy() {
+            return orderBy;
+        }
+
+        /**
+         * Returns the LIMIT row count, or -1 if there is none.
+         */
+        public long getLimit() {
+            return limit;
+        }
+
+        @Override
+        Statement bind(Iterator<String> arguments) {
+            return new Select(table, join, columns, aggregates, bindWhere(where, arguments), groupBy, orderBy,
+                    limit);
+        }
+    }
+
+    /**
+     * JOIN table ON column = column. The columns are named as written, either of them
+     * possibly qualified as table.column.
+     */
+    public static class Join {
+        private final String table;
+        private final String leftColumn;
+        private final String rightColumn;
+
+        Join(String table, String leftColumn, String rightColumn) {
+            this.table = table;
+            this.leftColumn = leftColumn;
+            this.rightColumn = rightColumn;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public String getLeftColumn() {
+            return leftColumn;
+        }
+
+        public String getRightColumn() {
+            return rightColumn;
+        }
+    }
+
+    /**
+     * An aggregate in a select list, such as SUM(amount) or COUNT(*), or a group column
+     * selected as it is, which has no function.
+     */
+    public static class Aggregate {
+        private final AggregateFunction function;
+        private final String column;
+
+        Aggregate(AggregateFunction function, String column) {
+            this.function = function;
+            this.column = column;
+        }
+
+        /**
+         * Returns the function, or null for a group column.
+         */
+        public AggregateFunction getFunction() {
+            return function;
+        }
+
+        /**
+         * Returns the column aggregated, or null for COUNT(*).
+         */
+        public String getColumn() {
+            return column;
+        }
+
+        @Override
+        public String toString() {
+            if (function == null) {
+                return column;
+            }
+            return function + "(" + (column == null ? "*" : column) + ")";
+        }
+    }
+
+    /**
+     * One key of an ORDER BY. The column is named as written, or is the text of an aggregate
+     * such as COUNT(*) to order grouped rows by it.
+     */
+    public static class OrderKey {
+        private final String column;
+        private final boolean descending;
+
+        OrderKey(String column, boolean descending) {
+            this.column = column;
+            this.descending = descending;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public boolean isDescending() {
+            return descending;
+        }
+
+        @Override
+        public String toString() {
+            return descending ? column + " DESC" : column;
+        }
+    }
+
+    public static class Insert extends Statement {
+        private final String table;
+        private final List<String[]> rows;
+
+        Insert(String table, List<String[]> rows) {
+            super(Kind.INSERT);
+            this.table = table;
+            this.rows = rows;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        /**
+         * Returns the values of each row in VALUES, in order.
+         */
+        public List<String[]> getRows() {
+            return rows;
+        }
+
+        @Override
+        Statement bind(Iterator<String> arguments) {
+            List<String[]> bound = new ArrayList<>();
+            for (String[] values : rows) {
+                String[] row = new String[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    row[i] = bindValue(values[i], arguments);
+                }
+                bound.add(row);
+            }
+            return new Insert(table, bound);
+        }
+    }
+
+    /**
+     * LOAD DATA 'file' INTO table, reading rows from a CSV file.
+     */
+    public static class Load extends Statement {
+        private final String file;
+        private final String table;
+        private final long ignoredLines;
+
+        Load(String file, String table, long ignoredLines) {
+            super(Kind.LOAD);
+            this.file = file;
+            this.table = table;
+            this.ignoredLines = ignoredLines;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        /**
+         * Returns the number of leading records to skip, such as a header line.
+         */
+        public long getIgnoredLines() {
+            return ignoredLines;
+        }
+    }
+
+    public static class Update extends Statement {
+        private final String table;
+        private final List<String> columns;
+        private final List<String> values;
+        private final Condition where;
+
+        Update(String table, List<String> columns, List<String> values, Condition where) {
+            super(Kind.UPDATE);
+            this.table = table;
+            this.columns = columns;
+            this.values = values;
+            this.where = where;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        /**
+         * Returns the columns assigned in SET, in order; {@link #getValues()} holds their new values.
+         */
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        public List<String> getValues() {
+            return values;
+        }
+
+        public Condition getWhere() {
+            return where;
+        }
+
+        @Override
+        Statement bind(Iterator<String> arguments) {
+            List<String> bound = new ArrayList<>(values.size());
+            for (String value : values) {
+                bound.add(bindValue(value, arguments));
+            }
+            return new Update(table, columns, bound, bindWhere(where, arguments));
+        }
+    }
+
+    public static class Delete extends Statement {
+        private final String table;
+        private final Condition where;
+
+        Delete(String table, Condition where) {
+            super(Kind.DELETE);
+            this.table = table;
+            this.where = where;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public Condition getWhere() {
+            return where;
+        }
+
+        @Override
+        Statement bind(Iterator<String> arguments) {
+            return new Delete(table, bindWhere(where, arguments));
+        }
+    }
+
+    /**
+     * BEGIN, COMMIT or ROLLBACK, optionally on behalf of another user with AS, LIKE or SET.
+     */
+    public static class Transaction extends Statement {
+        private final String user;
+
+        Transaction(Kind kind, String user) {
+            super(kind);
+            this.user = user;
+        }
+
+        /**
+         * Returns the user named after AS, LIKE or SET, or null.
+         */
+        public String getUser() {
+            return user;
+        }
+    }
+
+    /**
+     * SET name = value, changing a setting of the session.
+     */
+    public static class Set extends Statement {
+        private final String name;
+        private final String value;
+
+        Set(String name, String value) {
+            super(Kind.SET);
+            this.name = name;
+            this.value = value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * EXPLAIN [ANALYZE] statement, showing the plan of a SELECT, UPDATE or DELETE.
+     */
+    public static class Explain extends Statement {
+        private final Statement statement;
+        private final boolean analyze;
+
+        Explain(Statement statement, boolean analyze) {
+            super(Kind.EXPLAIN);
+            this.statement = statement;
+            this.analyze = analyze;
+        }
+
+        public Statement getStatement() {
+            return statement;
+        }
+
+        /**
+         * Returns true if the statement is to be run and its plan shown with what each step did.
+         */
+        public boolean isAnalyze() {
+            return analyze;
+        }
+
+        @Override
+        Statement bind(Iterator<String> arguments) {
+            return new Explain(statement.bind(arguments), analyze);
+        }
+    }
+
+    /**
+     * PREPARE name AS statement.
+     */
+    public static class Prepare extends Statement {
+        private final String name;
+        private final PreparedStatement prepared;
+
+        Prepare(String name, PreparedStatement prepared) {
+            super(Kind.PREPARE);
+            this.name = name;
+            this.prepared = prepared;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public PreparedStatement getPrepared() {
+            return prepared;
+        }
+    }
+
+    /**
+     * EXECUTE name(arguments).
+     */
+    public static class Execute extends Statement {
+        private final String name;
+        private final String[] arguments;
+
+        Execute(String name, String[] arguments) {
+            super(Kind.EXECUTE);
+            this.name = name;
+            this.arguments = arguments;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String[] getArguments() {
+            return arguments;
+        }
+
+        @Override
+        Statement bind(Iterator<String> parameters) {
+            String[] bound = new String[arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                bound[i] = bindValue(arguments[i], parameters);
+            }
+            return new Execute(name, bound);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package query;
+
+import storage.ColumnType;
+import storage.RowCodec;
+import storage.TableSchema;
+import storage.TableStatistics;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * A single-column WHERE condition: column =, <>, <, <=, >, >= or LIKE a value.
+ * Comparisons follow the column's type: once compiled, the value is put in the type's
+ * canonical form and, for types other than VARCHAR, compared as a long or double with the
+ * binary values of encoded rows. VARCHAR comparisons are case-insensitive, like the equality
+ * checks they replace. LIKE is case-sensitive, on the text of any type, with % matching any
+ * run of characters and _ any one character.
+ */
+public class WhereCondition extends Condition {
+    // The share of rows a LIKE pattern is guessed to match, as histograms cannot tell.
+    private static final double LIKE_SELECTIVITY = 0.1;
+
+    private final String column;
+    private final String operator;
+    private final String value;
+    private final int columnIndex;
+    private final ColumnType type;
+    private final byte[] asciiValue;
+    private final long longValue;
+    private final double doubleValue;
+    private final LikePattern like;
+
+    WhereCondition(String column, String operator, String value) {
+        this(column, operator, value, -1, ColumnType.VARCHAR);
+    }
+
+    private WhereCondition(String column, String operator, String value, int columnIndex, ColumnType type) {
+        this.column = column;
+        this.operator = operator;
+        this.columnIndex = columnIndex;
+        this.like = value != null && operator.equals("LIKE") ? new LikePattern(value) : null;
+        this.type = like != null ? ColumnType.VARCHAR : type;
+        this.value = like != null ? value : this.type.normalize(value);
+        this.asciiValue = this.value == null || this.type != ColumnType.VARCHAR ? null : foldAscii(this.value);
+        this.longValue = this.value == null || !this.type.isBinary() || this.type == ColumnType.DOUBLE
+                ? 0 : this.type.toLong(this.value);
+        this.doubleValue = this.value != null && this.type == ColumnType.DOUBLE ? Double.parseDouble(this.value) : 0;
+    }
+
+    /**
+     * Throws IllegalArgumentException if the value is not of the column's type.
+     */
+    @Override
+    Condition compile(TableSchema schema) {
+        int index = resolve(schema, column);
+        String normalized = isLike() ? value : schema.normalize(index, value);
+        return new WhereCondition(column, operator, normalized, index, schema.getType(index));
+    }
+
+    @Override
+    Condition bind(Iterator<String> arguments) {
+        return value != null ? this : new WhereCondition(column, operator, arguments.next(), columnIndex, type);
+    }
+
+    @Override
+    public boolean matches(String[] row) {
+        return matches(row[columnIndex]);
+    }
+
+    @Override
+    public boolean matches(ByteBuffer row, int rowOffset) {
+        return matches(row, rowOffset, columnIndex);
+    }
+
+    @Override
+    public void addColumns(boolean[] columns) {
+        columns[columnIndex] = true;
+    }
+
+    @Override
+    double selectivity(TableStatistics statistics) {
+        TableStatistics.Column stats = statistics.getColumn(columnIndex);
+        double fraction;
+        switch (operator) {
+            case "=":
+                fraction = stats.equalFraction(value);
+                break;
+            case "<>":
+                fraction = 1 - stats.equalFraction(value);
+                break;
+            case "<":
+                fraction = stats.fractionBelow(value, false);
+                break;
+            case "<=":
+                fraction = stats.fractionBelow(value, true);
+                break;
+            case ">":
+                fraction = 1 - stats.fractionBelow(value, true);
+                break;
+            case ">=":
+                fraction = 1 - stats.fractionBelow(value, false);
+                break;
+            default:
+                fraction = LIKE_SELECTIVITY;
+                break;
+        }
+        return fraction * (1 - statistics.getNullFraction(columnIndex));
+    }
+
+    @Override
+    public WhereCondition getIndexable() {
+        return isLike() || operator.equals("<>") ? null : this;
+    }
+
+    /**
+     * Returns the position of the column in the table, once compiled.
+     */
+    public int getColumnIndex() {
+        return columnIndex;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public boolean isLike() {
+        return operator.equals("LIKE");
+    }
+
+    public boolean isEquality() {
+        return operator.equals("=");
+    }
+
+    public boolean matches(String candidate) {
+        if (candidate == null) {
+            return false;
+        }
+        if (like != null) {
+            return like.matches(candidate);
+        }
+        switch (type) {
+            case VARCHAR:
+                return test(String.CASE_INSENSITIVE_ORDER.compare(candidate, value));
+            case DOUBLE:
+                return test(Double.compare(Double.parseDouble(candidate), doubleValue));
+            default:
+                return test(Long.compare(type.toLong(candidate), longValue));
+        }
+    }
+
+    /**
+     * Evaluates the condition on a column of an encoded row, comparing the field's bytes in
+     * place: a binary value as a primitive, and text byte by byte. Only text fields that are
+     * not plain ASCII, and LIKE patterns, are decoded to a String.
+     */
+    public boolean matches(ByteBuffer row, int rowOffset, int columnIndex) {
+        int field = RowCodec.fieldPosition(row, rowOffset, columnIndex);
+        int length = field < 0 ? -1 : RowCodec.fieldLength(row, field);
+        if (length < 0) {
+            return false;
+        }
+        ColumnType encoded = RowCodec.fieldType(row, field);
+        if (encoded != null && encoded == type) {
+            return test(type == ColumnType.DOUBLE
+                    ? Double.compare(type.readDouble(row, field + 2), doubleValue)
+                    : Long.compare(type.readLong(row, field + 2), longValue));
+        }
+        if (isLike() || asciiValue == null || encoded != null) {
+            return matches(RowCodec.decodeField(row, field));
+        }
+        int start = field + 2;
+        int common = Math.min(length, asciiValue.length);
+        for (int i = 0; i < common; i++) {
+            int b = row.get(start + i);
+            if (b < 0) {
+                return matches(RowCodec.decodeField(row, field));
+            }
+            int cmp = foldAscii(b) - asciiValue[i];
+            if (cmp != 0) {
+                return test(cmp);
+            }
+        }
+        for (int i = common; i < length; i++) {
+            if (row.get(start + i) < 0) {
+                return matches(RowCodec.decodeField(row, field));
+            }
+        }
+        return test(length - asciiValue.length);
+    }
+
+    private boolean test(int cmp) {
+        switch (operator) {
+            case "=":
+                return cmp == 0;
+            case "<>":
+                return cmp != 0;
+            case "<":
+                return cmp < 0;
+            case "<=":
+                return cmp <= 0;
+            case ">":
+                return cmp > 0;
+            default:
+                return cmp >= 0;
+        }
+    }
+
+    /**
+     * Returns the lower-cased bytes of a pure ASCII value, or null if it has other characters.
+     * Lower-casing ASCII orders the same way as String.CASE_INSENSITIVE_ORDER.
+     */
+    private static byte[] foldAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return null;
+            }
+        }
+        return text.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static int foldAscii(int b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    @Override
+    public String toString() {
+        return column + " " + operator + " " + value;
+    }
+
+    /**
+     * A LIKE pattern compiled once. Patterns made of literal text around at most two %
+     * are tested with startsWith, endsWith and contains; others become a regular expression.
+     */
+    private static class LikePattern {
+        private final String prefix;
+        private final String suffix;
+        private final String infix;
+        private final boolean exact;
+        private final Pattern pattern;
+
+        LikePattern(String like) {
+            String[] parts = like.split("%", -1);
+            boolean simple = like.indexOf('_') < 0;
+            if (simple && parts.length == 1) {
+                prefix = like;
+                suffix = "";
+                infix = null;
+                exact = true;
+                pattern = null;
+            } else if (simple && parts.length == 2) {
+                prefix = parts[0];
+                suffix = parts[1];
+                infix = null;
+                exact = false;
+                pattern = null;
+            } else if (simple && parts.length == 3 && parts[0].isEmpty() && parts[2].isEmpty()) {
+                prefix = "";
+                suffix = "";
+                infix = parts[1];
+                exact = false;
+                pattern = null;
+            } else {
+                prefix = null;
+                suffix = null;
+                infix = null;
+                exact = false;
+                pattern = Pattern.compile(toRegex(like), Pattern.DOTALL);
+            }
+        }
+
+        boolean matches(String candidate) {
+            if (pattern != null) {
+                return pattern.matcher(candidate).matches();
+            }
+            if (exact) {
+                return candidate.equals(prefix);
+            }
+            if (infix != null) {
+                return candidate.contains(infix);
+            }
+            return candidate.length() >= prefix.length() + suffix.length()
+                    && candidate.startsWith(prefix) && candidate.endsWith(suffix);
+        }
+
+        private static String toRegex(String like) {
+            StringBuilder regex = new StringBuilder();
+            StringBuilder literal = new StringBuilder();
+            for (int i = 0; i < like.length(); i++) {
+                char c = like.charAt(i);
+                if (c == '%' || c == '_') {
+                    if (literal.length() > 0) {
+                        regex.append(Pattern.quote(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    regex.append(c == '%' ? ".*" : ".");
+                } else {
+                    literal.append(c);
+                }
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+            }
+            return regex.toString();
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Process-wide cache of table and index pages with a fixed page budget.
+ * Every {@link PageFile} reads and writes through the pool. Pages are cached under the file's
+ * path, so they stay hot across queries even though each query opens its files anew.
+ * A page in use is pinned and cannot be evicted; modified pages are marked dirty and written
+ * back when evicted, when their file is forced or closed, or when the pool is flushed.
+ * Victims are chosen by the CLOCK sweep: each frame has a reference bit that is set on every
+ * access and cleared as the hand passes, so recently used pages get a second chance.
+ * A file's page 0 holds its header, so it is written back after the file's other dirty pages.
+ *
+ * The pool's lock only guards its bookkeeping; pages are read and written with it released,
+ * so sessions wait for one another's I/O only when they need the same frame. A frame being
+ * loaded or written back is marked as in I/O: it is not pinned, evicted or written by anyone
+ * else until the I/O is done. A page being written back on eviction keeps its old mapping
+ * meanwhile, so a session asking for it waits rather than reading the stale copy on disk.
+ *
+ * Dirty pages may be written back at any time, even in the middle of a logged statement
+ * (steal). Recovery relies on a rule to cope: a page changed by a statement that is still
+ * being applied is saved to the statement's {@link PageJournal} before it is written, so a
+ * crash can always take a table back to before the statement and redo it from the log.
+ */
+public class BufferPool {
+    public static final int DEFAULT_CAPACITY = 2048;
+
+    private static BufferPool instance;
+
+    private final int capacity;
+    private final List<Frame> frames = new ArrayList<>();
+    private final Map<Long, Frame> pageTable = new HashMap<>();
+    private final Map<String, Integer> fileIds = new HashMap<>();
+    private final ThreadLocal<PageJournal> statements = new ThreadLocal<>();
+    private int clockHand;
+    private int waiters;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+
+    /**
+     * A cached page. The data buffer may only be used while the frame is pinned.
+     */
+    public static class Frame {
+        private final ByteBuffer data = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        private long key = -1;
+        private PageFile owner;
+        private int pinCount;
+        private boolean dirty;
+        private boolean referenced;
+        private boolean io;
+        // Journal of the statement being applied that last changed the page, if any.
+        private PageJournal journal;
+
+        public ByteBuffer getData() {
+            return data;
+        }
+
+        private int pageNo() {
+            return (int) key;
+        }
+    }
+
+    private BufferPool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public static synchronized BufferPool getInstance() {
+        if (instance == null) {
+            instance = new BufferPool(DEFAULT_CAPACITY);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    instance.flushAll();
+                } catch (IOException e) {
+                    System.out.println("Error flushing the buffer pool: " + e.getMessage());
+                }
+            }));
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the id under which the pages of the file are cached. A file that is empty on
+     * disk has just been created, so any pages cached for an earlier file of that name are dropped.
+     */
+    synchronized int register(File file, boolean empty) throws IOException {
+        String path = file.getCanonicalPath();
+        Integer id = fileIds.get(path);
+        if (id == null) {
+            id = fileIds.size() + 1;
+            fileIds.put(path, id);
+        } else if (empty) {
+            for (Frame frame : frames) {
+                if (frame.key >= 0 && fileOf(frame.key) == id) {
+                    if (frame.pinCount > 0 || frame.io) {
+                        throw new IOException("Pages of " + file.getName() + " are still in use.");
+                    }
+                    pageTable.remove(frame.key);
+                    frame.key = -1;
+                    frame.owner = null;
+                    frame.dirty = false;
+                    frame.journal = null;
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Pins a page of the file, reading it from disk unless it is cached or is a new page.
+     * A miss takes a victim frame and, with the pool unlocked, writes back what it held if
+     * it was dirty and then reads the page into it.
+     */
+    public Frame pin(PageFile file, int pageNo, boolean isNew) throws IOException {
+        long key = key(file.getFileId(), pageNo);
+        Frame frame;
+        long oldKey;
+        List<Frame> writes;
+        synchronized (this) {
+            while (true) {
+                frame = pageTable.get(key);
+                if (frame == null) {
+                    break;
+                }
+                if (!frame.io) {
+                    hits++;
+                    frame.pinCount++;
+                    frame.referenced = true;
+                    frame.owner = file;
+                    frame.data.clear();
+                    return frame;
+                }
+                awaitIo();
+            }
+            misses++;
+            frame = victim();
+            oldKey = frame.key;
+            writes = new ArrayList<>();
+            if (oldKey >= 0 && frame.dirty) {
+                if (frame.pageNo() == 0) {
+                    writes = claim(other -> other.dirty && other.key >= 0 && fileOf(other.key) == fileOf(oldKey));
+                } else {
+                    writes.add(frame);
+                }
+            } else if (oldKey >= 0) {
+                pageTable.remove(oldKey);
+                evictions++;
+            }
+            // The old mapping stays until the old page is written, so nobody reads it stale.
+            frame.io = true;
+            pageTable.put(key, frame);
+        }
+
+        try {
+            write(writes);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                pageTable.remove(key);
+                finishIo(writes, false);
+                frame.io = false;
+                notifyIo();
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            finishIo(writes, true);
+            if (oldKey >= 0 && !writes.isEmpty()) {
+                pageTable.remove(oldKey);
+                evictions++;
+            }
+            frame.key = key;
+            frame.owner = file;
+            frame.dirty = false;
+            frame.journal = null;
+            frame.io = true;
+            notifyIo();
+        }
+
+        try {
+            if (isNew) {
+                Arrays.fill(frame.data.array(), (byte) 0);
+            } else {
+                file.readFromDisk(pageNo, frame.data);
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                pageTable.remove(key);
+                frame.key = -1;
+                frame.owner = null;
+                frame.io = false;
+                notifyIo();
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            frame.io = false;
+            frame.pinCount++;
+            frame.referenced = true;
+            frame.data.clear();
+            notifyIo();
+        }
+        return frame;
+    }
+
+    public synchronized void unpin(Frame frame, boolean dirty) {
+        if (frame.pinCount == 0) {
+            throw new IllegalStateException("Page is not pinned.");
+        }
+        frame.pinCount--;
+        frame.dirty |= dirty;
+        if (dirty && statements.get() != null) {
+            frame.journal = statements.get();
+        }
+        if (frame.pinCount == 0) {
+            notifyIo();
+        }
+    }
+
+    /**
+     * Starts applying a logged statement on this thread: until {@link #endStatement}, the
+     * pages the thread changes are saved to the journal before they are written back.
+     */
+    public void beginStatement(PageJournal journal) {
+        statements.set(journal);
+    }
+
+    /**
+     * Writes back the pages the statement changed, headers last, then deletes its journal.
+     */
+    public void endStatement(PageJournal journal) throws IOException {
+        statements.remove();
+        writeBack(frame -> frame.journal == journal);
+        synchronized (this) {
+            for (Frame frame : frames) {
+                if (frame.journal == journal && !frame.dirty) {
+                    frame.journal = null;
+                }
+            }
+        }
+        journal.delete();
+    }
+
+    /**
+     * Writes back every dirty page of the file.
+     */
+    public void flush(PageFile file) throws IOException {
+        int fileId = file.getFileId();
+        writeBack(frame -> fileOf(frame.key) == fileId);
+    }
+
+    /**
+     * Writes back every dirty page in the pool.
+     */
+    public void flushAll() throws IOException {
+        writeBack(frame -> true);
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int getCachedPageCount() {
+        return pageTable.size();
+    }
+
+    public synchronized int getDirtyPageCount() {
+        int dirty = 0;
+        for (Frame frame : frames) {
+            if (frame.dirty) {
+                dirty++;
+            }
+        }
+        return dirty;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getWriteBacks() {
+        return writeBacks;
+    }
+
+    /**
+     * Returns a frame to load a page into: a fresh one while under budget, otherwise the first
+     * frame the clock hand finds unpinned, not in I/O and with its reference bit clear. Waits
+     * when every frame is busy with I/O.
+     */
+    private Frame victim() throws IOException {
+        if (frames.size() < capacity) {
+            Frame frame = new Frame();
+            frames.add(frame);
+            return frame;
+        }
+        while (true) {
+            boolean busy = false;
+            for (int step = 0; step < 2 * frames.size() + 1; step++) {
+                Frame frame = frames.get(clockHand);
+                clockHand = (clockHand + 1) % frames.size();
+                if (frame.io) {
+                    busy = true;
+                    continue;
+                }
+                if (frame.pinCount > 0) {
+                    continue;
+                }
+                if (frame.referenced) {
+                    frame.referenced = false;
+                    continue;
+                }
+                return frame;
+            }
+            if (!busy) {
+                throw new IOException("Buffer pool has no unpinned page to evict.");
+            }
+            awaitIo();
+        }
+    }
+
+    /**
+     * Writes back the dirty pages the filter selects, each file's header page after its other
+     * pages. Pages that are pinned or in I/O are waited for; pages dirtied after the call
+     * started need not be written.
+     */
+    private void writeBack(Predicate<Frame> filter) throws IOException {
+        List<Frame> pending;
+        synchronized (this) {
+            pending = new ArrayList<>();
+            for (Frame frame : frames) {
+                if (frame.dirty && frame.key >= 0 && filter.test(frame)) {
+                    pending.add(frame);
+                }
+            }
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            boolean headers = pass == 1;
+            while (true) {
+                List<Frame> claimed;
+                synchronized (this) {
+                    pending.removeIf(frame -> !frame.dirty || frame.key < 0 || !filter.test(frame));
+                    claimed = new ArrayList<>();
+                    boolean waiting = false;
+                    for (Frame frame : pending) {
+                        if ((frame.pageNo() == 0) != headers) {
+                            continue;
+                        }
+                        if (frame.io || frame.pinCount > 0) {
+                            waiting = true;
+                        } else {
+                            frame.io = true;
+                            claimed.add(frame);
+                        }
+                    }
+                    if (claimed.isEmpty()) {
+                        if (!waiting) {
+                            break;
+                        }
+                        awaitIo();
+                        continue;
+                    }
+                    pending.removeAll(claimed);
+                }
+                try {
+                    write(claimed);
+                } catch (IOException | RuntimeException e) {
+                    synchronized (this) {
+                        finishIo(claimed, false);
+                        notifyIo();
+                    }
+                    throw e;
+                }
+                synchronized (this) {
+                    finishIo(claimed, true);
+                    notifyIo();
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the dirty frames the filter selects as in I/O and returns them, headers last.
+     * Frames that are pinned or already in I/O are left for a later write-back.
+     */
+    private List<Frame> claim(Predicate<Frame> filter) {
+        List<Frame> claimed = new ArrayList<>();
+        List<Frame> headers = new ArrayList<>();
+        for (Frame frame : frames) {
+            if (frame.io || frame.pinCount > 0 || !filter.test(frame)) {
+                continue;
+            }
+            frame.io = true;
+            (frame.pageNo() == 0 ? headers : claimed).add(frame);
+        }
+        claimed.addAll(headers);
+        return claimed;
+    }
+
+    /**
+     * Writes claimed frames to disk with the pool unlocked. A page changed by a statement that
+     * is being applied is saved to the statement's journal first.
+     */
+    private void write(List<Frame> claimed) throws IOException {
+        for (Frame frame : claimed) {
+            if (frame.journal != null) {
+                frame.journal.save(frame.owner, frame.pageNo());
+            }
+            frame.owner.writeToDisk(frame.pageNo(), frame.data);
+        }
+    }
+
+    /**
+     * Ends the I/O of written frames, marking them clean if the writes succeeded.
+     */
+    private void finishIo(List<Frame> written, boolean success) {
+        for (Frame frame : written) {
+            frame.io = false;
+            if (success) {
+                frame.dirty = false;
+                frame.journal = null;
+                writeBacks++;
+            }
+        }
+    }
+
+    private void awaitIo() throws IOException {
+        waiters++;
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the buffer pool.");
+        } finally {
+            waiters--;
+        }
+    }
+
+    private void notifyIo() {
+        if (waiters > 0) {
+            notifyAll();
+        }
+    }
+
+    private static long key(int fileId, int pageNo) {
+        return ((long) fileId << 32) | (pageNo & 0xFFFFFFFFL);
+    }
+
+    private static int fileOf(long key) {
+        return (int) (key >>> 32);
+    }
+}
@@ -0,0 +1,178 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the values of one column of a row group. Each chunk picks the smallest of three
+ * encodings for its values:
+ * PLAIN stores every value with a length prefix,
+ * DICTIONARY stores the distinct values once and a 1, 2 or 4 byte code per row, and
+ * RUN_LENGTH stores each run of equal values once with its length.
+ * Lengths are unsigned shorts; 0xFFFF marks a null value.
+ */
+final class ColumnChunk {
+    static final byte PLAIN = 0;
+    static final byte DICTIONARY = 1;
+    static final byte RUN_LENGTH = 2;
+
+    private static final int NULL_LENGTH = 0xFFFF;
+    private static final Object NULL_KEY = new Object();
+
+    private ColumnChunk() {
+    }
+
+    static String encodingName(byte encoding) {
+        switch (encoding) {
+            case DICTIONARY:
+                return "DICTIONARY";
+            case RUN_LENGTH:
+                return "RUN_LENGTH";
+            default:
+                return "PLAIN";
+        }
+    }
+
+    /**
+     * Encodes the first count values. The chunk starts with its encoding and value count.
+     */
+    static byte[] encode(String[] values, int count) {
+        byte[][] bytes = new byte[count][];
+        Map<Object, Integer> codes = new HashMap<>();
+        List<Integer> dictionary = new ArrayList<>();
+        int[] rowCodes = new int[count];
+        long plainSize = 0;
+        long dictionarySize = 0;
+        long runSize = 0;
+        int runs = 0;
+        for (int i = 0; i < count; i++) {
+            bytes[i] = values[i] == null ? null : values[i].getBytes(StandardCharsets.UTF_8);
+            long size = 2 + (bytes[i] == null ? 0 : bytes[i].length);
+            plainSize += size;
+            Object key = values[i] == null ? NULL_KEY : values[i];
+            Integer code = codes.get(key);
+            if (code == null) {
+                code = dictionary.size();
+                codes.put(key, code);
+                dictionary.add(i);
+                dictionarySize += size;
+            }
+            rowCodes[i] = code;
+            if (i == 0 || rowCodes[i - 1] != code) {
+                runs++;
+                runSize += size + 4;
+            }
+        }
+        int codeWidth = dictionary.size() <= 0x100 ? 1 : dictionary.size() <= 0x10000 ? 2 : 4;
+        dictionarySize += 5 + (long) codeWidth * count;
+        runSize += 4;
+
+        ByteBuffer buffer;
+        if (runSize <= dictionarySize && runSize <= plainSize) {
+            buffer = ByteBuffer.allocate((int) runSize + 5);
+            buffer.put(RUN_LENGTH).putInt(count).putInt(runs);
+            int start = 0;
+            for (int i = 1; i <= count; i++) {
+                if (i == count || rowCodes[i] != rowCodes[start]) {
+                    putValue(buffer, bytes[start]);
+                    buffer.putInt(i - start);
+                    start = i;
+                }
+            }
+        } else if (dictionarySize < plainSize) {
+            buffer = ByteBuffer.allocate((int) dictionarySize + 5);
+            buffer.put(DICTIONARY).putInt(count).putInt(dictionary.size());
+            for (int row : dictionary) {
+                putValue(buffer, bytes[row]);
+            }
+            buffer.put((byte) codeWidth);
+            for (int i = 0; i < count; i++) {
+                if (codeWidth == 1) {
+                    buffer.put((byte) rowCodes[i]);
+                } else if (codeWidth == 2) {
+                    buffer.putShort((short) rowCodes[i]);
+                } else {
+                    buffer.putInt(rowCodes[i]);
+                }
+            }
+        } else {
+            buffer = ByteBuffer.allocate((int) plainSize + 5);
+            buffer.put(PLAIN).putInt(count);
+            for (int i = 0; i < count; i++) {
+                putValue(buffer, bytes[i]);
+            }
+        }
+        return buffer.array();
+    }
+
+    static byte encodingOf(byte[] chunk) {
+        return chunk[0];
+    }
+
+    static String[] decode(byte[] chunk) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        byte encoding = buffer.get();
+        int count = buffer.getInt();
+        String[] values = new String[count];
+        try {
+            switch (encoding) {
+                case PLAIN:
+                    for (int i = 0; i < count; i++) {
+                        values[i] = getValue(buffer);
+                    }
+                    break;
+                case DICTIONARY:
+                    String[] dictionary = new String[buffer.getInt()];
+                    for (int i = 0; i < dictionary.length; i++) {
+                        dictionary[i] = getValue(buffer);
+                    }
+                    int codeWidth = buffer.get();
+                    for (int i = 0; i < count; i++) {
+                        int code = codeWidth == 1 ? buffer.get() & 0xFF
+                                : codeWidth == 2 ? buffer.getShort() & 0xFFFF : buffer.getInt();
+                        values[i] = dictionary[code];
+                    }
+                    break;
+                case RUN_LENGTH:
+                    int runs = buffer.getInt();
+                    int row = 0;
+                    for (int run = 0; run < runs; run++) {
+                        String value = getValue(buffer);
+                        int length = buffer.getInt();
+                        for (int i = 0; i < length; i++) {
+                            values[row++] = value;
+                        }
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown column encoding " + encoding + ".");
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt column chunk.", e);
+        }
+        return values;
+    }
+
+    private static void putValue(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putShort((short) NULL_LENGTH);
+        } else {
+            buffer.putShort((short) value.length).put(value);
+        }
+    }
+
+    private static String getValue(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
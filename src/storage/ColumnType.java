@@ -0,0 +1,282 @@
+package storage;
+
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.Locale;
+
+/**
+ * Types a column can be declared with at CREATE TABLE. Values are checked against the type
+ * when they are written and kept in a canonical text form, so values that are equal as the
+ * type are also equal as text: integers without leading zeros or plus sign, doubles as
+ * Double.toString writes them, dates as yyyy-mm-dd and booleans as true or false. In table
+ * rows every type but VARCHAR is stored in binary, in a fixed number of bytes, and compared
+ * as a primitive. VARCHAR compares ignoring case; it is also the type of columns declared
+ * without a type and of tables created before types were kept.
+ */
+public enum ColumnType {
+    INT(1, 4),
+    BIGINT(2, 8),
+    DOUBLE(3, 8),
+    VARCHAR(0, -1),
+    DATE(4, 4),
+    BOOLEAN(5, 1);
+
+    private static final ColumnType[] BY_CODE = new ColumnType[values().length];
+
+    static {
+        for (ColumnType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    // Stored in row fields and index files, so a type keeps its code.
+    private final int code;
+    private final int width;
+
+    ColumnType(int code, int width) {
+        this.code = code;
+        this.width = width;
+    }
+
+    /**
+     * Returns the type for a declaration as written at CREATE TABLE, such as INTEGER or
+     * VARCHAR(255), or null if it is not supported. A column declared without a type is a
+     * VARCHAR. Arguments in parentheses are accepted and ignored.
+     */
+    public static ColumnType forDeclaration(String declared) {
+        String name = declared.trim();
+        int arguments = name.indexOf('(');
+        if (arguments >= 0) {
+            name = name.substring(0, arguments).trim();
+        }
+        switch (name.toUpperCase(Locale.ROOT)) {
+            case "INT":
+            case "INTEGER":
+                return INT;
+            case "BIGINT":
+            case "LONG":
+                return BIGINT;
+            case "DOUBLE":
+            case "DOUBLE PRECISION":
+            case "FLOAT":
+            case "REAL":
+                return DOUBLE;
+            case "":
+            case "VARCHAR":
+            case "CHAR":
+            case "TEXT":
+            case "STRING":
+                return VARCHAR;
+            case "DATE":
+                return DATE;
+            case "BOOLEAN":
+            case "BOOL":
+                return BOOLEAN;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the type with the given name, or null if there is none by that name.
+     */
+    public static ColumnType forName(String name) {
+        for (ColumnType type : values()) {
+            if (type.name().equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the type with the given code, as stored in rows and index files.
+     */
+    public static ColumnType forCode(int code) {
+        if (code < 0 || code >= BY_CODE.length || BY_CODE[code] == null) {
+            throw new IllegalArgumentException("Unknown column type code " + code + ".");
+        }
+        return BY_CODE[code];
+    }
+
+    /**
+     * Returns the type values of the two types are compared as when matched against each
+     * other, or null if they cannot be: the wider of two numeric types, or the other type when
+     * one is VARCHAR, whose values are then read as that type.
+     */
+    public static ColumnType common(ColumnType a, ColumnType b) {
+        if (a == b || b == VARCHAR) {
+            return a;
+        }
+        if (a == VARCHAR) {
+            return b;
+        }
+        if (a.isNumeric() && b.isNumeric()) {
+            return a == DOUBLE || b == DOUBLE ? DOUBLE : BIGINT;
+        }
+        return null;
+    }
+
+    public boolean isNumeric() {
+        return this == INT || this == BIGINT || this == DOUBLE;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the bytes a value takes in binary, or -1 for VARCHAR, which is stored as text.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    public boolean isBinary() {
+        return width > 0;
+    }
+
+    /**
+     * Returns the canonical form of a value, or null for null. Throws IllegalArgumentException
+     * if the value is not of this type.
+     */
+    public String normalize(String value) {
+        if (value == null || this == VARCHAR) {
+            return value;
+        }
+        String text = value.trim();
+        try {
+            switch (this) {
+                case INT:
+                    long number = Long.parseLong(text);
+                    if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+                        break;
+                    }
+                    return Long.toString(number);
+                case BIGINT:
+                    return Long.toString(Long.parseLong(text));
+                case DOUBLE:
+                    double real = Double.parseDouble(text);
+                    if (Double.isNaN(real) || Double.isInfinite(real)) {
+                        break;
+                    }
+                    // 0.0 and -0.0 are equal as doubles, so they are written alike.
+                    return Double.toString(real == 0 ? 0.0 : real);
+                case DATE:
+                    LocalDate date = LocalDate.parse(text);
+                    if (date.getYear() < 1 || date.getYear() > 9999) {
+                        break;
+                    }
+                    return date.toString();
+                default:
+                    if (text.equalsIgnoreCase("true") || text.equals("1")) {
+                        return "true";
+                    }
+                    if (text.equalsIgnoreCase("false") || text.equals("0")) {
+                        return "false";
+                    }
+                    break;
+            }
+        } catch (NumberFormatException | DateTimeException e) {
+            // Reported below like any other value that does not fit.
+        }
+        throw new IllegalArgumentException("'" + value + "' is not a valid " + name()
+                + (this == DATE ? " (use yyyy-mm-dd)" : "") + ".");
+    }
+
+    /**
+     * Orders two canonical values of this type.
+     */
+    public int compare(String a, String b) {
+        switch (this) {
+            case VARCHAR:
+                return String.CASE_INSENSITIVE_ORDER.compare(a, b);
+            case DOUBLE:
+                return Double.compare(Double.parseDouble(a), Double.parseDouble(b));
+            default:
+                return Long.compare(toLong(a), toLong(b));
+        }
+    }
+
+    /**
+     * Returns a canonical value of any type but VARCHAR and DOUBLE as the long it is stored
+     * as: the number, the day counted from 1970-01-01, or 1 for true and 0 for false.
+     */
+    public long toLong(String value) {
+        switch (this) {
+            case DATE:
+                return LocalDate.parse(value).toEpochDay();
+            case BOOLEAN:
+                return value.equals("true") ? 1 : 0;
+            default:
+                return Long.parseLong(value);
+        }
+    }
+
+    /**
+     * Returns a canonical value of any type but VARCHAR as a double, for interpolating
+     * between values.
+     */
+    public double toDouble(String value) {
+        return this == DOUBLE ? Double.parseDouble(value) : toLong(value);
+    }
+
+    /**
+     * Writes a canonical value in binary at the buffer's position.
+     */
+    void write(ByteBuffer buffer, String value) {
+        switch (this) {
+            case INT:
+            case DATE:
+                buffer.putInt((int) toLong(value));
+                break;
+            case BIGINT:
+                buffer.putLong(toLong(value));
+                break;
+            case DOUBLE:
+                buffer.putDouble(Double.parseDouble(value));
+                break;
+            case BOOLEAN:
+                buffer.put((byte) toLong(value));
+                break;
+            default:
+                throw new IllegalStateException(name() + " values are not stored in binary.");
+        }
+    }
+
+    /**
+     * Returns the canonical form of a binary value.
+     */
+    String read(ByteBuffer buffer, int position) {
+        switch (this) {
+            case DOUBLE:
+                return Double.toString(buffer.getDouble(position));
+            case DATE:
+                return LocalDate.ofEpochDay(buffer.getInt(position)).toString();
+            case BOOLEAN:
+                return buffer.get(position) != 0 ? "true" : "false";
+            default:
+                return Long.toString(readLong(buffer, position));
+        }
+    }
+
+    /**
+     * Returns a binary value of any type but VARCHAR and DOUBLE as a long, as {@link #toLong}.
+     */
+    public long readLong(ByteBuffer buffer, int position) {
+        switch (this) {
+            case INT:
+            case DATE:
+                return buffer.getInt(position);
+            case BOOLEAN:
+                return buffer.get(position);
+            default:
+                return buffer.getLong(position);
+        }
+    }
+
+    public double readDouble(ByteBuffer buffer, int position) {
+        return buffer.getDouble(position);
+    }
+}
@@ -0,0 +1,767 @@
+package storage;
+
+import interfaces.IKeyedTableStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Column-oriented table for analytic scans.
+ * Each column is kept in its own file, so a scan reads only the columns a query refers to.
+ * Rows are stored in row groups of up to {@value #ROW_GROUP_SIZE} rows; within a group every
+ * column is one {@link ColumnChunk} with the encoding that suits its values best. Scans test
+ * the filter on the filter columns first and read the other columns of a group only if some
+ * row in it matches.
+ *
+ * New rows are collected in memory and written out as a row group once a statement leaves
+ * enough of them, or at a checkpoint. A small last group is rewritten together with the new
+ * rows, so row ids, which number the rows in insertion order, never change. Deleted rows are
+ * marked in a bitmap kept in the manifest, and an update deletes the row and adds it again.
+ * Pending rows and deletions are only written out between statements, with the LSN of the last
+ * statement they cover in the manifest, which is how the engine keeps the replay rule of the
+ * {@link WriteAheadLog}. Later statements are replayed from the log after a crash, so the table
+ * stays open for the life of the process.
+ */
+public class ColumnarTable implements IKeyedTableStore {
+    public static final String EXTENSION = ".cols";
+    public static final String ENGINE = "COLUMNAR";
+
+    static final String COLUMN_EXTENSION = ".col";
+
+    private static final int MAGIC = 0x5344424F;
+    private static final short VERSION = 1;
+    private static final int ROW_GROUP_SIZE = 8192;
+
+    private static final Map<String, ColumnarTable> OPEN_TABLES = new HashMap<>();
+
+    private final File file;
+    private final String tableName;
+    private final TableSchema schema;
+    private final int columnCount;
+    private final List<RowGroup> groups = new ArrayList<>();
+    private final List<String[]> pending = new ArrayList<>();
+    private final BitSet deleted = new BitSet();
+    private PageFile[] columnFiles;
+    private int[] nextPages;
+    private int generation = 1;
+    private long nextRowId = 1;
+    private long rowCount;
+    private long appliedLsn;
+    private boolean changed;
+    private Map<String, Long> primaryKeys;
+
+    private final RowGroup[] cachedGroups;
+    private final String[][] cachedValues;
+
+    private long groupsWritten;
+    private long chunksRead;
+    private long chunkBytesRead;
+
+    /**
+     * A written row group: rows firstRowId onwards, with one chunk per column.
+     */
+    private static class RowGroup {
+        final long firstRowId;
+        final int rowCount;
+        final int[] pages;
+        final int[] lengths;
+        final byte[] encodings;
+
+        RowGroup(long firstRowId, int rowCount, int columnCount) {
+            this.firstRowId = firstRowId;
+            this.rowCount = rowCount;
+            this.pages = new int[columnCount];
+            this.lengths = new int[columnCount];
+            this.encodings = new byte[columnCount];
+        }
+    }
+
+    private ColumnarTable(File file, TableSchema schema) {
+        this.file = file;
+        this.tableName = file.getName().substring(0, file.getName().length() - EXTENSION.length());
+        this.schema = schema;
+        this.columnCount = schema.getColumns().size();
+        this.nextPages = new int[columnCount];
+        this.cachedGroups = new RowGroup[columnCount];
+        this.cachedValues = new String[columnCount][];
+    }
+
+    public static ColumnarTable create(File file, TableSchema schema) throws IOException {
+        synchronized (OPEN_TABLES) {
+            String key = file.getCanonicalPath();
+            if (OPEN_TABLES.containsKey(key) || file.exists()) {
+                throw new IOException("Table file " + file.getName() + " already exists.");
+            }
+            schema.setEngine(ENGINE);
+            ColumnarTable table = new ColumnarTable(file, schema);
+            table.deleteColumnFiles(0);
+            table.columnFiles = table.openColumnFiles(table.generation, schema.getCompression());
+            table.writeManifest();
+            OPEN_TABLES.put(key, table);
+            return table;
+        }
+    }
+
+    public static ColumnarTable open(File file) throws IOException {
+        synchronized (OPEN_TABLES) {
+            String key = file.getCanonicalPath();
+            ColumnarTable table = OPEN_TABLES.get(key);
+            if (table == null) {
+                if (!file.exists()) {
+                    throw new IOException("Table file " + file.getName() + " does not exist.");
+                }
+                table = load(file);
+                OPEN_TABLES.put(key, table);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Writes the pending rows of every open columnar table to disk, so the write-ahead log no
+     * longer needs to cover them.
+     */
+    public static void flushAll() throws IOException {
+        List<ColumnarTable> open;
+        synchronized (OPEN_TABLES) {
+            open = new ArrayList<>(OPEN_TABLES.values());
+        }
+        for (ColumnarTable table : open) {
+            table.flush();
+        }
+    }
+
+    private static ColumnarTable load(File file) throws IOException {
+        ByteBuffer manifest = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        if (manifest.getInt() != MAGIC || manifest.getShort() != VERSION) {
+            throw new IOException(file.getName() + " is not a columnar table manifest.");
+        }
+        int generation = manifest.getInt();
+        long nextRowId = manifest.getLong();
+        long rowCount = manifest.getLong();
+        long appliedLsn = manifest.getLong();
+        int columnCount = manifest.getInt();
+        int[] nextPages = new int[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            nextPages[column] = manifest.getInt();
+        }
+        List<RowGroup> groups = new ArrayList<>();
+        int groupCount = manifest.getInt();
+        for (int i = 0; i < groupCount; i++) {
+            RowGroup group = new RowGroup(manifest.getLong(), manifest.getInt(), columnCount);
+            for (int column = 0; column < columnCount; column++) {
+                group.pages[column] = manifest.getInt();
+                group.lengths[column] = manifest.getInt();
+                group.encodings[column] = manifest.get();
+            }
+            groups.add(group);
+        }
+        long[] words = new long[manifest.getInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = manifest.getLong();
+        }
+        ColumnarTable table = new ColumnarTable(file, TableSchema.readFrom(manifest));
+        if (table.columnCount != columnCount) {
+            throw new IOException(file.getName() + " does not match its schema.");
+        }
+        table.generation = generation;
+        table.nextRowId = nextRowId;
+        table.rowCount = rowCount;
+        table.appliedLsn = appliedLsn;
+        table.nextPages = nextPages;
+        table.groups.addAll(groups);
+        table.deleted.or(BitSet.valueOf(words));
+        table.deleteColumnFiles(generation);
+        table.columnFiles = table.openColumnFiles(generation, null);
+        return table;
+    }
+
+    @Override
+    public TableSchema getSchema() {
+        return schema;
+    }
+
+    @Override
+    public synchronized long getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public synchronized long getAppliedLsn() {
+        return appliedLsn;
+    }
+
+    /**
+     * Records the statement in memory, and writes out the pending rows once they fill a row
+     * group. Rows are only written between statements, so the manifest never holds part of one.
+     */
+    @Override
+    public synchronized void setAppliedLsn(long lsn) throws IOException {
+        appliedLsn = lsn;
+        changed = true;
+        if (pending.size() >= ROW_GROUP_SIZE) {
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized void saveSchema() throws IOException {
+        flush();
+        writeManifest();
+    }
+
+    public synchronized int getRowGroupCount() {
+        return groups.size();
+    }
+
+    public synchronized int getPendingRowCount() {
+        return pending.size();
+    }
+
+    public synchronized long getGroupsWritten() {
+        return groupsWritten;
+    }
+
+    public synchronized long getChunksRead() {
+        return chunksRead;
+    }
+
+    public synchronized long getChunkBytesRead() {
+        return chunkBytesRead;
+    }
+
+    /**
+     * Returns the bytes a column takes on disk and how many of its chunks use each encoding.
+     */
+    public synchronized String describeColumn(int column) {
+        long bytes = 0;
+        Map<String, Integer> encodings = new TreeMap<>();
+        for (RowGroup group : groups) {
+            bytes += group.lengths[column];
+            encodings.merge(ColumnChunk.encodingName(group.encodings[column]), 1, Integer::sum);
+        }
+        StringBuilder description = new StringBuilder(bytes + " bytes");
+        for (Map.Entry<String, Integer> encoding : encodings.entrySet()) {
+            description.append(", ").append(encoding.getKey()).append(" x").append(encoding.getValue());
+        }
+        return description.toString();
+    }
+
+    @Override
+    public synchronized long insert(String[] values) throws IOException {
+        checkRow(values);
+        long rowId = nextRowId++;
+        pending.add(values.clone());
+        rowCount++;
+        int keyColumn = schema.getPrimaryKeyIndex();
+        if (keyColumn >= 0 && primaryKeys != null) {
+            primaryKeys.put(primaryKey(values[keyColumn]), rowId);
+        }
+        return rowId;
+    }
+
+    @Override
+    public synchronized List<Long> insertAll(List<String[]> rows) throws IOException {
+        for (String[] values : rows) {
+            checkRow(values);
+        }
+        List<Long> rowIds = new ArrayList<>(rows.size());
+        for (String[] values : rows) {
+            rowIds.add(insert(values));
+        }
+        return rowIds;
+    }
+
+    @Override
+    public synchronized String[] read(long rowId) throws IOException {
+        if (rowId < 1 || rowId >= nextRowId || deleted.get((int) rowId)) {
+            return null;
+        }
+        long firstPending = nextRowId - pending.size();
+        if (rowId >= firstPending) {
+            return pending.get((int) (rowId - firstPending)).clone();
+        }
+        RowGroup group = groupOf(rowId);
+        String[] row = new String[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            row[column] = values(group, column)[(int) (rowId - group.firstRowId)];
+        }
+        return row;
+    }
+
+    /**
+     * Replaces a pending row where it is; a written row is deleted and added again under a new row id.
+     */
+    @Override
+    public synchronized long update(long rowId, String[] values) throws IOException {
+        String[] old = read(rowId);
+        if (old == null) {
+            throw new IOException("Row " + rowId + " no longer exists.");
+        }
+        checkRow(values);
+        long firstPending = nextRowId - pending.size();
+        int keyColumn = schema.getPrimaryKeyIndex();
+        if (keyColumn >= 0 && primaryKeys != null) {
+            primaryKeys.remove(primaryKey(old[keyColumn]));
+        }
+        long newRowId = rowId;
+        if (rowId >= firstPending) {
+            pending.set((int) (rowId - firstPending), values.clone());
+        } else {
+            deleted.set((int) rowId);
+            newRowId = nextRowId++;
+            pending.add(values.clone());
+        }
+        if (keyColumn >= 0 && primaryKeys != null) {
+            primaryKeys.put(primaryKey(values[keyColumn]), newRowId);
+        }
+        changed = true;
+        return newRowId;
+    }
+
+    @Override
+    public synchronized boolean delete(long rowId) throws IOException {
+        String[] old = read(rowId);
+        if (old == null) {
+            return false;
+        }
+        deleted.set((int) rowId);
+        int keyColumn = schema.getPrimaryKeyIndex();
+        if (keyColumn >= 0 && primaryKeys != null) {
+            primaryKeys.remove(primaryKey(old[keyColumn]));
+        }
+        rowCount--;
+        changed = true;
+        return true;
+    }
+
+    @Override
+    public Cursor scan() {
+        return scan(null, null, null);
+    }
+
+    /**
+     * Returns a cursor in row id order that reads the filter columns of each row group first
+     * and the remaining columns only for groups with a matching row. Columns that are not asked
+     * for are null in the returned rows. The cursor works on a snapshot of the table.
+     */
+    @Override
+    public synchronized Cursor scan(boolean[] columns, boolean[] filterColumns, Predicate<String[]> filter) {
+        List<String[]> pendingRows = new ArrayList<>(pending.size());
+        for (String[] row : pending) {
+            pendingRows.add(row.clone());
+        }
+        return new ColumnCursor(new ArrayList<>(groups), pendingRows, nextRowId - pending.size(),
+                (BitSet) deleted.clone(), columns == null ? all() : columns,
+                filter == null ? null : filterColumns == null ? all() : filterColumns, filter);
+    }
+
+    /**
+     * Looks the key up in a map of primary key values that is built from the key column on first use.
+     */
+    @Override
+    public synchronized long findByPrimaryKey(String key) throws IOException {
+        int keyColumn = schema.getPrimaryKeyIndex();
+        if (key == null || keyColumn < 0) {
+            return -1;
+        }
+        if (primaryKeys == null) {
+            Map<String, Long> keys = new HashMap<>();
+            boolean[] columns = new boolean[columnCount];
+            columns[keyColumn] = true;
+            Cursor cursor = scan(columns, null, null);
+            while (cursor.next()) {
+                keys.put(primaryKey(cursor.row()[keyColumn]), cursor.rowId());
+            }
+            primaryKeys = keys;
+        }
+        Long rowId = primaryKeys.get(primaryKey(key));
+        return rowId == null ? -1 : rowId;
+    }
+
+    @Override
+    public boolean supportsSecondaryIndexes() {
+        return false;
+    }
+
+    /**
+     * Rewrites every column into new files, leaving out superseded chunks and the values of
+     * deleted rows, whose row ids stay reserved.
+     */
+    @Override
+    public synchronized long compact() throws IOException {
+        flush();
+        long before = columnBytes();
+        int newGeneration = generation + 1;
+        deleteColumnFiles(generation);
+        PageFile[] newFiles = openColumnFiles(newGeneration, schema.getCompression());
+        int[] newPages = new int[columnCount];
+        List<RowGroup> newGroups = new ArrayList<>();
+        try {
+            for (RowGroup group : groups) {
+                RowGroup copy = new RowGroup(group.firstRowId, group.rowCount, columnCount);
+                for (int column = 0; column < columnCount; column++) {
+                    String[] values = values(group, column).clone();
+                    for (int i = 0; i < values.length; i++) {
+                        if (deleted.get((int) (group.firstRowId + i))) {
+                            values[i] = null;
+                        }
+                    }
+                    byte[] chunk = ColumnChunk.encode(values, values.length);
+                    copy.pages[column] = newPages[column];
+                    copy.lengths[column] = chunk.length;
+                    copy.encodings[column] = ColumnChunk.encodingOf(chunk);
+                    newPages[column] = newFiles[column].writeBytes(chunk, chunk.length, newPages[column]);
+                }
+                newGroups.add(copy);
+            }
+            for (PageFile columnFile : newFiles) {
+                columnFile.force();
+            }
+        } catch (IOException e) {
+            closeAll(newFiles);
+            throw e;
+        }
+        PageFile[] oldFiles = columnFiles;
+        columnFiles = newFiles;
+        nextPages = newPages;
+        generation = newGeneration;
+        groups.clear();
+        groups.addAll(newGroups);
+        Arrays.fill(cachedGroups, null);
+        writeManifest();
+        closeAll(oldFiles);
+        deleteColumnFiles(generation);
+        return before - columnBytes();
+    }
+
+    /**
+     * Keeps the table open, since its pending rows must outlive the statement.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Writes the pending rows out as row groups, merged with the last group if it is not full,
+     * and then the manifest.
+     */
+    public synchronized void flush() throws IOException {
+        if (pending.isEmpty()) {
+            if (changed) {
+                writeManifest();
+            }
+            return;
+        }
+        RowGroup last = groups.isEmpty() ? null : groups.get(groups.size() - 1);
+        boolean merge = last != null && last.rowCount < ROW_GROUP_SIZE;
+        long firstRowId = merge ? last.firstRowId : nextRowId - pending.size();
+        int total = (int) (nextRowId - firstRowId);
+        String[][] columns = new String[columnCount][];
+        for (int column = 0; column < columnCount; column++) {
+            String[] values = new String[total];
+            int offset = 0;
+            if (merge) {
+                String[] written = values(last, column);
+                System.arraycopy(written, 0, values, 0, written.length);
+                offset = written.length;
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                values[offset + i] = pending.get(i)[column];
+            }
+            columns[column] = values;
+        }
+
+        List<RowGroup> written = new ArrayList<>();
+        for (int start = 0; start < total; start += ROW_GROUP_SIZE) {
+            int count = Math.min(ROW_GROUP_SIZE, total - start);
+            RowGroup group = new RowGroup(firstRowId + start, count, columnCount);
+            for (int column = 0; column < columnCount; column++) {
+                byte[] chunk = ColumnChunk.encode(Arrays.copyOfRange(columns[column], start, start + count), count);
+                group.pages[column] = nextPages[column];
+                group.lengths[column] = chunk.length;
+                group.encodings[column] = ColumnChunk.encodingOf(chunk);
+                nextPages[column] = columnFiles[column].writeBytes(chunk, chunk.length, nextPages[column]);
+            }
+            written.add(group);
+        }
+        for (PageFile columnFile : columnFiles) {
+            columnFile.force();
+        }
+        if (merge) {
+            groups.remove(groups.size() - 1);
+        }
+        groups.addAll(written);
+        pending.clear();
+        groupsWritten += written.size();
+        writeManifest();
+    }
+
+    private boolean[] all() {
+        boolean[] columns = new boolean[columnCount];
+        Arrays.fill(columns, true);
+        return columns;
+    }
+
+    private RowGroup groupOf(long rowId) {
+        int low = 0;
+        int high = groups.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (groups.get(middle).firstRowId <= rowId) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return groups.get(low);
+    }
+
+    /**
+     * Returns the decoded values of one column of a row group. The last group read is kept
+     * for each column, since scans and the row reads that follow them go group by group.
+     */
+    private synchronized String[] values(RowGroup group, int column) throws IOException {
+        if (cachedGroups[column] != group) {
+            byte[] chunk = columnFiles[column].readBytes(group.pages[column], group.lengths[column]);
+            cachedValues[column] = ColumnChunk.decode(chunk);
+            cachedGroups[column] = group;
+            chunksRead++;
+            chunkBytesRead += chunk.length;
+        }
+        return cachedValues[column];
+    }
+
+    private long columnBytes() throws IOException {
+        long bytes = 0;
+        for (PageFile columnFile : columnFiles) {
+            bytes += columnFile.getStoredSize();
+        }
+        return bytes;
+    }
+
+    private void checkRow(String[] values) throws IOException {
+        if (values.length != columnCount) {
+            throw new IOException("Row has " + values.length + " values but the table has " + columnCount + " columns.");
+        }
+        int size = RowCodec.encode(values).length;
+        if (size > TableFile.MAX_ROW_SIZE) {
+            throw new IOException("Row of " + size + " bytes exceeds the maximum of " + TableFile.MAX_ROW_SIZE + " bytes.");
+        }
+    }
+
+    private static String primaryKey(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+
+    private File columnFile(int generation, int column) {
+        return new File(file.getParentFile(), tableName + "." + column + "." + generation + COLUMN_EXTENSION);
+    }
+
+    /**
+     * Opens the column files of a generation; new files are compressed with the given codec.
+     */
+    private PageFile[] openColumnFiles(int generation, PageCompression compression) throws IOException {
+        PageFile[] files = new PageFile[columnCount];
+        try {
+            for (int column = 0; column < columnCount; column++) {
+                files[column] = new PageFile(columnFile(generation, column), compression);
+            }
+        } catch (IOException e) {
+            closeAll(files);
+            throw e;
+        }
+        return files;
+    }
+
+    /**
+     * Deletes the column files of every generation but the given one, left over from a
+     * compaction that was interrupted or finished.
+     */
+    private void deleteColumnFiles(int keepGeneration) {
+        File[] files = file.getParentFile().listFiles((dir, name) ->
+                name.startsWith(tableName + ".")
+                        && (name.endsWith(COLUMN_EXTENSION) || name.endsWith(COLUMN_EXTENSION + PageFile.MAP_EXTENSION)));
+        if (files == null) {
+            return;
+        }
+        for (File columnFile : files) {
+            String[] parts = columnFile.getName().split("\\.");
+            if (parts.length >= 4 && !parts[2].equals(String.valueOf(keepGeneration))) {
+                columnFile.delete();
+            }
+        }
+    }
+
+    private static void closeAll(PageFile[] files) {
+        for (PageFile columnFile : files) {
+            if (columnFile != null) {
+                try {
+                    columnFile.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing " + columnFile.getFile().getName() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the manifest atomically: it is written to a temporary file, forced, and renamed.
+     * It is only written when no rows are pending, so it describes the whole table.
+     */
+    private void writeManifest() throws IOException {
+        long[] words = deleted.toLongArray();
+        ByteBuffer manifest = ByteBuffer.allocate(PageFile.PAGE_SIZE + 42 + columnCount * 4
+                + groups.size() * (12 + columnCount * 9) + words.length * 8);
+        manifest.putInt(MAGIC).putShort(VERSION).putInt(generation);
+        manifest.putLong(nextRowId).putLong(rowCount).putLong(appliedLsn);
+        manifest.putInt(columnCount);
+        for (int nextPage : nextPages) {
+            manifest.putInt(nextPage);
+        }
+        manifest.putInt(groups.size());
+        for (RowGroup group : groups) {
+            manifest.putLong(group.firstRowId).putInt(group.rowCount);
+            for (int column = 0; column < columnCount; column++) {
+                manifest.putInt(group.pages[column]).putInt(group.lengths[column]).put(group.encodings[column]);
+            }
+        }
+        manifest.putInt(words.length);
+        for (long word : words) {
+            manifest.putLong(word);
+        }
+        schema.writeTo(manifest);
+        manifest.flip();
+
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (manifest.hasRemaining()) {
+                channel.write(manifest);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        changed = false;
+    }
+
+    /**
+     * Walks the row groups of a snapshot and then its pending rows.
+     */
+    private class ColumnCursor implements Cursor {
+        private final List<RowGroup> groups;
+        private final List<String[]> pendingRows;
+        private final long firstPending;
+        private final BitSet deletedRows;
+        private final boolean[] columns;
+        private final boolean[] filterColumns;
+        private final Predicate<String[]> filter;
+        private final String[][] values = new String[columnCount][];
+        private int groupIndex = -1;
+        private int position;
+        private long rowId;
+        private String[] row;
+
+        ColumnCursor(List<RowGroup> groups, List<String[]> pendingRows, long firstPending, BitSet deletedRows,
+                     boolean[] columns, boolean[] filterColumns, Predicate<String[]> filter) {
+            this.groups = groups;
+            this.pendingRows = pendingRows;
+            this.firstPending = firstPending;
+            this.deletedRows = deletedRows;
+            this.columns = columns;
+            this.filterColumns = filterColumns;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            while (groupIndex < groups.size()) {
+                if (groupIndex < 0 || position >= groups.get(groupIndex).rowCount) {
+                    if (++groupIndex < groups.size()) {
+                        loadGroup(groups.get(groupIndex));
+                    }
+                    position = 0;
+                    continue;
+                }
+                RowGroup group = groups.get(groupIndex);
+                int index = position++;
+                long id = group.firstRowId + index;
+                if (deletedRows.get((int) id)) {
+                    continue;
+                }
+                if (filter != null) {
+                    String[] candidate = new String[columnCount];
+                    for (int column = 0; column < columnCount; column++) {
+                        if (filterColumns[column]) {
+                            candidate[column] = values[column][index];
+                        }
+                    }
+                    if (!filter.test(candidate)) {
+                        continue;
+                    }
+                    for (int column = 0; column < columnCount; column++) {
+                        if (columns[column] && values[column] == null) {
+                            values[column] = values(group, column);
+                        }
+                    }
+                }
+                String[] result = new String[columnCount];
+                for (int column = 0; column < columnCount; column++) {
+                    if (columns[column]) {
+                        result[column] = values[column][index];
+                    }
+                }
+                rowId = id;
+                row = result;
+                return true;
+            }
+            while (position < pendingRows.size()) {
+                int index = position++;
+                long id = firstPending + index;
+                String[] pendingRow = pendingRows.get(index);
+                if (deletedRows.get((int) id) || (filter != null && !filter.test(pendingRow))) {
+                    continue;
+                }
+                rowId = id;
+                row = pendingRow;
+                return true;
+            }
+            row = null;
+            return false;
+        }
+
+        /**
+         * Reads the filter columns of the group, or the projected columns when there is no filter.
+         */
+        private void loadGroup(RowGroup group) throws IOException {
+            boolean[] needed = filter == null ? columns : filterColumns;
+            for (int column = 0; column < columnCount; column++) {
+                values[column] = needed[column] ? values(group, column) : null;
+            }
+        }
+
+        @Override
+        public long rowId() {
+            return rowId;
+        }
+
+        @Override
+        public String[] row() {
+            return row;
+        }
+    }
+}
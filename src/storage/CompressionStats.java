@@ -0,0 +1,70 @@
+package storage;
+
+/**
+ * Process-wide counters for compressed page files: how much the pages shrink and how long
+ * encoding and decoding take.
+ */
+public class CompressionStats {
+    private static final CompressionStats INSTANCE = new CompressionStats();
+
+    private long pagesWritten;
+    private long pagesStoredRaw;
+    private long bytesWritten;
+    private long bytesStored;
+    private long encodeNanos;
+    private long pagesDecoded;
+    private long decodeNanos;
+
+    private CompressionStats() {
+    }
+
+    public static CompressionStats getInstance() {
+        return INSTANCE;
+    }
+
+    synchronized void recordWrite(int storedBytes, boolean raw, long nanos) {
+        pagesWritten++;
+        if (raw) {
+            pagesStoredRaw++;
+        }
+        bytesWritten += PageFile.PAGE_SIZE;
+        bytesStored += storedBytes;
+        encodeNanos += nanos;
+    }
+
+    synchronized void recordDecode(long nanos) {
+        pagesDecoded++;
+        decodeNanos += nanos;
+    }
+
+    public synchronized long getPagesWritten() {
+        return pagesWritten;
+    }
+
+    /**
+     * Returns how many written pages did not compress and were stored as they are.
+     */
+    public synchronized long getPagesStoredRaw() {
+        return pagesStoredRaw;
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public synchronized long getBytesStored() {
+        return bytesStored;
+    }
+
+    public synchronized long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    public synchronized long getPagesDecoded() {
+        return pagesDecoded;
+    }
+
+    public synchronized long getDecodeNanos() {
+        return decodeNanos;
+    }
+}
@@ -0,0 +1,40 @@
+package storage;
+
+import interfaces.ITableStore;
+
+import java.io.IOException;
+import java.util.function.Predicate;
+
+/**
+ * Cursor over the rows of another cursor that pass a filter, for engines that store whole
+ * rows and so have nothing to gain from reading fewer columns.
+ */
+final class FilteredCursor implements ITableStore.Cursor {
+    private final ITableStore.Cursor cursor;
+    private final Predicate<String[]> filter;
+
+    FilteredCursor(ITableStore.Cursor cursor, Predicate<String[]> filter) {
+        this.cursor = cursor;
+        this.filter = filter;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        while (cursor.next()) {
+            if (filter == null || filter.test(cursor.row())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long rowId() {
+        return cursor.rowId();
+    }
+
+    @Override
+    public String[] row() {
+        return cursor.row();
+    }
+}
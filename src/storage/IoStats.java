@@ -0,0 +1,26 @@
+package storage;
+
+/**
+ * Process-wide count of the bytes read from table and index files, whether into the buffer
+ * pool on a miss or through a memory-mapped scan.
+ */
+public class IoStats {
+    private static final IoStats INSTANCE = new IoStats();
+
+    private long bytesRead;
+
+    private IoStats() {
+    }
+
+    public static IoStats getInstance() {
+        return INSTANCE;
+    }
+
+    synchronized void recordRead(long bytes) {
+        bytesRead += bytes;
+    }
+
+    public synchronized long getBytesRead() {
+        return bytesRead;
+    }
+}
@@ -0,0 +1,667 @@
+package storage;
+
+import interfaces.IKeyedTableStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Log-structured table for write-heavy workloads.
+ * Writes go to a sorted in-memory memtable; once a statement leaves it full it is written out
+ * as an immutable {@link SSTable} in the database directory. Sorted tables are merged by tiered compaction:
+ * once a level holds {@value #TIER_SIZE} tables they are merged into one table on the next
+ * level. Reads look at the memtable and then at the sorted tables from newest to oldest.
+ *
+ * Rows are keyed by their row id, so appends land at the end of the key space. The primary
+ * key is kept in the same tree as entries mapping each key value to its row id, which makes it
+ * exactly as durable as the rows. The memtable is only written out between statements, and the
+ * manifest records the LSN of the last statement the sorted tables hold; this is how the engine
+ * keeps the replay rule of the {@link WriteAheadLog}. After a crash, the statements after that
+ * LSN are replayed from the log.
+ *
+ * An LSM table stays open for the life of the process so its memtable survives between statements.
+ */
+public class LsmTable implements IKeyedTableStore {
+    public static final String EXTENSION = ".lsm";
+    public static final String ENGINE = "LSM";
+
+    static final String[] TOMBSTONE = new String[0];
+
+    private static final int MAGIC = 0x5344424C;
+    private static final short VERSION = 1;
+    private static final long MEMTABLE_BYTES = 4L * 1024 * 1024;
+    private static final int TIER_SIZE = 4;
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final String ROW_PREFIX = "r";
+    private static final String ROW_END = "s";
+    private static final String KEY_PREFIX = "k";
+
+    private static final Map<String, LsmTable> OPEN_TABLES = new HashMap<>();
+
+    private final File file;
+    private final String tableName;
+    private final TableSchema schema;
+    private TreeMap<String, String[]> memtable = new TreeMap<>();
+    private long memtableBytes;
+    private final List<SSTable> tables = new ArrayList<>();
+    private long nextRowId = 1;
+    private long rowCount;
+    private long appliedLsn;
+    private long flushedLsn;
+    private long flushedNextRowId = 1;
+    private long flushedRowCount;
+    private int nextSequence = 1;
+
+    private long flushCount;
+    private long compactionCount;
+    private long bytesCompacted;
+
+    private LsmTable(File file, TableSchema schema) {
+        this.file = file;
+        this.tableName = file.getName().substring(0, file.getName().length() - EXTENSION.length());
+        this.schema = schema;
+    }
+
+    public static File fileFor(File databaseDir, String tableName) {
+        return new File(databaseDir, tableName + EXTENSION);
+    }
+
+    public static LsmTable create(File file, TableSchema schema) throws IOException {
+        synchronized (OPEN_TABLES) {
+            String key = file.getCanonicalPath();
+            if (OPEN_TABLES.containsKey(key) || file.exists()) {
+                throw new IOException("Table file " + file.getName() + " already exists.");
+            }
+            schema.setEngine(ENGINE);
+            LsmTable table = new LsmTable(file, schema);
+            table.writeManifest();
+            OPEN_TABLES.put(key, table);
+            return table;
+        }
+    }
+
+    public static LsmTable open(File file) throws IOException {
+        synchronized (OPEN_TABLES) {
+            String key = file.getCanonicalPath();
+            LsmTable table = OPEN_TABLES.get(key);
+            if (table == null) {
+                if (!file.exists()) {
+                    throw new IOException("Table file " + file.getName() + " does not exist.");
+                }
+                table = load(file);
+                OPEN_TABLES.put(key, table);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Writes the memtable of every open LSM table to disk, so the write-ahead log no longer
+     * needs to cover them.
+     */
+    public static void flushAll() throws IOException {
+        List<LsmTable> open;
+        synchronized (OPEN_TABLES) {
+            open = new ArrayList<>(OPEN_TABLES.values());
+        }
+        for (LsmTable table : open) {
+            table.flush();
+        }
+    }
+
+    private static LsmTable load(File file) throws IOException {
+        ByteBuffer manifest = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        if (manifest.getInt() != MAGIC || manifest.getShort() != VERSION) {
+            throw new IOException(file.getName() + " is not an LSM table manifest.");
+        }
+        long nextRowId = manifest.getLong();
+        long rowCount = manifest.getLong();
+        long appliedLsn = manifest.getLong();
+        int nextSequence = manifest.getInt();
+        int tableCount = manifest.getInt();
+        int[] levels = new int[tableCount];
+        int[] sequences = new int[tableCount];
+        for (int i = 0; i < tableCount; i++) {
+            levels[i] = manifest.getInt();
+            sequences[i] = manifest.getInt();
+        }
+        LsmTable table = new LsmTable(file, TableSchema.readFrom(manifest));
+        table.nextRowId = nextRowId;
+        table.rowCount = rowCount;
+        table.appliedLsn = appliedLsn;
+        table.flushedLsn = appliedLsn;
+        table.flushedNextRowId = nextRowId;
+        table.flushedRowCount = rowCount;
+        table.nextSequence = nextSequence;
+        try {
+            for (int i = 0; i < tableCount; i++) {
+                table.tables.add(SSTable.open(table.sstableFile(sequences[i]), levels[i], sequences[i]));
+            }
+        } catch (IOException e) {
+            for (SSTable sstable : table.tables) {
+                sstable.release();
+            }
+            throw e;
+        }
+        return table;
+    }
+
+    @Override
+    public TableSchema getSchema() {
+        return schema;
+    }
+
+    @Override
+    public synchronized long getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public synchronized long getAppliedLsn() {
+        return appliedLsn;
+    }
+
+    /**
+     * Records the statement, and writes out the memtable once it has filled up. The memtable is
+     * only written between statements, so the sorted tables never hold part of one.
+     */
+    @Override
+    public synchronized void setAppliedLsn(long lsn) throws IOException {
+        appliedLsn = lsn;
+        flushIfFull();
+    }
+
+    @Override
+    public synchronized void saveSchema() throws IOException {
+        writeManifest();
+    }
+
+    public synchronized long getMemtableBytes() {
+        return memtableBytes;
+    }
+
+    public synchronized int getSortedTableCount() {
+        return tables.size();
+    }
+
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    public synchronized long getCompactionCount() {
+        return compactionCount;
+    }
+
+    public synchronized long getBytesCompacted() {
+        return bytesCompacted;
+    }
+
+    @Override
+    public synchronized long insert(String[] values) throws IOException {
+        checkRowSize(values);
+        long rowId = nextRowId++;
+        put(rowKey(rowId), values);
+        int keyColumn = schema.getPrimaryKeyIndex();
+        if (keyColumn >= 0) {
+            put(primaryKey(values[keyColumn]), new String[]{Long.toHexString(rowId)});
+        }
+        rowCount++;
+        return rowId;
+    }
+
+    @Override
+    public synchronized List<Long> insertAll(List<String[]> rows) throws IOException {
+        for (String[] values : rows) {
+            checkRowSize(values);
+        }
+        List<Long> rowIds = new ArrayList<>(rows.size());
+        for (String[] values : rows) {
+            rowIds.add(insert(values));
+        }
+        return rowIds;
+    }
+
+    @Override
+    public synchronized String[] read(long rowId) throws IOException {
+        String[] row = get(rowKey(rowId));
+        return row == TOMBSTONE ? null : row;
+    }
+
+    @Override
+    public synchronized long update(long rowId, String[] values) throws IOException {
+        String[] old = read(rowId);
+        if (old == null) {
+            throw new IOException("Row " + rowId + " no longer exists.");
+        }
+        checkRowSize(values);
+        put(rowKey(rowId), values);
+        int keyColumn = schema.getPrimaryKeyIndex();
+        if (keyColumn >= 0 && !primaryKey(old[keyColumn]).equals(primaryKey(values[keyColumn]))) {
+            put(primaryKey(old[keyColumn]), TOMBSTONE);
+            put(primaryKey(values[keyColumn]), new String[]{Long.toHexString(rowId)});
+        }
+        return rowId;
+    }
+
+    @Override
+    public synchronized boolean delete(long rowId) throws IOException {
+        String[] old = read(rowId);
+        if (old == null) {
+            return false;
+        }
+        put(rowKey(rowId), TOMBSTONE);
+        int keyColumn = schema.getPrimaryKeyIndex();
+        if (keyColumn >= 0) {
+            put(primaryKey(old[keyColumn]), TOMBSTONE);
+        }
+        rowCount--;
+        return true;
+    }
+
+    /**
+     * Returns a cursor over the rows in row id order. The cursor works on a snapshot of the
+     * memtable and keeps the sorted tables it reads from alive until it is exhausted.
+     */
+    @Override
+    public synchronized Cursor scan() {
+        List<SSTable> snapshot = new ArrayList<>(tables);
+        for (SSTable sstable : snapshot) {
+            sstable.retain();
+        }
+        return new LsmCursor(new MergeIterator(new ArrayList<>(memtable.subMap(ROW_PREFIX, ROW_END).entrySet()),
+                snapshot, ROW_PREFIX, ROW_END), snapshot);
+    }
+
+    /**
+     * Rows are stored whole, so every column is read and the filter is tested on full rows.
+     */
+    @Override
+    public Cursor scan(boolean[] columns, boolean[] filterColumns, Predicate<String[]> filter) {
+        return new FilteredCursor(scan(), filter);
+    }
+
+    @Override
+    public synchronized long findByPrimaryKey(String key) throws IOException {
+        if (key == null) {
+            return -1;
+        }
+        String[] entry = get(primaryKey(key));
+        return entry == null || entry == TOMBSTONE ? -1 : Long.parseLong(entry[0], 16);
+    }
+
+    @Override
+    public boolean supportsSecondaryIndexes() {
+        return false;
+    }
+
+    /**
+     * Flushes the memtable and merges every sorted table into one, dropping deleted and
+     * superseded entries.
+     */
+    @Override
+    public synchronized long compact() throws IOException {
+        flush();
+        if (tables.isEmpty()) {
+            return 0;
+        }
+        long before = totalSize();
+        int level = 1;
+        for (SSTable sstable : tables) {
+            level = Math.max(level, sstable.getLevel());
+        }
+        merge(new ArrayList<>(tables), level, true);
+        return before - totalSize();
+    }
+
+    /**
+     * Keeps the table open, since its memtable must outlive the statement.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Writes the memtable out as a new level 0 sorted table and compacts any level that is full.
+     * Only called between statements, so the memtable holds whole statements up to the applied LSN.
+     */
+    public synchronized void flush() throws IOException {
+        if (memtable.isEmpty()) {
+            if (flushedLsn != appliedLsn) {
+                markFlushed();
+                writeManifest();
+            }
+            return;
+        }
+        SSTable sstable = SSTable.write(sstableFile(nextSequence), 0, nextSequence,
+                memtable.entrySet().iterator(), memtable.size(), !tables.isEmpty(), schema.getCompression(),
+                schema.getTypes());
+        nextSequence++;
+        tables.add(0, sstable);
+        memtable = new TreeMap<>();
+        memtableBytes = 0;
+        flushCount++;
+        markFlushed();
+        writeManifest();
+        compactFullLevels();
+    }
+
+    /**
+     * Records that everything applied so far is in the sorted tables.
+     */
+    private void markFlushed() {
+        flushedLsn = appliedLsn;
+        flushedNextRowId = nextRowId;
+        flushedRowCount = rowCount;
+    }
+
+    private void flushIfFull() throws IOException {
+        if (memtableBytes >= MEMTABLE_BYTES) {
+            flush();
+        }
+    }
+
+    private void compactFullLevels() throws IOException {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            int maxLevel = 0;
+            for (SSTable sstable : tables) {
+                maxLevel = Math.max(maxLevel, sstable.getLevel());
+            }
+            for (int level = 0; level <= maxLevel && !merged; level++) {
+                List<SSTable> tier = new ArrayList<>();
+                for (SSTable sstable : tables) {
+                    if (sstable.getLevel() == level) {
+                        tier.add(sstable);
+                    }
+                }
+                if (tier.size() >= TIER_SIZE) {
+                    merge(tier, level + 1, level + 1 > maxLevel);
+                    merged = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges sorted tables into one on the target level. Tombstones may only be dropped when
+     * no older table could still hold the entries they delete.
+     */
+    private void merge(List<SSTable> inputs, int level, boolean dropTombstones) throws IOException {
+        long inputSize = 0;
+        long inputEntries = 0;
+        for (SSTable sstable : inputs) {
+            inputSize += sstable.getSize();
+            inputEntries += sstable.getEntryCount();
+        }
+        SSTable output;
+        try {
+            output = SSTable.write(sstableFile(nextSequence), level, nextSequence,
+                    new MergeIterator(new ArrayList<>(), inputs, null, null), inputEntries, !dropTombstones,
+                    schema.getCompression(), schema.getTypes());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        nextSequence++;
+        tables.removeAll(inputs);
+        int position = 0;
+        while (position < tables.size() && tables.get(position).getLevel() < level) {
+            position++;
+        }
+        tables.add(position, output);
+        writeManifest();
+        for (SSTable sstable : inputs) {
+            sstable.retire();
+        }
+        compactionCount++;
+        bytesCompacted += inputSize;
+    }
+
+    private String[] get(String key) throws IOException {
+        String[] value = memtable.get(key);
+        if (value != null) {
+            return value;
+        }
+        for (SSTable sstable : tables) {
+            value = sstable.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private void put(String key, String[] value) {
+        String[] old = memtable.put(key, value);
+        if (old == null) {
+            memtableBytes += ENTRY_OVERHEAD + 2L * key.length();
+        }
+        memtableBytes += sizeOf(value) - (old == null ? 0 : sizeOf(old));
+    }
+
+    private static long sizeOf(String[] value) {
+        long size = 16L * value.length;
+        for (String field : value) {
+            if (field != null) {
+                size += 2L * field.length();
+            }
+        }
+        return size;
+    }
+
+    private long totalSize() {
+        long size = 0;
+        for (SSTable sstable : tables) {
+            size += sstable.getSize();
+        }
+        return size;
+    }
+
+    private void checkRowSize(String[] values) throws IOException {
+        int size = RowCodec.encode(values, schema.getTypes()).length;
+        if (size > TableFile.MAX_ROW_SIZE) {
+            throw new IOException("Row of " + size + " bytes exceeds the maximum of " + TableFile.MAX_ROW_SIZE + " bytes.");
+        }
+    }
+
+    /**
+     * Returns true if the key is that of a row, rather than of a primary key entry.
+     */
+    static boolean isRowKey(String key) {
+        return key.startsWith(ROW_PREFIX);
+    }
+
+    private static String rowKey(long rowId) {
+        return ROW_PREFIX + String.format("%016x", rowId);
+    }
+
+    private static String primaryKey(String value) {
+        return KEY_PREFIX + (value == null ? "" : value.toLowerCase(Locale.ROOT));
+    }
+
+    private File sstableFile(int sequence) {
+        return SSTable.fileFor(file.getParentFile(), tableName, sequence);
+    }
+
+    /**
+     * Replaces the manifest atomically: it is written to a temporary file, forced, and renamed.
+     * It describes the table as of the last flush, leaving out what is only in the memtable.
+     */
+    private void writeManifest() throws IOException {
+        ByteBuffer manifest = ByteBuffer.allocate(PageFile.PAGE_SIZE + 38 + tables.size() * 8);
+        manifest.putInt(MAGIC).putShort(VERSION);
+        manifest.putLong(flushedNextRowId).putLong(flushedRowCount).putLong(flushedLsn).putInt(nextSequence);
+        manifest.putInt(tables.size());
+        for (SSTable sstable : tables) {
+            manifest.putInt(sstable.getLevel()).putInt(sstable.getSequence());
+        }
+        schema.writeTo(manifest);
+        manifest.flip();
+
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (manifest.hasRemaining()) {
+                channel.write(manifest);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private class LsmCursor implements Cursor {
+        private final MergeIterator entries;
+        private List<SSTable> snapshot;
+        private long rowId;
+        private String[] row;
+
+        LsmCursor(MergeIterator entries, List<SSTable> snapshot) {
+            this.entries = entries;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            try {
+                while (entries.hasNext()) {
+                    Map.Entry<String, String[]> entry = entries.next();
+                    if (entry.getValue() != TOMBSTONE) {
+                        rowId = Long.parseLong(entry.getKey().substring(ROW_PREFIX.length()), 16);
+                        row = entry.getValue();
+                        return true;
+                    }
+                }
+            } catch (UncheckedIOException e) {
+                release();
+                throw e.getCause();
+            }
+            release();
+            row = null;
+            return false;
+        }
+
+        @Override
+        public long rowId() {
+            return rowId;
+        }
+
+        @Override
+        public String[] row() {
+            return row;
+        }
+
+        private void release() throws IOException {
+            if (snapshot != null) {
+                for (SSTable sstable : snapshot) {
+                    sstable.release();
+                }
+                snapshot = null;
+            }
+        }
+    }
+
+    /**
+     * Merges a memtable snapshot and sorted tables, given newest first, into one ascending
+     * stream in which the newest entry for each key wins. Keys run from the start key up to
+     * but excluding the end key; null bounds are open.
+     */
+    private static class MergeIterator implements Iterator<Map.Entry<String, String[]>> {
+        private final PriorityQueue<Source> queue = new PriorityQueue<>((a, b) -> {
+            int cmp = a.key.compareTo(b.key);
+            return cmp != 0 ? cmp : Integer.compare(a.rank, b.rank);
+        });
+        private final String endKey;
+
+        MergeIterator(List<Map.Entry<String, String[]>> memtable, List<SSTable> sstables, String startKey, String endKey) {
+            this.endKey = endKey;
+            Iterator<Map.Entry<String, String[]>> memtableEntries = memtable.iterator();
+            add(new Source(0, null, memtableEntries, startKey));
+            for (int i = 0; i < sstables.size(); i++) {
+                add(new Source(i + 1, sstables.get(i).iterator(startKey), null, startKey));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty() && (endKey == null || queue.peek().key.compareTo(endKey) < 0);
+        }
+
+        @Override
+        public Map.Entry<String, String[]> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Source newest = queue.poll();
+            Map.Entry<String, String[]> entry = new AbstractMap.SimpleEntry<>(newest.key, newest.value);
+            add(newest);
+            while (!queue.isEmpty() && queue.peek().key.equals(entry.getKey())) {
+                add(queue.poll());
+            }
+            return entry;
+        }
+
+        /**
+         * Advances the source and queues it again unless it is exhausted.
+         */
+        private void add(Source source) {
+            try {
+                if (source.advance()) {
+                    queue.add(source);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static class Source {
+        final int rank;
+        final SSTable.EntryIterator sstable;
+        final Iterator<Map.Entry<String, String[]>> memtable;
+        final String startKey;
+        String key;
+        String[] value;
+
+        Source(int rank, SSTable.EntryIterator sstable, Iterator<Map.Entry<String, String[]>> memtable, String startKey) {
+            this.rank = rank;
+            this.sstable = sstable;
+            this.memtable = memtable;
+            this.startKey = startKey;
+        }
+
+        boolean advance() throws IOException {
+            if (sstable != null) {
+                if (!sstable.next(startKey)) {
+                    return false;
+                }
+                key = sstable.key();
+                value = sstable.value();
+                return true;
+            }
+            if (!memtable.hasNext()) {
+                return false;
+            }
+            Map.Entry<String, String[]> entry = memtable.next();
+            key = entry.getKey();
+            value = entry.getValue();
+            return true;
+        }
+    }
+}
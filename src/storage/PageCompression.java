@@ -0,0 +1,208 @@
+package storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codecs a table's pages can be compressed with, chosen at CREATE TABLE.
+ * DEFLATE is the JDK deflater at its fastest level. LZ4 is a byte-oriented LZ77 in the LZ4
+ * block format: a token holding the literal and match lengths, the literals, and a two-byte
+ * offset back into the page. It compresses less than DEFLATE but decodes several times faster.
+ */
+public enum PageCompression {
+    NONE,
+    DEFLATE,
+    LZ4;
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_SEARCH_LIMIT = 12;
+    private static final int HASH_BITS = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+
+    /**
+     * Returns the codec named in COMPRESSION=name, or null if there is none by that name.
+     */
+    public static PageCompression forName(String name) {
+        for (PageCompression compression : values()) {
+            if (compression.name().equalsIgnoreCase(name)) {
+                return compression;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compresses a page into dst and returns the compressed length, or -1 if it does not come
+     * out smaller than dst.
+     */
+    int compress(byte[] page, byte[] dst) {
+        switch (this) {
+            case DEFLATE:
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+                try {
+                    deflater.setInput(page);
+                    deflater.finish();
+                    int length = deflater.deflate(dst);
+                    return deflater.finished() && length < dst.length ? length : -1;
+                } finally {
+                    deflater.end();
+                }
+            case LZ4:
+                return lz4Compress(page, dst);
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Decompresses length bytes of src into a whole page.
+     */
+    void decompress(byte[] src, int length, byte[] page) throws IOException {
+        switch (this) {
+            case DEFLATE:
+                Inflater inflater = new Inflater(true);
+                try {
+                    inflater.setInput(src, 0, length);
+                    if (inflater.inflate(page) != page.length) {
+                        throw new IOException("Compressed page is truncated.");
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt compressed page: " + e.getMessage());
+                } finally {
+                    inflater.end();
+                }
+                break;
+            case LZ4:
+                lz4Decompress(src, length, page);
+                break;
+            default:
+                throw new IOException("Page is not compressed.");
+        }
+    }
+
+    private static int lz4Compress(byte[] src, byte[] dst) {
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int searchLimit = src.length - MATCH_SEARCH_LIMIT;
+        int matchLimit = src.length - LAST_LITERALS;
+        int anchor = 0;
+        int position = 0;
+        int out = 0;
+        while (position < searchLimit) {
+            int sequence = readInt(src, position);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int candidate = table[hash];
+            table[hash] = position;
+            if (candidate < 0 || position - candidate > MAX_OFFSET || readInt(src, candidate) != sequence) {
+                position++;
+                continue;
+            }
+            while (position > anchor && candidate > 0 && src[position - 1] == src[candidate - 1]) {
+                position--;
+                candidate--;
+            }
+            int matchLength = MIN_MATCH;
+            while (position + matchLength < matchLimit && src[position + matchLength] == src[candidate + matchLength]) {
+                matchLength++;
+            }
+            out = writeSequence(src, anchor, position - anchor, dst, out, position - candidate, matchLength);
+            if (out < 0) {
+                return -1;
+            }
+            position += matchLength;
+            anchor = position;
+        }
+        return writeSequence(src, anchor, src.length - anchor, dst, out, 0, 0);
+    }
+
+    /**
+     * Writes literals followed by a match; a match length of 0 ends the block after the literals.
+     * Returns the new output position, or -1 if dst is full.
+     */
+    private static int writeSequence(byte[] src, int literalStart, int literalLength, byte[] dst, int out,
+                                     int offset, int matchLength) {
+        int needed = 1 + literalLength / 255 + 1 + literalLength + (matchLength > 0 ? 2 + matchLength / 255 + 1 : 0);
+        if (out + needed >= dst.length) {
+            return -1;
+        }
+        int matchCode = matchLength > 0 ? matchLength - MIN_MATCH : 0;
+        dst[out++] = (byte) ((Math.min(literalLength, 15) << 4) | Math.min(matchCode, 15));
+        out = writeLength(dst, out, literalLength);
+        System.arraycopy(src, literalStart, dst, out, literalLength);
+        out += literalLength;
+        if (matchLength > 0) {
+            dst[out++] = (byte) offset;
+            dst[out++] = (byte) (offset >>> 8);
+            out = writeLength(dst, out, matchCode);
+        }
+        return out;
+    }
+
+    private static int writeLength(byte[] dst, int out, int length) {
+        if (length >= 15) {
+            length -= 15;
+            while (length >= 255) {
+                dst[out++] = (byte) 255;
+                length -= 255;
+            }
+            dst[out++] = (byte) length;
+        }
+        return out;
+    }
+
+    private static void lz4Decompress(byte[] src, int length, byte[] page) throws IOException {
+        int in = 0;
+        int out = 0;
+        try {
+            while (true) {
+                int token = src[in++] & 0xFF;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = src[in++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, in, page, out, literalLength);
+                in += literalLength;
+                out += literalLength;
+                if (in >= length) {
+                    break;
+                }
+                int offset = (src[in] & 0xFF) | (src[in + 1] & 0xFF) << 8;
+                in += 2;
+                int matchLength = token & 15;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[in++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                int from = out - offset;
+                if (offset == 0 || from < 0) {
+                    throw new IOException("Corrupt compressed page: bad match offset.");
+                }
+                for (int i = 0; i < matchLength; i++) {
+                    page[out++] = page[from++];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt compressed page: sequence runs past the page.");
+        }
+        if (out != page.length) {
+            throw new IOException("Compressed page is truncated.");
+        }
+    }
+
+    private static int readInt(byte[] bytes, int position) {
+        return (bytes[position] & 0xFF) | (bytes[position + 1] & 0xFF) << 8
+                | (bytes[position + 2] & 0xFF) << 16 | (bytes[position + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,454 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixed-size page I/O over a single file.
+ * Pages are addressed by number; page 0 starts at offset 0.
+ * Reads and writes go through the shared {@link BufferPool}; the file itself is only
+ * touched when the pool misses or writes a dirty page back.
+ *
+ * A file created with a {@link PageCompression} codec stores each page compressed, so the
+ * pool caches pages decompressed and the codec only runs on a miss or a write-back.
+ * Compressed pages vary in size, so they are stored in runs of {@value #UNIT_SIZE}-byte units
+ * and a page map file next to the data file records where each page is. A page that grows
+ * beyond its run moves to a free run of the right size or to the end of the file; its map
+ * entry is updated after the page is written, so the old copy stays valid until then.
+ */
+public class PageFile {
+    public static final int PAGE_SIZE = 4096;
+    public static final String MAP_EXTENSION = ".pmap";
+
+    private static final int UNIT_SIZE = 512;
+    private static final int UNITS_PER_PAGE = PAGE_SIZE / UNIT_SIZE;
+    private static final int MAP_MAGIC = 0x5344424D;
+    private static final short MAP_VERSION = 1;
+    private static final int MAP_HEADER_SIZE = 8;
+    private static final int MAP_ENTRY_SIZE = 8;
+
+    private final File file;
+    private final FileChannel channel;
+    private final BufferPool pool;
+    private final int fileId;
+    private int pageCount;
+
+    private PageCompression compression = PageCompression.NONE;
+    private FileChannel mapChannel;
+    private int[] pageUnits = new int[0];
+    private short[] pageLengths = new short[0];
+    private int endUnit;
+    private final List<ArrayDeque<Integer>> freeRuns = new ArrayList<>();
+
+    /**
+     * Opens a page file, compressed if it has a page map.
+     */
+    public PageFile(File file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Opens a page file. A file that is still empty is set up with the given codec; an existing
+     * file keeps the codec it was created with.
+     */
+    public PageFile(File file, PageCompression newFileCompression) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.pool = BufferPool.getInstance();
+        try {
+            File mapFile = mapFileFor(file);
+            boolean empty = channel.size() == 0;
+            if (empty && newFileCompression != null) {
+                if (mapFile.exists() && !mapFile.delete()) {
+                    throw new IOException("Cannot replace existing file " + mapFile.getName());
+                }
+                if (newFileCompression != PageCompression.NONE) {
+                    createMap(mapFile, newFileCompression);
+                }
+            } else if (mapFile.exists()) {
+                loadMap(mapFile);
+            }
+            if (mapChannel == null) {
+                this.pageCount = (int) (channel.size() / PAGE_SIZE);
+            }
+            this.fileId = pool.register(file, pageCount == 0);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            if (mapChannel != null) {
+                mapChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    public static File mapFileFor(File file) {
+        return new File(file.getPath() + MAP_EXTENSION);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    int getFileId() {
+        return fileId;
+    }
+
+    public PageCompression getCompression() {
+        return compression;
+    }
+
+    public synchronized int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Returns the number of pages in the file on disk, which is less than the page count while
+     * new pages are only in the buffer pool. Not synchronized: the pool calls it while writing
+     * back pages, with other threads possibly in {@link #readPage}.
+     */
+    int getStoredPageCount() throws IOException {
+        if (mapChannel != null) {
+            return (int) ((mapChannel.size() - MAP_HEADER_SIZE) / MAP_ENTRY_SIZE);
+        }
+        return (int) (channel.size() / PAGE_SIZE);
+    }
+
+    /**
+     * Cuts the file on disk down to the given number of pages. Used to roll back a journal,
+     * before the file's pages are cached.
+     */
+    synchronized void truncate(int pages) throws IOException {
+        if (mapChannel != null) {
+            mapChannel.truncate(MAP_HEADER_SIZE + (long) pages * MAP_ENTRY_SIZE);
+        } else {
+            channel.truncate((long) pages * PAGE_SIZE);
+        }
+        pageCount = Math.min(pageCount, pages);
+    }
+
+    /**
+     * Returns the bytes the file takes on disk, including its page map.
+     */
+    public long getStoredSize() throws IOException {
+        return channel.size() + (mapChannel == null ? 0 : mapChannel.size());
+    }
+
+    public synchronized void readPage(int pageNo, ByteBuffer dst) throws IOException {
+        if (pageNo < 0 || pageNo >= pageCount) {
+            throw new IOException("Page " + pageNo + " out of range in " + file.getName());
+        }
+        BufferPool.Frame frame = pool.pin(this, pageNo, false);
+        try {
+            dst.clear();
+            dst.put(frame.getData());
+            dst.flip();
+        } finally {
+            pool.unpin(frame, false);
+        }
+    }
+
+    public synchronized void writePage(int pageNo, ByteBuffer src) throws IOException {
+        ByteBuffer page = src.duplicate();
+        page.clear();
+        BufferPool.Frame frame = pool.pin(this, pageNo, pageNo >= pageCount);
+        try {
+            frame.getData().put(page);
+        } finally {
+            pool.unpin(frame, true);
+        }
+        if (pageNo >= pageCount) {
+            pageCount = pageNo + 1;
+        }
+    }
+
+    /**
+     * Appends a zeroed page and returns its number.
+     */
+    public synchronized int allocatePage() throws IOException {
+        int pageNo = pageCount;
+        writePage(pageNo, ByteBuffer.allocate(PAGE_SIZE));
+        return pageNo;
+    }
+
+    /**
+     * Writes bytes to consecutive pages from the given page, zero-filling the last page,
+     * and returns the page after them.
+     */
+    public int writeBytes(byte[] bytes, int length, int pageNo) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        for (int offset = 0; offset < length; offset += PAGE_SIZE) {
+            Arrays.fill(page.array(), (byte) 0);
+            page.put(0, bytes, offset, Math.min(PAGE_SIZE, length - offset));
+            writePage(pageNo++, page);
+        }
+        return pageNo;
+    }
+
+    /**
+     * Reads bytes written by {@link #writeBytes} starting at the given page.
+     */
+    public byte[] readBytes(int pageNo, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        for (int offset = 0; offset < length; offset += PAGE_SIZE) {
+            readPage(pageNo++, page);
+            page.get(0, bytes, offset, Math.min(PAGE_SIZE, length - offset));
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes back the file's dirty pages so that the file on disk is current.
+     */
+    public synchronized void flush() throws IOException {
+        pool.flush(this);
+    }
+
+    /**
+     * Maps a run of pages read-only, bypassing the buffer pool. Pages still dirty in the pool
+     * are not visible in the mapping; call {@link #flush()} first. The run is cut short at the
+     * end of the file. Compressed files cannot be mapped.
+     */
+    public MappedByteBuffer map(int firstPage, int count) throws IOException {
+        if (mapChannel != null) {
+            throw new IOException("Compressed file " + file.getName() + " cannot be mapped.");
+        }
+        long position = (long) firstPage * PAGE_SIZE;
+        long size = Math.min((long) count * PAGE_SIZE, Math.max(0, channel.size() - position));
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * Writes back the file's dirty pages and forces them to disk.
+     */
+    public synchronized void force() throws IOException {
+        pool.flush(this);
+        channel.force(false);
+        if (mapChannel != null) {
+            mapChannel.force(false);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        try {
+            pool.flush(this);
+        } finally {
+            channel.close();
+            if (mapChannel != null) {
+                mapChannel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a page straight from the file; used by the pool on a miss.
+     */
+    void readFromDisk(int pageNo, ByteBuffer dst) throws IOException {
+        dst.clear();
+        if (mapChannel != null) {
+            readCompressed(pageNo, dst);
+            return;
+        }
+        long position = (long) pageNo * PAGE_SIZE;
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, position + dst.position()) < 0) {
+                break;
+            }
+        }
+        IoStats.getInstance().recordRead(dst.position());
+        while (dst.hasRemaining()) {
+            dst.put((byte) 0);
+        }
+        dst.clear();
+    }
+
+    /**
+     * Writes a page straight to the file; used by the pool to write back dirty pages.
+     */
+    void writeToDisk(int pageNo, ByteBuffer src) throws IOException {
+        ByteBuffer page = src.duplicate();
+        page.clear();
+        if (mapChannel != null) {
+            writeCompressed(pageNo, page);
+            return;
+        }
+        long position = (long) pageNo * PAGE_SIZE;
+        while (page.hasRemaining()) {
+            channel.write(page, position + page.position());
+        }
+    }
+
+    /**
+     * Decompresses a page; a page that was never written back reads as zeros. The pool calls
+     * this while other threads may be in {@link #readPage}, so the page map has its own lock.
+     */
+    private void readCompressed(int pageNo, ByteBuffer dst) throws IOException {
+        int unit;
+        int length;
+        synchronized (freeRuns) {
+            if (pageNo >= pageUnits.length || pageLengths[pageNo] == 0) {
+                Arrays.fill(dst.array(), dst.arrayOffset(), dst.arrayOffset() + PAGE_SIZE, (byte) 0);
+                return;
+            }
+            unit = pageUnits[pageNo];
+            length = pageLengths[pageNo] & 0xFFFF;
+        }
+        ByteBuffer stored = ByteBuffer.allocate(length);
+        long position = (long) unit * UNIT_SIZE;
+        while (stored.hasRemaining()) {
+            if (channel.read(stored, position + stored.position()) < 0) {
+                throw new IOException("Page " + pageNo + " of " + file.getName() + " is truncated.");
+            }
+        }
+        IoStats.getInstance().recordRead(length);
+        if (length == PAGE_SIZE) {
+            dst.put(stored.array());
+        } else {
+            long start = System.nanoTime();
+            byte[] page = new byte[PAGE_SIZE];
+            compression.decompress(stored.array(), length, page);
+            CompressionStats.getInstance().recordDecode(System.nanoTime() - start);
+            dst.put(page);
+        }
+        dst.clear();
+    }
+
+    /**
+     * Compresses a page and writes it back into its run if it fits, otherwise into a new run,
+     * then records the new location. Pages that do not compress are stored as they are.
+     */
+    private void writeCompressed(int pageNo, ByteBuffer page) throws IOException {
+        byte[] raw = new byte[PAGE_SIZE];
+        page.get(raw);
+        long start = System.nanoTime();
+        byte[] compressed = new byte[PAGE_SIZE];
+        int length = compression.compress(raw, compressed);
+        if (length < 0 || units(length) >= UNITS_PER_PAGE) {
+            compressed = raw;
+            length = PAGE_SIZE;
+        }
+        CompressionStats.getInstance().recordWrite(length, length == PAGE_SIZE, System.nanoTime() - start);
+
+        synchronized (freeRuns) {
+            ensureMapCapacity(pageNo + 1);
+            int oldUnits = pageLengths[pageNo] == 0 ? 0 : units(pageLengths[pageNo] & 0xFFFF);
+            int newUnits = units(length);
+            int unit = pageUnits[pageNo];
+            if (newUnits > oldUnits) {
+                ArrayDeque<Integer> free = freeRuns.get(newUnits);
+                unit = free.isEmpty() ? endUnit : free.poll();
+                endUnit = Math.max(endUnit, unit + newUnits);
+            }
+            ByteBuffer stored = ByteBuffer.wrap(compressed, 0, length);
+            long position = (long) unit * UNIT_SIZE;
+            while (stored.hasRemaining()) {
+                channel.write(stored, position + stored.position());
+            }
+            if (newUnits > oldUnits && oldUnits > 0) {
+                freeRuns.get(oldUnits).add(pageUnits[pageNo]);
+            } else if (newUnits < oldUnits) {
+                freeRuns.get(oldUnits - newUnits).add(unit + newUnits);
+            }
+            pageUnits[pageNo] = unit;
+            pageLengths[pageNo] = (short) length;
+            ByteBuffer entry = ByteBuffer.allocate(MAP_ENTRY_SIZE);
+            entry.putInt(unit).putShort((short) length).putShort((short) 0).flip();
+            long entryPosition = MAP_HEADER_SIZE + (long) pageNo * MAP_ENTRY_SIZE;
+            while (entry.hasRemaining()) {
+                mapChannel.write(entry, entryPosition + entry.position());
+            }
+        }
+    }
+
+    private void createMap(File mapFile, PageCompression codec) throws IOException {
+        compression = codec;
+        mapChannel = FileChannel.open(mapFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(MAP_HEADER_SIZE);
+        header.putInt(MAP_MAGIC).putShort(MAP_VERSION).put((byte) codec.ordinal()).put((byte) 0).flip();
+        while (header.hasRemaining()) {
+            mapChannel.write(header, header.position());
+        }
+        initFreeRuns();
+    }
+
+    /**
+     * Reads the page map and rebuilds the free runs from the gaps between the pages' runs.
+     */
+    private void loadMap(File mapFile) throws IOException {
+        mapChannel = FileChannel.open(mapFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer map = ByteBuffer.allocate((int) mapChannel.size());
+        while (map.hasRemaining()) {
+            if (mapChannel.read(map, map.position()) < 0) {
+                break;
+            }
+        }
+        map.flip();
+        if (map.remaining() < MAP_HEADER_SIZE || map.getInt() != MAP_MAGIC || map.getShort() != MAP_VERSION) {
+            throw new IOException(mapFile.getName() + " is not a page map.");
+        }
+        int codec = map.get();
+        map.get();
+        if (codec <= 0 || codec >= PageCompression.values().length) {
+            throw new IOException("Unknown page compression " + codec + " in " + mapFile.getName());
+        }
+        compression = PageCompression.values()[codec];
+        initFreeRuns();
+        pageCount = map.remaining() / MAP_ENTRY_SIZE;
+        ensureMapCapacity(pageCount);
+        long[] runs = new long[pageCount];
+        int runCount = 0;
+        for (int pageNo = 0; pageNo < pageCount; pageNo++) {
+            pageUnits[pageNo] = map.getInt();
+            pageLengths[pageNo] = map.getShort();
+            map.getShort();
+            if (pageLengths[pageNo] != 0) {
+                int units = units(pageLengths[pageNo] & 0xFFFF);
+                runs[runCount++] = ((long) pageUnits[pageNo] << 8) | units;
+                endUnit = Math.max(endUnit, pageUnits[pageNo] + units);
+            }
+        }
+        Arrays.sort(runs, 0, runCount);
+        int next = 0;
+        for (int i = 0; i < runCount; i++) {
+            int unit = (int) (runs[i] >>> 8);
+            addFreeSpace(next, unit);
+            next = unit + (int) (runs[i] & 0xFF);
+        }
+    }
+
+    private void initFreeRuns() {
+        for (int units = 0; units <= UNITS_PER_PAGE; units++) {
+            freeRuns.add(new ArrayDeque<>());
+        }
+    }
+
+    private void addFreeSpace(int from, int to) {
+        while (from < to) {
+            int units = Math.min(UNITS_PER_PAGE, to - from);
+            freeRuns.get(units).add(from);
+            from += units;
+        }
+    }
+
+    private void ensureMapCapacity(int pages) {
+        if (pages > pageUnits.length) {
+            int capacity = Math.max(pages, pageUnits.length * 2);
+            pageUnits = Arrays.copyOf(pageUnits, capacity);
+            pageLengths = Arrays.copyOf(pageLengths, capacity);
+        }
+    }
+
+    private static int units(int length) {
+        return (length + UNIT_SIZE - 1) / UNIT_SIZE;
+    }
+}
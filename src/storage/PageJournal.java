@@ -0,0 +1,194 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Rollback journal of one logged statement, kept beside the table it changes. Recovery redoes
+ * logged statements from their text, which is only correct on a table the statement has not
+ * partly changed, yet the buffer pool may write a page the statement changed at any time: when
+ * the page is evicted, when its file is closed or when the pool is flushed. So before the pool
+ * writes such a page over its copy on disk, the copy is saved here, along with the length the
+ * file had before the statement. Once every page of the statement, including the header with
+ * its applied LSN, is written the journal is deleted. A journal left by a crash is rolled back
+ * at startup, putting the table and index files back as they were before the statement, and
+ * the statement is then redone from the log.
+ *
+ * Each entry carries a checksum, and rollback stops at the first torn entry: a page is
+ * written only after its entry, so the pages of a torn entry were never written. Like the
+ * table files between checkpoints the journal is not forced, so it covers the process dying
+ * but not the operating system losing writes.
+ */
+public class PageJournal {
+    public static final String EXTENSION = ".journal";
+
+    private static final byte ENTRY_FILE = 1;
+    private static final byte ENTRY_PAGE = 2;
+
+    private final File file;
+    private FileChannel channel;
+    private final Map<String, Integer> fileIndexes = new HashMap<>();
+    private final List<Integer> storedPages = new ArrayList<>();
+    private final List<BitSet> savedPages = new ArrayList<>();
+    private final ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+
+    public PageJournal(File file) {
+        this.file = file;
+    }
+
+    public static File fileFor(File databaseDir, String tableName) {
+        return new File(databaseDir, tableName + EXTENSION);
+    }
+
+    /**
+     * Saves the page as it is on disk unless it is already saved or lies beyond the end the
+     * file had when the statement started. Called by the pool before it writes the page.
+     */
+    synchronized void save(PageFile pageFile, int pageNo) throws IOException {
+        // Reopening a file gives a new PageFile, so files are told apart by path.
+        String path = pageFile.getFile().getAbsolutePath();
+        Integer index = fileIndexes.get(path);
+        if (index == null) {
+            index = storedPages.size();
+            int pages = pageFile.getStoredPageCount();
+            fileIndexes.put(path, index);
+            storedPages.add(pages);
+            savedPages.add(new BitSet());
+            byte[] name = pageFile.getFile().getName().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer entry = ByteBuffer.allocate(9 + name.length);
+            entry.put(ENTRY_FILE).putInt(name.length).put(name).putInt(pages);
+            append(entry);
+        }
+        if (pageNo >= storedPages.get(index) || savedPages.get(index).get(pageNo)) {
+            return;
+        }
+        pageFile.readFromDisk(pageNo, page);
+        ByteBuffer entry = ByteBuffer.allocate(9 + PageFile.PAGE_SIZE);
+        entry.put(ENTRY_PAGE).putInt(index).putInt(pageNo).put(page.array());
+        append(entry);
+        savedPages.get(index).set(pageNo);
+    }
+
+    /**
+     * Drops the journal once the statement's pages are all written.
+     */
+    synchronized void delete() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            if (!file.delete()) {
+                throw new IOException("Cannot delete journal " + file.getName());
+            }
+        }
+    }
+
+    private void append(ByteBuffer entry) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(entry.array(), 0, entry.position());
+        ByteBuffer framed = ByteBuffer.allocate(8 + entry.position());
+        framed.putInt(entry.position()).putInt((int) crc.getValue()).put(entry.array(), 0, entry.position()).flip();
+        while (framed.hasRemaining()) {
+            channel.write(framed);
+        }
+    }
+
+    /**
+     * Rolls back the journals left in the databases under the storage root and returns how
+     * many there were. Runs at startup, before any table is opened.
+     */
+    public static int rollBackAll(File root) throws IOException {
+        int rolledBack = 0;
+        File[] users = root.listFiles(File::isDirectory);
+        if (users == null) {
+            return 0;
+        }
+        for (File user : users) {
+            File[] databases = user.listFiles(File::isDirectory);
+            if (databases == null) {
+                continue;
+            }
+            for (File database : databases) {
+                File[] journals = database.listFiles((dir, name) -> name.endsWith(EXTENSION));
+                if (journals == null) {
+                    continue;
+                }
+                for (File journal : journals) {
+                    rollBack(journal);
+                    rolledBack++;
+                }
+            }
+        }
+        return rolledBack;
+    }
+
+    /**
+     * Writes the saved pages back and cuts each file to its saved length, then deletes the journal.
+     */
+    static void rollBack(File journal) throws IOException {
+        List<PageFile> files = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        try (FileChannel in = FileChannel.open(journal.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer contents = ByteBuffer.allocate((int) in.size());
+            while (contents.hasRemaining() && in.read(contents) >= 0) {
+                // keep reading until the journal is complete
+            }
+            contents.flip();
+            while (contents.remaining() >= 8) {
+                int length = contents.getInt();
+                int checksum = contents.getInt();
+                if (length <= 0 || length > contents.remaining()) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(contents.array(), contents.position(), length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                ByteBuffer entry = contents.slice(contents.position(), length);
+                contents.position(contents.position() + length);
+                if (entry.get() == ENTRY_FILE) {
+                    byte[] name = new byte[entry.getInt()];
+                    entry.get(name);
+                    File target = new File(journal.getParentFile(), new String(name, StandardCharsets.UTF_8));
+                    files.add(target.exists() ? new PageFile(target) : null);
+                    lengths.add(entry.getInt());
+                } else {
+                    PageFile target = files.get(entry.getInt());
+                    int pageNo = entry.getInt();
+                    if (target != null) {
+                        target.writeToDisk(pageNo, entry.slice());
+                    }
+                }
+            }
+            for (int i = 0; i < files.size(); i++) {
+                if (files.get(i) != null) {
+                    files.get(i).truncate(lengths.get(i));
+                    files.get(i).force();
+                }
+            }
+        } finally {
+            for (PageFile target : files) {
+                if (target != null) {
+                    target.close();
+                }
+            }
+        }
+        if (!journal.delete()) {
+            throw new IOException("Cannot delete journal " + journal.getName());
+        }
+    }
+}
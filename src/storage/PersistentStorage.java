@@ -145,7 +145,8 @@ public class PersistentStorage implements IPersistentStorage {
     }
 
     /**
-     * Handles transactions
+     * Handles transactions. Queries staged in a transaction are made durable through the
+     * write-ahead log on commit and discarded on rollback.
      */
     public synchronized void beginTransaction(String user) {
         if (inTransaction.getOrDefault(user, false)) {
@@ -157,23 +158,45 @@ public class PersistentStorage implements IPersistentStorage {
         System.out.println("Transaction started for " + user);
     }
 
-    public synchronized void commitTransaction(String user) {
-        if (!inTransaction.getOrDefault(user, false)) {
-            System.out.println("Error: No active transaction to commit.");
+    public synchronized void stageQuery(String user, String query) {
+        List<String> queries = transactionData.get(user);
+        if (queries == null) {
+            System.out.println("Error: No active transaction for " + user);
             return;
         }
+        queries.add(query);
+    }
 
-        List<String> queries = transactionData.get(user);
-        if (queries != null) {
-            for (String query : queries) {
-                System.out.println("Executing Query in Transaction: " + query);
-                // Execute the query normally
+    /**
+     * Writes the staged queries and a commit record to the write-ahead log and waits until the
+     * commit is durable. Returns the logged statements so the caller can apply them.
+     */
+    public List<WriteAheadLog.Record> commitTransaction(String user, String owner, String database) throws IOException {
+        List<String> queries;
+        synchronized (this) {
+            if (!inTransaction.getOrDefault(user, false)) {
+                System.out.println("Error: No active transaction to commit.");
+                return new ArrayList<>();
             }
+            queries = transactionData.remove(user);
+            inTransaction.put(user, false);
         }
 
-        inTransaction.put(user, false);
-        transactionData.remove(user);
+        List<WriteAheadLog.Record> records = new ArrayList<>();
+        if (queries == null || queries.isEmpty()) {
+            System.out.println("Transaction committed successfully for " + user);
+            return records;
+        }
+
+        WriteAheadLog wal = WriteAheadLog.getInstance();
+        long transactionId = wal.beginTransaction();
+        for (String query : queries) {
+            long lsn = wal.logStatement(transactionId, owner, database, query);
+            records.add(new WriteAheadLog.Record(lsn, transactionId, owner, database, query));
+        }
+        wal.commit(transactionId);
         System.out.println("Transaction committed successfully for " + user);
+        return records;
     }
 
     public synchronized void rollbackTransaction(String user) {
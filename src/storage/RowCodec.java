@@ -0,0 +1,184 @@
+package storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes rows as length-prefixed fields:
+ * a 2-byte field count followed by a 2-byte length and UTF-8 bytes per field.
+ * Values of typed columns other than VARCHAR are written in binary instead, after a 2-byte
+ * tag above the longest length that names their {@link ColumnType}, so rows decode without
+ * the schema and rows written before types were kept decode as before.
+ */
+public final class RowCodec {
+    static final int NULL_LENGTH = 0xFFFF;
+    // Lengths from here up to NULL_LENGTH are type tags.
+    private static final int FIRST_TAG = 0xFFF0;
+
+    private RowCodec() {
+    }
+
+    public static byte[] encode(String[] values) {
+        return encode(values, null);
+    }
+
+    /**
+     * Encodes a row of canonical values, writing those of binary column types in binary.
+     * Null types write every value as text.
+     */
+    public static byte[] encode(String[] values, ColumnType[] types) {
+        byte[][] fields = new byte[values.length][];
+        int size = 2;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                if (isBinary(types, i)) {
+                    size += types[i].getWidth();
+                } else {
+                    fields[i] = values[i].getBytes(StandardCharsets.UTF_8);
+                    size += fields[i].length;
+                }
+            }
+            size += 2;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putShort((short) values.length);
+        for (int i = 0; i < values.length; i++) {
+            byte[] field = fields[i];
+            if (values[i] == null) {
+                buffer.putShort((short) NULL_LENGTH);
+            } else if (field == null) {
+                buffer.putShort((short) (NULL_LENGTH - types[i].getCode()));
+                types[i].write(buffer, values[i]);
+            } else {
+                if (field.length >= FIRST_TAG) {
+                    throw new IllegalArgumentException("Field exceeds maximum length of " + (FIRST_TAG - 1) + " bytes.");
+                }
+                buffer.putShort((short) field.length);
+                buffer.put(field);
+            }
+        }
+        return buffer.array();
+    }
+
+    private static boolean isBinary(ColumnType[] types, int column) {
+        return types != null && column < types.length && types[column].isBinary();
+    }
+
+    public static String[] decode(ByteBuffer buffer, int offset) {
+        int fieldCount = Short.toUnsignedInt(buffer.getShort(offset));
+        String[] values = new String[fieldCount];
+        int position = offset + 2;
+        for (int i = 0; i < fieldCount; i++) {
+            int length = Short.toUnsignedInt(buffer.getShort(position));
+            position += 2;
+            if (length == NULL_LENGTH) {
+                continue;
+            }
+            if (length >= FIRST_TAG) {
+                ColumnType type = ColumnType.forCode(NULL_LENGTH - length);
+                values[i] = type.read(buffer, position);
+                position += type.getWidth();
+                continue;
+            }
+            values[i] = decodeString(buffer, position, length);
+            position += length;
+        }
+        return values;
+    }
+
+    /**
+     * Decodes only the marked fields of a row, skipping over the bytes of the others, which
+     * are left null. A null column set decodes every field.
+     */
+    public static String[] decode(ByteBuffer buffer, int offset, boolean[] columns) {
+        String[] values = new String[Short.toUnsignedInt(buffer.getShort(offset))];
+        decodeInto(buffer, offset, columns, values);
+        return values;
+    }
+
+    /**
+     * Decodes the marked fields of a row into the given values, leaving the others as they are.
+     */
+    public static void decodeInto(ByteBuffer buffer, int offset, boolean[] columns, String[] values) {
+        int fieldCount = Math.min(Short.toUnsignedInt(buffer.getShort(offset)), values.length);
+        int position = offset + 2;
+        for (int i = 0; i < fieldCount; i++) {
+            int length = Short.toUnsignedInt(buffer.getShort(position));
+            position += 2;
+            if (length == NULL_LENGTH) {
+                continue;
+            }
+            boolean wanted = columns == null || (i < columns.length && columns[i]);
+            if (length >= FIRST_TAG) {
+                ColumnType type = ColumnType.forCode(NULL_LENGTH - length);
+                if (wanted) {
+                    values[i] = type.read(buffer, position);
+                }
+                position += type.getWidth();
+                continue;
+            }
+            if (wanted) {
+                values[i] = decodeString(buffer, position, length);
+            }
+            position += length;
+        }
+    }
+
+    /**
+     * Returns the position of a field's length prefix within an encoded row without decoding
+     * the row, or -1 if the row has fewer fields.
+     */
+    public static int fieldPosition(ByteBuffer buffer, int offset, int column) {
+        int fieldCount = Short.toUnsignedInt(buffer.getShort(offset));
+        if (column >= fieldCount) {
+            return -1;
+        }
+        int position = offset + 2;
+        for (int i = 0; i < column; i++) {
+            position += 2 + Math.max(fieldLength(buffer, position), 0);
+        }
+        return position;
+    }
+
+    /**
+     * Returns the byte length of the value of the field at the given position, which follows
+     * its 2-byte length or tag, or -1 if the field is null.
+     */
+    public static int fieldLength(ByteBuffer buffer, int fieldPosition) {
+        int length = Short.toUnsignedInt(buffer.getShort(fieldPosition));
+        if (length == NULL_LENGTH) {
+            return -1;
+        }
+        return length >= FIRST_TAG ? ColumnType.forCode(NULL_LENGTH - length).getWidth() : length;
+    }
+
+    /**
+     * Returns the type of the field at the given position if its value is in binary, or null
+     * if it is UTF-8 text or null.
+     */
+    public static ColumnType fieldType(ByteBuffer buffer, int fieldPosition) {
+        int length = Short.toUnsignedInt(buffer.getShort(fieldPosition));
+        return length >= FIRST_TAG && length != NULL_LENGTH ? ColumnType.forCode(NULL_LENGTH - length) : null;
+    }
+
+    public static String decodeField(ByteBuffer buffer, int fieldPosition) {
+        int length = Short.toUnsignedInt(buffer.getShort(fieldPosition));
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        if (length >= FIRST_TAG) {
+            return ColumnType.forCode(NULL_LENGTH - length).read(buffer, fieldPosition + 2);
+        }
+        return decodeString(buffer, fieldPosition + 2, length);
+    }
+
+    static String decodeString(ByteBuffer buffer, int position, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + position, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
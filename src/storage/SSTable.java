@@ -0,0 +1,417 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable sorted run of an LSM table: keys in ascending order, each mapped to a row or to a
+ * deletion tombstone.
+ * Entries are packed into blocks that start on a page boundary and normally fill one page.
+ * A block index and a Bloom filter follow the blocks and are kept in memory while the table
+ * is open, so a point lookup reads at most one block, and none when the filter rules it out.
+ * Pages are read through the buffer pool.
+ */
+class SSTable {
+    static final String EXTENSION = ".sst";
+
+    private static final int MAGIC = 0x53444253;
+    private static final short VERSION = 1;
+    private static final int HEADER_ENTRY_COUNT = 6;
+    private static final int HEADER_BLOCK_COUNT = 14;
+    private static final int HEADER_META_PAGE = 18;
+    private static final int HEADER_META_LENGTH = 22;
+
+    private static final byte TYPE_PUT = 0;
+    private static final byte TYPE_DELETE = 1;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private final File file;
+    private final PageFile pageFile;
+    private final int level;
+    private final int sequence;
+    private final long entryCount;
+    private final String[] firstKeys;
+    private final int[] blockPages;
+    private final int[] blockLengths;
+    private final long[] bloom;
+    private int references = 1;
+    private boolean retired;
+
+    private SSTable(File file, PageFile pageFile, int level, int sequence, long entryCount,
+                    String[] firstKeys, int[] blockPages, int[] blockLengths, long[] bloom) {
+        this.file = file;
+        this.pageFile = pageFile;
+        this.level = level;
+        this.sequence = sequence;
+        this.entryCount = entryCount;
+        this.firstKeys = firstKeys;
+        this.blockPages = blockPages;
+        this.blockLengths = blockLengths;
+        this.bloom = bloom;
+    }
+
+    static File fileFor(File databaseDir, String tableName, int sequence) {
+        return new File(databaseDir, tableName + "." + sequence + EXTENSION);
+    }
+
+    /**
+     * Writes the entries, in ascending key order, to a new file and forces it to disk.
+     * Tombstones are written only when they are kept and pages are compressed with the given
+     * codec. Rows are written with values of binary column types in binary; the table's other
+     * entries, such as its primary key entries, do not follow the schema and are written as text.
+     */
+    static SSTable write(File file, int level, int sequence, Iterator<Map.Entry<String, String[]>> entries,
+                         long expectedEntries, boolean keepTombstones, PageCompression compression,
+                         ColumnType[] types) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot replace existing file " + file.getName());
+        }
+        PageFile pageFile = new PageFile(file, compression);
+        try {
+            long[] bloom = new long[(int) Math.max(1, (Math.max(1, expectedEntries) * BLOOM_BITS_PER_KEY + 63) / 64)];
+            List<String> firstKeys = new ArrayList<>();
+            List<Integer> blockPages = new ArrayList<>();
+            List<Integer> blockLengths = new ArrayList<>();
+            ByteBuffer block = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+            int nextPage = 1;
+            long entryCount = 0;
+
+            while (entries.hasNext()) {
+                Map.Entry<String, String[]> entry = entries.next();
+                String[] value = entry.getValue();
+                if (value == LsmTable.TOMBSTONE && !keepTombstones) {
+                    continue;
+                }
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] row = value == LsmTable.TOMBSTONE ? null
+                        : RowCodec.encode(value, LsmTable.isRowKey(entry.getKey()) ? types : null);
+                int size = 2 + key.length + 1 + (row == null ? 0 : 2 + row.length);
+                if (block.position() > 0 && block.position() + size > PageFile.PAGE_SIZE) {
+                    nextPage = writeBlock(pageFile, block, nextPage, blockPages, blockLengths);
+                    if (block.capacity() > PageFile.PAGE_SIZE) {
+                        block = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+                    }
+                }
+                if (block.position() == 0) {
+                    firstKeys.add(entry.getKey());
+                }
+                if (block.remaining() < size) {
+                    block = grow(block, size);
+                }
+                block.putShort((short) key.length).put(key);
+                if (row == null) {
+                    block.put(TYPE_DELETE);
+                } else {
+                    block.put(TYPE_PUT).putShort((short) row.length).put(row);
+                }
+                addToBloom(bloom, entry.getKey());
+                entryCount++;
+            }
+            if (block.position() > 0) {
+                nextPage = writeBlock(pageFile, block, nextPage, blockPages, blockLengths);
+            }
+
+            List<byte[]> keyBytes = new ArrayList<>();
+            int metaSize = 4 + bloom.length * 8;
+            for (String firstKey : firstKeys) {
+                byte[] key = firstKey.getBytes(StandardCharsets.UTF_8);
+                keyBytes.add(key);
+                metaSize += 2 + key.length + 8;
+            }
+            ByteBuffer meta = ByteBuffer.allocate(metaSize);
+            for (int i = 0; i < keyBytes.size(); i++) {
+                byte[] key = keyBytes.get(i);
+                meta.putShort((short) key.length).put(key).putInt(blockPages.get(i)).putInt(blockLengths.get(i));
+            }
+            meta.putInt(bloom.length);
+            for (long word : bloom) {
+                meta.putLong(word);
+            }
+            int metaLength = meta.position();
+            pageFile.writeBytes(meta.array(), metaLength, nextPage);
+
+            ByteBuffer header = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+            header.putInt(0, MAGIC);
+            header.putShort(4, VERSION);
+            header.putLong(HEADER_ENTRY_COUNT, entryCount);
+            header.putInt(HEADER_BLOCK_COUNT, firstKeys.size());
+            header.putInt(HEADER_META_PAGE, nextPage);
+            header.putInt(HEADER_META_LENGTH, metaLength);
+            pageFile.writePage(0, header);
+            pageFile.force();
+
+            int[] pages = new int[blockPages.size()];
+            int[] lengths = new int[blockLengths.size()];
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = blockPages.get(i);
+                lengths[i] = blockLengths.get(i);
+            }
+            return new SSTable(file, pageFile, level, sequence, entryCount,
+                    firstKeys.toArray(new String[0]), pages, lengths, bloom);
+        } catch (IOException | RuntimeException e) {
+            pageFile.close();
+            file.delete();
+            PageFile.mapFileFor(file).delete();
+            throw e;
+        }
+    }
+
+    static SSTable open(File file, int level, int sequence) throws IOException {
+        PageFile pageFile = new PageFile(file);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+            pageFile.readPage(0, header);
+            if (header.getInt(0) != MAGIC || header.getShort(4) != VERSION) {
+                throw new IOException(file.getName() + " is not a sorted table file.");
+            }
+            long entryCount = header.getLong(HEADER_ENTRY_COUNT);
+            int blockCount = header.getInt(HEADER_BLOCK_COUNT);
+            ByteBuffer meta = ByteBuffer.wrap(pageFile.readBytes(header.getInt(HEADER_META_PAGE), header.getInt(HEADER_META_LENGTH)));
+            String[] firstKeys = new String[blockCount];
+            int[] blockPages = new int[blockCount];
+            int[] blockLengths = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                byte[] key = new byte[Short.toUnsignedInt(meta.getShort())];
+                meta.get(key);
+                firstKeys[i] = new String(key, StandardCharsets.UTF_8);
+                blockPages[i] = meta.getInt();
+                blockLengths[i] = meta.getInt();
+            }
+            long[] bloom = new long[meta.getInt()];
+            for (int i = 0; i < bloom.length; i++) {
+                bloom[i] = meta.getLong();
+            }
+            return new SSTable(file, pageFile, level, sequence, entryCount, firstKeys, blockPages, blockLengths, bloom);
+        } catch (IOException | RuntimeException e) {
+            pageFile.close();
+            throw e;
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    int getSequence() {
+        return sequence;
+    }
+
+    long getEntryCount() {
+        return entryCount;
+    }
+
+    long getSize() {
+        return file.length() + PageFile.mapFileFor(file).length();
+    }
+
+    synchronized void retain() {
+        references++;
+    }
+
+    /**
+     * Drops a reference; the last one closes the file, and deletes it if it was retired.
+     */
+    void release() throws IOException {
+        synchronized (this) {
+            if (--references > 0) {
+                return;
+            }
+        }
+        pageFile.close();
+        if (retired) {
+            file.delete();
+            PageFile.mapFileFor(file).delete();
+        }
+    }
+
+    /**
+     * Marks the table as replaced by compaction and drops the owner's reference. The file is
+     * deleted once no cursor is reading it.
+     */
+    void retire() throws IOException {
+        synchronized (this) {
+            retired = true;
+        }
+        release();
+    }
+
+    /**
+     * Looks a key up. Returns null if this table has no entry for the key, and
+     * {@link LsmTable#TOMBSTONE} if the entry is a deletion.
+     */
+    String[] get(String key) throws IOException {
+        if (!mightContain(key)) {
+            return null;
+        }
+        int block = blockFor(key);
+        if (block < 0) {
+            return null;
+        }
+        ByteBuffer data = ByteBuffer.wrap(pageFile.readBytes(blockPages[block], blockLengths[block]));
+        while (data.hasRemaining()) {
+            String entryKey = readKey(data);
+            String[] value = readValue(data);
+            int cmp = entryKey.compareTo(key);
+            if (cmp == 0) {
+                return value;
+            }
+            if (cmp > 0) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Iterates over the entries with keys from the given key onwards.
+     * Tombstones are returned as {@link LsmTable#TOMBSTONE}.
+     */
+    EntryIterator iterator(String fromKey) {
+        return new EntryIterator(fromKey);
+    }
+
+    class EntryIterator {
+        private int block;
+        private ByteBuffer data;
+        private String key;
+        private String[] value;
+
+        private EntryIterator(String fromKey) {
+            block = Math.max(0, blockFor(fromKey));
+        }
+
+        /**
+         * Moves to the next entry at or after the start key; returns false at the end.
+         */
+        boolean next(String fromKey) throws IOException {
+            while (true) {
+                if (data == null || !data.hasRemaining()) {
+                    if (data != null) {
+                        block++;
+                    }
+                    if (block >= blockPages.length) {
+                        return false;
+                    }
+                    data = ByteBuffer.wrap(pageFile.readBytes(blockPages[block], blockLengths[block]));
+                }
+                key = readKey(data);
+                value = readValue(data);
+                if (fromKey == null || key.compareTo(fromKey) >= 0) {
+                    return true;
+                }
+            }
+        }
+
+        String key() {
+            return key;
+        }
+
+        String[] value() {
+            return value;
+        }
+    }
+
+    private boolean mightContain(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bits = (long) bloom.length * 64;
+        for (int i = 1; i <= BLOOM_HASHES; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addToBloom(long[] bloom, String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bits = (long) bloom.length * 64;
+        for (int i = 1; i <= BLOOM_HASHES; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes of the key.
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the last block whose first key is not after the key, or -1 if the key precedes
+     * every block.
+     */
+    private int blockFor(String key) {
+        if (key == null) {
+            return 0;
+        }
+        int low = 0;
+        int high = firstKeys.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (firstKeys[mid].compareTo(key) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private static String readKey(ByteBuffer data) {
+        byte[] key = new byte[Short.toUnsignedInt(data.getShort())];
+        data.get(key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private static String[] readValue(ByteBuffer data) {
+        if (data.get() == TYPE_DELETE) {
+            return LsmTable.TOMBSTONE;
+        }
+        int length = Short.toUnsignedInt(data.getShort());
+        String[] row = RowCodec.decode(data, data.position());
+        data.position(data.position() + length);
+        return row;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    private static int writeBlock(PageFile pageFile, ByteBuffer block, int page,
+                                  List<Integer> blockPages, List<Integer> blockLengths) throws IOException {
+        blockPages.add(page);
+        blockLengths.add(block.position());
+        int next = pageFile.writeBytes(block.array(), block.position(), page);
+        block.clear();
+        return next;
+    }
+}
@@ -0,0 +1,100 @@
+package storage;
+
+import interfaces.ITableStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The storage engines a table can be created with. Each engine keeps a table in a main file
+ * with its own extension, so a table's engine is found from the file that exists.
+ */
+public enum StorageEngine {
+    HEAP(TableFile.EXTENSION),
+    LSM(LsmTable.EXTENSION),
+    COLUMNAR(ColumnarTable.EXTENSION);
+
+    private final String extension;
+
+    StorageEngine(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public File fileFor(File databaseDir, String tableName) {
+        return new File(databaseDir, tableName + extension);
+    }
+
+    public ITableStore create(File databaseDir, String tableName, TableSchema schema) throws IOException {
+        File file = fileFor(databaseDir, tableName);
+        switch (this) {
+            case LSM:
+                return LsmTable.create(file, schema);
+            case COLUMNAR:
+                return ColumnarTable.create(file, schema);
+            default:
+                return TableFile.create(file, schema);
+        }
+    }
+
+    /**
+     * Returns the engine named in ENGINE=name, or null if there is none by that name.
+     */
+    public static StorageEngine forName(String name) {
+        for (StorageEngine engine : values()) {
+            if (engine.name().equalsIgnoreCase(name)) {
+                return engine;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the engine of an existing table, or null if the table does not exist.
+     */
+    public static StorageEngine of(File databaseDir, String tableName) {
+        for (StorageEngine engine : values()) {
+            if (engine.fileFor(databaseDir, tableName).exists()) {
+                return engine;
+            }
+        }
+        return null;
+    }
+
+    public static ITableStore open(File databaseDir, String tableName) throws IOException {
+        StorageEngine engine = of(databaseDir, tableName);
+        if (engine == null) {
+            throw new IOException("Table '" + tableName + "' not found.");
+        }
+        File file = engine.fileFor(databaseDir, tableName);
+        switch (engine) {
+            case LSM:
+                return LsmTable.open(file);
+            case COLUMNAR:
+                return ColumnarTable.open(file);
+            default:
+                return TableFile.open(file);
+        }
+    }
+
+    /**
+     * Lists the tables of a database, whatever their engine.
+     */
+    public static List<String> listTables(File databaseDir) {
+        List<String> tables = new ArrayList<>();
+        for (StorageEngine engine : values()) {
+            String[] files = databaseDir.list((dir, name) -> name.endsWith(engine.extension));
+            if (files != null) {
+                for (String name : files) {
+                    tables.add(name.substring(0, name.length() - engine.extension.length()));
+                }
+            }
+        }
+        return tables;
+    }
+}
@@ -0,0 +1,103 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Background thread that compacts table files left fragmented by updates and deletes.
+ * Tables are registered when they accumulate dead space; every few seconds each registered
+ * table whose dead space passes the threshold has its fragmented pages compacted.
+ * Compaction keeps row ids, so it needs no logging and no index maintenance; it holds the
+ * table's write lock so it never runs in the middle of a logged statement.
+ */
+public class TableCompactor implements Runnable {
+    private static final long INTERVAL_MILLIS = 5000;
+    private static final double MIN_DEAD_RATIO = 0.2;
+    private static final int PAGE_DEAD_THRESHOLD = 1024;
+
+    private static TableCompactor instance;
+
+    private final Set<File> pending = new LinkedHashSet<>();
+    private long bytesReclaimed;
+    private long runs;
+
+    private TableCompactor() {
+    }
+
+    public static synchronized TableCompactor getInstance() {
+        if (instance == null) {
+            instance = new TableCompactor();
+            Thread thread = new Thread(instance, "table-compactor");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Queues a table for the next compaction pass.
+     */
+    public synchronized void register(File tableFile) {
+        pending.add(tableFile);
+    }
+
+    public synchronized long getBytesReclaimed() {
+        return bytesReclaimed;
+    }
+
+    public synchronized long getRunCount() {
+        return runs;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            compactPending();
+        }
+    }
+
+    private void compactPending() {
+        List<File> tables;
+        synchronized (this) {
+            tables = new ArrayList<>(pending);
+            pending.clear();
+        }
+        for (File tableFile : tables) {
+            if (!tableFile.exists()) {
+                continue;
+            }
+            String tableName = tableFile.getName().substring(0, tableFile.getName().length() - TableFile.EXTENSION.length());
+            ReentrantLock lock = TableLocks.forTable(tableFile.getParentFile(), tableName);
+            lock.lock();
+            try {
+                TableFile table = TableFile.open(tableFile);
+                try {
+                    if (table.getDeadRatio() < MIN_DEAD_RATIO) {
+                        continue;
+                    }
+                    long reclaimed = table.vacuum(PAGE_DEAD_THRESHOLD);
+                    synchronized (this) {
+                        bytesReclaimed += reclaimed;
+                        runs++;
+                    }
+                } finally {
+                    table.close();
+                }
+            } catch (IOException e) {
+                System.out.println("Error compacting table file " + tableFile.getName() + ": " + e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
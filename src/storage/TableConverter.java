@@ -0,0 +1,106 @@
+package storage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One-time converter from the legacy '|||'-delimited .txt tables to the paged table format.
+ * The original file is kept next to the new one with a .bak suffix.
+ */
+public class TableConverter {
+    public static final String LEGACY_EXTENSION = ".txt";
+    private static final String BACKUP_SUFFIX = ".bak";
+
+    /**
+     * Converts every legacy table under the given storage root.
+     */
+    public static void main(String[] args) {
+        File root = new File(args.length > 0 ? args[0] : "storage");
+        int converted = convertAll(root);
+        System.out.println("Converted " + converted + " table(s) under " + root.getPath() + ".");
+    }
+
+    public static int convertAll(File directory) {
+        int converted = 0;
+        File[] entries = directory.listFiles();
+        if (entries == null) {
+            return 0;
+        }
+        for (File entry : entries) {
+            if (entry.isDirectory()) {
+                converted += convertAll(entry);
+            } else if (entry.getName().endsWith(LEGACY_EXTENSION)) {
+                try {
+                    if (convert(entry)) {
+                        converted++;
+                    }
+                } catch (IOException e) {
+                    System.out.println("Error converting " + entry.getPath() + ": " + e.getMessage());
+                }
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * Converts a single legacy table file. Returns false if a converted table already exists.
+     */
+    public static boolean convert(File legacyFile) throws IOException {
+        String name = legacyFile.getName();
+        String tableName = name.substring(0, name.length() - LEGACY_EXTENSION.length());
+        File tableFile = TableFile.fileFor(legacyFile.getParentFile(), tableName);
+        if (tableFile.exists()) {
+            return false;
+        }
+
+        File tempFile = new File(tableFile.getPath() + ".tmp");
+        try (BufferedReader br = new BufferedReader(new FileReader(legacyFile))) {
+            String header = br.readLine();
+            List<String> columns = new ArrayList<>();
+            if (header != null) {
+                for (String column : header.split("\\|\\|\\|")) {
+                    columns.add(column.trim().split(" ")[0]);
+                }
+            }
+
+            TableFile table = TableFile.create(tempFile, new TableSchema(columns));
+            try {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    String[] values = Arrays.copyOf(line.split("\\|\\|\\|", -1), columns.size());
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = values[i] == null ? null : unquote(values[i].trim());
+                    }
+                    table.insert(values);
+                }
+                table.force();
+            } finally {
+                table.close();
+            }
+        }
+
+        if (!tempFile.renameTo(tableFile)) {
+            throw new IOException("Could not move converted table into place: " + tableFile.getPath());
+        }
+        if (!legacyFile.renameTo(new File(legacyFile.getPath() + BACKUP_SUFFIX))) {
+            System.out.println("Warning: converted " + name + " but could not rename the original file.");
+        }
+        return true;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && ((value.startsWith("'") && value.endsWith("'"))
+                || (value.startsWith("\"") && value.endsWith("\"")))) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+}
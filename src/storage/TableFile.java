@@ -0,0 +1,1008 @@
+package storage;
+
+import interfaces.ITableStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Paged table file.
+ * Page 0 is the header page holding the schema, followed by slotted data pages
+ * and a chain of page directory pages that track the free and dead space of every data page.
+ * Rows are addressed by a row id packing the page number and slot number.
+ *
+ * Deletes leave a tombstone in the slot. Updates rewrite the row in place when it fits in its
+ * page; otherwise the row moves to another page and its home slot keeps a forwarding pointer,
+ * so a row id never changes while the row exists. Page compaction reclaims tombstones and
+ * fragmented space without moving rows between pages.
+ *
+ * Open tables are shared: opening a file that is already open returns the same instance,
+ * which is closed when its last user closes it.
+ */
+public class TableFile implements ITableStore {
+    public static final String EXTENSION = ".tbl";
+
+    private static final int MAGIC = 0x53444254;
+    private static final short VERSION = 3;
+
+    private static final int HEADER_FIRST_DIR = 6;
+    private static final int HEADER_ROW_COUNT = 10;
+    private static final int HEADER_APPLIED_LSN = 18;
+    private static final int HEADER_SCHEMA = 26;
+
+    private static final byte PAGE_TYPE_DATA = 1;
+    private static final byte PAGE_TYPE_DIRECTORY = 2;
+
+    private static final int DATA_SLOT_COUNT = 1;
+    private static final int DATA_FREE_END = 3;
+    private static final int DATA_DEAD_BYTES = 5;
+    private static final int DATA_HEADER_SIZE = 8;
+    private static final int SLOT_SIZE = 4;
+
+    private static final int SLOT_TOMBSTONE = 0x8000;
+    private static final int SLOT_FORWARD = 0x4000;
+    private static final int SLOT_MOVED = 0x2000;
+    private static final int SLOT_LENGTH_MASK = 0x1FFF;
+    private static final int FORWARD_SIZE = 8;
+
+    private static final int DIR_NEXT = 1;
+    private static final int DIR_ENTRY_COUNT = 5;
+    private static final int DIR_HEADER_SIZE = 8;
+    private static final int DIR_ENTRY_SIZE = 8;
+    private static final int DIR_ENTRIES_PER_PAGE = (PageFile.PAGE_SIZE - DIR_HEADER_SIZE) / DIR_ENTRY_SIZE;
+    private static final int FREE_SPACE_SEARCH_LIMIT = 64;
+    private static final int MAPPED_SEGMENT_PAGES = 2048;
+
+    public static final int MAX_ROW_SIZE = PageFile.PAGE_SIZE - DATA_HEADER_SIZE - SLOT_SIZE;
+
+    private static final Map<String, TableFile> OPEN_TABLES = new HashMap<>();
+
+    private final PageFile pageFile;
+    private final TableSchema schema;
+    private final ColumnType[] types;
+    private final List<Integer> directoryPages = new ArrayList<>();
+    private int[] dataPages = new int[16];
+    private short[] freeSpace = new short[16];
+    private short[] deadSpace = new short[16];
+    private int dataPageCount;
+    private int searchStart;
+    private long rowCount;
+    private long deadBytes;
+    private long appliedLsn;
+    private String key;
+    private int references;
+
+    private TableFile(PageFile pageFile, TableSchema schema) {
+        this.pageFile = pageFile;
+        this.schema = schema;
+        this.types = schema.getTypes();
+    }
+
+    public static File fileFor(File databaseDir, String tableName) {
+        return new File(databaseDir, tableName + EXTENSION);
+    }
+
+    public static TableFile create(File file, TableSchema schema) throws IOException {
+        synchronized (OPEN_TABLES) {
+            String key = file.getCanonicalPath();
+            if (OPEN_TABLES.containsKey(key)) {
+                throw new IOException("Table file " + file.getName() + " is in use.");
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Cannot replace existing file " + file.getName());
+            }
+            PageFile pageFile = new PageFile(file, schema.getCompression());
+            TableFile table = new TableFile(pageFile, schema);
+            pageFile.allocatePage();
+            int directoryPage = pageFile.allocatePage();
+            table.directoryPages.add(directoryPage);
+            table.writeDirectoryPage(0);
+            table.writeHeader();
+            table.register(key);
+            return table;
+        }
+    }
+
+    public static TableFile open(File file) throws IOException {
+        synchronized (OPEN_TABLES) {
+            String key = file.getCanonicalPath();
+            TableFile table = OPEN_TABLES.get(key);
+            if (table == null) {
+                if (!file.exists()) {
+                    throw new IOException("Table file " + file.getName() + " does not exist.");
+                }
+                table = load(file);
+                table.register(key);
+            } else {
+                table.references++;
+            }
+            return table;
+        }
+    }
+
+    private static TableFile load(File file) throws IOException {
+        PageFile pageFile = new PageFile(file);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+            pageFile.readPage(0, header);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(file.getName() + " is not a table file.");
+            }
+            if (header.getShort(4) != VERSION) {
+                throw new IOException("Unsupported table file version " + header.getShort(4) + " in " + file.getName());
+            }
+            header.position(HEADER_SCHEMA);
+            TableFile table = new TableFile(pageFile, TableSchema.readFrom(header));
+            table.rowCount = header.getLong(HEADER_ROW_COUNT);
+            table.appliedLsn = header.getLong(HEADER_APPLIED_LSN);
+            table.loadDirectory(header.getInt(HEADER_FIRST_DIR));
+            return table;
+        } catch (IOException | RuntimeException e) {
+            pageFile.close();
+            throw e;
+        }
+    }
+
+    private void register(String key) {
+        this.key = key;
+        this.references = 1;
+        OPEN_TABLES.put(key, this);
+    }
+
+    @Override
+    public TableSchema getSchema() {
+        return schema;
+    }
+
+    public File getFile() {
+        return pageFile.getFile();
+    }
+
+    @Override
+    public synchronized long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the bytes held by tombstones and superseded row versions.
+     */
+    public synchronized long getDeadBytes() {
+        return deadBytes;
+    }
+
+    public synchronized int getDataPageCount() {
+        return dataPageCount;
+    }
+
+    /**
+     * Returns true if the table's pages are compressed, in which case they cannot be mapped.
+     */
+    public boolean isCompressed() {
+        return pageFile.getCompression() != PageCompression.NONE;
+    }
+
+    /**
+     * Returns the fraction of data page space that compaction could reclaim.
+     */
+    public synchronized double getDeadRatio() {
+        return dataPageCount == 0 ? 0 : (double) deadBytes / ((long) dataPageCount * PageFile.PAGE_SIZE);
+    }
+
+    /**
+     * Returns the log sequence number of the last logged statement applied to this table.
+     */
+    @Override
+    public synchronized long getAppliedLsn() {
+        return appliedLsn;
+    }
+
+    @Override
+    public synchronized void setAppliedLsn(long lsn) throws IOException {
+        appliedLsn = lsn;
+        writeHeader();
+    }
+
+    public static long rowId(int pageNo, int slot) {
+        return ((long) pageNo << 16) | slot;
+    }
+
+    public static int pageOf(long rowId) {
+        return (int) (rowId >>> 16);
+    }
+
+    public static int slotOf(long rowId) {
+        return (int) (rowId & 0xFFFF);
+    }
+
+    /**
+     * Stores a row in the last data page, or in another page with room for it, allocating a
+     * new page when none has room.
+     */
+    @Override
+    public synchronized long insert(String[] values) throws IOException {
+        byte[] record = encode(values);
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        int index = findPageWithSpace(Math.max(record.length, FORWARD_SIZE) + SLOT_SIZE, -1, page);
+        int slot = placeRecord(page, record, 0);
+        writeDataPage(index, page);
+        rowCount++;
+        writeHeader();
+        return rowId(dataPages[index], slot);
+    }
+
+    /**
+     * Stores rows like {@link #insert}, but fills each page with as many of them as fit before
+     * writing it, and writes the header once for the batch.
+     */
+    @Override
+    public synchronized List<Long> insertAll(List<String[]> rows) throws IOException {
+        List<byte[]> records = new ArrayList<>(rows.size());
+        for (String[] values : rows) {
+            records.add(encode(values));
+        }
+        List<Long> rowIds = new ArrayList<>(rows.size());
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        int index = -1;
+        try {
+            for (byte[] record : records) {
+                int needed = Math.max(record.length, FORWARD_SIZE) + SLOT_SIZE;
+                if (index < 0 || contiguousFree(page) < needed) {
+                    if (index >= 0) {
+                        writeDataPage(index, page);
+                    }
+                    index = findPageWithSpace(needed, -1, page);
+                }
+                rowIds.add(rowId(dataPages[index], placeRecord(page, record, 0)));
+                rowCount++;
+            }
+            if (index >= 0) {
+                writeDataPage(index, page);
+            }
+        } finally {
+            writeHeader();
+        }
+        return rowIds;
+    }
+
+    /**
+     * Marks a row deleted. Its space is reclaimed when the page is compacted.
+     */
+    @Override
+    public synchronized boolean delete(long rowId) throws IOException {
+        int index = indexOfPage(pageOf(rowId));
+        int slot = slotOf(rowId);
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        if (index < 0 || !readSlotPage(index, slot, page)) {
+            return false;
+        }
+        int flags = slotFlags(page, slot);
+        if ((flags & (SLOT_TOMBSTONE | SLOT_MOVED)) != 0 || slotLength(page, slot) == 0) {
+            return false;
+        }
+        if ((flags & SLOT_FORWARD) != 0) {
+            killForwardTarget(page.getLong(slotOffset(page, slot)));
+        }
+        tombstone(page, slot);
+        writeDataPage(index, page);
+        rowCount--;
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * Replaces a row, keeping its row id. The new version is written over the old one when it
+     * fits, elsewhere in the same page when the page has room, and otherwise in another page
+     * behind a forwarding pointer left in the row's home slot.
+     */
+    @Override
+    public synchronized long update(long rowId, String[] values) throws IOException {
+        byte[] record = encode(values);
+        int index = indexOfPage(pageOf(rowId));
+        int slot = slotOf(rowId);
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        if (index < 0 || !readSlotPage(index, slot, page)) {
+            throw new IOException("Row " + rowId + " no longer exists.");
+        }
+        int flags = slotFlags(page, slot);
+        if ((flags & (SLOT_TOMBSTONE | SLOT_MOVED)) != 0 || slotLength(page, slot) == 0) {
+            throw new IOException("Row " + rowId + " no longer exists.");
+        }
+
+        if ((flags & SLOT_FORWARD) != 0) {
+            long target = page.getLong(slotOffset(page, slot));
+            if (rewriteInPage(target, record, SLOT_MOVED)) {
+                return rowId;
+            }
+            killForwardTarget(target);
+        } else {
+            if (rewriteInPlaceOrCompact(page, slot, record, 0)) {
+                writeDataPage(index, page);
+                return rowId;
+            }
+        }
+
+        long target = placeElsewhere(record, dataPages[index]);
+        if (slotLength(page, slot) < FORWARD_SIZE) {
+            throw new IOException("Row " + rowId + " has no room for a forwarding pointer.");
+        }
+        int offset = slotOffset(page, slot);
+        if ((flags & SLOT_FORWARD) == 0) {
+            addDeadBytes(page, slotLength(page, slot) - FORWARD_SIZE);
+        }
+        page.putLong(offset, target);
+        setSlot(page, slot, offset, FORWARD_SIZE, SLOT_FORWARD);
+        writeDataPage(index, page);
+        return rowId;
+    }
+
+    /**
+     * Persists changes made to the schema options, such as index definitions.
+     */
+    @Override
+    public synchronized void saveSchema() throws IOException {
+        writeHeader();
+    }
+
+    @Override
+    public synchronized String[] read(long rowId) throws IOException {
+        int index = indexOfPage(pageOf(rowId));
+        int slot = slotOf(rowId);
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        if (index < 0 || !readSlotPage(index, slot, page)) {
+            return null;
+        }
+        int flags = slotFlags(page, slot);
+        if ((flags & (SLOT_TOMBSTONE | SLOT_MOVED)) != 0 || slotLength(page, slot) == 0) {
+            return null;
+        }
+        if ((flags & SLOT_FORWARD) != 0) {
+            return readForwarded(page.getLong(slotOffset(page, slot)));
+        }
+        return RowCodec.decode(page, slotOffset(page, slot));
+    }
+
+    /**
+     * Compacts every page whose dead space is at least the threshold and returns the number of
+     * bytes reclaimed. Rows keep their page and slot, so row ids and indexes stay valid.
+     * Each page is compacted under the table lock separately, so other work can interleave.
+     */
+    public long vacuum(int pageDeadThreshold) throws IOException {
+        long reclaimed = 0;
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        for (int index = 0; ; index++) {
+            synchronized (this) {
+                if (index >= dataPageCount) {
+                    break;
+                }
+                if (deadSpace[index] > 0 && deadSpace[index] >= pageDeadThreshold) {
+                    pageFile.readPage(dataPages[index], page);
+                    reclaimed += compactPage(page);
+                    writeDataPage(index, page);
+                }
+            }
+        }
+        synchronized (this) {
+            searchStart = 0;
+        }
+        return reclaimed;
+    }
+
+    @Override
+    public Cursor scan() {
+        return new Cursor();
+    }
+
+    /**
+     * Rows are stored whole but decoded field by field: the filter columns are decoded and
+     * tested first, and the other requested columns only for rows that pass.
+     */
+    @Override
+    public ITableStore.Cursor scan(boolean[] columns, boolean[] filterColumns, Predicate<String[]> filter) {
+        return new Cursor(columns, filter == null ? null : filterColumns, filter);
+    }
+
+    /**
+     * Returns a scan over the table file mapped into memory. The filter is evaluated on the
+     * encoded rows in the mapping, and only matching rows are decoded.
+     * Changes made to the table after the scan starts may or may not be seen.
+     */
+    public MappedCursor mappedScan(RowFilter filter) throws IOException {
+        return mappedScan(null, filter);
+    }
+
+    /**
+     * Same as {@link #mappedScan(RowFilter)}, but matching rows are decoded only in the given
+     * columns; the values of the others are null. A null column set decodes every column.
+     */
+    public synchronized MappedCursor mappedScan(boolean[] columns, RowFilter filter) throws IOException {
+        pageFile.flush();
+        return new MappedCursor(Arrays.copyOf(dataPages, dataPageCount), columns, filter);
+    }
+
+    /**
+     * Splits a mapped scan into scans of consecutive ranges of at most the given number of
+     * data pages, in table order, each to be used on one thread. Rows never span pages, so
+     * every row is returned by exactly one of the scans.
+     */
+    public synchronized List<MappedCursor> mappedScans(boolean[] columns, RowFilter filter, int pagesPerScan)
+            throws IOException {
+        pageFile.flush();
+        List<MappedCursor> scans = new ArrayList<>();
+        for (int start = 0; start < dataPageCount; start += pagesPerScan) {
+            int end = Math.min(start + pagesPerScan, dataPageCount);
+            scans.add(new MappedCursor(Arrays.copyOfRange(dataPages, start, end), columns, filter));
+        }
+        return scans;
+    }
+
+    @Override
+    public boolean supportsSecondaryIndexes() {
+        return true;
+    }
+
+    /**
+     * Compacts every page that holds dead space.
+     */
+    @Override
+    public long compact() throws IOException {
+        return vacuum(1);
+    }
+
+    public synchronized void force() throws IOException {
+        pageFile.force();
+    }
+
+    /**
+     * Releases this user's reference; the file is closed when no user is left.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (OPEN_TABLES) {
+            if (--references > 0) {
+                return;
+            }
+            OPEN_TABLES.remove(key);
+        }
+        synchronized (this) {
+            pageFile.close();
+        }
+    }
+
+    /**
+     * Forward-only iterator over the live rows of the table, in page and slot order.
+     * Moved rows are returned at their home row id.
+     */
+    public class Cursor implements ITableStore.Cursor {
+        private final ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        private final boolean[] columns;
+        private final boolean[] filterColumns;
+        private final boolean[] remainingColumns;
+        private final Predicate<String[]> filter;
+        private int pageIndex = -1;
+        private int pageNo;
+        private int slot;
+        private int slotCount;
+        private long rowId;
+        private String[] row;
+
+        private Cursor() {
+            this(null, null, null);
+        }
+
+        /**
+         * Null column sets stand for every column; a null filter passes every row.
+         */
+        private Cursor(boolean[] columns, boolean[] filterColumns, Predicate<String[]> filter) {
+            this.columns = columns;
+            this.filterColumns = filterColumns;
+            this.filter = filter;
+            this.remainingColumns = filter == null || filterColumns == null ? null : remaining(columns, filterColumns);
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            while (true) {
+                while (slot < slotCount) {
+                    int current = slot++;
+                    int flags = slotFlags(page, current);
+                    if ((flags & (SLOT_TOMBSTONE | SLOT_MOVED)) != 0 || slotLength(page, current) == 0) {
+                        continue;
+                    }
+                    if ((flags & SLOT_FORWARD) != 0) {
+                        row = readForwarded(page.getLong(slotOffset(page, current)));
+                        if (row == null || (filter != null && !filter.test(row))) {
+                            continue;
+                        }
+                    } else if (filter == null) {
+                        row = RowCodec.decode(page, slotOffset(page, current), columns);
+                    } else {
+                        int offset = slotOffset(page, current);
+                        row = RowCodec.decode(page, offset, filterColumns);
+                        if (!filter.test(row)) {
+                            continue;
+                        }
+                        if (filterColumns != null) {
+                            RowCodec.decodeInto(page, offset, remainingColumns, row);
+                        }
+                    }
+                    rowId = TableFile.rowId(pageNo, current);
+                    return true;
+                }
+                synchronized (TableFile.this) {
+                    if (++pageIndex >= dataPageCount) {
+                        row = null;
+                        return false;
+                    }
+                    pageNo = dataPages[pageIndex];
+                    pageFile.readPage(pageNo, page);
+                }
+                slot = 0;
+                slotCount = Short.toUnsignedInt(page.getShort(DATA_SLOT_COUNT));
+            }
+        }
+
+        @Override
+        public long rowId() {
+            return rowId;
+        }
+
+        @Override
+        public String[] row() {
+            return row;
+        }
+    }
+
+    /**
+     * Predicate evaluated on an encoded row, as laid out by {@link RowCodec}, in place.
+     */
+    public interface RowFilter {
+        boolean matches(ByteBuffer row, int rowOffset);
+    }
+
+    /**
+     * Forward-only iterator over the live rows that pass a filter, reading pages from memory
+     * mapped segments of the file instead of copying them through the buffer pool.
+     * Moved rows are returned at their home row id.
+     */
+    public class MappedCursor {
+        private final int[] pages;
+        private final boolean[] columns;
+        private final RowFilter filter;
+        private MappedByteBuffer segment;
+        private int segmentStart = -1;
+        private int segmentPages;
+        private int pageIndex = -1;
+        private int pageNo;
+        private int pageStart;
+        private int slot;
+        private int slotCount;
+        private long rowId;
+        private ByteBuffer rowBuffer;
+        private int rowOffset;
+        private String[] row;
+
+        private MappedCursor(int[] pages, boolean[] columns, RowFilter filter) {
+            this.pages = pages;
+            this.columns = columns;
+            this.filter = filter;
+        }
+
+        public boolean next() throws IOException {
+            row = null;
+            while (true) {
+                while (slot < slotCount) {
+                    int current = slot++;
+                    int entry = pageStart + DATA_HEADER_SIZE + current * SLOT_SIZE;
+                    int lengthAndFlags = Short.toUnsignedInt(segment.getShort(entry + 2));
+                    int flags = lengthAndFlags & ~SLOT_LENGTH_MASK;
+                    if ((flags & (SLOT_TOMBSTONE | SLOT_MOVED)) != 0 || (lengthAndFlags & SLOT_LENGTH_MASK) == 0) {
+                        continue;
+                    }
+                    int offset = pageStart + Short.toUnsignedInt(segment.getShort(entry));
+                    if ((flags & SLOT_FORWARD) != 0) {
+                        if (!locateForwarded(segment.getLong(offset))) {
+                            continue;
+                        }
+                    } else {
+                        rowBuffer = segment;
+                        rowOffset = offset;
+                    }
+                    if (filter == null || filter.matches(rowBuffer, rowOffset)) {
+                        rowId = TableFile.rowId(pageNo, current);
+                        return true;
+                    }
+                }
+                if (++pageIndex >= pages.length) {
+                    return false;
+                }
+                pageNo = pages[pageIndex];
+                mapPage(pageNo);
+                slot = 0;
+                slotCount = Short.toUnsignedInt(segment.getShort(pageStart + DATA_SLOT_COUNT));
+            }
+        }
+
+        public long rowId() {
+            return rowId;
+        }
+
+        /**
+         * Decodes the current row in the scan's columns.
+         */
+        public String[] row() {
+            if (row == null) {
+                row = RowCodec.decode(rowBuffer, rowOffset, columns);
+            }
+            return row;
+        }
+
+        private void mapPage(int page) throws IOException {
+            if (segment == null || page < segmentStart || page >= segmentStart + segmentPages) {
+                segmentStart = page;
+                segment = pageFile.map(page, MAPPED_SEGMENT_PAGES);
+                segmentPages = segment.capacity() / PageFile.PAGE_SIZE;
+                if (segmentPages == 0) {
+                    throw new IOException("Page " + page + " is beyond the end of " + pageFile.getFile().getName());
+                }
+            }
+            pageStart = (page - segmentStart) * PageFile.PAGE_SIZE;
+            IoStats.getInstance().recordRead(PageFile.PAGE_SIZE);
+        }
+
+        /**
+         * Points the current row at a moved row version, mapping its page on its own if it lies
+         * outside the current segment.
+         */
+        private boolean locateForwarded(long target) throws IOException {
+            int targetPage = pageOf(target);
+            int targetSlot = slotOf(target);
+            ByteBuffer buffer;
+            int start;
+            if (targetPage >= segmentStart && targetPage < segmentStart + segmentPages) {
+                buffer = segment;
+                start = (targetPage - segmentStart) * PageFile.PAGE_SIZE;
+            } else {
+                buffer = pageFile.map(targetPage, 1);
+                start = 0;
+                if (buffer.capacity() < PageFile.PAGE_SIZE) {
+                    return false;
+                }
+            }
+            if (targetSlot >= Short.toUnsignedInt(buffer.getShort(start + DATA_SLOT_COUNT))) {
+                return false;
+            }
+            int entry = start + DATA_HEADER_SIZE + targetSlot * SLOT_SIZE;
+            if ((Short.toUnsignedInt(buffer.getShort(entry + 2)) & SLOT_MOVED) == 0) {
+                return false;
+            }
+            rowBuffer = buffer;
+            rowOffset = start + Short.toUnsignedInt(buffer.getShort(entry));
+            return true;
+        }
+    }
+
+    /**
+     * Returns the columns in the first set but not the second; null stands for every column.
+     */
+    private boolean[] remaining(boolean[] columns, boolean[] decoded) {
+        boolean[] remaining = new boolean[schema.getColumns().size()];
+        for (int i = 0; i < remaining.length; i++) {
+            remaining[i] = (columns == null || (i < columns.length && columns[i])) && !(i < decoded.length && decoded[i]);
+        }
+        return remaining;
+    }
+
+    private byte[] encode(String[] values) throws IOException {
+        byte[] record = RowCodec.encode(values, types);
+        if (record.length > MAX_ROW_SIZE) {
+            throw new IOException("Row of " + record.length + " bytes exceeds the maximum of " + MAX_ROW_SIZE + " bytes.");
+        }
+        return record;
+    }
+
+    private synchronized String[] readForwarded(long target) throws IOException {
+        int index = indexOfPage(pageOf(target));
+        int slot = slotOf(target);
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        if (index < 0 || !readSlotPage(index, slot, page) || (slotFlags(page, slot) & SLOT_MOVED) == 0) {
+            return null;
+        }
+        return RowCodec.decode(page, slotOffset(page, slot));
+    }
+
+    /**
+     * Rewrites a moved row version within its own page; returns false if the page has no room.
+     */
+    private boolean rewriteInPage(long target, byte[] record, int flags) throws IOException {
+        int index = indexOfPage(pageOf(target));
+        int slot = slotOf(target);
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        if (index < 0 || !readSlotPage(index, slot, page)) {
+            throw new IOException("Forwarded row " + target + " is missing.");
+        }
+        if (!rewriteInPlaceOrCompact(page, slot, record, flags)) {
+            return false;
+        }
+        writeDataPage(index, page);
+        return true;
+    }
+
+    /**
+     * Like {@link #rewriteInPlace}, compacting the page first if its dead space would make room.
+     */
+    private boolean rewriteInPlaceOrCompact(ByteBuffer page, int slot, byte[] record, int flags) {
+        if (rewriteInPlace(page, slot, record, flags)) {
+            return true;
+        }
+        if (Short.toUnsignedInt(page.getShort(DATA_DEAD_BYTES)) == 0) {
+            return false;
+        }
+        compactPage(page);
+        return rewriteInPlace(page, slot, record, flags);
+    }
+
+    /**
+     * Writes a new row version over the slot's current one, or into the page's free space.
+     */
+    private boolean rewriteInPlace(ByteBuffer page, int slot, byte[] record, int flags) {
+        int oldLength = slotLength(page, slot);
+        int newLength = Math.max(record.length, FORWARD_SIZE);
+        if (newLength <= oldLength) {
+            int offset = slotOffset(page, slot);
+            page.put(offset, record);
+            setSlot(page, slot, offset, newLength, flags);
+            addDeadBytes(page, oldLength - newLength);
+            return true;
+        }
+        if (contiguousFree(page) >= newLength) {
+            int offset = Short.toUnsignedInt(page.getShort(DATA_FREE_END)) - newLength;
+            page.put(offset, record);
+            page.putShort(DATA_FREE_END, (short) offset);
+            setSlot(page, slot, offset, newLength, flags);
+            addDeadBytes(page, oldLength);
+            return true;
+        }
+        return false;
+    }
+
+    private long placeElsewhere(byte[] record, int excludedPage) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        int index = findPageWithSpace(Math.max(record.length, FORWARD_SIZE) + SLOT_SIZE, excludedPage, page);
+        int slot = placeRecord(page, record, SLOT_MOVED);
+        writeDataPage(index, page);
+        return rowId(dataPages[index], slot);
+    }
+
+    private void killForwardTarget(long target) throws IOException {
+        int index = indexOfPage(pageOf(target));
+        int slot = slotOf(target);
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        if (index >= 0 && readSlotPage(index, slot, page) && (slotFlags(page, slot) & SLOT_MOVED) != 0) {
+            tombstone(page, slot);
+            writeDataPage(index, page);
+        }
+    }
+
+    private void tombstone(ByteBuffer page, int slot) {
+        addDeadBytes(page, slotLength(page, slot));
+        setSlot(page, slot, slotOffset(page, slot), slotLength(page, slot), SLOT_TOMBSTONE);
+    }
+
+    /**
+     * Finds a data page that can take a record of the given size, loads it into the buffer and
+     * returns its directory index. Tries the last page, then a bounded sweep over the directory
+     * for space freed by compaction, then allocates a new page.
+     */
+    private int findPageWithSpace(int needed, int excludedPage, ByteBuffer page) throws IOException {
+        int last = dataPageCount - 1;
+        if (last >= 0 && dataPages[last] != excludedPage && freeSpace[last] >= needed) {
+            pageFile.readPage(dataPages[last], page);
+            return last;
+        }
+        for (int i = 0; i < FREE_SPACE_SEARCH_LIMIT && dataPageCount > 1; i++) {
+            int index = (searchStart + i) % (dataPageCount - 1);
+            if (dataPages[index] != excludedPage && freeSpace[index] >= needed) {
+                searchStart = index;
+                pageFile.readPage(dataPages[index], page);
+                return index;
+            }
+        }
+        if (dataPageCount > 1) {
+            searchStart = (searchStart + FREE_SPACE_SEARCH_LIMIT) % (dataPageCount - 1);
+        }
+        return addDataPage(page);
+    }
+
+    /**
+     * Writes a record into the page's free space, reusing a free slot if there is one.
+     */
+    private static int placeRecord(ByteBuffer page, byte[] record, int flags) {
+        int slotCount = Short.toUnsignedInt(page.getShort(DATA_SLOT_COUNT));
+        int slot = slotCount;
+        for (int i = 0; i < slotCount; i++) {
+            if (page.getShort(DATA_HEADER_SIZE + i * SLOT_SIZE + 2) == 0) {
+                slot = i;
+                break;
+            }
+        }
+        if (slot == slotCount) {
+            page.putShort(DATA_SLOT_COUNT, (short) (slotCount + 1));
+        }
+        int length = Math.max(record.length, FORWARD_SIZE);
+        int offset = Short.toUnsignedInt(page.getShort(DATA_FREE_END)) - length;
+        page.put(offset, record);
+        page.putShort(DATA_FREE_END, (short) offset);
+        setSlot(page, slot, offset, length, flags);
+        return slot;
+    }
+
+    /**
+     * Packs the page's live records against the end of the page. Tombstoned slots become free
+     * slots and trailing free slots are dropped. Returns the bytes reclaimed.
+     */
+    private static int compactPage(ByteBuffer page) {
+        int slotCount = Short.toUnsignedInt(page.getShort(DATA_SLOT_COUNT));
+        int before = contiguousFree(page);
+        byte[] copy = page.array().clone();
+        int freeEnd = PageFile.PAGE_SIZE;
+        int lastLive = -1;
+        for (int slot = 0; slot < slotCount; slot++) {
+            int flags = slotFlags(page, slot);
+            int length = slotLength(page, slot);
+            if ((flags & SLOT_TOMBSTONE) != 0 || length == 0) {
+                page.putInt(DATA_HEADER_SIZE + slot * SLOT_SIZE, 0);
+                continue;
+            }
+            int offset = slotOffset(page, slot);
+            freeEnd -= length;
+            page.put(freeEnd, copy, offset, length);
+            setSlot(page, slot, freeEnd, length, flags);
+            lastLive = slot;
+        }
+        page.putShort(DATA_SLOT_COUNT, (short) (lastLive + 1));
+        page.putShort(DATA_FREE_END, (short) freeEnd);
+        page.putShort(DATA_DEAD_BYTES, (short) 0);
+        return contiguousFree(page) - before;
+    }
+
+    private boolean readSlotPage(int index, int slot, ByteBuffer page) throws IOException {
+        pageFile.readPage(dataPages[index], page);
+        return page.get(0) == PAGE_TYPE_DATA && slot < Short.toUnsignedInt(page.getShort(DATA_SLOT_COUNT));
+    }
+
+    private void writeDataPage(int index, ByteBuffer page) throws IOException {
+        pageFile.writePage(dataPages[index], page);
+        int dead = Short.toUnsignedInt(page.getShort(DATA_DEAD_BYTES));
+        deadBytes += dead - deadSpace[index];
+        freeSpace[index] = (short) contiguousFree(page);
+        deadSpace[index] = (short) dead;
+        writeDirectoryPage(index / DIR_ENTRIES_PER_PAGE);
+    }
+
+    /**
+     * Maps a page number to its directory index; data pages are appended in increasing order.
+     */
+    private int indexOfPage(int pageNo) {
+        int index = Arrays.binarySearch(dataPages, 0, dataPageCount, pageNo);
+        return index < 0 ? -1 : index;
+    }
+
+    private static int slotOffset(ByteBuffer page, int slot) {
+        return Short.toUnsignedInt(page.getShort(DATA_HEADER_SIZE + slot * SLOT_SIZE));
+    }
+
+    private static int slotLength(ByteBuffer page, int slot) {
+        return Short.toUnsignedInt(page.getShort(DATA_HEADER_SIZE + slot * SLOT_SIZE + 2)) & SLOT_LENGTH_MASK;
+    }
+
+    private static int slotFlags(ByteBuffer page, int slot) {
+        return Short.toUnsignedInt(page.getShort(DATA_HEADER_SIZE + slot * SLOT_SIZE + 2)) & ~SLOT_LENGTH_MASK;
+    }
+
+    private static void setSlot(ByteBuffer page, int slot, int offset, int length, int flags) {
+        page.putShort(DATA_HEADER_SIZE + slot * SLOT_SIZE, (short) offset);
+        page.putShort(DATA_HEADER_SIZE + slot * SLOT_SIZE + 2, (short) (length | flags));
+    }
+
+    private static void addDeadBytes(ByteBuffer page, int bytes) {
+        page.putShort(DATA_DEAD_BYTES, (short) (Short.toUnsignedInt(page.getShort(DATA_DEAD_BYTES)) + bytes));
+    }
+
+    private static int contiguousFree(ByteBuffer page) {
+        int slotCount = Short.toUnsignedInt(page.getShort(DATA_SLOT_COUNT));
+        return Short.toUnsignedInt(page.getShort(DATA_FREE_END)) - DATA_HEADER_SIZE - slotCount * SLOT_SIZE;
+    }
+
+    private int addDataPage(ByteBuffer page) throws IOException {
+        int pageNo = pageFile.allocatePage();
+        Arrays.fill(page.array(), (byte) 0);
+        page.put(0, PAGE_TYPE_DATA);
+        page.putShort(DATA_SLOT_COUNT, (short) 0);
+        page.putShort(DATA_FREE_END, (short) PageFile.PAGE_SIZE);
+
+        ensureDirectoryCapacity();
+        int index = dataPageCount++;
+        dataPages[index] = pageNo;
+        freeSpace[index] = (short) contiguousFree(page);
+        deadSpace[index] = 0;
+
+        int directoryIndex = index / DIR_ENTRIES_PER_PAGE;
+        if (directoryIndex == directoryPages.size()) {
+            directoryPages.add(pageFile.allocatePage());
+            writeDirectoryPage(directoryIndex - 1);
+        }
+        return index;
+    }
+
+    private void ensureDirectoryCapacity() {
+        if (dataPageCount == dataPages.length) {
+            dataPages = Arrays.copyOf(dataPages, dataPages.length * 2);
+            freeSpace = Arrays.copyOf(freeSpace, freeSpace.length * 2);
+            deadSpace = Arrays.copyOf(deadSpace, deadSpace.length * 2);
+        }
+    }
+
+    private void loadDirectory(int firstDirectoryPage) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        int directoryPage = firstDirectoryPage;
+        while (directoryPage >= 0) {
+            pageFile.readPage(directoryPage, page);
+            if (page.get(0) != PAGE_TYPE_DIRECTORY) {
+                throw new IOException("Corrupt page directory in " + pageFile.getFile().getName());
+            }
+            directoryPages.add(directoryPage);
+            int entries = Short.toUnsignedInt(page.getShort(DIR_ENTRY_COUNT));
+            for (int i = 0; i < entries; i++) {
+                ensureDirectoryCapacity();
+                int entry = DIR_HEADER_SIZE + i * DIR_ENTRY_SIZE;
+                dataPages[dataPageCount] = page.getInt(entry);
+                freeSpace[dataPageCount] = page.getShort(entry + 4);
+                deadSpace[dataPageCount] = page.getShort(entry + 6);
+                deadBytes += deadSpace[dataPageCount];
+                dataPageCount++;
+            }
+            directoryPage = page.getInt(DIR_NEXT);
+        }
+    }
+
+    private void writeDirectoryPage(int directoryIndex) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        int first = directoryIndex * DIR_ENTRIES_PER_PAGE;
+        int entries = Math.max(0, Math.min(DIR_ENTRIES_PER_PAGE, dataPageCount - first));
+        page.put(0, PAGE_TYPE_DIRECTORY);
+        page.putInt(DIR_NEXT, directoryIndex + 1 < directoryPages.size() ? directoryPages.get(directoryIndex + 1) : -1);
+        page.putShort(DIR_ENTRY_COUNT, (short) entries);
+        for (int i = 0; i < entries; i++) {
+            int entry = DIR_HEADER_SIZE + i * DIR_ENTRY_SIZE;
+            page.putInt(entry, dataPages[first + i]);
+            page.putShort(entry + 4, freeSpace[first + i]);
+            page.putShort(entry + 6, deadSpace[first + i]);
+        }
+        pageFile.writePage(directoryPages.get(directoryIndex), page);
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        header.putInt(0, MAGIC);
+        header.putShort(4, VERSION);
+        header.putInt(HEADER_FIRST_DIR, directoryPages.get(0));
+        header.putLong(HEADER_ROW_COUNT, rowCount);
+        header.putLong(HEADER_APPLIED_LSN, appliedLsn);
+        header.position(HEADER_SCHEMA);
+        try {
+            schema.writeTo(header);
+        } catch (BufferOverflowException e) {
+            throw new IOException("Table schema does not fit in the header page.");
+        }
+        pageFile.writePage(0, header);
+    }
+}
@@ -0,0 +1,54 @@
+package storage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write locks of tables, shared by every session in the process. A logged statement holds the
+ * lock of the table it changes from the moment it takes its log sequence number until it has
+ * been applied, so each table sees its changes in log order and recovery, which replays the
+ * log in order, rebuilds the same state. Readers do not take the locks.
+ */
+public final class TableLocks {
+    private static final Map<String, ReentrantLock> LOCKS = new HashMap<>();
+
+    private TableLocks() {
+    }
+
+    public static ReentrantLock forTable(File databaseDir, String tableName) {
+        String key = new File(databaseDir, tableName).getAbsolutePath();
+        synchronized (LOCKS) {
+            return LOCKS.computeIfAbsent(key, name -> new ReentrantLock());
+        }
+    }
+
+    /**
+     * Locks the tables in name order, so that sessions locking several tables cannot deadlock,
+     * and returns the locks to release with {@link #unlockAll}.
+     */
+    public static List<ReentrantLock> lockAll(File databaseDir, Collection<String> tableNames) {
+        Map<String, ReentrantLock> sorted = new TreeMap<>();
+        for (String tableName : tableNames) {
+            ReentrantLock lock = forTable(databaseDir, tableName);
+            sorted.put(new File(databaseDir, tableName).getAbsolutePath(), lock);
+        }
+        List<ReentrantLock> held = new ArrayList<>(sorted.size());
+        for (ReentrantLock lock : sorted.values()) {
+            lock.lock();
+            held.add(lock);
+        }
+        return held;
+    }
+
+    public static void unlockAll(List<ReentrantLock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+}
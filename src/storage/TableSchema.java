@@ -0,0 +1,228 @@
+package storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column layout and table options stored in the header page of a table file.
+ * The type of each column is kept as an option; a column without one is a VARCHAR.
+ */
+public class TableSchema {
+    private static final String INDEX_OPTION_PREFIX = "index.";
+    private static final String PRIMARY_KEY_OPTION = "primaryKey";
+    private static final String ENGINE_OPTION = "engine";
+    private static final String COMPRESSION_OPTION = "compression";
+    private static final String TYPE_OPTION_PREFIX = "type.";
+
+    private final List<String> columns;
+    private final Map<String, String> options;
+    // The column types, read from the options on first use.
+    private ColumnType[] types;
+
+    public TableSchema(List<String> columns) {
+        this(columns, new LinkedHashMap<>());
+    }
+
+    public TableSchema(List<String> columns, Map<String, String> options) {
+        this.columns = new ArrayList<>(columns);
+        this.options = new LinkedHashMap<>(options);
+    }
+
+    public List<String> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    public String getColumn(int index) {
+        return columns.get(index);
+    }
+
+    public int indexOf(String column) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public ColumnType getType(int index) {
+        return types()[index];
+    }
+
+    public ColumnType[] getTypes() {
+        return types().clone();
+    }
+
+    public void setType(String column, ColumnType type) {
+        setOption(TYPE_OPTION_PREFIX + column, type == ColumnType.VARCHAR ? null : type.name());
+    }
+
+    /**
+     * Returns a row with each value in the canonical form of its column's type: a copy, or
+     * the row itself if the table has only VARCHAR columns. Throws IllegalArgumentException
+     * naming the column if a value is not of its type.
+     */
+    public String[] normalize(String[] values) {
+        ColumnType[] types = types();
+        String[] normalized = values;
+        for (int i = 0; i < values.length && i < types.length; i++) {
+            if (types[i] != ColumnType.VARCHAR) {
+                if (normalized == values) {
+                    normalized = values.clone();
+                }
+                normalized[i] = normalize(i, values[i]);
+            }
+        }
+        return normalized;
+    }
+
+    /**
+     * Returns a value in the canonical form of the column's type, or throws
+     * IllegalArgumentException naming the column if it is not of that type.
+     */
+    public String normalize(int index, String value) {
+        try {
+            return getType(index).normalize(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for column '" + columns.get(index) + "': " + e.getMessage());
+        }
+    }
+
+    public String getOption(String key) {
+        return options.get(key);
+    }
+
+    public void setOption(String key, String value) {
+        if (key.startsWith(TYPE_OPTION_PREFIX)) {
+            types = null;
+        }
+        if (value == null) {
+            options.remove(key);
+        } else {
+            options.put(key, value);
+        }
+    }
+
+    public Map<String, String> getOptions() {
+        return Collections.unmodifiableMap(options);
+    }
+
+    /**
+     * Returns the primary key column, or null if the table has none.
+     */
+    public String getPrimaryKey() {
+        return options.get(PRIMARY_KEY_OPTION);
+    }
+
+    public int getPrimaryKeyIndex() {
+        String primaryKey = getPrimaryKey();
+        return primaryKey == null ? -1 : indexOf(primaryKey);
+    }
+
+    public void setPrimaryKey(String column) {
+        setOption(PRIMARY_KEY_OPTION, column);
+    }
+
+    /**
+     * Returns the storage engine named at CREATE TABLE, or null for the default paged table file.
+     */
+    public String getEngine() {
+        return options.get(ENGINE_OPTION);
+    }
+
+    public void setEngine(String engine) {
+        setOption(ENGINE_OPTION, engine);
+    }
+
+    /**
+     * Returns the codec the table's pages are compressed with, NONE unless one was named at CREATE TABLE.
+     */
+    public PageCompression getCompression() {
+        PageCompression compression = PageCompression.forName(options.get(COMPRESSION_OPTION));
+        return compression == null ? PageCompression.NONE : compression;
+    }
+
+    public void setCompression(PageCompression compression) {
+        setOption(COMPRESSION_OPTION, compression == PageCompression.NONE ? null : compression.name());
+    }
+
+    /**
+     * Returns index name to indexed column for every secondary index on the table.
+     */
+    public Map<String, String> getIndexes() {
+        Map<String, String> indexes = new LinkedHashMap<>();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (option.getKey().startsWith(INDEX_OPTION_PREFIX)) {
+                indexes.put(option.getKey().substring(INDEX_OPTION_PREFIX.length()), option.getValue());
+            }
+        }
+        return indexes;
+    }
+
+    public void addIndex(String indexName, String column) {
+        options.put(INDEX_OPTION_PREFIX + indexName, column);
+    }
+
+    public void removeIndex(String indexName) {
+        options.remove(INDEX_OPTION_PREFIX + indexName);
+    }
+
+    private ColumnType[] types() {
+        if (types == null) {
+            ColumnType[] read = new ColumnType[columns.size()];
+            for (int i = 0; i < read.length; i++) {
+                ColumnType type = ColumnType.forName(options.get(TYPE_OPTION_PREFIX + columns.get(i)));
+                read[i] = type == null ? ColumnType.VARCHAR : type;
+            }
+            types = read;
+        }
+        return types;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putShort((short) columns.size());
+        for (String column : columns) {
+            putString(buffer, column);
+        }
+        buffer.putShort((short) options.size());
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            putString(buffer, option.getKey());
+            putString(buffer, option.getValue());
+        }
+    }
+
+    static TableSchema readFrom(ByteBuffer buffer) {
+        int columnCount = Short.toUnsignedInt(buffer.getShort());
+        List<String> columns = new ArrayList<>(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            columns.add(getString(buffer));
+        }
+        int optionCount = Short.toUnsignedInt(buffer.getShort());
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < optionCount; i++) {
+            options.put(getString(buffer), getString(buffer));
+        }
+        return new TableSchema(columns, options);
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
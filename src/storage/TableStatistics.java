@@ -0,0 +1,370 @@
+package storage;
+
+import interfaces.ITableStore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Statistics gathered by ANALYZE for choosing query plans: the row count and size of a table
+ * and, per column, an estimate of its distinct values, its null count and an equi-depth
+ * histogram. The histogram is built from a random sample of rows and holds the smallest
+ * value followed by the upper bound of each bucket, every bucket holding about the same
+ * number of rows. Values are ordered as their column's type, like comparisons in WHERE
+ * clauses. They are kept in a file beside the table and go stale as the table changes.
+ */
+public class TableStatistics {
+    public static final String EXTENSION = ".stats";
+
+    private static final int MAGIC = 0x53444253;
+    private static final short VERSION = 2;
+    // Files of version 1 predate column types and hold VARCHAR columns only.
+    private static final short UNTYPED_VERSION = 1;
+    private static final int SAMPLE_SIZE = 30000;
+    // Sampling the same way each time keeps plans stable when ANALYZE is repeated.
+    private static final long SAMPLE_SEED = 0x5EED;
+    private static final int HISTOGRAM_BUCKETS = 100;
+    private static final int MAX_BOUND_LENGTH = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long rowCount;
+    private final long pageCount;
+    private final Column[] columns;
+
+    private TableStatistics(long rowCount, long pageCount, Column[] columns) {
+        this.rowCount = rowCount;
+        this.pageCount = pageCount;
+        this.columns = columns;
+    }
+
+    public static File fileFor(File databaseDir, String tableName) {
+        return new File(databaseDir, tableName + EXTENSION);
+    }
+
+    /**
+     * Reads every row of the table. Distinct values are counted over all rows and the
+     * histograms drawn from a reservoir sample of them.
+     */
+    public static TableStatistics collect(ITableStore table) throws IOException {
+        TableSchema schema = table.getSchema();
+        int columnCount = schema.getColumnCount();
+        HyperLogLog[] sketches = new HyperLogLog[columnCount];
+        long[] nullCounts = new long[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            sketches[i] = new HyperLogLog();
+        }
+        List<String[]> sample = new ArrayList<>();
+        Random random = new Random(SAMPLE_SEED);
+        long rows = 0;
+        long bytes = 0;
+
+        ITableStore.Cursor cursor = table.scan();
+        while (cursor.next()) {
+            String[] row = cursor.row();
+            rows++;
+            bytes += 2;
+            for (int i = 0; i < columnCount; i++) {
+                if (row[i] == null) {
+                    nullCounts[i]++;
+                } else {
+                    sketches[i].add(row[i]);
+                    bytes += 2 + row[i].length();
+                }
+            }
+            if (sample.size() < SAMPLE_SIZE) {
+                sample.add(row);
+            } else {
+                long slot = (long) (random.nextDouble() * rows);
+                if (slot < SAMPLE_SIZE) {
+                    sample.set((int) slot, row);
+                }
+            }
+        }
+
+        Column[] columns = new Column[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            ColumnType type = schema.getType(i);
+            columns[i] = new Column(schema.getColumn(i), type, Math.min(sketches[i].estimate(), rows - nullCounts[i]),
+                    nullCounts[i], histogram(sample, i, type));
+        }
+        return new TableStatistics(rows, (bytes + PageFile.PAGE_SIZE - 1) / PageFile.PAGE_SIZE, columns);
+    }
+
+    /**
+     * Returns the bounds of an equi-depth histogram over the sampled values of a column.
+     */
+    private static String[] histogram(List<String[]> sample, int column, ColumnType type) {
+        List<String> values = new ArrayList<>(sample.size());
+        for (String[] row : sample) {
+            if (row[column] != null) {
+                values.add(row[column]);
+            }
+        }
+        if (values.isEmpty()) {
+            return new String[0];
+        }
+        values.sort(type::compare);
+        int buckets = Math.min(HISTOGRAM_BUCKETS, values.size());
+        String[] bounds = new String[buckets + 1];
+        bounds[0] = truncate(values.get(0));
+        for (int i = 1; i <= buckets; i++) {
+            bounds[i] = truncate(values.get((int) ((long) i * values.size() / buckets) - 1));
+        }
+        return bounds;
+    }
+
+    private static String truncate(String value) {
+        return value.length() > MAX_BOUND_LENGTH ? value.substring(0, MAX_BOUND_LENGTH) : value;
+    }
+
+    /**
+     * Returns the statistics stored for a table, or null if it has not been analyzed.
+     */
+    public static TableStatistics load(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            short version = input.readInt() == MAGIC ? input.readShort() : -1;
+            if (version != VERSION && version != UNTYPED_VERSION) {
+                throw new IOException(file.getName() + " is not a table statistics file.");
+            }
+            long rowCount = input.readLong();
+            long pageCount = input.readLong();
+            Column[] columns = new Column[input.readInt()];
+            for (int i = 0; i < columns.length; i++) {
+                String name = input.readUTF();
+                ColumnType type = version == UNTYPED_VERSION ? ColumnType.VARCHAR : ColumnType.forName(input.readUTF());
+                if (type == null) {
+                    throw new IOException(file.getName() + " names an unknown column type.");
+                }
+                long distinct = input.readLong();
+                long nullCount = input.readLong();
+                String[] bounds = new String[input.readInt()];
+                for (int j = 0; j < bounds.length; j++) {
+                    bounds[j] = input.readUTF();
+                }
+                columns[i] = new Column(name, type, distinct, nullCount, bounds);
+            }
+            return new TableStatistics(rowCount, pageCount, columns);
+        }
+    }
+
+    /**
+     * Replaces the statistics file atomically: it is written to a temporary file and renamed.
+     */
+    public void save(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), BUFFER_SIZE))) {
+            output.writeInt(MAGIC);
+            output.writeShort(VERSION);
+            output.writeLong(rowCount);
+            output.writeLong(pageCount);
+            output.writeInt(columns.length);
+            for (Column column : columns) {
+                output.writeUTF(column.name);
+                output.writeUTF(column.type.name());
+                output.writeLong(column.distinct);
+                output.writeLong(column.nullCount);
+                output.writeInt(column.bounds.length);
+                for (String bound : column.bounds) {
+                    output.writeUTF(bound);
+                }
+            }
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the number of rows when the table was analyzed.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the number of pages the rows took when the table was analyzed, uncompressed.
+     */
+    public long getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Returns true if the statistics were gathered for the schema's columns and their types.
+     */
+    public boolean matches(TableSchema schema) {
+        if (schema.getColumnCount() != columns.length) {
+            return false;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (!columns[i].name.equalsIgnoreCase(schema.getColumn(i)) || columns[i].type != schema.getType(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Column getColumn(int index) {
+        return columns[index];
+    }
+
+    /**
+     * Returns the fraction of rows whose value in the column is null.
+     */
+    public double getNullFraction(int index) {
+        return rowCount == 0 ? 0 : (double) columns[index].nullCount / rowCount;
+    }
+
+    /**
+     * Statistics of one column.
+     */
+    public static class Column {
+        private final String name;
+        private final ColumnType type;
+        private final long distinct;
+        private final long nullCount;
+        private final String[] bounds;
+
+        Column(String name, ColumnType type, long distinct, long nullCount, String[] bounds) {
+            this.name = name;
+            this.type = type;
+            this.distinct = distinct;
+            this.nullCount = nullCount;
+            this.bounds = bounds;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ColumnType getType() {
+            return type;
+        }
+
+        /**
+         * Returns the estimated number of distinct values other than null.
+         */
+        public long getDistinct() {
+            return distinct;
+        }
+
+        public long getNullCount() {
+            return nullCount;
+        }
+
+        /**
+         * Returns the smallest sampled value followed by the upper bound of each bucket.
+         */
+        public List<String> getBounds() {
+            return Arrays.asList(bounds);
+        }
+
+        /**
+         * Returns the estimated fraction of the non-null values that equal the value. A value
+         * that fills whole buckets of the histogram is counted by them, others are assumed to
+         * be as common as the average value.
+         */
+        public double equalFraction(String value) {
+            if (bounds.length == 0 || distinct == 0) {
+                return 0;
+            }
+            String bound = truncate(value);
+            int equal = 0;
+            for (String candidate : bounds) {
+                if (type.compare(candidate, bound) == 0) {
+                    equal++;
+                }
+            }
+            int buckets = bounds.length - 1;
+            if (equal > 1) {
+                return (double) (equal - 1) / buckets;
+            }
+            if (type.compare(bound, bounds[0]) < 0 || type.compare(bound, bounds[buckets]) > 0) {
+                return 0;
+            }
+            return 1.0 / distinct;
+        }
+
+        /**
+         * Returns the estimated fraction of the non-null values below the value, or at most
+         * the value if inclusive. Within the bucket the value falls in, rows are counted in
+         * proportion to where the value lies between the bucket's bounds.
+         */
+        public double fractionBelow(String value, boolean inclusive) {
+            if (bounds.length == 0) {
+                return 0;
+            }
+            String bound = truncate(value);
+            int below = 0;
+            for (String candidate : bounds) {
+                int cmp = type.compare(candidate, bound);
+                if (cmp < 0 || (inclusive && cmp == 0)) {
+                    below++;
+                }
+            }
+            if (below == 0) {
+                return 0;
+            }
+            if (below == bounds.length) {
+                return 1;
+            }
+            return (below - 1 + position(bounds[below - 1], bounds[below], bound)) / (bounds.length - 1);
+        }
+
+        /**
+         * Returns where a value lies between two bounds, from 0 to 1: in proportion to their
+         * difference for types other than VARCHAR, and for text reading the characters after
+         * the bounds' common prefix as the digits of a fraction.
+         */
+        private double position(String low, String high, String value) {
+            if (type != ColumnType.VARCHAR) {
+                double lowValue = type.toDouble(low);
+                double highValue = type.toDouble(high);
+                if (highValue <= lowValue) {
+                    return 0.5;
+                }
+                return Math.max(0, Math.min(1, (type.toDouble(value) - lowValue) / (highValue - lowValue)));
+            }
+            int prefix = 0;
+            while (prefix < low.length() && prefix < high.length()
+                    && fold(low.charAt(prefix)) == fold(high.charAt(prefix))) {
+                prefix++;
+            }
+            double lowFraction = fraction(low, prefix);
+            double highFraction = fraction(high, prefix);
+            if (highFraction <= lowFraction) {
+                return 0.5;
+            }
+            double position = (fraction(value, prefix) - lowFraction) / (highFraction - lowFraction);
+            return Math.max(0, Math.min(1, position));
+        }
+
+        private static double fraction(String value, int start) {
+            double fraction = 0;
+            double scale = 1;
+            for (int i = start; i < start + 3; i++) {
+                scale /= 65536;
+                if (i < value.length()) {
+                    fraction += fold(value.charAt(i)) * scale;
+                }
+            }
+            return fraction;
+        }
+
+        private static char fold(char c) {
+            return Character.toLowerCase(Character.toUpperCase(c));
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Redo log shared by every session in the process.
+ * Committed statements are appended as redo records followed by a commit record, and a commit
+ * is acknowledged only after the log is forced to disk. Concurrent committers share one force:
+ * the first committer to find the log unflushed writes and forces everything appended so far,
+ * while the others wait for it (group commit).
+ * A checkpoint flushes LSM memtables and pending columnar rows, writes back the buffer pool, forces the table files of
+ * every database written since the last checkpoint and then truncates the log.
+ *
+ * Statements are redone from their text, or from their rows when inserted rows were logged as
+ * such. Recovery skips a statement for every table whose applied LSN has reached it, which is
+ * only correct because every engine keeps one rule: a table on disk holds each logged statement
+ * up to its applied LSN whole, and nothing of a later one. Heap tables change pages in place
+ * and keep the rule with a {@link PageJournal}, which rolls back a statement a crash
+ * interrupted. LSM and columnar tables keep changes in memory and write them out, together with
+ * the applied LSN, only between statements: from {@link interfaces.ITableStore#setAppliedLsn},
+ * at a checkpoint or when vacuumed.
+ */
+public class WriteAheadLog {
+    private static final String LOG_FILE = "storage/wal.log";
+    private static final long CHECKPOINT_BYTES = 4L * 1024 * 1024;
+
+    private static final byte TYPE_STATEMENT = 1;
+    private static final byte TYPE_COMMIT = 2;
+    private static final byte TYPE_END = 3;
+    private static final byte TYPE_CHECKPOINT = 4;
+    private static final byte TYPE_ROWS = 5;
+
+    private static WriteAheadLog instance;
+
+    private final File file;
+    private final FileChannel channel;
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private final AtomicLong nextTransactionId = new AtomicLong(1);
+    private final Set<File> dirtyDatabases = new HashSet<>();
+
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer flushing = ByteBuffer.allocate(64 * 1024);
+    private long nextLsn = 1;
+    private long appendedLsn;
+    private long durableLsn;
+    private boolean flushInProgress;
+    private boolean failed;
+    private long logSize;
+
+    private long commitCount;
+    private long flushCount;
+    private List<Record> unrecovered;
+
+    /**
+     * A statement of a committed transaction, as read back during recovery: either its text,
+     * or the table and rows of an insert that was logged as rows.
+     */
+    public static class Record {
+        private final long lsn;
+        private final long transactionId;
+        private final String user;
+        private final String database;
+        private final String statement;
+        private final String table;
+        private final List<String[]> rows;
+
+        Record(long lsn, long transactionId, String user, String database, String statement) {
+            this(lsn, transactionId, user, database, statement, null, null);
+        }
+
+        Record(long lsn, long transactionId, String user, String database, String statement,
+               String table, List<String[]> rows) {
+            this.lsn = lsn;
+            this.transactionId = transactionId;
+            this.user = user;
+            this.database = database;
+            this.statement = statement;
+            this.table = table;
+            this.rows = rows;
+        }
+
+        public long getLsn() {
+            return lsn;
+        }
+
+        public long getTransactionId() {
+            return transactionId;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public String getDatabase() {
+            return database;
+        }
+
+        /**
+         * Returns the text of the statement, or null if rows were logged instead.
+         */
+        public String getStatement() {
+            return statement;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public List<String[]> getRows() {
+            return rows;
+        }
+    }
+
+    private WriteAheadLog(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.unrecovered = readLog();
+    }
+
+    public static synchronized WriteAheadLog getInstance() throws IOException {
+        if (instance == null) {
+            instance = new WriteAheadLog(new File(LOG_FILE));
+        }
+        return instance;
+    }
+
+    public long beginTransaction() {
+        return nextTransactionId.getAndIncrement();
+    }
+
+    /**
+     * Holds off checkpoints while a transaction is logged and applied.
+     */
+    public void beginApply() {
+        checkpointLock.readLock().lock();
+    }
+
+    public void endApply() {
+        checkpointLock.readLock().unlock();
+    }
+
+    /**
+     * Appends a redo record for one statement and returns its log sequence number.
+     */
+    public long logStatement(long transactionId, String user, String database, String statement) {
+        byte[] userBytes = user.getBytes(StandardCharsets.UTF_8);
+        byte[] databaseBytes = database.getBytes(StandardCharsets.UTF_8);
+        byte[] statementBytes = statement.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(12 + userBytes.length + databaseBytes.length + statementBytes.length);
+        payload.putInt(userBytes.length).put(userBytes);
+        payload.putInt(databaseBytes.length).put(databaseBytes);
+        payload.putInt(statementBytes.length).put(statementBytes);
+        synchronized (this) {
+            dirtyDatabases.add(new File(new File(file.getParentFile(), user), database));
+        }
+        return append(TYPE_STATEMENT, transactionId, payload.array());
+    }
+
+    /**
+     * Appends a redo record for inserting rows into a table, for rows that never had statement
+     * text, and returns its log sequence number. The rows must all have the same number of
+     * values; null values are kept as null.
+     */
+    public long logRows(long transactionId, String user, String database, String table, List<String[]> rows) {
+        byte[][] header = {user.getBytes(StandardCharsets.UTF_8), database.getBytes(StandardCharsets.UTF_8),
+                table.getBytes(StandardCharsets.UTF_8)};
+        int size = 8;
+        for (byte[] bytes : header) {
+            size += 4 + bytes.length;
+        }
+        List<byte[]> fields = new ArrayList<>();
+        for (String[] row : rows) {
+            for (String value : row) {
+                byte[] bytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+                fields.add(bytes);
+                size += 4 + (bytes == null ? 0 : bytes.length);
+            }
+        }
+        ByteBuffer payload = ByteBuffer.allocate(size);
+        for (byte[] bytes : header) {
+            payload.putInt(bytes.length).put(bytes);
+        }
+        payload.putInt(rows.size()).putInt(rows.isEmpty() ? 0 : rows.get(0).length);
+        for (byte[] bytes : fields) {
+            if (bytes == null) {
+                payload.putInt(-1);
+            } else {
+                payload.putInt(bytes.length).put(bytes);
+            }
+        }
+        synchronized (this) {
+            dirtyDatabases.add(new File(new File(file.getParentFile(), user), database));
+        }
+        return append(TYPE_ROWS, transactionId, payload.array());
+    }
+
+    /**
+     * Appends a commit record and returns once it is durable on disk.
+     */
+    public void commit(long transactionId) throws IOException {
+        long lsn = append(TYPE_COMMIT, transactionId, new byte[0]);
+        synchronized (this) {
+            commitCount++;
+        }
+        flush(lsn);
+    }
+
+    /**
+     * Records that a committed transaction has been applied to its tables. Not forced.
+     */
+    public void end(long transactionId) {
+        append(TYPE_END, transactionId, new byte[0]);
+    }
+
+    public synchronized long getCommitCount() {
+        return commitCount;
+    }
+
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * Checkpoints when the log has grown past its size threshold.
+     */
+    public void checkpointIfNeeded() throws IOException {
+        boolean needed;
+        synchronized (this) {
+            needed = logSize + pending.position() > CHECKPOINT_BYTES;
+        }
+        if (needed) {
+            checkpoint();
+        }
+    }
+
+    public void checkpoint() throws IOException {
+        checkpointLock.writeLock().lock();
+        try {
+            flush(appendedLsnSnapshot());
+            LsmTable.flushAll();
+            ColumnarTable.flushAll();
+            BufferPool.getInstance().flushAll();
+            List<File> databases;
+            synchronized (this) {
+                databases = new ArrayList<>(dirtyDatabases);
+            }
+            for (File database : databases) {
+                forceDirectory(database);
+            }
+            synchronized (this) {
+                dirtyDatabases.clear();
+                channel.truncate(0);
+                logSize = 0;
+                durableLsn = appendedLsn;
+            }
+            flush(append(TYPE_CHECKPOINT, 0, new byte[0]));
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the statements of committed transactions found in the log when it was opened,
+     * in log order. Each statement is handed out only once.
+     */
+    public synchronized List<Record> recover() {
+        List<Record> records = unrecovered;
+        unrecovered = new ArrayList<>();
+        return records;
+    }
+
+    /**
+     * Reads the log, stopping at the first torn or corrupt record, and continues sequence
+     * numbers from it.
+     */
+    private List<Record> readLog() throws IOException {
+        List<Record> statements = new ArrayList<>();
+        Set<Long> committed = new HashSet<>();
+        Set<File> databases = new LinkedHashSet<>();
+        long maxLsn = 0;
+        long maxTransactionId = 0;
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(8);
+
+        while (position + 8 <= size) {
+            header.clear();
+            channel.read(header, position);
+            int length = header.getInt(0);
+            int checksum = header.getInt(4);
+            if (length < 17 || position + 8 + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            while (body.hasRemaining() && channel.read(body, position + 8 + body.position()) >= 0) {
+                // keep reading until the body is complete
+            }
+            CRC32 crc = new CRC32();
+            crc.update(body.array());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            body.flip();
+            long lsn = body.getLong();
+            byte type = body.get();
+            long transactionId = body.getLong();
+            maxLsn = Math.max(maxLsn, lsn);
+            maxTransactionId = Math.max(maxTransactionId, transactionId);
+
+            if (type == TYPE_STATEMENT || type == TYPE_ROWS) {
+                String user = readString(body);
+                String database = readString(body);
+                if (type == TYPE_STATEMENT) {
+                    statements.add(new Record(lsn, transactionId, user, database, readString(body)));
+                } else {
+                    String table = readString(body);
+                    statements.add(new Record(lsn, transactionId, user, database, null, table, readRows(body)));
+                }
+                databases.add(new File(new File(file.getParentFile(), user), database));
+            } else if (type == TYPE_COMMIT) {
+                committed.add(transactionId);
+            }
+            position += 8 + length;
+        }
+
+        if (position < size) {
+            channel.truncate(position);
+        }
+        logSize = position;
+        nextLsn = maxLsn + 1;
+        appendedLsn = maxLsn;
+        durableLsn = maxLsn;
+        nextTransactionId.set(maxTransactionId + 1);
+        dirtyDatabases.addAll(databases);
+
+        statements.removeIf(record -> !committed.contains(record.transactionId));
+        return statements;
+    }
+
+    private String readString(ByteBuffer body) {
+        byte[] bytes = new byte[body.getInt()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private List<String[]> readRows(ByteBuffer body) {
+        int rowCount = body.getInt();
+        int columnCount = body.getInt();
+        List<String[]> rows = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            String[] row = new String[columnCount];
+            for (int j = 0; j < columnCount; j++) {
+                int length = body.getInt();
+                if (length >= 0) {
+                    row[j] = new String(body.array(), body.position(), length, StandardCharsets.UTF_8);
+                    body.position(body.position() + length);
+                }
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private synchronized long appendedLsnSnapshot() {
+        return appendedLsn;
+    }
+
+    private synchronized long append(byte type, long transactionId, byte[] payload) {
+        long lsn = nextLsn++;
+        ByteBuffer body = ByteBuffer.allocate(17 + payload.length);
+        body.putLong(lsn).put(type).putLong(transactionId).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+
+        if (pending.remaining() < 8 + body.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + 8 + body.capacity()));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        pending.putInt(body.capacity()).putInt((int) crc.getValue()).put(body.array());
+        appendedLsn = lsn;
+        return lsn;
+    }
+
+    /**
+     * Makes the log durable up to the given sequence number. Whoever finds no flush in progress
+     * writes and forces the whole pending buffer; everybody else waits for that flush to finish.
+     */
+    private void flush(long lsn) throws IOException {
+        ByteBuffer toWrite;
+        long target;
+        long position;
+        synchronized (this) {
+            while (durableLsn < lsn && flushInProgress) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for log flush.");
+                }
+            }
+            if (durableLsn >= lsn) {
+                return;
+            }
+            if (failed) {
+                throw new IOException("Write-ahead log is unavailable after a failed write.");
+            }
+            flushInProgress = true;
+            toWrite = pending;
+            pending = flushing;
+            pending.clear();
+            flushing = toWrite;
+            target = appendedLsn;
+            position = logSize;
+            logSize += toWrite.position();
+        }
+
+        boolean success = false;
+        try {
+            toWrite.flip();
+            while (toWrite.hasRemaining()) {
+                position += channel.write(toWrite, position);
+            }
+            channel.force(false);
+            success = true;
+        } finally {
+            synchronized (this) {
+                flushInProgress = false;
+                if (success) {
+                    durableLsn = Math.max(durableLsn, target);
+                    flushCount++;
+                } else {
+                    failed = true;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private static void forceDirectory(File directory) throws IOException {
+        File[] files = directory.listFiles(File::isFile);
+        if (files == null) {
+            return;
+        }
+        for (File dataFile : files) {
+            try (FileChannel fileChannel = FileChannel.open(dataFile.toPath(), StandardOpenOption.WRITE)) {
+                fileChannel.force(true);
+            }
+        }
+    }
+}
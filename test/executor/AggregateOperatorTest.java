@@ -0,0 +1,107 @@
+package executor;
+
+import storage.TableFile;
+import storage.TableSchema;
+import testing.Tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static testing.Tests.check;
+import static testing.Tests.checkEquals;
+
+/**
+ * Aggregates computed over column batches narrowed by batch filters.
+ */
+public class AggregateOperatorTest {
+    private static final int ROWS = 5000;
+    private static final AggregateFunction[] FUNCTIONS = {AggregateFunction.COUNT, AggregateFunction.COUNT,
+            AggregateFunction.SUM, AggregateFunction.MIN, AggregateFunction.MAX, AggregateFunction.AVG};
+
+    public static void main(String[] args) {
+        Tests.run(AggregateOperatorTest.class);
+    }
+
+    public static void testAggregatesOverFilteredBatches() throws IOException {
+        TableFile table = table("filtered.tbl");
+        try {
+            AtomicInteger tests = new AtomicInteger();
+            BatchFilterOperator group = new BatchFilterOperator(new BatchScanOperator(table, new boolean[]{false, true, true}),
+                    1, value -> {
+                        tests.incrementAndGet();
+                        return value.equals("g1");
+                    }, "g1");
+            BatchFilterOperator large = new BatchFilterOperator(group, 2, value -> Integer.parseInt(value) >= 50, null);
+            List<String> rows = Rows.drain(new AggregateOperator(large, FUNCTIONS, new int[]{-1, 2, 2, 2, 2, 2},
+                    new String[]{"COUNT(*)", "COUNT(amount)", "SUM(amount)", "MIN(amount)", "MAX(amount)", "AVG(amount)"}));
+
+            long count = 0;
+            long sum = 0;
+            for (int i = 0; i < ROWS; i++) {
+                if (i % 4 == 1 && amount(i) != null && Integer.parseInt(amount(i)) >= 50) {
+                    count++;
+                    sum += Integer.parseInt(amount(i));
+                }
+            }
+            checkEquals(Arrays.asList(count + " | " + count + " | " + sum + " | 53 | 97 | " + (double) sum / count), rows);
+            // The group predicate runs once per distinct value of each batch, not once per row.
+            int batches = (ROWS + Batch.SIZE - 1) / Batch.SIZE;
+            check(tests.get() <= 4 * batches, tests.get() + " predicate tests");
+        } finally {
+            table.close();
+        }
+    }
+
+    public static void testIntegerEqualityKeepsTextSemantics() throws IOException {
+        TableFile table = table("equality.tbl");
+        try {
+            BatchFilterOperator id = new BatchFilterOperator(new BatchScanOperator(table, new boolean[]{true, false, true}),
+                    0, "4321"::equals, "4321");
+            checkEquals(Arrays.asList("1 | 21"), Rows.drain(new AggregateOperator(id,
+                    new AggregateFunction[]{AggregateFunction.COUNT, AggregateFunction.SUM}, new int[]{-1, 2},
+                    new String[]{"COUNT(*)", "SUM(amount)"})));
+
+            // A padded number is not written the way the integer is, so it does not equal it.
+            table.insert(new String[]{"007", "g0", "1"});
+            BatchFilterOperator padded = new BatchFilterOperator(new BatchScanOperator(table, new boolean[]{true, false, false}),
+                    0, "7"::equals, "7");
+            checkEquals(Arrays.asList("1"), Rows.drain(new AggregateOperator(padded,
+                    new AggregateFunction[]{AggregateFunction.COUNT}, new int[]{-1}, new String[]{"COUNT(*)"})));
+        } finally {
+            table.close();
+        }
+    }
+
+    public static void testEmptyInputGivesNullAggregates() throws IOException {
+        TableFile table = table("empty.tbl");
+        try {
+            BatchFilterOperator none = new BatchFilterOperator(new BatchScanOperator(table, new boolean[]{false, true, true}),
+                    1, "g9"::equals, "g9");
+            checkEquals(Arrays.asList("0 | 0 | null | null | null | null"), Rows.drain(new AggregateOperator(none,
+                    FUNCTIONS, new int[]{-1, 2, 2, 2, 2, 2}, new String[]{"a", "b", "c", "d", "e", "f"})));
+        } finally {
+            table.close();
+        }
+    }
+
+    /**
+     * Returns a table of ids in four groups, whose amount is null for every tenth row.
+     */
+    private static TableFile table(String name) throws IOException {
+        TableFile table = TableFile.create(new File(name), new TableSchema(Arrays.asList("id", "grp", "amount")));
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(new String[]{String.valueOf(i), "g" + i % 4, amount(i)});
+        }
+        table.insertAll(rows);
+        return table;
+    }
+
+    private static String amount(int i) {
+        return i % 10 == 0 ? null : String.valueOf(i % 100);
+    }
+}
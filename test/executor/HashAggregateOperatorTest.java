@@ -0,0 +1,83 @@
+package executor;
+
+import query.QueryProcessor;
+import testing.Tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static testing.Tests.check;
+import static testing.Tests.checkEquals;
+
+/**
+ * Hash aggregation in memory, across worker threads and spilled to partition files.
+ */
+public class HashAggregateOperatorTest {
+    private static final int ROWS = 50000;
+    private static final int GROUPS = 5000;
+    private static final String[] COLUMNS = {"g", "v"};
+    private static final String[] NAMES = {"g", "COUNT(*)", "SUM(v)", "MIN(v)", "MAX(v)", "AVG(v)"};
+
+    public static void main(String[] args) {
+        Tests.run(HashAggregateOperatorTest.class);
+    }
+
+    public static void testSpilledAndParallelMatchSerial() throws IOException {
+        List<String[]> input = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            // Groups are spelled in two cases, which must fall in one group.
+            String group = (i / GROUPS % 2 == 0 ? "G" : "g") + (i % GROUPS);
+            input.add(new String[]{group, String.valueOf(i)});
+        }
+        HashAggregateOperator serial = aggregate(input, 1, HashAggregateOperator.DEFAULT_MEMORY_BUDGET);
+        List<String> expected = sorted(serial);
+        checkEquals(0, serial.getSpilledPartitions());
+        checkEquals(GROUPS, expected.size());
+        // Group 7 holds 7, 5007, ..., 45007: ten rows.
+        check(expected.contains("G7 | 10 | 225070 | 7 | 45007 | 22507.0"), "group 7: " + expected.get(0));
+
+        HashAggregateOperator parallel = aggregate(input, 4, HashAggregateOperator.DEFAULT_MEMORY_BUDGET);
+        checkEquals(expected, sorted(parallel));
+
+        HashAggregateOperator spilled = aggregate(input, 4, 64 * 1024);
+        checkEquals(expected, sorted(spilled));
+        check(spilled.getSpilledPartitions() > 0, "aggregation spilled");
+        String[] left = new File("spill").list();
+        checkEquals(0, left == null ? 0 : left.length);
+    }
+
+    public static void testNoGroupColumnsGivesOneRowOverNoInput() throws IOException {
+        HashAggregateOperator aggregate = new HashAggregateOperator(new Rows(COLUMNS, new ArrayList<>()), new int[0],
+                new AggregateFunction[]{AggregateFunction.COUNT, AggregateFunction.SUM}, new int[]{-1, 1},
+                new String[]{"COUNT(*)", "SUM(v)"}, 1, HashAggregateOperator.DEFAULT_MEMORY_BUDGET, new File("spill"));
+        List<String> rows = Rows.drain(aggregate);
+        checkEquals(1, rows.size());
+        check(rows.get(0).startsWith("0 | "), "count of no rows: " + rows);
+    }
+
+    public static void testGroupBySql() {
+        QueryProcessor session = Tests.session("grouped", "db");
+        Tests.query(session, "CREATE TABLE t (dept VARCHAR, salary INT);",
+                "INSERT INTO t VALUES ('a', 10), ('b', 20), ('A', 30), ('c', 5), ('b', 1);");
+        List<String> rows = Tests.rows(session, "SELECT dept, COUNT(*), SUM(salary), MAX(salary) FROM t GROUP BY dept ORDER BY dept;");
+        rows.replaceAll(String::trim);
+        checkEquals(Arrays.asList("A | 2 | 40 | 30", "b | 2 | 21 | 20", "c | 1 | 5 | 5"), rows);
+    }
+
+    private static HashAggregateOperator aggregate(List<String[]> input, int parallelism, long memoryBudget) {
+        AggregateFunction[] functions = {AggregateFunction.COUNT, AggregateFunction.SUM, AggregateFunction.MIN,
+                AggregateFunction.MAX, AggregateFunction.AVG};
+        return new HashAggregateOperator(new Rows(COLUMNS, input), new int[]{0}, functions, new int[]{-1, 1, 1, 1, 1},
+                NAMES, parallelism, memoryBudget, new File("spill"));
+    }
+
+    private static List<String> sorted(HashAggregateOperator aggregate) throws IOException {
+        List<String> rows = Rows.drain(aggregate);
+        Collections.sort(rows);
+        return rows;
+    }
+}
@@ -0,0 +1,85 @@
+package executor;
+
+import interfaces.IOperator;
+import storage.ColumnType;
+import testing.Tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static testing.Tests.check;
+import static testing.Tests.checkEquals;
+
+/**
+ * Hash joins in memory and spilled to partition files, on keys of equal and of different types.
+ */
+public class HashJoinOperatorTest {
+    private static final int ROWS = 20000;
+
+    public static void main(String[] args) {
+        Tests.run(HashJoinOperatorTest.class);
+    }
+
+    public static void testSpilledJoinMatchesInMemoryJoin() throws IOException {
+        List<String[]> build = new ArrayList<>();
+        List<String[]> probe = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            build.add(new String[]{"Key" + i, "b" + i});
+            probe.add(new String[]{"p" + i, "KEY" + (i * 3 % (ROWS * 2))});
+        }
+        HashJoinOperator inMemory = join(build, probe, null, HashJoinOperator.DEFAULT_MEMORY_BUDGET);
+        List<String> expected = drain(inMemory);
+        checkEquals(0, inMemory.getSpilledPartitions());
+
+        HashJoinOperator spilled = join(build, probe, null, 64 * 1024);
+        List<String> actual = drain(spilled);
+        check(spilled.getSpilledPartitions() > 0, "join spilled");
+        checkEquals(expected, actual);
+        int matching = 0;
+        for (int i = 0; i < ROWS; i++) {
+            matching += i * 3 % (ROWS * 2) < ROWS ? 1 : 0;
+        }
+        checkEquals(matching, actual.size());
+        check(actual.contains("Key3 | b3 | p1 | KEY3"), "keys match ignoring case: " + actual.subList(0, 3));
+        String[] left = new File("spill").list();
+        checkEquals(0, left == null ? 0 : left.length);
+    }
+
+    public static void testKeysOfDifferentTypesAreNormalized() throws IOException {
+        List<String[]> integers = Arrays.asList(new String[]{"1"}, new String[]{"2"}, new String[]{null});
+        List<String[]> doubles = Arrays.asList(new String[]{"1.0"}, new String[]{"2.5"}, new String[]{null});
+        checkEquals(Collections.singletonList("1 | 1.0"), drain(join(integers, doubles, ColumnType.DOUBLE,
+                HashJoinOperator.DEFAULT_MEMORY_BUDGET)));
+
+        List<String[]> text = Arrays.asList(new String[]{"01"}, new String[]{" 2 "}, new String[]{"two"});
+        checkEquals(Arrays.asList("1 | 01", "2 |  2 "), drain(join(integers, text, ColumnType.INT,
+                HashJoinOperator.DEFAULT_MEMORY_BUDGET)));
+    }
+
+    private static HashJoinOperator join(List<String[]> build, List<String[]> probe, ColumnType keyType,
+                                         long memoryBudget) {
+        int probeKey = probe.get(0).length - 1;
+        String[] columns = new String[build.get(0).length + probe.get(0).length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = "c" + i;
+        }
+        return new HashJoinOperator(new Rows(names(build), build), 0, new Rows(names(probe), probe), probeKey,
+                keyType, true, columns, memoryBudget, new File("spill"));
+    }
+
+    private static String[] names(List<String[]> rows) {
+        String[] names = new String[rows.get(0).length];
+        Arrays.fill(names, "c");
+        return names;
+    }
+
+    private static List<String> drain(IOperator operator) throws IOException {
+        List<String> rows = Rows.drain(operator);
+        Collections.sort(rows);
+        return rows;
+    }
+}
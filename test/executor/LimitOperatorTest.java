@@ -0,0 +1,67 @@
+package executor;
+
+import interfaces.IOperator;
+import query.QueryProcessor;
+import testing.Tests;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static testing.Tests.checkEquals;
+
+/**
+ * Pipelines of pull-based operators, which read their input only as far as the rows they return.
+ */
+public class LimitOperatorTest {
+    private static final int ROWS = 10000;
+
+    public static void main(String[] args) {
+        Tests.run(LimitOperatorTest.class);
+    }
+
+    public static void testPipelineStopsReadingAtLimit() throws IOException {
+        Rows input = input();
+        IOperator plan = new LimitOperator(new ProjectOperator(
+                new FilterOperator(input, row -> Integer.parseInt(row[0]) % 2 == 0), new int[]{1}), 5);
+        checkEquals(Arrays.asList("name"), Arrays.asList(plan.getColumns()));
+        checkEquals(Arrays.asList("n0", "n2", "n4", "n6", "n8"), Rows.drain(plan));
+        // The fifth even row is the ninth row read; nothing after it is pulled.
+        checkEquals(9, input.getRowsRead());
+    }
+
+    public static void testZeroLimitReadsNothing() throws IOException {
+        Rows input = input();
+        checkEquals(0, Rows.drain(new LimitOperator(input, 0)).size());
+        checkEquals(0, input.getRowsRead());
+    }
+
+    public static void testSelectWithLimit() {
+        QueryProcessor session = Tests.session("limited", "db");
+        StringBuilder insert = new StringBuilder("INSERT INTO t VALUES ");
+        for (int i = 0; i < ROWS; i++) {
+            insert.append(i > 0 ? ", " : "").append("(").append(i).append(", 'n").append(i).append("')");
+        }
+        Tests.query(session, "CREATE TABLE t (id INT, name VARCHAR);", insert + ";");
+        checkEquals(Arrays.asList("n7001", "n7003", "n7004"),
+                trimmed(Tests.rows(session, "SELECT name FROM t WHERE id > 7000 AND id < 8000 AND id <> 7002 LIMIT 3;")));
+        checkEquals(ROWS, Tests.rows(session, "SELECT id FROM t LIMIT 20000;").size());
+    }
+
+    private static Rows input() {
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(new String[]{String.valueOf(i), "n" + i});
+        }
+        return new Rows(new String[]{"id", "name"}, rows);
+    }
+
+    private static List<String> trimmed(List<String> rows) {
+        List<String> values = new ArrayList<>();
+        for (String row : rows) {
+            values.add(row.trim());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,124 @@
+package executor;
+
+import interfaces.IOperator;
+import storage.RowCodec;
+import storage.TableFile;
+import storage.TableSchema;
+import testing.Tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static testing.Tests.check;
+import static testing.Tests.checkEquals;
+
+/**
+ * Scans of heap tables through their memory mapping, filtering on the encoded rows.
+ */
+public class MappedScanOperatorTest {
+    private static final int ROWS = 2000;
+
+    public static void main(String[] args) {
+        Tests.run(MappedScanOperatorTest.class);
+    }
+
+    public static void testFilterAndProjectionOnEncodedRows() throws IOException {
+        TableFile table = table("filtered.tbl");
+        try {
+            // The filter reads the status field in place; only rows it passes are decoded.
+            List<Integer> tested = new ArrayList<>();
+            TableFile.RowFilter active = (row, offset) -> {
+                tested.add(offset);
+                return "active".equals(RowCodec.decodeField(row, RowCodec.fieldPosition(row, offset, 2)));
+            };
+            IOperator scan = new MappedScanOperator(table, new boolean[]{true, false, false}, active);
+            scan.open();
+            List<String> ids = new ArrayList<>();
+            String[] row;
+            while ((row = scan.next()) != null) {
+                checkEquals(null, row[1]);
+                checkEquals(null, row[2]);
+                ids.add(row[0]);
+            }
+            scan.close();
+            checkEquals(ROWS, tested.size());
+            checkEquals(ROWS / 3 + 1, ids.size());
+            for (String id : ids) {
+                checkEquals(0, Integer.parseInt(id) % 3);
+            }
+        } finally {
+            table.close();
+        }
+    }
+
+    public static void testDeletedAndMovedRows() throws IOException {
+        TableFile table = TableFile.create(new File("moved.tbl"), schema());
+        try {
+            List<String[]> rows = new ArrayList<>();
+            for (int i = 0; i < ROWS; i++) {
+                rows.add(new String[]{String.valueOf(i), "name" + i, "idle"});
+            }
+            List<Long> rowIds = table.insertAll(rows);
+            table.delete(rowIds.get(1));
+            table.update(rowIds.get(2), new String[]{"2", "y".repeat(3000), "moved"});
+
+            // Moved rows come back once, at their home row id, and deleted rows not at all.
+            TableFile.MappedCursor cursor = table.mappedScan(null);
+            int count = 0;
+            boolean movedSeen = false;
+            while (cursor.next()) {
+                count++;
+                check(cursor.rowId() != rowIds.get(1), "deleted row skipped");
+                if (cursor.rowId() == rowIds.get(2)) {
+                    checkEquals(Arrays.asList("2", "y".repeat(3000), "moved"), Arrays.asList(cursor.row()));
+                    movedSeen = true;
+                }
+            }
+            checkEquals(ROWS - 1, count);
+            check(movedSeen, "moved row returned");
+        } finally {
+            table.close();
+        }
+    }
+
+    public static void testSplitScansCoverEveryRowOnce() throws IOException {
+        TableFile table = table("split.tbl");
+        try {
+            check(table.getDataPageCount() > 3, "table spans several pages");
+            List<TableFile.MappedCursor> scans = table.mappedScans(null, null, 2);
+            checkEquals((table.getDataPageCount() + 1) / 2, scans.size());
+            List<String> ids = new ArrayList<>();
+            for (TableFile.MappedCursor scan : scans) {
+                while (scan.next()) {
+                    ids.add(scan.row()[0]);
+                }
+            }
+            checkEquals(ROWS, ids.size());
+            for (int i = 0; i < ROWS; i++) {
+                checkEquals(String.valueOf(i), ids.get(i));
+            }
+        } finally {
+            table.close();
+        }
+    }
+
+    /**
+     * Returns a table whose every third row is active, still unwritten in the buffer pool.
+     */
+    private static TableFile table(String name) throws IOException {
+        TableFile table = TableFile.create(new File(name), schema());
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(new String[]{String.valueOf(i), "name" + i, i % 3 == 0 ? "active" : "idle"});
+        }
+        table.insertAll(rows);
+        return table;
+    }
+
+    private static TableSchema schema() {
+        return new TableSchema(Arrays.asList("id", "name", "status"));
+    }
+}
@@ -0,0 +1,119 @@
+package executor;
+
+import interfaces.IOperator;
+import query.QueryProcessor;
+import storage.TableFile;
+import storage.TableSchema;
+import testing.Tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static testing.Tests.check;
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * Parallel scans of a heap table large enough for several scan ranges.
+ */
+public class ParallelScanOperatorTest {
+    private static final int ROWS = 20000;
+    private static final String PAD = "x".repeat(400);
+
+    public static void main(String[] args) {
+        Tests.run(ParallelScanOperatorTest.class);
+    }
+
+    public static void testRowsComeOutInTableOrder() throws IOException {
+        TableFile table = table("ordered.tbl");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<String> rows = new ArrayList<>();
+            IOperator scan = new ParallelScanOperator(table, null, null, pool);
+            scan.open();
+            String[] row;
+            while ((row = scan.next()) != null) {
+                rows.add(row[0]);
+            }
+            scan.close();
+            checkEquals(ROWS, rows.size());
+            for (int i = 0; i < ROWS; i++) {
+                checkEquals(String.valueOf(i), rows.get(i));
+            }
+        } finally {
+            pool.shutdown();
+            table.close();
+        }
+    }
+
+    public static void testConsumerStoppingEarlyScansFewRanges() throws Exception {
+        TableFile table = table("early.tbl");
+        CountingPool pool = new CountingPool(4);
+        try {
+            int ranges = table.mappedScans(null, null, ParallelScanOperator.PAGES_PER_TASK).size();
+            check(ranges > 4, "table spans several ranges: " + ranges);
+            IOperator scan = new ParallelScanOperator(table, null, null, pool);
+            scan.open();
+            checkEquals("0", scan.next()[0]);
+            scan.close();
+            check(pool.awaitQuiescence(10, TimeUnit.SECONDS), "scan tasks stop after close");
+            check(pool.submitted.get() <= 3, "ranges scanned after one row: " + pool.submitted.get());
+        } finally {
+            pool.shutdown();
+            table.close();
+        }
+    }
+
+    public static void testSmallLimitScansSerially() {
+        QueryProcessor session = Tests.session("limited", "db");
+        StringBuilder insert = new StringBuilder("INSERT INTO t VALUES ");
+        for (int i = 0; i < ROWS; i++) {
+            insert.append(i > 0 ? ", " : "").append("(").append(i).append(", '").append(PAD).append("')");
+        }
+        Tests.query(session, "CREATE TABLE t (id INT, pad VARCHAR);", insert + ";", "SET PARALLELISM = 4;");
+        checkContains(Tests.query(session, "EXPLAIN SELECT id FROM t LIMIT 10;"), "Mapped scan on t");
+        checkContains(Tests.query(session, "EXPLAIN SELECT id FROM t;"), "Parallel scan on t (4 threads)");
+        checkContains(Tests.query(session, "EXPLAIN SELECT id FROM t ORDER BY pad LIMIT 10;"), "Parallel scan on t");
+        checkEquals(Arrays.asList("0", "1", "2"), trimmed(Tests.rows(session, "SELECT id FROM t LIMIT 3;")));
+    }
+
+    private static TableFile table(String name) throws IOException {
+        TableFile table = TableFile.create(new File(name), new TableSchema(Arrays.asList("id", "pad")));
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(new String[]{String.valueOf(i), PAD});
+        }
+        table.insertAll(rows);
+        return table;
+    }
+
+    private static List<String> trimmed(List<String> rows) {
+        rows.replaceAll(String::trim);
+        return rows;
+    }
+
+    /**
+     * Pool that counts the tasks submitted to it.
+     */
+    private static class CountingPool extends ForkJoinPool {
+        final AtomicInteger submitted = new AtomicInteger();
+
+        CountingPool(int parallelism) {
+            super(parallelism);
+        }
+
+        @Override
+        public <T> ForkJoinTask<T> submit(Callable<T> task) {
+            submitted.incrementAndGet();
+            return super.submit(task);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package executor;
+
+import interfaces.IOperator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Input operator over rows held in memory, for testing operators on their own.
+ */
+class Rows implements IOperator {
+    private final String[] columns;
+    private final List<String[]> rows;
+    private int next;
+
+    Rows(String[] columns, List<String[]> rows) {
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return columns;
+    }
+
+    @Override
+    public void open() {
+        next = 0;
+    }
+
+    @Override
+    public String[] next() {
+        return next < rows.size() ? rows.get(next++) : null;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Returns how many rows have been read since the operator was opened.
+     */
+    int getRowsRead() {
+        return next;
+    }
+
+    /**
+     * Runs the operator and returns its rows in output order, values joined by " | ".
+     */
+    static List<String> drain(IOperator operator) throws IOException {
+        List<String> rows = new ArrayList<>();
+        operator.open();
+        try {
+            String[] row;
+            while ((row = operator.next()) != null) {
+                rows.add(String.join(" | ", row));
+            }
+        } finally {
+            operator.close();
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,101 @@
+package executor;
+
+import query.QueryProcessor;
+import storage.ColumnType;
+import testing.Tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static testing.Tests.check;
+import static testing.Tests.checkEquals;
+
+/**
+ * Sorting in memory and with spilled runs, and the top-N shortcut for ORDER BY with LIMIT.
+ */
+public class SortOperatorTest {
+    private static final int ROWS = 20000;
+    private static final String[] COLUMNS = {"id", "grp", "score"};
+    private static final Comparator<String[]> ORDER = SortOperator.order(new int[]{1, 2}, new boolean[]{false, true},
+            new ColumnType[]{ColumnType.VARCHAR, ColumnType.INT});
+
+    public static void main(String[] args) {
+        Tests.run(SortOperatorTest.class);
+    }
+
+    public static void testKeysSortByTypeWithNullsFirstAndTiesInInputOrder() throws IOException {
+        List<String[]> rows = Arrays.asList(new String[]{"1", "b", "9"}, new String[]{"2", "A", "10"},
+                new String[]{"3", "a", "10"}, new String[]{"4", null, "1"}, new String[]{"5", "b", "10"},
+                new String[]{"6", "a", null}, new String[]{"7", "b", "9"});
+        SortOperator sort = new SortOperator(new Rows(COLUMNS, rows), ORDER, SortOperator.DEFAULT_MEMORY_BUDGET, new File("."));
+        // Names compare ignoring case, then by spelling; scores compare as numbers, descending.
+        checkEquals(Arrays.asList("4 | null | 1", "2 | A | 10", "3 | a | 10", "6 | a | null", "5 | b | 10", "1 | b | 9",
+                "7 | b | 9"), Rows.drain(sort));
+        checkEquals(0, sort.getSpilledRuns());
+    }
+
+    public static void testSpilledRunsMergeInOrder() throws IOException {
+        File spill = new File("spill");
+        check(spill.mkdir(), "spill directory created");
+        List<String[]> rows = input();
+        // A budget this small writes more runs than one merge takes, so runs are merged in rounds.
+        SortOperator sort = new SortOperator(new Rows(COLUMNS, rows), ORDER, 16 * 1024, spill);
+        List<String> sorted = Rows.drain(sort);
+        check(sort.getSpilledRuns() > 64, sort.getSpilledRuns() + " runs");
+        checkEquals(expected(rows, ROWS), sorted);
+        checkEquals(0, spill.list().length);
+    }
+
+    public static void testTopNMatchesSortThenLimit() throws IOException {
+        List<String[]> rows = input();
+        for (int limit : new int[]{0, 1, 37, ROWS, ROWS + 5}) {
+            checkEquals(expected(rows, limit), Rows.drain(new TopNOperator(new Rows(COLUMNS, rows), ORDER, limit)));
+        }
+    }
+
+    public static void testOrderByInSql() {
+        QueryProcessor session = Tests.session("ordered", "db");
+        Tests.query(session, "CREATE TABLE t (id INT, grp VARCHAR, score INT);",
+                "INSERT INTO t VALUES (1, 'b', 9), (2, 'a', 10), (3, 'a', 2), (4, 'c', 10), (5, 'b', 11);");
+        checkEquals(Arrays.asList("5", "2", "4"), ids(Tests.rows(session, "SELECT id FROM t ORDER BY score DESC, id LIMIT 3;")));
+        checkEquals(Arrays.asList("3", "2", "1", "5", "4"), ids(Tests.rows(session, "SELECT id FROM t ORDER BY grp, score;")));
+    }
+
+    /**
+     * Returns rows in random order with many ties on the sort keys.
+     */
+    private static List<String[]> input() {
+        Random random = new Random(7);
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(new String[]{String.valueOf(i), "g" + random.nextInt(50), String.valueOf(random.nextInt(200) - 100)});
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the first rows in order as a stable in-memory sort gives them.
+     */
+    private static List<String> expected(List<String[]> rows, int limit) {
+        List<String[]> sorted = new ArrayList<>(rows);
+        sorted.sort(ORDER);
+        List<String> joined = new ArrayList<>();
+        for (String[] row : sorted.subList(0, Math.min(limit, sorted.size()))) {
+            joined.add(String.join(" | ", row));
+        }
+        return joined;
+    }
+
+    private static List<String> ids(List<String> rows) {
+        List<String> ids = new ArrayList<>();
+        for (String row : rows) {
+            ids.add(row.trim());
+        }
+        return ids;
+    }
+}
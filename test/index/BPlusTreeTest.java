@@ -0,0 +1,110 @@
+package index;
+
+import query.QueryProcessor;
+import storage.ColumnType;
+import storage.PageCompression;
+import testing.Tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * B+tree secondary indexes, on their own and through CREATE INDEX.
+ */
+public class BPlusTreeTest {
+    private static final int KEYS = 20000;
+
+    public static void main(String[] args) {
+        Tests.run(BPlusTreeTest.class);
+    }
+
+    public static void testLookupsAndRangesAcrossReopen() throws IOException {
+        File file = new File("numbers.idx");
+        BPlusTree tree = BPlusTree.create(file, PageCompression.NONE, ColumnType.INT);
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < KEYS; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(1));
+        for (int key : keys) {
+            tree.insert(String.valueOf(key % (KEYS / 2)), key);
+        }
+        tree.close();
+
+        tree = BPlusTree.open(file);
+        try {
+            checkEquals((long) KEYS, tree.getEntryCount());
+            List<Long> duplicates = tree.lookup("42");
+            Collections.sort(duplicates);
+            checkEquals(Arrays.asList(42L, 42L + KEYS / 2), duplicates);
+            // INT keys order as numbers, not as text: 9 comes before 10.
+            checkEquals(2 * 3, tree.range("8", false, "11", true).size());
+            checkEquals(2 * 10, tree.range(null, true, "10", false).size());
+            checkEquals(0, tree.lookup("-1").size());
+
+            for (long rowId = 0; rowId < KEYS; rowId += 2) {
+                checkEquals(true, tree.delete(String.valueOf(rowId % (KEYS / 2)), rowId));
+            }
+            checkEquals(false, tree.delete("1", 0));
+            checkEquals((long) KEYS / 2, tree.getEntryCount());
+            checkEquals(Collections.emptyList(), tree.lookup("42"));
+            checkEquals(Arrays.asList(43L, 43L + KEYS / 2), sorted(tree.lookup("43")));
+        } finally {
+            tree.close();
+        }
+    }
+
+    public static void testTextKeysIgnoreCaseAndLongKeysMatchByPrefix() throws IOException {
+        BPlusTree tree = BPlusTree.create(new File("names.idx"), PageCompression.NONE, ColumnType.VARCHAR);
+        try {
+            String prefix = "p".repeat(BPlusTree.MAX_KEY_LENGTH);
+            tree.insert("Alice", 1);
+            tree.insert("ALICE", 2);
+            tree.insert(prefix + "one", 3);
+            tree.insert(prefix + "two", 4);
+            checkEquals(Arrays.asList(1L, 2L), sorted(tree.lookup("alice")));
+            checkEquals(Arrays.asList(3L, 4L), sorted(tree.lookup(prefix + "one")));
+        } finally {
+            tree.close();
+        }
+    }
+
+    public static void testIndexStaysInStepWithTable() {
+        QueryProcessor session = Tests.session("indexed", "db");
+        StringBuilder insert = new StringBuilder("INSERT INTO t VALUES ");
+        for (int i = 0; i < 2000; i++) {
+            insert.append(i > 0 ? ", " : "").append("(").append(i).append(", 'n").append(i).append("')");
+        }
+        checkContains(Tests.query(session, "CREATE TABLE t (id INT, name VARCHAR);", insert + ";",
+                "CREATE INDEX by_id ON t(id);"), "Index 'by_id' created on t(id).");
+        Tests.query(session, "UPDATE t SET id = 5000 WHERE id = 10;", "DELETE FROM t WHERE id = 11;",
+                "INSERT INTO t VALUES (12, 'again');");
+        checkEquals(Collections.emptyList(), Tests.rows(session, "SELECT name FROM t WHERE id = 10;"));
+        checkEquals(Collections.singletonList("n10"), trimmed(Tests.rows(session, "SELECT name FROM t WHERE id = 5000;")));
+        checkEquals(Collections.emptyList(), Tests.rows(session, "SELECT name FROM t WHERE id = 11;"));
+        checkEquals(Arrays.asList("n12", "again"), trimmed(Tests.rows(session, "SELECT name FROM t WHERE id = 12;")));
+        checkEquals(Arrays.asList("n8", "n9", "n12", "again"),
+                trimmed(Tests.rows(session, "SELECT name FROM t WHERE id >= 8 AND id < 13;")));
+        checkContains(Tests.query(session, "EXPLAIN SELECT name FROM t WHERE id = 12;"), "Index lookup on t using by_id");
+        checkContains(Tests.query(session, "DROP INDEX by_id ON t;"), "dropped");
+        checkContains(Tests.query(session, "EXPLAIN SELECT name FROM t WHERE id = 12;"), "scan on t");
+    }
+
+    private static List<Long> sorted(List<Long> rowIds) {
+        Collections.sort(rowIds);
+        return rowIds;
+    }
+
+    private static List<String> trimmed(List<String> rows) {
+        rows.replaceAll(String::trim);
+        return rows;
+    }
+}
@@ -0,0 +1,88 @@
+package index;
+
+import storage.PageCompression;
+import testing.Tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static testing.Tests.check;
+import static testing.Tests.checkEquals;
+
+/**
+ * The extendible hash index that holds the primary keys of heap tables.
+ */
+public class HashIndexTest {
+    private static final int KEYS = 30000;
+
+    public static void main(String[] args) {
+        Tests.run(HashIndexTest.class);
+    }
+
+    public static void testKeysSurviveSplitsAndReopen() throws IOException {
+        File file = new File("keys.hidx");
+        HashIndex index = HashIndex.create(file, PageCompression.NONE);
+        for (int i = 0; i < KEYS; i++) {
+            check(index.insert("key" + i, i), "new key inserted");
+        }
+        check(!index.insert("KEY17", 99), "duplicate rejected ignoring case");
+        index.close();
+
+        index = HashIndex.open(file);
+        try {
+            checkEquals((long) KEYS, index.getEntryCount());
+            for (int i = 0; i < KEYS; i += 997) {
+                checkEquals((long) i, index.get("Key" + i));
+            }
+            checkEquals(-1L, index.get("key" + KEYS));
+            check(index.delete("key5"), "key deleted");
+            check(!index.delete("key5"), "deleted key is gone");
+            index.update("key6", 123456);
+            checkEquals(123456L, index.get("key6"));
+            checkEquals(-1L, index.get("key5"));
+            checkEquals((long) KEYS - 1, index.getEntryCount());
+        } finally {
+            index.close();
+        }
+    }
+
+    public static void testBatchInsertAndFindAny() throws IOException {
+        HashIndex index = HashIndex.create(new File("batch.hidx"), PageCompression.NONE);
+        try {
+            List<String> keys = new ArrayList<>();
+            List<Long> rowIds = new ArrayList<>();
+            for (int i = 0; i < KEYS; i++) {
+                keys.add("k" + i);
+                rowIds.add((long) i * 10);
+            }
+            checkEquals(null, index.findAny(keys));
+            index.insertAll(keys, rowIds);
+            checkEquals((long) KEYS, index.getEntryCount());
+            checkEquals(12340L, index.get("k1234"));
+            checkEquals("K77", index.findAny(Arrays.asList("new1", "K77", "new2")));
+            try {
+                index.insertAll(Arrays.asList("fresh", "k3"), Arrays.asList(1L, 2L));
+                throw new AssertionError("duplicate in batch was inserted");
+            } catch (IOException e) {
+                checkEquals("Duplicate primary key value 'k3'.", e.getMessage());
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    public static void testOversizedKeyIsRejected() throws IOException {
+        HashIndex index = HashIndex.create(new File("long.hidx"), PageCompression.NONE);
+        try {
+            index.insert("x".repeat(HashIndex.MAX_KEY_BYTES + 1), 1);
+            throw new AssertionError("oversized key was inserted");
+        } catch (IOException e) {
+            check(e.getMessage().contains("exceeds"), e.getMessage());
+        } finally {
+            index.close();
+        }
+    }
+}
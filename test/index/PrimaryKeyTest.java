@@ -0,0 +1,77 @@
+package index;
+
+import query.QueryProcessor;
+import storage.BufferPool;
+import testing.Tests;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * Primary keys of every engine: kept in a hash index file for heap tables and by the engine
+ * itself for the others.
+ */
+public class PrimaryKeyTest {
+    public static void main(String[] args) {
+        Tests.run(PrimaryKeyTest.class);
+    }
+
+    public static void testHeapRejectsDuplicates() {
+        checkRejectsDuplicates("heap", "");
+    }
+
+    public static void testLsmRejectsDuplicates() {
+        checkRejectsDuplicates("lsm", " ENGINE=LSM");
+    }
+
+    public static void testColumnarRejectsDuplicates() {
+        checkRejectsDuplicates("columnar", " ENGINE=COLUMNAR");
+    }
+
+    public static void testKeyLookupFindsRowsAcrossRestart() throws Exception {
+        QueryProcessor session = Tests.session("restarted", "db");
+        StringBuilder insert = new StringBuilder("INSERT INTO t VALUES ");
+        for (int i = 0; i < 5000; i++) {
+            insert.append(i > 0 ? ", " : "").append("('k").append(i).append("', ").append(i).append(")");
+        }
+        Tests.query(session, "CREATE TABLE t (id VARCHAR PRIMARY KEY, v INT);", insert + ";");
+        BufferPool.getInstance().flushAll();
+        String output = Tests.spawnSession(false, "restarted", "USE db;", "INSERT INTO t VALUES ('K4321', 1);",
+                "SELECT v FROM t WHERE id = 'k4321';");
+        checkContains(output, "Duplicate primary key value 'K4321'.");
+        checkEquals("4321", Tests.rows(output).get(0).trim());
+    }
+
+    public static void testUpdateChecksKeyOnMatchingRowsOnly() {
+        QueryProcessor session = Tests.session("updated", "db");
+        Tests.query(session, "CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR, age INT);", "CREATE INDEX idx ON t(name);",
+                "INSERT INTO t VALUES (1, 'a', 2), (2, 'a', 3), (3, 'b', 3);");
+        // The name index yields two candidates, of which only one passes the whole condition.
+        checkContains(Tests.query(session, "UPDATE t SET id = 5 WHERE name = 'a' AND age = 3;"),
+                "Record updated successfully in table 't'.");
+        checkEquals("3", Tests.rows(session, "SELECT age FROM t WHERE id = 5;").get(0).trim());
+        checkContains(Tests.query(session, "UPDATE t SET id = 6 WHERE name = 'a';"), "Duplicate primary key value '6'.");
+        checkContains(Tests.query(session, "UPDATE t SET id = 3 WHERE id = 5;"), "Duplicate primary key value '3'.");
+        checkEquals(0, Tests.rows(session, "SELECT age FROM t WHERE id = 6;").size());
+    }
+
+    /**
+     * Checks key enforcement on a table created with the given options.
+     */
+    private static void checkRejectsDuplicates(String user, String options) {
+        QueryProcessor session = Tests.session(user, "db");
+        Tests.query(session, "CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR)" + options + ";",
+                "INSERT INTO t VALUES (1, 'a');", "INSERT INTO t VALUES (2, 'b');");
+        checkContains(Tests.query(session, "INSERT INTO t VALUES (2, 'c');"), "Duplicate primary key value '2'.");
+        checkContains(Tests.query(session, "INSERT INTO t VALUES (3, 'c'), (3, 'd');"),
+                "Duplicate primary key value '3'.");
+        checkContains(Tests.query(session, "UPDATE t SET id = 1 WHERE id = 2;"), "Duplicate primary key value '1'.");
+        Tests.query(session, "DELETE FROM t WHERE id = 2;", "INSERT INTO t VALUES (2, 'e');");
+        List<String> rows = Tests.rows(session, "SELECT * FROM t;");
+        rows.replaceAll(String::trim);
+        checkEquals(Arrays.asList("1 | a", "2 | e"), rows);
+    }
+}
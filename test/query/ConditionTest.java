@@ -0,0 +1,106 @@
+package query;
+
+import storage.ColumnType;
+import storage.RowCodec;
+import storage.TableSchema;
+import testing.Tests;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * Compound WHERE clauses, compiled once and evaluated on decoded and on encoded rows.
+ */
+public class ConditionTest {
+    private static final String[][] ROWS = {
+            {"1", "alice", "9.5", "2024-01-15"},
+            {"2", "bob", "10", "2023-12-31"},
+            {"3", "carol_x", "-2", "2024-02-29"},
+            {"4", "a.b*c", "100", null},
+            {"10", "Alicia", "0", "2024-01-01"},
+            {"20", null, "3.25", "2024-06-30"},
+    };
+
+    public static void main(String[] args) {
+        Tests.run(ConditionTest.class);
+    }
+
+    public static void testPrecedenceAndNegation() throws ParseException {
+        checkMatches("id = 1 OR id = 2 AND name = 'carol_x'", "1");
+        checkMatches("(id = 1 OR id = 2) AND NOT name = 'alice'", "2");
+        checkMatches("NOT (id < 3 OR id >= 10)", "3", "4");
+        checkMatches("id <> 1 AND id != 2 AND id <= 4", "3", "4");
+    }
+
+    public static void testRangesComparedByType() throws ParseException {
+        // Numbers and dates compare by value, not as text: 10 > 9.5 and 100 > 20.
+        checkMatches("id > 4", "10", "20");
+        checkMatches("score BETWEEN 0 AND 10", "1", "2", "10", "20");
+        checkMatches("score NOT BETWEEN 0 AND 10", "3", "4");
+        checkMatches("day >= '2024-01-01' AND day < '2024-03-01'", "1", "3", "10");
+        checkMatches("id IN (2, 10, 99)", "2", "10");
+        checkMatches("id NOT IN (2, 10)", "1", "3", "4", "20");
+        checkMatches("day IN ('2024-01-15')", "1");
+    }
+
+    public static void testLikePatterns() throws ParseException {
+        checkMatches("name LIKE 'a%'", "1", "4");
+        checkMatches("name LIKE '%ol_x'", "3");
+        checkMatches("name LIKE '%lic%'", "1", "10");
+        checkMatches("name LIKE 'b_b'", "2");
+        checkMatches("name LIKE 'a.b*c'", "4");
+        checkMatches("name LIKE 'a%c'", "4");
+        // A comparison with null is false, so its negation holds.
+        checkMatches("name NOT LIKE '%a%'", "2", "20");
+    }
+
+    public static void testUpdateAndDeleteUseTheSameConditions() {
+        QueryProcessor session = Tests.session("dml", "db");
+        Tests.query(session, "CREATE TABLE t (id INT, name VARCHAR, score DOUBLE, day DATE);",
+                "INSERT INTO t VALUES (1, 'alice', 9.5, '2024-01-15'), (2, 'bob', 10, '2023-12-31'), "
+                        + "(3, 'carol_x', -2, '2024-02-29'), (10, 'Alicia', 0, '2024-01-01');",
+                "UPDATE t SET name = 'winter' WHERE day < '2024-01-10' OR score < 0;",
+                "DELETE FROM t WHERE name LIKE 'a%' AND NOT id IN (10);");
+        checkEquals(Arrays.asList("2 | winter", "3 | winter", "10 | winter"), trimmed(Tests.rows(session,
+                "SELECT id, name FROM t WHERE id BETWEEN 1 AND 10;")));
+        checkContains(Tests.query(session, "SELECT * FROM t WHERE nope = 1;"), "Invalid column in WHERE clause: nope");
+    }
+
+    /**
+     * Checks that the condition matches just the rows with the given ids, both on the decoded
+     * rows and on the rows encoded with their column types.
+     */
+    private static void checkMatches(String where, String... ids) throws ParseException {
+        TableSchema schema = new TableSchema(Arrays.asList("id", "name", "score", "day"));
+        schema.setType("id", ColumnType.INT);
+        schema.setType("score", ColumnType.DOUBLE);
+        schema.setType("day", ColumnType.DATE);
+        Condition condition = ((Statement.Select) Parser.parse("SELECT * FROM t WHERE " + where)).getWhere().compile(schema);
+        List<String> decoded = new ArrayList<>();
+        List<String> encoded = new ArrayList<>();
+        for (String[] row : ROWS) {
+            if (condition.matches(row)) {
+                decoded.add(row[0]);
+            }
+            if (condition.matches(ByteBuffer.wrap(RowCodec.encode(row, schema.getTypes())), 0)) {
+                encoded.add(row[0]);
+            }
+        }
+        checkEquals(where + " " + Arrays.asList(ids), where + " " + decoded);
+        checkEquals(where + " " + Arrays.asList(ids), where + " " + encoded);
+    }
+
+    private static List<String> trimmed(List<String> rows) {
+        List<String> values = new ArrayList<>();
+        for (String row : rows) {
+            values.add(row.trim());
+        }
+        return values;
+    }
+}
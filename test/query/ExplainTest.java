@@ -0,0 +1,64 @@
+package query;
+
+import testing.Tests;
+
+import static testing.Tests.check;
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * Plans shown by EXPLAIN, and the row counts EXPLAIN ANALYZE records while running them.
+ */
+public class ExplainTest {
+    private static final int ROWS = 50;
+
+    public static void main(String[] args) {
+        Tests.run(ExplainTest.class);
+    }
+
+    public static void testExplainShowsPlanWithoutRunning() {
+        QueryProcessor session = table("planned");
+        String plan = Tests.query(session, "EXPLAIN DELETE FROM t WHERE id < 10;");
+        checkContains(plan, "Query plan:\nDelete on t\n  -> Index lookup on t using idx (id < 10), filter: id < 10");
+        checkEquals((long) ROWS, Tests.count(session, "t"));
+    }
+
+    public static void testExplainAnalyzeCountsRowsPerStep() {
+        QueryProcessor session = table("analyzed");
+        String plan = Tests.query(session,
+                "EXPLAIN ANALYZE SELECT name, COUNT(*) FROM t GROUP BY name ORDER BY name LIMIT 3;");
+        checkContains(plan, "Top-3 sort by name  (rows in: 10, rows out: 3, time: ");
+        checkContains(plan, "\n  -> Hash aggregate name, COUNT(*) by name  (rows in: " + ROWS + ", rows out: 10, time: ");
+        checkContains(plan, "\n    -> Mapped scan on t  (rows out: " + ROWS + ", time: ");
+        checkContains(plan, "Execution time: ");
+        checkContains(plan, " ms, 3 rows.");
+        check(!plan.contains("Data from table"), "result rows are not printed:\n" + plan);
+    }
+
+    public static void testExplainShowsJoinMethod() {
+        QueryProcessor session = table("joined");
+        Tests.query(session, "CREATE TABLE u (t_id INT, v VARCHAR);", "INSERT INTO u VALUES (1, 'x'), (2, 'y');");
+        String plan = Tests.query(session, "EXPLAIN ANALYZE SELECT v, name FROM t JOIN u ON t.id = u.t_id;");
+        checkContains(plan, "-> Hash join on t.id = u.t_id, building on ");
+        checkContains(plan, " ms, 2 rows.");
+    }
+
+    public static void testExplainAnalyzeOnlyRunsSelect() {
+        QueryProcessor session = table("refused");
+        checkContains(Tests.query(session, "EXPLAIN ANALYZE DELETE FROM t;"), "EXPLAIN ANALYZE only runs SELECT statements");
+        checkEquals((long) ROWS, Tests.count(session, "t"));
+    }
+
+    /**
+     * Returns a session whose table t has an index on id and ten distinct names.
+     */
+    private static QueryProcessor table(String user) {
+        QueryProcessor session = Tests.session(user, "db");
+        StringBuilder insert = new StringBuilder("INSERT INTO t VALUES ");
+        for (int i = 0; i < ROWS; i++) {
+            insert.append(i > 0 ? ", " : "").append("(").append(i).append(", 'n").append(i % 10).append("')");
+        }
+        Tests.query(session, "CREATE TABLE t (id INT, name VARCHAR);", insert + ";", "CREATE INDEX idx ON t(id);");
+        return session;
+    }
+}
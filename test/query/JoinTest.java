@@ -0,0 +1,58 @@
+package query;
+
+import testing.Tests;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * Joins planned from SQL, on key columns of the same and of different types.
+ */
+public class JoinTest {
+    public static void main(String[] args) {
+        Tests.run(JoinTest.class);
+    }
+
+    public static void testJoinOnSameType() {
+        QueryProcessor session = Tests.session("sametype", "db");
+        Tests.query(session, "CREATE TABLE a (id INT, name VARCHAR);", "CREATE TABLE b (a_id INT, v VARCHAR);",
+                "INSERT INTO a VALUES (1, 'one'), (2, 'two'), (3, 'three');",
+                "INSERT INTO b VALUES (1, 'x'), (1, 'y'), (3, 'z'), (4, 'w');");
+        List<String> rows = Tests.rows(session, "SELECT name, v FROM a JOIN b ON a.id = b.a_id ORDER BY v;");
+        checkEquals(Arrays.asList("one | x", "one | y", "three | z"), trimmed(rows));
+    }
+
+    public static void testJoinNumericKeysOfDifferentTypes() {
+        QueryProcessor session = Tests.session("numeric", "db");
+        Tests.query(session, "CREATE TABLE a (id INT, name VARCHAR);", "CREATE TABLE b (price DOUBLE, v VARCHAR);",
+                "INSERT INTO a VALUES (1, 'one'), (2, 'two');",
+                "INSERT INTO b VALUES (1.0, 'x'), (2.5, 'y'), (2, 'z');");
+        List<String> rows = Tests.rows(session, "SELECT name, v FROM a JOIN b ON a.id = b.price ORDER BY v;");
+        checkEquals(Arrays.asList("one | x", "two | z"), trimmed(rows));
+    }
+
+    public static void testJoinTextWithNumber() {
+        QueryProcessor session = Tests.session("text", "db");
+        Tests.query(session, "CREATE TABLE a (id BIGINT, name VARCHAR);", "CREATE TABLE b (code VARCHAR, v VARCHAR);",
+                "INSERT INTO a VALUES (7, 'seven'), (8, 'eight');",
+                "INSERT INTO b VALUES ('07', 'x'), ('eight', 'y'), ('8', 'z');");
+        List<String> rows = Tests.rows(session, "SELECT name, v FROM b JOIN a ON b.code = a.id ORDER BY v;");
+        checkEquals(Arrays.asList("seven | x", "eight | z"), trimmed(rows));
+    }
+
+    public static void testJoinOfIncomparableTypesIsRejected() {
+        QueryProcessor session = Tests.session("incomparable", "db");
+        Tests.query(session, "CREATE TABLE a (id INT);", "CREATE TABLE b (day DATE);",
+                "INSERT INTO a VALUES (1);", "INSERT INTO b VALUES ('2024-01-01');");
+        checkContains(Tests.query(session, "SELECT * FROM a JOIN b ON a.id = b.day;"),
+                "Error: Cannot join INT column a.id with DATE column b.day.");
+    }
+
+    private static List<String> trimmed(List<String> rows) {
+        rows.replaceAll(String::trim);
+        return rows;
+    }
+}
@@ -0,0 +1,101 @@
+package query;
+
+import storage.BufferPool;
+import testing.Tests;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * Multi-row INSERT and LOAD DATA, which writes a CSV file in batches of logged rows.
+ */
+public class LoadDataTest {
+    private static final int ROWS = 25000;
+
+    public static void main(String[] args) {
+        Tests.run(LoadDataTest.class);
+    }
+
+    public static void testMultiRowInsertIsAllOrNothing() {
+        QueryProcessor session = Tests.session("multi", "db");
+        Tests.query(session, "CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR);");
+        checkContains(Tests.query(session, "INSERT INTO t VALUES (1, 'a'), (2, 'b, c'), (3, 'it''s');"),
+                "3 rows inserted into table 't'.");
+        checkContains(Tests.query(session, "INSERT INTO t VALUES (4, 'd'), (5);"),
+                "Column mismatch: expected 2 values but got 1.");
+        checkContains(Tests.query(session, "INSERT INTO t VALUES (6, 'e'), (1, 'again');"),
+                "Duplicate primary key value '1'.");
+        checkEquals(3L, Tests.count(session, "t"));
+        checkEquals("b, c", Tests.rows(session, "SELECT name FROM t WHERE id = 2;").get(0).trim());
+    }
+
+    public static void testLoadQuotedCsvInBatches() throws IOException {
+        StringBuilder csv = new StringBuilder("id,name,note\n");
+        for (int i = 0; i < ROWS; i++) {
+            csv.append(i).append(",user").append(i).append(',');
+            csv.append(i == 7 ? "\"a, \"\"quoted\"\"\nnote\"" : "plain").append(i % 2 == 0 ? "\n" : "\r\n");
+        }
+        Files.write(Paths.get("users.csv"), csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        QueryProcessor session = Tests.session("loaded", "db");
+        Tests.query(session, "CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR, note VARCHAR);");
+        checkContains(Tests.query(session, "LOAD DATA 'users.csv' INTO TABLE t IGNORE 1 LINES;"),
+                "Loaded " + ROWS + " rows from 'users.csv' into table 't'.");
+        BufferPool.getInstance().flushAll();
+
+        String restarted = Tests.spawnSession(false, "loaded", "USE db;", "SELECT COUNT(*) FROM t;",
+                "SELECT note FROM t WHERE id = 7;");
+        checkContains(restarted, "\n" + ROWS + "\n");
+        List<String> note = Tests.rows(restarted);
+        checkEquals("a, \"quoted\"", note.get(0).trim());
+        checkEquals("note", note.get(1).trim());
+    }
+
+    public static void testLoadStopsAtBadRecord() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < ROWS; i++) {
+            csv.append(i).append(i == 12345 ? "" : ",x").append('\n');
+        }
+        Files.write(Paths.get("bad.csv"), csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        QueryProcessor session = Tests.session("stopped", "db");
+        Tests.query(session, "CREATE TABLE t (id INT, v VARCHAR);");
+        String output = Tests.query(session, "LOAD DATA 'bad.csv' INTO t;");
+        checkContains(output, "Error: Line 12346 of 'bad.csv' has 1 values but table 't' has 2 columns.");
+        // Every record before the bad one stays, including those of the unfinished batch.
+        checkContains(output, "Loaded 12345 rows from 'bad.csv' into table 't'.");
+        checkEquals(12345L, Tests.count(session, "t"));
+    }
+
+    public static void testEmptyFieldsLoadAsNull() throws IOException {
+        Files.write(Paths.get("nulls.csv"), "1,,\"\"\n,b,\n3,c,\"\"\n4,,d\n".getBytes(StandardCharsets.UTF_8));
+
+        Tests.spawnSession(true, "nulls", "CREATE DATABASE db;", "USE db;",
+                "CREATE TABLE t (id INT, name VARCHAR, note VARCHAR);", "LOAD DATA 'nulls.csv' INTO t;");
+        // The load is replayed from its logged rows after the crash.
+        String restarted = Tests.spawnSession(false, "nulls", "USE db;", "SELECT id, name, note FROM t;");
+        checkContains(restarted, "Recovering 1 logged statement(s)");
+        List<String> rows = Tests.rows(restarted);
+        checkEquals(4, rows.size());
+        checkEquals("1 | NULL |", rows.get(0).trim());
+        checkEquals("NULL | b | NULL", rows.get(1).trim());
+        checkEquals("3 | c |", rows.get(2).trim());
+        checkEquals("4 | NULL | d", rows.get(3).trim());
+    }
+
+    public static void testInvalidValueNamesItsLine() throws IOException {
+        Files.write(Paths.get("typed.csv"), "1,2024-01-31\n2,2024-02-30\n3,2024-03-01\n".getBytes(StandardCharsets.UTF_8));
+
+        QueryProcessor session = Tests.session("typed", "db");
+        Tests.query(session, "CREATE TABLE t (id INT, day DATE);");
+        String output = Tests.query(session, "LOAD DATA 'typed.csv' INTO t;");
+        checkContains(output, "Error: Line 2 of 'typed.csv': Invalid value for column 'day':");
+        checkContains(output, "Loaded 1 rows from 'typed.csv' into table 't'.");
+    }
+}
@@ -0,0 +1,72 @@
+package query;
+
+import testing.Tests;
+
+import java.text.ParseException;
+import java.util.Arrays;
+
+import static testing.Tests.check;
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * Statements parsed into their syntax tree, and the errors reported for malformed ones.
+ */
+public class ParserTest {
+    public static void main(String[] args) {
+        Tests.run(ParserTest.class);
+    }
+
+    public static void testLexerTokens() throws ParseException {
+        Lexer lexer = new Lexer("select x>=3.5,'it''s' <> \"q\";");
+        StringBuilder tokens = new StringBuilder();
+        for (lexer.next(); lexer.getType() != Lexer.TokenType.END; lexer.next()) {
+            tokens.append(lexer.getType()).append(':').append(lexer.getValue()).append(' ');
+        }
+        checkEquals("IDENTIFIER:select IDENTIFIER:x SYMBOL:>= NUMBER:3.5 SYMBOL:, STRING:it's SYMBOL:<> STRING:q SYMBOL:; ",
+                tokens.toString());
+    }
+
+    public static void testSelectClauses() throws ParseException {
+        Statement.Select select = (Statement.Select) Parser.parse(
+                "select name, age from users where age >= 30 and name like 'a%' order by age desc, name limit 5");
+        checkEquals(Statement.Kind.SELECT, select.getKind());
+        checkEquals("users", select.getTable());
+        checkEquals(Arrays.asList("name", "age"), select.getColumns());
+        checkEquals(2, select.getWhere().getConjuncts().size());
+        checkEquals("age DESC", select.getOrderBy().get(0).toString());
+        check(!select.getOrderBy().get(1).isDescending(), "ascending by default");
+        checkEquals(5L, select.getLimit());
+    }
+
+    public static void testInsertAndUpdateValues() throws ParseException {
+        Statement.Insert insert = (Statement.Insert) Parser.parse("INSERT INTO t VALUES (1, 'a, b'), (2, 'it''s');");
+        checkEquals("t", insert.getTable());
+        checkEquals(2, insert.getRows().size());
+        checkEquals(Arrays.asList("1", "a, b"), Arrays.asList(insert.getRows().get(0)));
+        checkEquals("it's", insert.getRows().get(1)[1]);
+
+        Statement.Update update = (Statement.Update) Parser.parse("UPDATE t SET a = 'x', b = 2 WHERE id = 1");
+        checkEquals(Arrays.asList("a", "b"), update.getColumns());
+        checkEquals(Arrays.asList("x", "2"), update.getValues());
+        checkEquals("id = 1", update.getWhere().toString());
+    }
+
+    public static void testErrorsNameTheStatementUsage() {
+        checkContains(error("SELECT FROM t"), "Correct format: SELECT");
+        checkContains(error("INSERT INTO t VALUES (1, 'a'"), "Use: INSERT INTO table_name VALUES");
+        checkContains(error("SELECT * FROM t WHERE name = 'open"), "Unterminated string");
+        checkContains(error("SELECT * FROM t WHERE id = ?"), "Correct format: SELECT");
+        checkContains(error("FROB t"), "Supported commands:");
+        checkContains(error("SELECT * FROM t; SELECT"), "Unexpected 'SELECT'");
+    }
+
+    private static String error(String text) {
+        try {
+            Parser.parse(text);
+        } catch (ParseException e) {
+            return e.getMessage();
+        }
+        throw new AssertionError("parsed: " + text);
+    }
+}
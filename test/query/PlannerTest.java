@@ -0,0 +1,67 @@
+package query;
+
+import testing.Tests;
+
+import static testing.Tests.check;
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * ANALYZE statistics and the plans the planner chooses with them.
+ */
+public class PlannerTest {
+    private static final int ROWS = 20000;
+
+    public static void main(String[] args) {
+        Tests.run(PlannerTest.class);
+    }
+
+    public static void testAnalyzeReportsColumnStatistics() {
+        QueryProcessor session = table("analyzed");
+        String output = Tests.query(session, "ANALYZE t;");
+        checkContains(output, "Table 't' analyzed: " + ROWS + " rows.");
+        checkContains(output, "id: ~" + ROWS + " distinct, 0 null.");
+        checkContains(output, "name: ~10 distinct, 0 null.");
+    }
+
+    public static void testSelectiveConditionUsesIndex() {
+        QueryProcessor session = table("selective");
+        Tests.query(session, "ANALYZE t;");
+        String plan = Tests.query(session, "EXPLAIN SELECT * FROM t WHERE id = 5;");
+        checkContains(plan, "Filter: id = 5, estimated 1 of " + ROWS + " rows");
+        checkContains(plan, "-> Index lookup on t using idx (id = 5)");
+    }
+
+    public static void testUnselectiveConditionScans() {
+        QueryProcessor session = table("unselective");
+        Tests.query(session, "ANALYZE t;");
+        String plan = Tests.query(session, "EXPLAIN SELECT * FROM t WHERE id > 5;");
+        String estimate = "scan on t, filter: id > 5, estimated ";
+        checkContains(plan, estimate);
+        String[] rows = plan.substring(plan.indexOf(estimate) + estimate.length()).split(" ");
+        check(Math.abs(Long.parseLong(rows[0]) - (ROWS - 6)) <= ROWS / 100, "estimate close to the match count:\n" + plan);
+        checkEquals(String.valueOf(ROWS), rows[2]);
+        check(!plan.contains("Index lookup"), "scan chosen over the index:\n" + plan);
+    }
+
+    public static void testEstimateIsOnlyShownByExplain() {
+        QueryProcessor session = table("quiet");
+        Tests.query(session, "ANALYZE t;");
+        String output = Tests.query(session, "SELECT name FROM t WHERE id = 5;");
+        check(!output.toLowerCase().contains("estimated"), "no estimate outside EXPLAIN:\n" + output);
+        checkEquals("n5", Tests.rows(output).get(0).trim());
+    }
+
+    /**
+     * Returns a session whose table t has an index on id and ten distinct names.
+     */
+    private static QueryProcessor table(String user) {
+        QueryProcessor session = Tests.session(user, "db");
+        StringBuilder insert = new StringBuilder("INSERT INTO t VALUES ");
+        for (int i = 0; i < ROWS; i++) {
+            insert.append(i > 0 ? ", " : "").append("(").append(i).append(", 'n").append(i % 10).append("')");
+        }
+        Tests.query(session, "CREATE TABLE t (id INT, name VARCHAR);", insert + ";", "CREATE INDEX idx ON t(id);");
+        return session;
+    }
+}
@@ -0,0 +1,69 @@
+package query;
+
+import testing.Tests;
+
+import java.text.ParseException;
+import java.util.List;
+
+import static testing.Tests.check;
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * PREPARE, EXECUTE and DEALLOCATE, the programmatic prepared statement API and the plan cache.
+ */
+public class PreparedStatementTest {
+    public static void main(String[] args) {
+        Tests.run(PreparedStatementTest.class);
+    }
+
+    public static void testPrepareExecuteDeallocate() {
+        QueryProcessor session = Tests.session("sql", "db");
+        String output = Tests.query(session, "CREATE TABLE t (id INT, name VARCHAR);",
+                "PREPARE add AS INSERT INTO t VALUES (?, ?);", "EXECUTE add(1, 'O''Brien');",
+                "EXECUTE add(2, 'plain');", "EXECUTE add(3);", "PREPARE add AS DELETE FROM t WHERE id = ?;",
+                "DEALLOCATE PREPARE add;", "EXECUTE add(4, 'gone');");
+        checkContains(output, "Statement 'add' prepared with 2 parameter(s).");
+        checkContains(output, "Error: Statement expects 2 parameter(s) but got 1.");
+        checkContains(output, "Error: Prepared statement 'add' already exists.");
+        checkContains(output, "Statement 'add' deallocated.");
+        checkContains(output, "Error: Prepared statement 'add' not found.");
+        checkEquals(2L, Tests.count(session, "t"));
+        checkEquals("O'Brien", Tests.rows(session, "SELECT name FROM t WHERE id = 1;").get(0).trim());
+
+        checkContains(Tests.query(session, "SELECT * FROM t WHERE id = ?;"),
+                "Error: Parameters are only allowed in prepared statements.");
+    }
+
+    public static void testProgrammaticApiSurvivesRestart() {
+        QueryProcessor session = Tests.session("api", "db");
+        Tests.query(session, "CREATE TABLE t (id INT, name VARCHAR);");
+        System.setOut(Tests.discard());
+        PreparedStatement insert = session.prepare("INSERT INTO t VALUES (?, ?)");
+        for (int i = 0; i < 100; i++) {
+            session.execute(insert, String.valueOf(i), "it's " + i);
+        }
+        PreparedStatement select = session.prepare("SELECT name FROM t WHERE id = ?");
+        checkEquals(1, select.getParameterCount());
+
+        // Arguments are logged inlined into the statement text, so replay needs no prepared statements.
+        String restarted = Tests.spawnSession(false, "api", "USE db;", "SELECT name FROM t WHERE id = 42;");
+        List<String> rows = Tests.rows(restarted);
+        checkEquals(1, rows.size());
+        checkEquals("it's 42", rows.get(0).trim());
+    }
+
+    public static void testPlanCacheSharesNormalizedText() throws ParseException {
+        PlanCache cache = PlanCache.getInstance();
+        PreparedStatement first = cache.get("SELECT  *\n FROM cached WHERE name = 'a  b';");
+        long hits = cache.getHits();
+        PreparedStatement again = cache.get("SELECT * FROM cached   WHERE name = 'a  b'");
+        checkEquals(hits + 1, cache.getHits());
+        check(first == again, "one parsed statement for both layouts");
+
+        // Whitespace inside quotes is part of the value, so this is another statement.
+        PreparedStatement other = cache.get("SELECT * FROM cached WHERE name = 'a b'");
+        checkEquals(hits + 1, cache.getHits());
+        checkEquals("a b", ((WhereCondition) ((Statement.Select) other.getStatement()).getWhere()).getValue());
+    }
+}
@@ -0,0 +1,74 @@
+package query;
+
+import interfaces.ITableStore;
+import storage.TableFile;
+import storage.TableSchema;
+import testing.Tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static testing.Tests.check;
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * SELECT column lists, pushed down so a scan decodes only the columns a query uses.
+ */
+public class ProjectionTest {
+    public static void main(String[] args) {
+        Tests.run(ProjectionTest.class);
+    }
+
+    public static void testScanDecodesFilterColumnsFirst() throws IOException {
+        TableFile table = TableFile.create(new File("projected.tbl"), new TableSchema(Arrays.asList("id", "name", "note", "day")));
+        try {
+            List<String[]> rows = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                rows.add(new String[]{String.valueOf(i), "n" + i, "x".repeat(200), "2024-01-01"});
+            }
+            table.insertAll(rows);
+
+            // The filter sees only its own column; matching rows add the projected one.
+            List<String> seen = new ArrayList<>();
+            ITableStore.Cursor cursor = table.scan(new boolean[]{false, true, false, false},
+                    new boolean[]{true, false, false, false}, row -> {
+                        check(row[1] == null && row[2] == null, "filter sees only its columns");
+                        return row[0].endsWith("7");
+                    });
+            while (cursor.next()) {
+                String[] row = cursor.row();
+                checkEquals(null, row[2]);
+                checkEquals(null, row[3]);
+                seen.add(row[0] + ":" + row[1]);
+            }
+            checkEquals(Arrays.asList("7:n7", "17:n17", "27:n27", "37:n37", "47:n47", "57:n57", "67:n67", "77:n77",
+                    "87:n87", "97:n97"), seen);
+        } finally {
+            table.close();
+        }
+    }
+
+    public static void testSelectListOrderAndErrors() {
+        QueryProcessor session = Tests.session("listed", "db");
+        Tests.query(session, "CREATE TABLE t (id INT, name VARCHAR, note VARCHAR);",
+                "INSERT INTO t VALUES (1, 'a', 'first'), (2, 'b', NULL), (3, 'c', 'third');");
+        String output = Tests.query(session, "SELECT note, id FROM t WHERE name <> 'b';");
+        checkContains(output, "note | id");
+        checkEquals(Arrays.asList("first | 1", "third | 3"), trimmed(Tests.rows(output)));
+        checkEquals(Arrays.asList("1 | a | first", "2 | b | NULL", "3 | c | third"), trimmed(Tests.rows(session,
+                "SELECT * FROM t;")));
+        checkContains(Tests.query(session, "SELECT id, missing FROM t;"), "Error: Invalid column in SELECT list: missing");
+    }
+
+    private static List<String> trimmed(List<String> rows) {
+        List<String> values = new ArrayList<>();
+        for (String row : rows) {
+            values.add(row.trim());
+        }
+        return values;
+    }
+}
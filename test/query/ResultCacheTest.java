@@ -0,0 +1,83 @@
+package query;
+
+import testing.Tests;
+
+import static testing.Tests.check;
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * The SELECT result cache: hits, invalidation by changes to the tables read, and eviction.
+ */
+public class ResultCacheTest {
+    private static final String HIT = "Result cache hit.";
+
+    public static void main(String[] args) {
+        Tests.run(ResultCacheTest.class);
+    }
+
+    public static void testRepeatedSelectIsServedUntilTableChanges() {
+        QueryProcessor session = Tests.session("repeated", "db");
+        Tests.query(session, "SET RESULT_CACHE = 16;", "CREATE TABLE t (id INT, name VARCHAR);",
+                "INSERT INTO t VALUES (1, 'a'), (2, 'b');");
+        String first = Tests.query(session, "SELECT * FROM t WHERE id > 0;");
+        check(!first.contains(HIT), "first run computes the result");
+        String again = Tests.query(session, "SELECT *  FROM t\n WHERE id > 0;");
+        checkContains(again, HIT);
+        checkEquals(Tests.rows(first), Tests.rows(again));
+
+        for (String change : new String[]{"INSERT INTO t VALUES (3, 'c');", "UPDATE t SET name = 'z' WHERE id = 1;",
+                "DELETE FROM t WHERE id = 2;"}) {
+            Tests.query(session, change);
+            String after = Tests.query(session, "SELECT * FROM t WHERE id > 0;");
+            check(!after.contains(HIT), "stale result served after " + change);
+            checkContains(Tests.query(session, "SELECT * FROM t WHERE id > 0;"), HIT);
+        }
+        checkEquals(2, Tests.rows(session, "SELECT * FROM t WHERE id > 0;").size());
+    }
+
+    public static void testResultsAreKeptPerUserAndJoinedTable() {
+        QueryProcessor alice = Tests.session("alice", "db");
+        QueryProcessor bob = Tests.session("bob", "db");
+        for (QueryProcessor session : new QueryProcessor[]{alice, bob}) {
+            Tests.query(session, "SET RESULT_CACHE = 16;", "CREATE TABLE a (id INT, v VARCHAR);",
+                    "CREATE TABLE b (id INT, w VARCHAR);", "INSERT INTO b VALUES (1, 'w1');");
+        }
+        Tests.query(alice, "INSERT INTO a VALUES (1, 'alice');");
+        Tests.query(bob, "INSERT INTO a VALUES (1, 'bob');");
+        String join = "SELECT v, w FROM a JOIN b ON a.id = b.id;";
+        Tests.query(alice, join);
+        String bobs = Tests.query(bob, join);
+        check(!bobs.contains(HIT), "another user's result served");
+        checkEquals("bob | w1", Tests.rows(bobs).get(0).trim());
+
+        checkContains(Tests.query(alice, join), HIT);
+        Tests.query(alice, "UPDATE b SET w = 'w2' WHERE id = 1;");
+        String changed = Tests.query(alice, join);
+        check(!changed.contains(HIT), "join result served after its second table changed");
+        checkEquals("alice | w2", Tests.rows(changed).get(0).trim());
+    }
+
+    public static void testLeastRecentlyUsedResultsAreEvicted() {
+        QueryProcessor session = Tests.session("evicted", "db");
+        StringBuilder insert = new StringBuilder("INSERT INTO t VALUES ");
+        for (int i = 0; i < 1200; i++) {
+            insert.append(i > 0 ? ", " : "").append("(").append(i).append(", '").append("x".repeat(100)).append("')");
+        }
+        Tests.query(session, "SET RESULT_CACHE = 1;", "CREATE TABLE t (id INT, pad VARCHAR);", insert + ";");
+        ResultCache cache = ResultCache.getInstance();
+        long evictions = cache.getEvictions();
+        // Each result takes over a third of the budget, so only the latest two fit.
+        for (int i = 0; i < 4; i++) {
+            Tests.query(session, "SELECT * FROM t WHERE id >= " + i + ";");
+        }
+        check(cache.getEvictions() > evictions, "results evicted");
+        check(cache.getUsed() <= cache.getBudget(), cache.getUsed() + " bytes used");
+        checkContains(Tests.query(session, "SELECT * FROM t WHERE id >= 3;"), HIT);
+        check(!Tests.query(session, "SELECT * FROM t WHERE id >= 0;").contains(HIT), "eldest result evicted");
+
+        checkContains(Tests.query(session, "SET RESULT_CACHE = 0;"), "Result cache turned off.");
+        check(!Tests.query(session, "SELECT * FROM t WHERE id >= 0;").contains(HIT), "cache off");
+        checkEquals(0, cache.getSize());
+    }
+}
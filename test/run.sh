@@ -0,0 +1,21 @@
+#!/bin/sh
+# Compiles the sources and tests, then runs each test class, or the classes named as
+# arguments, in an empty working directory. Exits non-zero if any test fails.
+root=$(cd "$(dirname "$0")/.." && pwd)
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+javac -d "$out" $(find "$root/src" "$root/test" -name '*.java') || exit 1
+
+if [ $# -gt 0 ]; then
+    classes="$*"
+else
+    classes=$(cd "$root/test" && find . -name '*Test.java' | sed 's|^\./||; s|\.java$||; s|/|.|g' | sort)
+fi
+
+status=0
+for class in $classes; do
+    work=$(mktemp -d)
+    (cd "$work" && java -cp "$out" "$class") || status=1
+    rm -rf "$work"
+done
+exit $status
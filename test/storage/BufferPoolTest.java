@@ -0,0 +1,119 @@
+package storage;
+
+import testing.Tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static testing.Tests.check;
+import static testing.Tests.checkEquals;
+
+/**
+ * Sessions reading and writing more pages than the pool holds, so pages are evicted and
+ * written back while other sessions use the pool.
+ */
+public class BufferPoolTest {
+    private static final int SESSIONS = 8;
+    private static final int ROUNDS = 10;
+    private static final int PAGES = BufferPool.DEFAULT_CAPACITY * 3;
+
+    public static void main(String[] args) {
+        Tests.run(BufferPoolTest.class);
+    }
+
+    public static void testConcurrentEvictionKeepsEveryPage() throws Exception {
+        // Every session opens the file for itself, as queries do, and owns every SESSIONS-th page.
+        File file = new File("pool.dat");
+        PageFile setup = new PageFile(file);
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        for (int pageNo = 0; pageNo < PAGES; pageNo++) {
+            page.clear();
+            page.putLong(0, stamp(pageNo, 0));
+            setup.writePage(pageNo, page);
+        }
+        setup.close();
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < SESSIONS; s++) {
+            int session = s;
+            threads.add(new Thread(() -> {
+                try (Closer opened = new Closer(new PageFile(file))) {
+                    exercise(opened.file, session);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            try {
+                for (int i = 0; i < 20; i++) {
+                    BufferPool.getInstance().flushAll();
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("Session failed: " + failure.get(), failure.get());
+        }
+        check(BufferPool.getInstance().getEvictions() > 0, "pages were evicted");
+
+        // Closed files are written back in full, so the disk holds every page's last write.
+        PageFile reopened = new PageFile(file);
+        for (int pageNo = 0; pageNo < PAGES; pageNo++) {
+            reopened.readFromDisk(pageNo, page);
+            checkEquals(stamp(pageNo, ROUNDS), page.getLong(0));
+        }
+        reopened.close();
+    }
+
+    /**
+     * Writes a new version of each of the session's pages in turn and reads every one back,
+     * so its pages are evicted by other sessions in between.
+     */
+    private static void exercise(PageFile file, int session) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        for (int round = 1; round <= ROUNDS; round++) {
+            for (int pageNo = session; pageNo < PAGES; pageNo += SESSIONS) {
+                page.clear();
+                page.putLong(0, stamp(pageNo, round));
+                file.writePage(pageNo, page);
+            }
+            for (int pageNo = session; pageNo < PAGES; pageNo += SESSIONS) {
+                file.readPage(pageNo, page);
+                if (page.getLong(0) != stamp(pageNo, round)) {
+                    throw new AssertionError("Page " + pageNo + " reads " + page.getLong(0)
+                            + " after writing round " + round);
+                }
+            }
+        }
+    }
+
+    private static long stamp(int pageNo, int round) {
+        return ((long) pageNo << 16) | round;
+    }
+
+    private static class Closer implements AutoCloseable {
+        private final PageFile file;
+
+        Closer(PageFile file) {
+            this.file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
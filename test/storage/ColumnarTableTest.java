@@ -0,0 +1,110 @@
+package storage;
+
+import interfaces.ITableStore;
+import query.QueryProcessor;
+import testing.Tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static testing.Tests.check;
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * Columnar tables: per-column encodings and scans that read only the columns they need.
+ */
+public class ColumnarTableTest {
+    private static final int ROWS = 20000;
+
+    public static void main(String[] args) {
+        Tests.run(ColumnarTableTest.class);
+    }
+
+    public static void testEachColumnGetsItsOwnEncoding() throws IOException {
+        ColumnarTable table = table("encoded");
+        checkEquals(3, table.getRowGroupCount());
+        checkContains(table.describeColumn(0), "PLAIN x3");
+        checkContains(table.describeColumn(1), "RUN_LENGTH x3");
+        checkContains(table.describeColumn(2), "DICTIONARY x3");
+    }
+
+    public static void testScanReadsOnlyReferencedColumns() throws IOException {
+        ColumnarTable table = table("projected");
+        long before = table.getChunksRead();
+        checkEquals(ROWS, drain(table.scan(new boolean[]{false, false, true}, null, null)).size());
+        checkEquals(3L, table.getChunksRead() - before);
+
+        // The filter column is read in every group, the projected one only where a row matches.
+        table.compact();
+        before = table.getChunksRead();
+        List<String[]> matching = drain(table.scan(new boolean[]{false, true, false},
+                new boolean[]{true, false, false}, row -> Integer.parseInt(row[0]) < 10));
+        checkEquals(10, matching.size());
+        checkEquals("r0", matching.get(0)[1]);
+        checkEquals(null, matching.get(0)[2]);
+        checkEquals(4L, table.getChunksRead() - before);
+    }
+
+    public static void testChangesSurviveRestart() throws Exception {
+        QueryProcessor session = Tests.session("restarted", "db");
+        Tests.query(session, "CREATE TABLE t (id INT PRIMARY KEY, status VARCHAR) ENGINE=COLUMNAR;",
+                "INSERT INTO t VALUES (1, 'new'), (2, 'new'), (3, 'new');",
+                "UPDATE t SET status = 'done' WHERE id = 2;", "DELETE FROM t WHERE id = 3;");
+        String output = Tests.spawnSession(false, "restarted", "USE db;", "SELECT id, status FROM t;");
+        List<String> rows = Tests.rows(output);
+        checkEquals(2, rows.size());
+        checkEquals("1 | new", rows.get(0).trim());
+        checkEquals("2 | done", rows.get(1).trim());
+    }
+
+    /**
+     * Crashes after loading batches that each fill more than a row group, so recovery depends
+     * on the LSN the manifest records when the groups are written.
+     */
+    public static void testCrashAfterStatementsLargerThanRowGroup() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < ROWS; i++) {
+            csv.append(i).append(",r").append(i / 1000).append('\n');
+        }
+        Files.write(Paths.get("rows.csv"), csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        Tests.spawnSession(true, "crashed", "CREATE DATABASE db;", "USE db;",
+                "CREATE TABLE t (id INT PRIMARY KEY, region VARCHAR) ENGINE=COLUMNAR;", "LOAD DATA 'rows.csv' INTO t;",
+                "DELETE FROM t WHERE region = 'r3';", "INSERT INTO t VALUES (3500, 'again');");
+        String restarted = Tests.spawnSession(false, "crashed", "USE db;", "SELECT COUNT(*) FROM t;");
+        check(!restarted.contains("Error"), "recovered without error:\n" + restarted);
+        checkEquals(String.valueOf(ROWS - 999), Tests.rows(restarted).get(0).trim());
+    }
+
+    /**
+     * Returns a flushed table with a unique id, a region that changes every thousand rows and
+     * a status with three values, in three row groups.
+     */
+    private static ColumnarTable table(String name) throws IOException {
+        ColumnarTable table = ColumnarTable.create(new File(name + ColumnarTable.EXTENSION).getAbsoluteFile(),
+                new TableSchema(Arrays.asList("id", "region", "status")));
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(new String[]{String.valueOf(i), "r" + i / 1000, new String[]{"new", "open", "done"}[i % 3]});
+        }
+        table.insertAll(rows);
+        table.flush();
+        table.compact();
+        return table;
+    }
+
+    private static List<String[]> drain(ITableStore.Cursor cursor) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        while (cursor.next()) {
+            rows.add(cursor.row().clone());
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,79 @@
+package storage;
+
+import query.QueryProcessor;
+import testing.Tests;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static testing.Tests.check;
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * LSM tables with typed columns, read back from their sorted tables after a flush, a restart
+ * and a crash.
+ */
+public class LsmTableTest {
+    private static final int ROWS = 300;
+
+    public static void main(String[] args) {
+        Tests.run(LsmTableTest.class);
+    }
+
+    public static void testIntKeySurvivesFlushAndRestart() {
+        QueryProcessor session = Tests.session("intkey", "db");
+        StringBuilder insert = new StringBuilder("INSERT INTO t VALUES ");
+        for (int i = 0; i < ROWS; i++) {
+            insert.append(i > 0 ? ", " : "").append("(").append(i * 7).append(", 'v").append(i).append("')");
+        }
+        String output = Tests.query(session, "CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR) ENGINE=LSM;",
+                insert + ";", "VACUUM t;");
+        check(!output.contains("Error"), "flushed without error:\n" + output);
+
+        String restarted = Tests.spawnSession(false, "intkey", "USE db;", "INSERT INTO t VALUES (70, 'again');",
+                "SELECT name FROM t WHERE id = 70;", "SELECT COUNT(*) FROM t;");
+        checkContains(restarted, "Duplicate primary key value '70'.");
+        checkEquals(String.valueOf(ROWS), Tests.rows(restarted).get(0).trim());
+        checkContains(restarted, "v10");
+    }
+
+    public static void testKeyEntriesAfterNonTextFirstColumn() {
+        QueryProcessor session = Tests.session("boolfirst", "db");
+        Tests.query(session, "CREATE TABLE t (flag BOOLEAN, day DATE, code VARCHAR PRIMARY KEY) ENGINE=LSM;",
+                "INSERT INTO t VALUES (true, '2024-02-29', 'a'), (false, '2024-03-01', 'b'), (true, '1999-12-31', 'c');",
+                "VACUUM t;", "UPDATE t SET code = 'd' WHERE code = 'b';", "VACUUM t;");
+
+        String restarted = Tests.spawnSession(false, "boolfirst", "USE db;", "INSERT INTO t VALUES (false, '2000-01-01', 'c');",
+                "INSERT INTO t VALUES (false, '2000-01-01', 'b');",
+                "SELECT flag, day, code FROM t WHERE code = 'd';");
+        checkContains(restarted, "Duplicate primary key value 'c'.");
+        check(!restarted.contains("Duplicate primary key value 'b'."), "updated key freed:\n" + restarted);
+        List<String> rows = Tests.rows(restarted);
+        checkEquals(1, rows.size());
+        checkEquals("false | 2024-03-01 | d", rows.get(0).trim());
+    }
+
+    /**
+     * Loads wide rows in one statement that fills the memtable more than once, then crashes
+     * before a checkpoint, so recovery depends on the LSN the flushed sorted table records.
+     */
+    public static void testCrashAfterStatementLargerThanMemtable() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            csv.append(i).append(',').append("x".repeat(1000)).append('\n');
+        }
+        Files.write(Paths.get("wide.csv"), csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        String crashed = Tests.spawnSession(true, "wide", "CREATE DATABASE db;", "USE db;",
+                "CREATE TABLE t (id INT PRIMARY KEY, pad VARCHAR) ENGINE=LSM;", "LOAD DATA 'wide.csv' INTO t;");
+        checkContains(crashed, "Loaded 3000 rows");
+
+        String restarted = Tests.spawnSession(false, "wide", "USE db;", "SELECT COUNT(*) FROM t;");
+        check(!restarted.contains("Error"), "recovered without error:\n" + restarted);
+        checkEquals("3000", Tests.rows(restarted).get(0).trim());
+    }
+}
@@ -0,0 +1,109 @@
+package storage;
+
+import query.QueryProcessor;
+import testing.Tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static testing.Tests.check;
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * Page codecs, on their own and behind page files and tables.
+ */
+public class PageCompressionTest {
+    private static final int PAGES = 200;
+
+    public static void main(String[] args) {
+        Tests.run(PageCompressionTest.class);
+    }
+
+    public static void testCodecsRoundTrip() throws IOException {
+        byte[] repetitive = new byte[PageFile.PAGE_SIZE];
+        byte[] text = "name=alice;status=active;email=alice@example.com\n".getBytes();
+        for (int i = 0; i < repetitive.length; i++) {
+            repetitive[i] = text[i % text.length];
+        }
+        byte[] random = new byte[PageFile.PAGE_SIZE];
+        new Random(42).nextBytes(random);
+
+        for (PageCompression codec : new PageCompression[]{PageCompression.DEFLATE, PageCompression.LZ4}) {
+            for (byte[] page : new byte[][]{repetitive, new byte[PageFile.PAGE_SIZE]}) {
+                byte[] compressed = new byte[PageFile.PAGE_SIZE];
+                int length = codec.compress(page, compressed);
+                check(length > 0 && length < PageFile.PAGE_SIZE / 4, codec + " compressed to " + length);
+                byte[] restored = new byte[PageFile.PAGE_SIZE];
+                codec.decompress(compressed, length, restored);
+                check(Arrays.equals(page, restored), codec + " round trip");
+            }
+            checkEquals(-1, codec.compress(random, new byte[PageFile.PAGE_SIZE]));
+        }
+    }
+
+    public static void testCompressedFileIsSmallerAndReadsBack() throws IOException {
+        long plain = writeFile(new File("plain.dat"), PageCompression.NONE);
+        for (PageCompression codec : new PageCompression[]{PageCompression.DEFLATE, PageCompression.LZ4}) {
+            File file = new File(codec.name().toLowerCase() + ".dat");
+            long stored = writeFile(file, codec);
+            check(stored * 4 < plain, codec + " stores " + stored + " of " + plain + " bytes");
+
+            PageFile reopened = new PageFile(file);
+            try {
+                checkEquals(codec, reopened.getCompression());
+                ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+                for (int pageNo = 0; pageNo < PAGES; pageNo++) {
+                    reopened.readPage(pageNo, page);
+                    checkEquals(pageNo, page.getInt(0));
+                    checkEquals(pageNo % 7, (int) page.get(PageFile.PAGE_SIZE - 1));
+                }
+            } finally {
+                reopened.close();
+            }
+        }
+    }
+
+    public static void testCompressedTableAcrossRestart() throws Exception {
+        QueryProcessor session = Tests.session("compressed", "db");
+        StringBuilder insert = new StringBuilder("INSERT INTO t VALUES ");
+        for (int i = 0; i < 3000; i++) {
+            insert.append(i > 0 ? ", " : "").append("(").append(i).append(", 'user").append(i % 20)
+                    .append("@example.com', 'active')");
+        }
+        String output = Tests.query(session, "CREATE TABLE t (id INT, email VARCHAR, status VARCHAR) COMPRESSION=LZ4;",
+                insert + ";", "CREATE INDEX idx ON t(id);", "DESCRIBE t;");
+        checkContains(output, "Compression: LZ4");
+        BufferPool.getInstance().flushAll();
+        checkContains(Tests.query(session, "SHOW STATUS;"), "Page compression: ");
+
+        String restarted = Tests.spawnSession(false, "compressed", "USE db;", "SELECT email FROM t WHERE id = 2345;",
+                "SELECT COUNT(*) FROM t;");
+        String lookup = restarted.substring(0, restarted.indexOf("SELECT COUNT(*)"));
+        checkEquals("user5@example.com", Tests.rows(lookup).get(0).trim());
+        checkEquals("3000", Tests.rows(restarted).get(0).trim());
+    }
+
+    /**
+     * Writes pages of repetitive text with the codec and returns the bytes stored on disk.
+     */
+    private static long writeFile(File file, PageCompression codec) throws IOException {
+        PageFile pageFile = new PageFile(file, codec);
+        ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+        byte[] text = "status=active;region=north;".getBytes();
+        for (int pageNo = 0; pageNo < PAGES; pageNo++) {
+            page.clear();
+            for (int i = 0; i < PageFile.PAGE_SIZE; i++) {
+                page.put(i, text[i % text.length]);
+            }
+            page.putInt(0, pageNo);
+            page.put(PageFile.PAGE_SIZE - 1, (byte) (pageNo % 7));
+            pageFile.writePage(pageNo, page);
+        }
+        pageFile.close();
+        return file.length();
+    }
+}
@@ -0,0 +1,93 @@
+package storage;
+
+import query.QueryProcessor;
+import testing.Tests;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static testing.Tests.check;
+import static testing.Tests.checkContains;
+import static testing.Tests.checkEquals;
+
+/**
+ * Typed column values: validation into canonical form and their binary encoding in rows.
+ */
+public class RowCodecTest {
+    private static final ColumnType[] TYPES = {ColumnType.INT, ColumnType.BIGINT, ColumnType.DOUBLE,
+            ColumnType.VARCHAR, ColumnType.DATE, ColumnType.BOOLEAN};
+
+    public static void main(String[] args) {
+        Tests.run(RowCodecTest.class);
+    }
+
+    public static void testValuesAreValidatedIntoCanonicalForm() {
+        checkEquals("7", ColumnType.INT.normalize(" 007 "));
+        checkEquals("-2147483648", ColumnType.INT.normalize("-2147483648"));
+        checkEquals("9000000000", ColumnType.BIGINT.normalize("9000000000"));
+        checkEquals("1000.0", ColumnType.DOUBLE.normalize("1e3"));
+        checkEquals("0.0", ColumnType.DOUBLE.normalize("-0"));
+        checkEquals("2024-02-29", ColumnType.DATE.normalize("2024-02-29"));
+        checkEquals("true", ColumnType.BOOLEAN.normalize("1"));
+        checkEquals("false", ColumnType.BOOLEAN.normalize("FALSE"));
+        checkEquals(null, ColumnType.INT.normalize(null));
+
+        checkRejected(ColumnType.INT, "2147483648", "'2147483648' is not a valid INT.");
+        checkRejected(ColumnType.INT, "1.5", "'1.5' is not a valid INT.");
+        checkRejected(ColumnType.DOUBLE, "NaN", "'NaN' is not a valid DOUBLE.");
+        checkRejected(ColumnType.DATE, "2023-02-29", "'2023-02-29' is not a valid DATE (use yyyy-mm-dd).");
+        checkRejected(ColumnType.BOOLEAN, "yes", "'yes' is not a valid BOOLEAN.");
+    }
+
+    public static void testEncodedFieldsAroundNulls() {
+        String[] row = {"-42", "9000000000", "2.5", "caf\u00e9", "1999-12-31", "true"};
+        for (int nulls = 0; nulls < 1 << row.length; nulls++) {
+            String[] values = row.clone();
+            for (int i = 0; i < values.length; i++) {
+                if ((nulls & 1 << i) != 0) {
+                    values[i] = null;
+                }
+            }
+            ByteBuffer encoded = ByteBuffer.wrap(RowCodec.encode(values, TYPES));
+            checkEquals(Arrays.asList(values), Arrays.asList(RowCodec.decode(encoded, 0)));
+            for (int i = 0; i < values.length; i++) {
+                int field = RowCodec.fieldPosition(encoded, 0, i);
+                checkEquals(values[i], RowCodec.decodeField(encoded, field));
+                checkEquals(values[i] == null || !TYPES[i].isBinary() ? null : TYPES[i], RowCodec.fieldType(encoded, field));
+            }
+        }
+        // Binary values take their type's width rather than their text.
+        checkEquals(2 + 6 * 2 + 4 + 8 + 8 + 5 + 4 + 1, RowCodec.encode(row, TYPES).length);
+        check(RowCodec.encode(row, null).length > RowCodec.encode(row, TYPES).length, "text rows are larger");
+    }
+
+    public static void testTypedTableAcrossRestart() throws Exception {
+        QueryProcessor session = Tests.session("typed", "db");
+        Tests.query(session, "CREATE TABLE t (n INTEGER, big BIGINT, x DOUBLE, day DATE, ok BOOLEAN, name VARCHAR(20));",
+                "INSERT INTO t VALUES (9, 1, 0.5, '2024-01-02', true, 'a'), (10, 2, -1, '2023-12-31', 0, 'b'), "
+                        + "(100, 3, 1e2, '2024-01-10', 1, 'c');");
+        checkContains(Tests.query(session, "INSERT INTO t VALUES ('abc', 1, 1, '2024-01-01', true, 'd');"),
+                "Error: Invalid value for column 'n': 'abc' is not a valid INT.");
+        checkEquals(3L, Tests.count(session, "t"));
+        BufferPool.getInstance().flushAll();
+
+        String restarted = Tests.spawnSession(false, "typed", "USE db;", "DESCRIBE t;",
+                "SELECT n, x, ok FROM t WHERE n > 9 AND day >= '2024-01-01' ORDER BY x DESC;");
+        checkContains(restarted, "- n INT");
+        checkContains(restarted, "- day DATE");
+        checkContains(restarted, "- ok BOOLEAN");
+        List<String> rows = Tests.rows(restarted);
+        checkEquals(1, rows.size());
+        checkEquals("100 | 100.0 | true", rows.get(0).trim());
+    }
+
+    private static void checkRejected(ColumnType type, String value, String message) {
+        try {
+            type.normalize(value);
+            throw new AssertionError(value + " accepted as " + type);
+        } catch (IllegalArgumentException e) {
+            checkEquals(message, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package storage;
+
+import interfaces.ITableStore;
+import testing.Tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static testing.Tests.check;
+import static testing.Tests.checkEquals;
+
+/**
+ * Rows stored in paged heap table files.
+ */
+public class TableFileTest {
+    public static void main(String[] args) {
+        Tests.run(TableFileTest.class);
+    }
+
+    public static void testRowsRoundTripAcrossReopen() throws IOException {
+        File file = new File("roundtrip.tbl");
+        TableFile table = TableFile.create(file, schema());
+        String[] awkward = {"1", "a ||| b, \"quoted\"\nnext line", null};
+        String[] unicode = {"2", "gr\u00fc\u00dfe \u4f60\u597d", ""};
+        long first = table.insert(awkward);
+        long second = table.insert(unicode);
+        List<String[]> many = new ArrayList<>();
+        for (int i = 3; i < 3000; i++) {
+            many.add(new String[]{String.valueOf(i), "name" + i, "x".repeat(i % 50)});
+        }
+        List<Long> rowIds = table.insertAll(many);
+        check(table.getDataPageCount() > 1, "rows span several pages");
+        table.close();
+
+        table = TableFile.open(file);
+        try {
+            checkEquals(2999L, table.getRowCount());
+            checkEquals(Arrays.asList(awkward), Arrays.asList(table.read(first)));
+            checkEquals(Arrays.asList(unicode), Arrays.asList(table.read(second)));
+            checkEquals(Arrays.asList(many.get(1234)), Arrays.asList(table.read(rowIds.get(1234))));
+            int scanned = 0;
+            ITableStore.Cursor cursor = table.scan();
+            while (cursor.next()) {
+                checkEquals(Arrays.asList(table.read(cursor.rowId())), Arrays.asList(cursor.row()));
+                scanned++;
+            }
+            checkEquals(2999, scanned);
+        } finally {
+            table.close();
+        }
+    }
+
+    public static void testOversizedRowIsRejected() throws IOException {
+        TableFile table = TableFile.create(new File("oversized.tbl"), schema());
+        try {
+            table.insert(new String[]{"1", "x".repeat(TableFile.MAX_ROW_SIZE), ""});
+            throw new AssertionError("row larger than a page was stored");
+        } catch (IOException e) {
+            check(e.getMessage().contains("exceeds the maximum"), e.getMessage());
+        } finally {
+            checkEquals(0L, table.getRowCount());
+            table.close();
+        }
+    }
+
+    public static void testOpenTablesAreShared() throws IOException {
+        File file = new File("shared.tbl");
+        TableFile table = TableFile.create(file, schema());
+        TableFile again = TableFile.open(file);
+        try {
+            check(table == again, "one instance per open file");
+            table.insert(new String[]{"1", "a", "b"});
+            table.close();
+            checkEquals(1L, again.getRowCount());
+        } finally {
+            again.close();
+        }
+    }
+
+    public static void testDeleteLeavesTombstone() throws IOException {
+        TableFile table = TableFile.create(new File("tombstone.tbl"), schema());
+        try {
+            long kept = table.insert(new String[]{"1", "kept", ""});
+            long deleted = table.insert(new String[]{"2", "deleted", "x".repeat(100)});
+            check(table.delete(deleted), "row deleted");
+            check(!table.delete(deleted), "second delete finds no row");
+            check(table.read(deleted) == null, "deleted row unreadable");
+            checkEquals(1L, table.getRowCount());
+            check(table.getDeadBytes() > 100, "deleted bytes counted as dead");
+            checkEquals("kept", table.read(kept)[1]);
+        } finally {
+            table.close();
+        }
+    }
+
+    public static void testGrownRowIsForwardedKeepingItsRowId() throws IOException {
+        File file = new File("forwarded.tbl");
+        TableFile table = TableFile.create(file, schema());
+        List<String[]> full = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            full.add(new String[]{String.valueOf(i), "name" + i, "x".repeat(30)});
+        }
+        List<Long> rowIds = table.insertAll(full);
+        long rowId = rowIds.get(0);
+        String[] grown = {"0", "grown", "y".repeat(2000)};
+        checkEquals(rowId, table.update(rowId, grown));
+        checkEquals(rowId, table.update(rowId, new String[]{"0", "again", "z".repeat(3000)}));
+        table.close();
+
+        table = TableFile.open(file);
+        try {
+            checkEquals(200L, table.getRowCount());
+            checkEquals("again", table.read(rowId)[1]);
+            int seen = 0;
+            ITableStore.Cursor cursor = table.scan();
+            while (cursor.next()) {
+                if (cursor.rowId() == rowId) {
+                    seen++;
+                    checkEquals("again", cursor.row()[1]);
+                }
+            }
+            checkEquals(1, seen);
+            check(table.delete(rowId), "forwarded row deleted");
+            check(table.read(rowId) == null, "forwarded row unreadable");
+            checkEquals(199L, table.getRowCount());
+        } finally {
+            table.close();
+        }
+    }
+
+    public static void testVacuumReclaimsDeadSpaceKeepingRowIds() throws IOException {
+        TableFile table = TableFile.create(new File("vacuumed.tbl"), schema());
+        try {
+            List<String[]> rows = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                rows.add(new String[]{String.valueOf(i), "name" + i, "x".repeat(40)});
+            }
+            List<Long> rowIds = table.insertAll(rows);
+            for (int i = 0; i < rowIds.size(); i += 2) {
+                table.delete(rowIds.get(i));
+            }
+            long dead = table.getDeadBytes();
+            check(table.getDeadRatio() > 0.2, "half the rows dead");
+            // Dropping trailing free slots reclaims a little more than the dead records.
+            long reclaimed = table.compact();
+            check(reclaimed >= dead, reclaimed + " bytes reclaimed of " + dead + " dead");
+            checkEquals(0L, table.getDeadBytes());
+            checkEquals(500L, table.getRowCount());
+            for (int i = 1; i < rowIds.size(); i += 2) {
+                checkEquals(Arrays.asList(rows.get(i)), Arrays.asList(table.read(rowIds.get(i))));
+            }
+            int pages = table.getDataPageCount();
+            table.insertAll(rows.subList(0, 400));
+            checkEquals(pages, table.getDataPageCount());
+        } finally {
+            table.close();
+        }
+    }
+
+    private static TableSchema schema() {
+        return new TableSchema(Arrays.asList("id", "name", "note"));
+    }
+}
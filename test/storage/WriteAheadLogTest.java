@@ -0,0 +1,159 @@
+package storage;
+
+import query.QueryProcessor;
+import testing.Tests;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static testing.Tests.check;
+import static testing.Tests.checkEquals;
+import static testing.Tests.checkContains;
+
+/**
+ * Logged changes from concurrent sessions, across a clean restart and a crash.
+ */
+public class WriteAheadLogTest {
+    private static final int SESSIONS = 8;
+    private static final int INSERTS = 200;
+    private static final int LARGE_INSERT_ROWS = 200;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("steal")) {
+            interruptAfterSteal(args[1]);
+            return;
+        }
+        if (args.length > 0) {
+            workload(args[0], args[1], args[2].equals("crash"));
+            return;
+        }
+        Tests.run(WriteAheadLogTest.class);
+    }
+
+    public static void testCommittedChangesSurviveCrash() {
+        List<String> statements = new ArrayList<>(Arrays.asList("CREATE DATABASE db;", "USE db;",
+                "CREATE TABLE t (id INT PRIMARY KEY, v VARCHAR);"));
+        for (int i = 1; i <= 50; i++) {
+            statements.add("INSERT INTO t VALUES (" + i + ", 'row');");
+        }
+        statements.add("UPDATE t SET v = 'changed' WHERE id = 7;");
+        statements.add("DELETE FROM t WHERE id = 8;");
+        Tests.spawnSession(true, "committed", statements.toArray(new String[0]));
+
+        List<String> rows = Tests.rows(Tests.spawnSession(false, "committed", "USE db;", "SELECT * FROM t;"));
+        rows.replaceAll(String::trim);
+        checkEquals(49, rows.size());
+        check(rows.contains("7 | changed"), "update recovered: " + rows);
+        check(!rows.contains("8 | row"), "delete recovered: " + rows);
+    }
+
+    public static void testConcurrentInsertsSurviveRestart() {
+        Tests.spawn(WriteAheadLogTest.class, "inserts", "clean", "exit");
+        checkEquals(String.valueOf(SESSIONS * INSERTS), countAfterRestart("clean"));
+    }
+
+    public static void testConcurrentInsertsSurviveCrash() {
+        String output = Tests.spawn(WriteAheadLogTest.class, "inserts", "crashed", "crash");
+        checkContains(output, "live count " + SESSIONS * INSERTS);
+        checkEquals(String.valueOf(SESSIONS * INSERTS), countAfterRestart("crashed"));
+    }
+
+    public static void testConflictingUpdatesReplayInLogOrder() {
+        String output = Tests.spawn(WriteAheadLogTest.class, "updates", "conflicts", "crash");
+        String live = output.substring(output.indexOf("live value ") + "live value ".length()).split("\n")[0].trim();
+        String recovered = Tests.spawnSession(false, "conflicts", "USE db;", "SELECT v FROM t WHERE id = 1;");
+        checkEquals(live, Tests.rows(recovered).get(0).trim());
+    }
+
+    public static void testStatementInterruptedAfterStealIsRedoneOnce() {
+        Tests.spawn(WriteAheadLogTest.class, "steal", "stolen");
+        String output = Tests.spawnSession(false, "stolen", "USE db;", "SELECT COUNT(*) FROM t;");
+        checkContains(output, "Rolled back 1 statement(s)");
+        checkEquals(String.valueOf(10 + LARGE_INSERT_ROWS), Tests.rows(output).get(0).trim());
+    }
+
+    private static String countAfterRestart(String user) {
+        String output = Tests.spawnSession(false, user, "USE db;", "SELECT COUNT(*) FROM t;");
+        return Tests.rows(output).get(0).trim();
+    }
+
+    /**
+     * Runs the sessions of a test in this process, then exits or halts as if killed.
+     */
+    private static void workload(String kind, String user, boolean crash) throws Exception {
+        PrintStream out = System.out;
+        QueryProcessor setup = Tests.session(user, "db");
+        Tests.query(setup, "CREATE TABLE t (id INT PRIMARY KEY, v VARCHAR);");
+        if (kind.equals("updates")) {
+            Tests.query(setup, "INSERT INTO t VALUES (1, 'start');");
+        }
+
+        System.setOut(Tests.discard());
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < SESSIONS; s++) {
+            int sessionNo = s;
+            Thread thread = new Thread(() -> {
+                QueryProcessor session = new QueryProcessor(user);
+                session.executeQuery("USE db;");
+                for (int i = 0; i < INSERTS; i++) {
+                    if (kind.equals("updates")) {
+                        session.executeQuery("UPDATE t SET v = 's" + sessionNo + "-" + i + "' WHERE id = 1;");
+                    } else {
+                        session.executeQuery("INSERT INTO t VALUES (" + (sessionNo * INSERTS + i) + ", 'row');");
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.setOut(out);
+
+        if (kind.equals("updates")) {
+            out.println("live value " + Tests.rows(setup, "SELECT v FROM t WHERE id = 1;").get(0).trim());
+        } else {
+            out.println("live count " + Tests.count(setup, "t"));
+        }
+        out.flush();
+        if (crash) {
+            Runtime.getRuntime().halt(0);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Logs a large INSERT, applies half of it with its pages written back in the middle, as the
+     * buffer pool may do when it evicts them, and halts before the statement ends.
+     */
+    private static void interruptAfterSteal(String user) throws Exception {
+        QueryProcessor setup = Tests.session(user, "db");
+        Tests.query(setup, "CREATE TABLE t (id INT, v VARCHAR);",
+                "INSERT INTO t VALUES (1, 'a'), (2, 'a'), (3, 'a'), (4, 'a'), (5, 'a'), "
+                        + "(6, 'a'), (7, 'a'), (8, 'a'), (9, 'a'), (10, 'a');");
+
+        String value = "x".repeat(200);
+        StringBuilder insert = new StringBuilder("INSERT INTO t VALUES ");
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < LARGE_INSERT_ROWS; i++) {
+            insert.append(i == 0 ? "" : ", ").append("(").append(100 + i).append(", '").append(value).append("')");
+            rows.add(new String[]{String.valueOf(100 + i), value});
+        }
+        WriteAheadLog wal = WriteAheadLog.getInstance();
+        long transactionId = wal.beginTransaction();
+        wal.logStatement(transactionId, user, "db", insert.toString());
+        wal.commit(transactionId);
+
+        File databaseDir = new File("storage/" + user + "/db");
+        BufferPool pool = BufferPool.getInstance();
+        pool.beginStatement(new PageJournal(PageJournal.fileFor(databaseDir, "t")));
+        TableFile table = TableFile.open(TableFile.fileFor(databaseDir, "t"));
+        table.insertAll(rows.subList(0, LARGE_INSERT_ROWS / 2));
+        pool.flushAll();
+        Runtime.getRuntime().halt(0);
+    }
+}
@@ -0,0 +1,22 @@
+package testing;
+
+import query.QueryProcessor;
+
+/**
+ * Runs statements as one session in its own process, for tests that restart the database.
+ * Arguments: "exit" or "crash", the user, then the statements. A crashing session halts
+ * without running shutdown hooks once the statements have run.
+ */
+public class Session {
+    public static void main(String[] args) {
+        QueryProcessor session = new QueryProcessor(args[1]);
+        for (int i = 2; i < args.length; i++) {
+            session.executeQuery(args[i]);
+        }
+        System.out.flush();
+        if (args[0].equals("crash")) {
+            Runtime.getRuntime().halt(0);
+        }
+        System.exit(0);
+    }
+}
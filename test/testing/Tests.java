@@ -0,0 +1,187 @@
+package testing;
+
+import query.QueryProcessor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Support for the tests, which are plain classes run by test/run.sh. A test class calls
+ * {@link #run} from its main method, which runs each of its public static test* methods and
+ * exits non-zero if any of them fails. The runner starts every test class in an empty working
+ * directory, so tables are created under ./storage; tests in one class share the process and,
+ * as a user has a single database, use users of their own. A restart is tested by running a
+ * session in another process with {@link #spawn}.
+ */
+public final class Tests {
+    private static final String SEPARATOR = "-".repeat(50);
+    private static final String NO_ROWS = "No matching records found.";
+
+    private Tests() {
+    }
+
+    public static void run(Class<?> testClass) {
+        int failed = 0;
+        int passed = 0;
+        PrintStream out = System.out;
+        for (Method method : testClass.getDeclaredMethods()) {
+            if (!method.getName().startsWith("test") || !Modifier.isStatic(method.getModifiers())
+                    || !Modifier.isPublic(method.getModifiers()) || method.getParameterCount() != 0) {
+                continue;
+            }
+            try {
+                method.invoke(null);
+                passed++;
+                out.println("ok   " + testClass.getName() + "." + method.getName());
+            } catch (InvocationTargetException e) {
+                failed++;
+                out.println("FAIL " + testClass.getName() + "." + method.getName() + ": " + e.getCause());
+                e.getCause().printStackTrace(out);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                System.setOut(out);
+            }
+        }
+        out.println(testClass.getName() + ": " + passed + " passed, " + failed + " failed.");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    public static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    public static void checkEquals(Object expected, Object actual) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError("expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    public static void checkContains(String output, String expected) {
+        if (!output.contains(expected)) {
+            throw new AssertionError("expected output to contain <" + expected + "> but was:\n" + output);
+        }
+    }
+
+    /**
+     * Opens a session for the user with the user's database selected, creating it the first time.
+     */
+    public static QueryProcessor session(String user, String database) {
+        QueryProcessor session = new QueryProcessor(user);
+        String output = query(session, "CREATE DATABASE " + database + ";");
+        if (!output.contains("created")) {
+            query(session, "USE " + database + ";");
+        }
+        return session;
+    }
+
+    /**
+     * Runs statements and returns what they printed.
+     */
+    public static String query(QueryProcessor session, String... statements) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true, StandardCharsets.UTF_8));
+        try {
+            for (String statement : statements) {
+                session.executeQuery(statement);
+            }
+        } finally {
+            System.setOut(out);
+        }
+        return captured.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Runs a SELECT and returns its rows as printed, one string per row with values separated
+     * by " | ".
+     */
+    public static List<String> rows(QueryProcessor session, String select) {
+        return rows(query(session, select));
+    }
+
+    /**
+     * Returns the rows of the last result in the output of a SELECT, or none if it matched nothing.
+     */
+    public static List<String> rows(String output) {
+        List<String> lines = Arrays.asList(output.split("\n"));
+        List<Integer> separators = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).equals(SEPARATOR)) {
+                separators.add(i);
+            }
+        }
+        if (separators.size() < 3) {
+            throw new AssertionError("no result in output:\n" + output);
+        }
+        int end = separators.get(separators.size() - 1);
+        int start = separators.get(separators.size() - 2);
+        List<String> rows = new ArrayList<>(lines.subList(start + 1, end));
+        if (rows.equals(Collections.singletonList(NO_ROWS))) {
+            rows.clear();
+        }
+        return rows;
+    }
+
+    public static long count(QueryProcessor session, String table) {
+        return Long.parseLong(rows(session, "SELECT COUNT(*) FROM " + table + ";").get(0).trim());
+    }
+
+    /**
+     * Runs the main method of a class in a new process with the same class path and working
+     * directory, waits for it and returns what it printed.
+     */
+    public static String spawn(Class<?> mainClass, String... args) {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass.getName());
+        command.addAll(Arrays.asList(args));
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            process.waitFor();
+            return output;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot start " + mainClass.getName(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Runs statements as one session in a new process and returns what they printed. With
+     * crash set, the process halts right after the statements, without running shutdown hooks,
+     * as if it had been killed.
+     */
+    public static String spawnSession(boolean crash, String user, String... statements) {
+        List<String> args = new ArrayList<>();
+        args.add(crash ? "crash" : "exit");
+        args.add(user);
+        args.addAll(Arrays.asList(statements));
+        return spawn(Session.class, args.toArray(new String[0]));
+    }
+
+    /**
+     * Sends output nowhere, for sessions whose output is not checked.
+     */
+    public static PrintStream discard() {
+        return new PrintStream(OutputStream.nullOutputStream());
+    }
+}